@@ -10,6 +10,15 @@
  *******************************************************************************/
 package org.openhealthtools.ihe.atna.auditor;
 
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
 import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleConfig;
 import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleContext;
 import org.openhealthtools.ihe.atna.auditor.context.ContextInitializer;
@@ -18,7 +27,12 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Factory class to instantiate and configure actor-specific
- * auditors for use in IHE actors
+ * auditors for use in IHE actors.
+ * <p>
+ * Auditors are created through constructor references registered for their class.
+ * The built-in auditors are always registered, further ones can be contributed 
+ * via {@link AuditorProvider} services or {@link #registerAuditorClass(Class, Supplier)}.
+ * Unregistered auditor classes are still instantiated reflectively.
  * 
  * @author <a href="mailto:mattadav@us.ibm.com">Matthew Davis</a>
  *
@@ -30,6 +44,58 @@ public final class AuditorFactory
 	 */
 	private static final Logger LOGGER = LoggerFactory.getLogger(AuditorFactory.class);
 	
+	/**
+	 * Auditor constructors by auditor class
+	 */
+	private static final Map<Class<? extends IHEAuditor>, Supplier<? extends IHEAuditor>> CONSTRUCTORS = 
+			new ConcurrentHashMap<Class<? extends IHEAuditor>, Supplier<? extends IHEAuditor>>();
+	
+	/**
+	 * Registered auditor classes by class name
+	 */
+	private static final Map<String, Class<? extends IHEAuditor>> CLASSES = 
+			new ConcurrentHashMap<String, Class<? extends IHEAuditor>>();
+	
+	static {
+		registerAuditorClass(IHEAuditor.class, IHEAuditor::new);
+		registerAuditorClass(AuditRecordRepositoryAuditor.class, AuditRecordRepositoryAuditor::new);
+		registerAuditorClass(PAMSourceAuditor.class, PAMSourceAuditor::new);
+		registerAuditorClass(PDQConsumerAuditor.class, PDQConsumerAuditor::new);
+		registerAuditorClass(PIXConsumerAuditor.class, PIXConsumerAuditor::new);
+		registerAuditorClass(PIXManagerAuditor.class, PIXManagerAuditor::new);
+		registerAuditorClass(PIXSourceAuditor.class, PIXSourceAuditor::new);
+		registerAuditorClass(SVSConsumerAuditor.class, SVSConsumerAuditor::new);
+		registerAuditorClass(XCAInitiatingGatewayAuditor.class, XCAInitiatingGatewayAuditor::new);
+		registerAuditorClass(XCARespondingGatewayAuditor.class, XCARespondingGatewayAuditor::new);
+		registerAuditorClass(XCPDInitiatingGatewayAuditor.class, XCPDInitiatingGatewayAuditor::new);
+		registerAuditorClass(XDMAuditor.class, XDMAuditor::new);
+		registerAuditorClass(XDSConsumerAuditor.class, XDSConsumerAuditor::new);
+		registerAuditorClass(XDSRegistryAuditor.class, XDSRegistryAuditor::new);
+		registerAuditorClass(XDSRepositoryAuditor.class, XDSRepositoryAuditor::new);
+		registerAuditorClass(XDSSourceAuditor.class, XDSSourceAuditor::new);
+		loadAuditorProviders();
+	}
+	
+	/**
+	 * Registers the constructor to use for creating auditors of the given class
+	 * 
+	 * @param clazz Auditor class
+	 * @param constructor Constructor of new, unconfigured instances of the class
+	 */
+	public static <T extends IHEAuditor> void registerAuditorClass(Class<T> clazz, Supplier<? extends T> constructor)
+	{
+		CONSTRUCTORS.put(clazz, constructor);
+		CLASSES.put(clazz.getName(), clazz);
+	}
+	
+	/**
+	 * @return All auditor classes that can be created without reflection
+	 */
+	public static Set<Class<? extends IHEAuditor>> getRegisteredAuditorClasses()
+	{
+		return Collections.unmodifiableSet(CONSTRUCTORS.keySet());
+	}
+	
 	/**
 	 * Get an auditor instance for the specified auditor class, 
 	 * auditor configuration, and auditor context.
@@ -153,6 +219,10 @@ public final class AuditorFactory
 	@SuppressWarnings("unchecked")
 	public static Class<? extends IHEAuditor> getAuditorClassForClassName(String className)
 	{
+		Class<? extends IHEAuditor> registered = className == null ? null : CLASSES.get(className);
+		if (registered != null) {
+			return registered;
+		}
 		try {
 			Class<?> clazz = Class.forName(className);
 			return (Class<? extends IHEAuditor>)clazz;
@@ -178,6 +248,10 @@ public final class AuditorFactory
 		if (null == clazz) {
 			LOGGER.error("Error - Cannot specify a null auditor class");
 		} else {
+			Supplier<? extends IHEAuditor> constructor = CONSTRUCTORS.get(clazz);
+			if (constructor != null) {
+				return constructor.get();
+			}
 			try {
 				return clazz.newInstance();
 			} catch (ClassCastException e) {
@@ -189,6 +263,21 @@ public final class AuditorFactory
 		return null;
 	}
 	
-	
-
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static void loadAuditorProviders()
+	{
+		Iterator<AuditorProvider> iterator = ServiceLoader.load(AuditorProvider.class, 
+				AuditorFactory.class.getClassLoader()).iterator();
+		while (true) {
+			try {
+				if (!iterator.hasNext()) {
+					break;
+				}
+				AuditorProvider provider = iterator.next();
+				registerAuditorClass(provider.getAuditorClass(), provider.getConstructor());
+			} catch (ServiceConfigurationError e) {
+				LOGGER.warn("Could not load auditor provider, skipping.", e);
+			}
+		}
+	}
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor;
+
+import java.util.function.Supplier;
+
+/**
+ * Service provider interface for contributing auditor implementations to the
+ * {@link AuditorFactory}. Implementations are discovered with {@link java.util.ServiceLoader} from
+ * <code>META-INF/services/org.openhealthtools.ihe.atna.auditor.AuditorProvider</code>
+ * and hand out a direct constructor reference, so that auditors can be created without
+ * reflection.
+ *
+ * @param <T> auditor type
+ * @since 3.7
+ */
+public interface AuditorProvider<T extends IHEAuditor> {
+
+    /**
+     * @return auditor class this provider creates instances of
+     */
+    Class<T> getAuditorClass();
+
+    /**
+     * @return constructor of new, unconfigured auditor instances, e.g. <code>MyAuditor::new</code>
+     */
+    Supplier<T> getConstructor();
+}
@@ -13,6 +13,9 @@ package org.openhealthtools.ihe.atna.auditor;
 import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
 
 import org.openhealthtools.ihe.atna.auditor.codes.dicom.DICOMEventTypeCodes;
 import org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881EventCodes;
@@ -24,7 +27,11 @@ import org.openhealthtools.ihe.atna.auditor.events.dicom.SecurityAlertEvent;
 import org.openhealthtools.ihe.atna.auditor.events.dicom.UserAuthenticationEvent;
 import org.openhealthtools.ihe.atna.auditor.events.dicom.ApplicationActivityEvent.ApplicationStartEvent;
 import org.openhealthtools.ihe.atna.auditor.events.dicom.ApplicationActivityEvent.ApplicationStopEvent;
+import org.openhealthtools.ihe.atna.auditor.events.ihe.AuditEventBatch;
+import org.openhealthtools.ihe.atna.auditor.events.ihe.GenericIHEAuditEventMessage;
 import org.openhealthtools.ihe.atna.auditor.models.rfc3881.CodedValueType;
+import org.openhealthtools.ihe.atna.auditor.queue.AuditMessageQueue;
+import org.openhealthtools.ihe.atna.auditor.routing.AuditRouter;
 import org.openhealthtools.ihe.atna.auditor.utils.EventUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,7 +60,7 @@ public class IHEAuditor
 	/**
 	 * Module context used by this auditor
 	 */
-	private AuditorModuleContext context;
+	private volatile AuditorModuleContext context;
 	
 	/**
 	 * Human Requestor ActiveParticipant for audit messages
@@ -174,10 +181,13 @@ public class IHEAuditor
 	 */
 	public AuditorModuleContext getContext()
 	{
-		if (null == context) {
-			return AuditorModuleContext.getContext();
+		AuditorModuleContext ctx = context;
+		if (null == ctx) {
+			// resolve the thread's context once, later calls use the handle
+			ctx = AuditorModuleContext.getContext();
+			context = ctx;
 		}
-		return context;
+		return ctx;
 	}
 	
 	/**
@@ -196,14 +206,98 @@ public class IHEAuditor
 			}
 			return;
 		}
+		if (!setDefaultDestination(msg)) {
+			return;
+		}
 		
+//		if (LOGGER.isDebugEnabled()) {
+//			LOGGER.debug("\n"+msg.toString());
+//		}
+
+		AuditorModuleContext ctx = getContext();
+		AuditMessageQueue queue = ctx.getQueue();
+		AuditRouter router = ctx.getRouter();
+		// Send audit message along the configured routes, if any of them applies
+		if (router != null && router.route(this, msg, queue)) {
+			return;
+		}
+		if (queue == null) {
+			LOGGER.error("No auditing queue available, unable to send audit message");
+			return;
+		}
+		queue.sendAuditEvent(msg);
+	}
+	
+	/**
+	 * Sends a batch of audit event messages that belong together, e.g. the parts 
+	 * of an event that has been split by an {@link AuditEventBatch}.  Messages 
+	 * that are not routed individually are delivered to the audit queue as one batch.
+	 * 
+	 * @param msgs Audit messages to send to the audit record repository
+	 */
+	public void audit(AuditEventMessage[] msgs)
+	{
+		if (msgs.length == 1) {
+			audit(msgs[0]);
+			return;
+		}
+		AuditorModuleContext ctx = getContext();
+		AuditMessageQueue queue = ctx.getQueue();
+		AuditRouter router = ctx.getRouter();
+		List<AuditEventMessage> batch = new ArrayList<>(msgs.length);
+		for (AuditEventMessage msg : msgs) {
+			if (!isEnabled(msg)) {
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("Auditor disabled - message not sent");
+				}
+				continue;
+			}
+			if (!setDefaultDestination(msg)) {
+				// the other messages may still have a destination of their own
+				continue;
+			}
+			if (router == null || !router.route(this, msg, queue)) {
+				batch.add(msg);
+			}
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+		if (queue == null) {
+			LOGGER.error("No auditing queue available, unable to send audit message");
+			return;
+		}
+		queue.sendAuditEvents(batch.toArray(new AuditEventMessage[batch.size()]));
+	}
+	
+	/**
+	 * Creates a batch of events that are split as soon as they exceed the maximum 
+	 * message size of the auditor's configuration
+	 * 
+	 * @param eventFactory Creates an event with everything but the batched participant objects
+	 * @return The event batch
+	 */
+	protected <T extends GenericIHEAuditEventMessage> AuditEventBatch<T> newEventBatch(Supplier<T> eventFactory)
+	{
+		return new AuditEventBatch<>(eventFactory, getConfig().getMaxMessageSize());
+	}
+	
+	/**
+	 * Sets the configured audit record repository hostname and port on a message 
+	 * that does not designate its own destination
+	 * 
+	 * @param msg Audit message
+	 * @return false if no valid destination is available
+	 */
+	private boolean setDefaultDestination(AuditEventMessage msg)
+	{
 		// Check if the target audit record repository hostname is set
 		if (EventUtils.isEmptyOrNull(msg.getDestinationAddress())) {
 			String auditHostName = getConfig().getAuditRepositoryHost();
 
 			if (EventUtils.isEmptyOrNull(auditHostName)) {
 				LOGGER.error("Audit Record Repository Address is not set, unable to send audit message");
-				return;
+				return false;
 			}
 			
 			InetAddress auditRepositoryAddress = null;
@@ -211,7 +305,7 @@ public class IHEAuditor
 				auditRepositoryAddress = InetAddress.getByName(auditHostName);
 			} catch (Exception e) {
 				LOGGER.error("Audit Record Repository Address is invalid, unable to send audit message", e);
-				return;
+				return false;
 			}
 			
 			msg.setDestinationAddress(auditRepositoryAddress);
@@ -227,17 +321,7 @@ public class IHEAuditor
 			
 			msg.setDestinationPort(auditPortNumber);
 		}
-		
-//		if (LOGGER.isDebugEnabled()) {
-//			LOGGER.debug("\n"+msg.toString());
-//		}
-
-		if (getContext().getQueue() == null) {
-			LOGGER.error("No auditing queue available, unable to send audit message");
-			return;
-		}
-		// Send audit message to repository
-		getContext().getQueue().sendAuditEvent(msg);
+		return true;
 	}
 	
 	
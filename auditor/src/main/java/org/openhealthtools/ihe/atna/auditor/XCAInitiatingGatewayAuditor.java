@@ -13,6 +13,7 @@ package org.openhealthtools.ihe.atna.auditor;
 import org.openhealthtools.ihe.atna.auditor.codes.ihe.IHETransactionEventTypeCodes;
 import org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881EventCodes.RFC3881EventOutcomeCodes;
 import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleContext;
+import org.openhealthtools.ihe.atna.auditor.events.ihe.AuditEventBatch;
 import org.openhealthtools.ihe.atna.auditor.events.ihe.ImportEvent;
 import org.openhealthtools.ihe.atna.auditor.models.rfc3881.CodedValueType;
 import org.openhealthtools.ihe.atna.auditor.utils.EventUtils;
@@ -101,21 +102,18 @@ public class XCAInitiatingGatewayAuditor extends XDSAuditor
 		if (!isAuditorEnabled()) {
 			return;
 		}
-		ImportEvent importEvent = new ImportEvent(false, eventOutcome, new IHETransactionEventTypeCodes.CrossGatewayRetrieve(), purposesOfUse);
-		importEvent.setAuditSourceId(getAuditSourceId(), getAuditEnterpriseSiteId());
-		importEvent.addSourceActiveParticipant(respondingGatewayEndpointUri, null, null, EventUtils.getAddressForUrl(respondingGatewayEndpointUri, false), false);
-		importEvent.addDestinationActiveParticipant(initiatingGatewayUserId, getSystemAltUserId(), initiatingGatewayUserName, getSystemNetworkId(), true);
-
-		if(!EventUtils.isEmptyOrNull(initiatingGatewayUserName)) {
-            importEvent.addHumanRequestorActiveParticipant(initiatingGatewayUserName, null, initiatingGatewayUserName, userRoles);
-        }
-
-		if (!EventUtils.isEmptyOrNull(documentUniqueIds)) {
-			for (int i=0; i<documentUniqueIds.length; i++) {
-				importEvent.addDocumentParticipantObject(documentUniqueIds[i], repositoryUniqueIds[i], homeCommunityIds[i]);
+		AuditEventBatch<ImportEvent> batch = newEventBatch(() -> {
+			ImportEvent importEvent = new ImportEvent(false, eventOutcome, new IHETransactionEventTypeCodes.CrossGatewayRetrieve(), purposesOfUse);
+			importEvent.setAuditSourceId(getAuditSourceId(), getAuditEnterpriseSiteId());
+			importEvent.addSourceActiveParticipant(respondingGatewayEndpointUri, null, null, EventUtils.getAddressForUrl(respondingGatewayEndpointUri, false), false);
+			importEvent.addDestinationActiveParticipant(initiatingGatewayUserId, getSystemAltUserId(), initiatingGatewayUserName, getSystemNetworkId(), true);
+			if(!EventUtils.isEmptyOrNull(initiatingGatewayUserName)) {
+				importEvent.addHumanRequestorActiveParticipant(initiatingGatewayUserName, null, initiatingGatewayUserName, userRoles);
 			}
-		}
-		audit(importEvent);
+			return importEvent;
+		});
+		batch.addDocumentParticipantObjects(documentUniqueIds, repositoryUniqueIds, homeCommunityIds);
+		audit(batch.toArray());
 	}
 	
 	/**
@@ -13,6 +13,7 @@ package org.openhealthtools.ihe.atna.auditor;
 import org.openhealthtools.ihe.atna.auditor.codes.ihe.IHETransactionEventTypeCodes;
 import org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881EventCodes.RFC3881EventOutcomeCodes;
 import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleContext;
+import org.openhealthtools.ihe.atna.auditor.events.ihe.AuditEventBatch;
 import org.openhealthtools.ihe.atna.auditor.events.ihe.ExportEvent;
 import org.openhealthtools.ihe.atna.auditor.models.rfc3881.CodedValueType;
 import org.openhealthtools.ihe.atna.auditor.utils.EventUtils;
@@ -112,22 +113,19 @@ public class XCARespondingGatewayAuditor extends XDSAuditor
 		if (!isAuditorEnabled()) {
 			return;
 		}
-		ExportEvent exportEvent = new ExportEvent(true, eventOutcome, new IHETransactionEventTypeCodes.CrossGatewayRetrieve(), purposesOfUse);
-		exportEvent.setAuditSourceId(getAuditSourceId(), getAuditEnterpriseSiteId());
-		exportEvent.addSourceActiveParticipant(respondingGatewayEndpointUri, getSystemAltUserId(), null, EventUtils.getAddressForUrl(respondingGatewayEndpointUri, false), false);
-
-		if(!EventUtils.isEmptyOrNull(initiatingGatewayUserName)) {
-            exportEvent.addHumanRequestorActiveParticipant(initiatingGatewayUserName, null, initiatingGatewayUserName, userRoles);
-        }
-
-		exportEvent.addDestinationActiveParticipant(initiatingGatewayUserId, null, null, initiatingGatewayIpAddress, true);
-		//exportEvent.addPatientParticipantObject(patientId);
-		if (!EventUtils.isEmptyOrNull(documentUniqueIds)) {
-			for (int i=0; i<documentUniqueIds.length; i++) {
-				exportEvent.addDocumentParticipantObject(documentUniqueIds[i], repositoryUniqueIds[i], homeCommunityIds[i]);
+		AuditEventBatch<ExportEvent> batch = newEventBatch(() -> {
+			ExportEvent exportEvent = new ExportEvent(true, eventOutcome, new IHETransactionEventTypeCodes.CrossGatewayRetrieve(), purposesOfUse);
+			exportEvent.setAuditSourceId(getAuditSourceId(), getAuditEnterpriseSiteId());
+			exportEvent.addSourceActiveParticipant(respondingGatewayEndpointUri, getSystemAltUserId(), null, EventUtils.getAddressForUrl(respondingGatewayEndpointUri, false), false);
+			if(!EventUtils.isEmptyOrNull(initiatingGatewayUserName)) {
+				exportEvent.addHumanRequestorActiveParticipant(initiatingGatewayUserName, null, initiatingGatewayUserName, userRoles);
 			}
-		}
-		audit(exportEvent);
+			exportEvent.addDestinationActiveParticipant(initiatingGatewayUserId, null, null, initiatingGatewayIpAddress, true);
+			//exportEvent.addPatientParticipantObject(patientId);
+			return exportEvent;
+		});
+		batch.addDocumentParticipantObjects(documentUniqueIds, repositoryUniqueIds, homeCommunityIds);
+		audit(batch.toArray());
 	}
 
 	/**
@@ -16,6 +16,7 @@ import java.util.List;
 import org.openhealthtools.ihe.atna.auditor.codes.ihe.IHETransactionEventTypeCodes;
 import org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881EventCodes.RFC3881EventOutcomeCodes;
 import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleContext;
+import org.openhealthtools.ihe.atna.auditor.events.ihe.AuditEventBatch;
 import org.openhealthtools.ihe.atna.auditor.events.ihe.ImportEvent;
 import org.openhealthtools.ihe.atna.auditor.models.rfc3881.CodedValueType;
 import org.openhealthtools.ihe.atna.auditor.utils.EventUtils;
@@ -217,25 +218,24 @@ public class XDSConsumerAuditor extends XDSAuditor
 		if (!isAuditorEnabled()) {
 			return;
 		}
-		ImportEvent importEvent = new ImportEvent(false, eventOutcome, new IHETransactionEventTypeCodes.RetrieveDocumentSet(), purposesOfUse);
-		importEvent.setAuditSourceId(getAuditSourceId(), getAuditEnterpriseSiteId());
-		importEvent.addSourceActiveParticipant(repositoryEndpointUri, null, null, EventUtils.getAddressForUrl(repositoryEndpointUri, false), false);
-		/*
-		 * FIXME:  Overriding endpoint URI with "anonymous", for now
-		 */
-		String replyToUri = "http://www.w3.org/2005/08/addressing/anonymous";
-		importEvent.addDestinationActiveParticipant(replyToUri, getSystemAltUserId(), getSystemUserName(), getSystemNetworkId(), true);
-		if (!EventUtils.isEmptyOrNull(userName)) {
-			importEvent.addHumanRequestorActiveParticipant(userName, null, userName, userRoles);
-		}
-		if (!EventUtils.isEmptyOrNull(patientId)) {
-			importEvent.addPatientParticipantObject(patientId);
-		}
-		if (!EventUtils.isEmptyOrNull(documentUniqueIds)) {
-			for (int i=0; i<documentUniqueIds.length; i++) {
-				importEvent.addDocumentParticipantObject(documentUniqueIds[i], repositoryUniqueIds[i], homeCommunityIds[i]);
+		AuditEventBatch<ImportEvent> batch = newEventBatch(() -> {
+			ImportEvent importEvent = new ImportEvent(false, eventOutcome, new IHETransactionEventTypeCodes.RetrieveDocumentSet(), purposesOfUse);
+			importEvent.setAuditSourceId(getAuditSourceId(), getAuditEnterpriseSiteId());
+			importEvent.addSourceActiveParticipant(repositoryEndpointUri, null, null, EventUtils.getAddressForUrl(repositoryEndpointUri, false), false);
+			/*
+			 * FIXME:  Overriding endpoint URI with "anonymous", for now
+			 */
+			String replyToUri = "http://www.w3.org/2005/08/addressing/anonymous";
+			importEvent.addDestinationActiveParticipant(replyToUri, getSystemAltUserId(), getSystemUserName(), getSystemNetworkId(), true);
+			if (!EventUtils.isEmptyOrNull(userName)) {
+				importEvent.addHumanRequestorActiveParticipant(userName, null, userName, userRoles);
 			}
-		}
-		audit(importEvent);
+			if (!EventUtils.isEmptyOrNull(patientId)) {
+				importEvent.addPatientParticipantObject(patientId);
+			}
+			return importEvent;
+		});
+		batch.addDocumentParticipantObjects(documentUniqueIds, repositoryUniqueIds, homeCommunityIds);
+		audit(batch.toArray());
 	}
 }
@@ -16,6 +16,7 @@ import java.util.List;
 import org.openhealthtools.ihe.atna.auditor.codes.ihe.IHETransactionEventTypeCodes;
 import org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881EventCodes.RFC3881EventOutcomeCodes;
 import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleContext;
+import org.openhealthtools.ihe.atna.auditor.events.ihe.AuditEventBatch;
 import org.openhealthtools.ihe.atna.auditor.events.ihe.ExportEvent;
 import org.openhealthtools.ihe.atna.auditor.events.ihe.ImportEvent;
 import org.openhealthtools.ihe.atna.auditor.models.rfc3881.CodedValueType;
@@ -334,21 +335,19 @@ public class XDSRepositoryAuditor extends XDSAuditor
 		if (!isAuditorEnabled()) {
 			return;
 		}
-		ExportEvent exportEvent = new ExportEvent(true, eventOutcome, new IHETransactionEventTypeCodes.RetrieveDocumentSet(), purposesOfUse);
-		exportEvent.setAuditSourceId(getAuditSourceId(), getAuditEnterpriseSiteId());
-		exportEvent.addSourceActiveParticipant(repositoryEndpointUri, getSystemAltUserId(), null, EventUtils.getAddressForUrl(repositoryEndpointUri, false), false);
-		exportEvent.addDestinationActiveParticipant(consumerUserId, null, consumerUserName, consumerIpAddress, true);
-        if (! EventUtils.isEmptyOrNull(consumerUserName)) {
-            exportEvent.addHumanRequestorActiveParticipant(consumerUserName, null, consumerUserName, userRoles);
-        }
-
-		//exportEvent.addPatientParticipantObject(patientId);
-		if (!EventUtils.isEmptyOrNull(documentUniqueIds)) {
-			for (int i=0; i<documentUniqueIds.length; i++) {
-				exportEvent.addDocumentParticipantObject(documentUniqueIds[i], repositoryUniqueIds[i], homeCommunityIds[i]);
+		AuditEventBatch<ExportEvent> batch = newEventBatch(() -> {
+			ExportEvent exportEvent = new ExportEvent(true, eventOutcome, new IHETransactionEventTypeCodes.RetrieveDocumentSet(), purposesOfUse);
+			exportEvent.setAuditSourceId(getAuditSourceId(), getAuditEnterpriseSiteId());
+			exportEvent.addSourceActiveParticipant(repositoryEndpointUri, getSystemAltUserId(), null, EventUtils.getAddressForUrl(repositoryEndpointUri, false), false);
+			exportEvent.addDestinationActiveParticipant(consumerUserId, null, consumerUserName, consumerIpAddress, true);
+			if (! EventUtils.isEmptyOrNull(consumerUserName)) {
+				exportEvent.addHumanRequestorActiveParticipant(consumerUserName, null, consumerUserName, userRoles);
 			}
-		}
-		audit(exportEvent);
+			//exportEvent.addPatientParticipantObject(patientId);
+			return exportEvent;
+		});
+		batch.addDocumentParticipantObjects(documentUniqueIds, repositoryUniqueIds, homeCommunityIds);
+		audit(batch.toArray());
 	}
 
     @Deprecated
@@ -98,6 +98,17 @@ public class AuditorModuleConfig extends AbstractModuleConfig
      */
     public static final String AUDITOR_AUDIT_REPOSITORY_DEFAULT_TRANSPORT = "UDP";
     
+    /**
+     * Config reference key for the maximum size in bytes of a single serialized audit message.
+     * Events with many participant objects are split into several messages to stay below it.
+     */
+    public static final String AUDITOR_MAX_MESSAGE_SIZE_KEY = "auditor.max.message.size";
+    
+    /**
+     * Default maximum message size, leaving room for the syslog header within a UDP datagram
+     */
+    public static final int AUDITOR_DEFAULT_MAX_MESSAGE_SIZE = 60000;
+    
     /**
      * List of auditors disabled by this configuration instance
      */
@@ -220,6 +231,28 @@ public class AuditorModuleConfig extends AbstractModuleConfig
     	setOption(AUDITOR_AUDIT_REPOSITORY_TRANSPORT_KEY, transport.toUpperCase());
     }
     
+    /**
+     * Get the maximum size in bytes of a single serialized audit message
+     * @return The maximum message size
+     */
+    public int getMaxMessageSize()
+    {
+    	try {
+    		return Integer.valueOf(getOption(AUDITOR_MAX_MESSAGE_SIZE_KEY));
+    	} catch (Exception e) {
+    		return AUDITOR_DEFAULT_MAX_MESSAGE_SIZE;
+    	}
+    }
+    
+    /**
+     * Set the maximum size in bytes of a single serialized audit message
+     * @param maxMessageSize The maximum message size
+     */
+    public void setMaxMessageSize(int maxMessageSize)
+    {
+    	setOption(AUDITOR_MAX_MESSAGE_SIZE_KEY, Integer.toString(maxMessageSize));
+    }
+    
     /**
      * Set the hostname and port of the target audit repository from 
      * a well-formed URI
@@ -11,13 +11,14 @@
 package org.openhealthtools.ihe.atna.auditor.context;
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.openhealthtools.ihe.atna.auditor.AuditorFactory;
 import org.openhealthtools.ihe.atna.auditor.IHEAuditor;
 import org.openhealthtools.ihe.atna.auditor.queue.AuditMessageQueue;
 import org.openhealthtools.ihe.atna.auditor.queue.SynchronousAuditQueue;
+import org.openhealthtools.ihe.atna.auditor.routing.AuditRouter;
 import org.openhealthtools.ihe.atna.auditor.sender.AuditMessageSender;
 import org.openhealthtools.ihe.atna.auditor.sender.BSDSyslogSenderImpl;
 import org.openhealthtools.ihe.atna.auditor.sender.TLSSyslogSenderImpl;
@@ -25,6 +26,7 @@ import org.openhealthtools.ihe.atna.auditor.sender.UDPSyslogSenderImpl;
 import org.openhealthtools.ihe.atna.context.AbstractModuleContext;
 import org.openhealthtools.ihe.atna.context.SecurityContext;
 import org.openhealthtools.ihe.atna.context.SecurityContextFactory;
+import org.openhealthtools.ihe.utils.jfr.FlightRecorderEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,17 +58,32 @@ public class AuditorModuleContext extends AbstractModuleContext
 	/**
 	 * List of auditors currently cached in this module
 	 */
-	private final Map<String,IHEAuditor> auditors = Collections.synchronizedMap(new HashMap<String,IHEAuditor>());
+	private final Map<String,IHEAuditor> auditors = new ConcurrentHashMap<String,IHEAuditor>();
 	
 	/**
 	 * Audit message delivery queue
 	 */
-	private AuditMessageQueue queue;
+	private volatile AuditMessageQueue queue;
+	
+	/**
+	 * Sender built for the configured transport, reused until the transport changes
+	 */
+	private volatile TransportSender transportSender;
 	
     /**	 
      * Custom audit message transport sender	 
      */	 
     private AuditMessageSender customSender = null;
+
+	/**
+	 * Optional routing stage in front of the queue
+	 */
+	private volatile AuditRouter router;
+	
+	/**
+	 * Optional queue taking over messages for destinations whose circuit breaker is open
+	 */
+	private volatile AuditMessageQueue circuitBreakerFallbackQueue;
 		
 	/**
 	 * Returns the current singleton instance of the Auditor Module Context from the
@@ -137,14 +154,25 @@ public class AuditorModuleContext extends AbstractModuleContext
 	public AuditMessageSender getSender()
 	{
 		if (customSender == null){
-	    	String transport = AuditorModuleContext.getContext().getConfig().getAuditRepositoryTransport();
+	    	String transport = getConfig().getAuditRepositoryTransport();
+	    	TransportSender cached = transportSender;
+	    	if (cached != null && cached.transport.equalsIgnoreCase(transport)) {
+	    		return cached.sender;
+	    	}
+			FlightRecorderEvents.Probe probe = FlightRecorderEvents.start(FlightRecorderEvents.Kind.CONFIG_REBUILD);
+	    	AuditMessageSender sender;
 			if (transport.equalsIgnoreCase("TLS") ) {
-				return new TLSSyslogSenderImpl();
+				TLSSyslogSenderImpl tlsSender = new TLSSyslogSenderImpl();
+				tlsSender.setFallbackQueue(circuitBreakerFallbackQueue);
+				sender = tlsSender;
 			} else if (transport.equalsIgnoreCase("UDP") ){
-				return new UDPSyslogSenderImpl();
+				sender = new UDPSyslogSenderImpl();
 			} else {
-				return new BSDSyslogSenderImpl();
+				sender = new BSDSyslogSenderImpl();
 			}
+			transportSender = new TransportSender(transport, sender);
+			probe.end(sender.getClass().getName(), null, 0);
+			return sender;
 		}else
 			return customSender;
 	}
@@ -172,7 +200,7 @@ public class AuditorModuleContext extends AbstractModuleContext
 	 * 
 	 * @return Audit message queue
 	 */
-	public synchronized AuditMessageQueue getQueue()
+	public AuditMessageQueue getQueue()
 	{
 		return queue;
 	}
@@ -188,6 +216,55 @@ public class AuditorModuleContext extends AbstractModuleContext
 		this.queue = queue;
 	}
 
+	/**
+	 * Gets the router that distributes audit messages across queues and
+	 * destinations, or null if all messages go to the default queue
+	 *
+	 * @return Audit message router
+	 */
+	public AuditRouter getRouter()
+	{
+		return router;
+	}
+
+	/**
+	 * Sets the router that distributes audit messages across queues and
+	 * destinations. Messages not matched by any of its rules are still
+	 * sent to the queue of this context.
+	 *
+	 * @param router Audit message router to use, null to disable routing
+	 */
+	public void setRouter(AuditRouter router)
+	{
+		this.router = router;
+	}
+
+	/**
+	 * Gets the queue taking over messages for destinations whose circuit
+	 * breaker is open, or null if such messages fail fast
+	 *
+	 * @return Fallback queue
+	 */
+	public AuditMessageQueue getCircuitBreakerFallbackQueue()
+	{
+		return circuitBreakerFallbackQueue;
+	}
+
+	/**
+	 * Sets the queue taking over messages for destinations whose circuit
+	 * breaker is open, e.g. an {@link org.openhealthtools.ihe.atna.auditor.queue.AuditStoreQueue}
+	 * spooling them to a local store.  Applies to the TLS sender built for the
+	 * configured transport, not to a custom sender.  The breakers themselves
+	 * are configured in the node authentication context.
+	 *
+	 * @param fallbackQueue Fallback queue, null to fail fast
+	 */
+	public void setCircuitBreakerFallbackQueue(AuditMessageQueue fallbackQueue)
+	{
+		this.circuitBreakerFallbackQueue = fallbackQueue;
+		this.transportSender = null;
+	}
+
 	/**
 	 * Get all auditor instances registered in this context
 	 * @return The auditor instances
@@ -220,7 +297,11 @@ public class AuditorModuleContext extends AbstractModuleContext
 	 */
 	public void registerAuditor(String auditorName, IHEAuditor auditor)
 	{
-		auditors.put(auditorName, auditor);
+		if (auditor == null) {
+			auditors.remove(auditorName);
+		} else {
+			auditors.put(auditorName, auditor);
+		}
 	}
 	
 
@@ -229,41 +310,39 @@ public class AuditorModuleContext extends AbstractModuleContext
 	 * @param clazz The class instance to instantiate the auditor for
 	 * @return An auditor instance
 	 */
-	public synchronized IHEAuditor getAuditor(Class<? extends IHEAuditor> clazz)
+	public IHEAuditor getAuditor(Class<? extends IHEAuditor> clazz)
 	{
 		return getAuditor(clazz,true);
 	}
 	
 	/**
-	 * Instantiate (or get from cache) an auditor instance for a given Class instance
+	 * Instantiate (or get from cache) an auditor instance for a given Class instance.
+	 * Cached auditors are looked up without locking. The auditor is bound to this 
+	 * context, so it never has to look up the context again when auditing.
 	 * @param clazz The class instance to instantiate the auditor for
 	 * @param useContextAuditorRegistry Whether to use a cached auditor
 	 * @return An auditor instance
 	 */
-	public synchronized IHEAuditor getAuditor(final Class<? extends IHEAuditor> clazz, boolean useContextAuditorRegistry)
+	public IHEAuditor getAuditor(final Class<? extends IHEAuditor> clazz, boolean useContextAuditorRegistry)
 	{
 		if (null == clazz) {
 			return null;
 		}
 		
-		IHEAuditor auditor = null;
-		if (useContextAuditorRegistry) {
-			auditor = getRegisteredAuditor(clazz.getName());
-			if (auditor != null) {
-				if (LOGGER.isDebugEnabled()) {
-					LOGGER.debug("Reusing auditor " + auditor.toString());
-				}
-				return auditor;
-			}
+		if (!useContextAuditorRegistry) {
+			return AuditorFactory.getAuditor(clazz, null, this);
 		}
 		
-		auditor = AuditorFactory.getAuditor(clazz, null, null);
-
-		if (useContextAuditorRegistry) {
-			registerAuditor(clazz.getName(), auditor);
+		IHEAuditor auditor = auditors.get(clazz.getName());
+		if (auditor != null) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Reusing auditor " + auditor.toString());
+			}
+			return auditor;
 		}
 		
-		return auditor;
+		// Lock-free lookup above, atomic creation of missing auditors below
+		return auditors.computeIfAbsent(clazz.getName(), name -> AuditorFactory.getAuditor(clazz, null, this));
 	}
 	
 	/**
@@ -288,5 +367,19 @@ public class AuditorModuleContext extends AbstractModuleContext
 	{
 		return getAuditor(AuditorFactory.getAuditorClassForClassName(className),useContextAuditorRegistry);
 	}
-
+	
+	/**
+	 * Sender instance together with the transport it was built for
+	 */
+	private static final class TransportSender
+	{
+		private final String transport;
+		private final AuditMessageSender sender;
+		
+		TransportSender(String transport, AuditMessageSender sender)
+		{
+			this.transport = transport;
+			this.sender = sender;
+		}
+	}
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.context;
+
+import org.openhealthtools.ihe.atna.auditor.AuditorFactory;
+import org.openhealthtools.ihe.atna.auditor.IHEAuditor;
+import org.openhealthtools.ihe.atna.context.AbstractModuleContext;
+import org.openhealthtools.ihe.atna.context.ModuleContextProvider;
+
+/**
+ * Provides the {@link AuditorModuleContext} to the security context. Eager initialization
+ * creates and caches all auditors known to the {@link AuditorFactory} and builds the
+ * sender for the configured transport.
+ *
+ * @since 3.7
+ */
+public class AuditorModuleContextProvider implements ModuleContextProvider {
+
+    @Override
+    public String getContextId() {
+        return AuditorModuleContext.CONTEXT_ID;
+    }
+
+    @Override
+    public AbstractModuleContext createContext() {
+        return ContextInitializer.defaultInitialize();
+    }
+
+    @Override
+    public void initializeEagerly(AbstractModuleContext context) {
+        AuditorModuleContext auditorContext = (AuditorModuleContext) context;
+        for (Class<? extends IHEAuditor> auditorClass : AuditorFactory.getRegisteredAuditorClasses()) {
+            auditorContext.getAuditor(auditorClass);
+        }
+        auditorContext.getSender();
+    }
+}
@@ -33,8 +33,11 @@ import org.openhealthtools.ihe.atna.auditor.models.rfc3881.CodedValueType;
 import org.openhealthtools.ihe.atna.auditor.models.rfc3881.EventIdentificationType;
 import org.openhealthtools.ihe.atna.auditor.models.rfc3881.ParticipantObjectIdentificationType;
 import org.openhealthtools.ihe.atna.auditor.models.rfc3881.TypeValuePairType;
+import org.openhealthtools.ihe.atna.auditor.serializer.AuditMessageSerializer;
+import org.openhealthtools.ihe.atna.auditor.serializer.RFC3881XmlSerializer;
 import org.openhealthtools.ihe.atna.auditor.utils.EventUtils;
 import org.openhealthtools.ihe.atna.auditor.utils.TimestampUtils;
+import org.openhealthtools.ihe.utils.jfr.FlightRecorderEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -176,7 +179,19 @@ public abstract class AbstractAuditEventMessageImpl implements AuditEventMessage
      * @see org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage#getSerializedMessage(boolean)
      */
     public byte[] getSerializedMessage(boolean useSpacing) {
-        byte[] buf = auditMessage.toString(useSpacing).getBytes();
+        return getSerializedMessage(RFC3881XmlSerializer.INSTANCE, useSpacing);
+    }
+
+    /* (non-Javadoc)
+     * @see org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage#getSerializedMessage(org.openhealthtools.ihe.atna.auditor.serializer.AuditMessageSerializer, boolean)
+     */
+    public byte[] getSerializedMessage(AuditMessageSerializer serializer, boolean useSpacing) {
+        FlightRecorderEvents.Probe probe = FlightRecorderEvents.start(FlightRecorderEvents.Kind.SERIALIZATION);
+        byte[] buf = serializer.serialize(auditMessage, useSpacing);
+        InetAddress address = getDestinationAddress();
+        probe.end(getClass().getName(),
+                FlightRecorderEvents.destination(address == null ? null : address.getHostAddress(), getDestinationPort()),
+                buf.length);
         return buf;
     }
 
@@ -11,6 +11,7 @@
 package org.openhealthtools.ihe.atna.auditor.events;
 
 import org.openhealthtools.ihe.atna.auditor.models.rfc3881.AuditMessage;
+import org.openhealthtools.ihe.atna.auditor.serializer.AuditMessageSerializer;
 
 import java.net.InetAddress;
 import java.net.URI;
@@ -47,6 +48,18 @@ public interface AuditEventMessage
 	 */
 	byte[] getSerializedMessage(boolean useSpacing);
 	
+	/**
+	 * Get a byte-serialized representation of this messsage in 
+	 * the given output format, for sending over the wire.
+	 * @param serializer Output format
+	 * @param useSpacing Whether to use line spacing or identation (if supported)
+	 * @return The serialized byte representation of this message
+	 */
+	default byte[] getSerializedMessage(AuditMessageSerializer serializer, boolean useSpacing)
+	{
+		return serializer.serialize(getAuditMessage(), useSpacing);
+	}
+	
 	/**
 	 * Set the destination URI object for this audit message.  
 	 * Throws an exception the provided URI is not a well-formed
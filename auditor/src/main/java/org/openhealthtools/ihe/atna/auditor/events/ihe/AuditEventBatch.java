@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.auditor.events.ihe;
+
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.ParticipantObjectIdentificationType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Builds the audit event(s) of a transaction that may involve a large number of
+ * participant objects, e.g. an ITI-43 or ITI-39 retrieval of thousands of documents.
+ * <p>
+ * Participant objects are added one after the other. As soon as adding another one would
+ * let the serialized event grow beyond the configured size budget, the participant object
+ * is moved into a fresh event obtained from the event factory, which must set up all the
+ * parts that every event of the batch shares (event identification, active participants,
+ * audit source, patient). Each resulting event is thus a complete, well-formed audit message
+ * of its own and none of them is truncated by a datagram based transport.
+ * <p>
+ * The size of an event is tracked incrementally: the shared part is serialized once per
+ * event, each participant object once when it is added. A single participant object that
+ * exceeds the budget on its own is still kept in an event of its own.
+ *
+ * @param <T> audit event type
+ * @since 3.7
+ */
+public class AuditEventBatch<T extends GenericIHEAuditEventMessage> {
+
+    private final Supplier<T> eventFactory;
+    private final int maxMessageSize;
+    private final List<T> events = new ArrayList<>();
+
+    private T current;
+    private int currentSize;
+    private int currentObjects;
+
+    /**
+     * @param eventFactory   creates a new event containing everything but the batched participant objects
+     * @param maxMessageSize maximum size of a serialized event in bytes
+     */
+    public AuditEventBatch(Supplier<T> eventFactory, int maxMessageSize) {
+        if (maxMessageSize <= 0) throw new IllegalArgumentException("Maximum message size must be positive");
+        this.eventFactory = eventFactory;
+        this.maxMessageSize = maxMessageSize;
+        nextEvent();
+    }
+
+    /**
+     * Adds the participant object(s) created by the given callback to the current event,
+     * or to a new one if the current event would become too large.
+     *
+     * @param participantObjects adds one or more participant objects to the given event
+     */
+    public void add(Consumer<? super T> participantObjects) {
+        List<ParticipantObjectIdentificationType> objects = current.getAuditMessage().getParticipantObjectIdentification();
+        int before = objects.size();
+        participantObjects.accept(current);
+        List<ParticipantObjectIdentificationType> added = objects.subList(before, objects.size());
+        int size = 0;
+        for (ParticipantObjectIdentificationType object : added) {
+            size += serializedSize(object.toString(false));
+        }
+        if (currentObjects > 0 && currentSize + size > maxMessageSize) {
+            List<ParticipantObjectIdentificationType> moved = new ArrayList<>(added);
+            added.clear();
+            nextEvent();
+            current.getAuditMessage().getParticipantObjectIdentification().addAll(moved);
+        }
+        currentSize += size;
+        currentObjects++;
+    }
+
+    /**
+     * Adds a Participant Object representing a document
+     *
+     * @param documentUniqueId   The Document Entry Unique Id
+     * @param repositoryUniqueId The Repository Unique Id of the Repository housing the document
+     * @param homeCommunityId    The Home Community Id
+     * @see GenericIHEAuditEventMessage#addDocumentParticipantObject(String, String, String)
+     */
+    public void addDocumentParticipantObject(String documentUniqueId, String repositoryUniqueId, String homeCommunityId) {
+        add(event -> event.addDocumentParticipantObject(documentUniqueId, repositoryUniqueId, homeCommunityId));
+    }
+
+    /**
+     * Adds Participant Objects representing documents
+     *
+     * @param documentUniqueIds   The Document Entry Unique Ids, may be null
+     * @param repositoryUniqueIds The Repository Unique Ids (aligned with Document Unique Ids array)
+     * @param homeCommunityIds    The Home Community Ids (aligned with Document Unique Ids array)
+     */
+    public void addDocumentParticipantObjects(String[] documentUniqueIds, String[] repositoryUniqueIds, String[] homeCommunityIds) {
+        if (documentUniqueIds != null) {
+            for (int i = 0; i < documentUniqueIds.length; i++) {
+                addDocumentParticipantObject(documentUniqueIds[i], repositoryUniqueIds[i], homeCommunityIds[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the events built so far, at least one
+     */
+    public List<T> getEvents() {
+        return events;
+    }
+
+    /**
+     * @return the events built so far as array, ready to be handed over to an auditor or queue
+     */
+    public AuditEventMessage[] toArray() {
+        return events.toArray(new AuditEventMessage[events.size()]);
+    }
+
+    private void nextEvent() {
+        current = eventFactory.get();
+        currentSize = serializedSize(current.getAuditMessage().toString(false));
+        currentObjects = 0;
+        events.add(current);
+    }
+
+    private static int serializedSize(String xml) {
+        return xml.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
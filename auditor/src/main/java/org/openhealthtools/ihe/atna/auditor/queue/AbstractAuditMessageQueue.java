@@ -68,6 +68,15 @@ abstract class AbstractAuditMessageQueue implements AuditMessageQueue {
         }
     }
 
+    @Override
+    public void sendAuditEvents(AuditEventMessage[] msgs) {
+        try {
+            doSend(context.getSender(), msgs);
+        } catch (Exception e) {
+            LOG.warn("Error sending audit messages", e);
+        }
+    }
+
     @Override
     public void flush() {
         // do nothing
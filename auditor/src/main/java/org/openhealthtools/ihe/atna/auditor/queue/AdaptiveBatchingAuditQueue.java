@@ -0,0 +1,412 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.queue;
+
+import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleContext;
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.sender.AuditMessageSender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Asynchronous audit queue that hands messages to the sender in batches whose size and
+ * linger time adapt to the observed load.
+ * <p>
+ * Under light load, messages are sent as soon as they arrive. When messages arrive faster
+ * than they can be sent one by one, the batch size is doubled (and the dispatcher lingers
+ * for about the time needed to fill a batch at the current arrival rate) as long as the
+ * p99 end-to-end latency stays below the {@link #setLatencyTarget(long) target}. If the
+ * target is exceeded, batch size and linger time are halved. Batches never exceed the
+ * configured maximum message count or the estimated maximum number of bytes; message sizes
+ * are estimated by serializing a sample of the messages.
+ * </p>
+ * <p>
+ * The currently chosen parameters and the observed rates and latencies are exposed
+ * through getters.
+ * </p>
+ *
+ * @since 3.7
+ */
+public class AdaptiveBatchingAuditQueue extends AbstractAuditMessageQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveBatchingAuditQueue.class);
+
+    private static final int LATENCY_SAMPLES = 256;
+    private static final int SIZE_SAMPLE_RATE = 32;
+    private static final double EWMA_WEIGHT = 0.2;
+
+    private final BlockingQueue<Entry> backlog;
+    private final Thread dispatcher;
+    private final ReadWriteLock shutdownLock = new ReentrantReadWriteLock();
+
+    private volatile boolean shutdown;
+    private int shutdownTimeoutSeconds = 30;
+
+    // limits
+    private volatile int maxBatchSize = 500;
+    private volatile long maxBatchBytes = 4 * 1024 * 1024;
+    private volatile long maxLingerNanos = TimeUnit.MILLISECONDS.toNanos(100);
+    private volatile long latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(500);
+
+    // adaptive parameters, written by the dispatcher only
+    private volatile int batchSize = 1;
+    private volatile long lingerNanos;
+    private volatile double arrivalRate;
+    private volatile double averageMessageBytes = 2048;
+    private volatile long p99LatencyNanos;
+    private volatile double averageSendNanos;
+
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyIndex;
+    private int latencyCount;
+    private long lastArrival = System.nanoTime();
+    private long arrivals;
+
+    public AdaptiveBatchingAuditQueue() {
+        this(AuditorModuleContext.getContext());
+    }
+
+    public AdaptiveBatchingAuditQueue(AuditorModuleContext context) {
+        this(context, 10000);
+    }
+
+    /**
+     * @param context  auditor module context
+     * @param capacity maximum number of pending messages. If exceeded, messages are sent on the caller's thread.
+     */
+    public AdaptiveBatchingAuditQueue(AuditorModuleContext context, int capacity) {
+        super(context);
+        this.backlog = new LinkedBlockingQueue<>(capacity);
+        this.dispatcher = new Thread(this::dispatch, "ATNA adaptive batching dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * @param maxBatchSize maximum number of messages per batch. Defaults to 500.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @param maxBatchBytes maximum estimated size of a batch in bytes. Defaults to 4 MB.
+     */
+    public void setMaxBatchBytes(long maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * @param maxLingerMillis maximum time to wait for a batch to fill up. Defaults to 100 ms.
+     */
+    public void setMaxLinger(long maxLingerMillis) {
+        this.maxLingerNanos = TimeUnit.MILLISECONDS.toNanos(maxLingerMillis);
+    }
+
+    /**
+     * @param latencyTargetMillis p99 latency from enqueueing until the message has been sent. Defaults to 500 ms.
+     */
+    public void setLatencyTarget(long latencyTargetMillis) {
+        this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(latencyTargetMillis);
+    }
+
+    /**
+     * @param shutdownTimeoutSeconds time to wait for pending events on shutdown. Defaults to 30.
+     */
+    public void setShutdownTimeoutSeconds(int shutdownTimeoutSeconds) {
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+    }
+
+    /**
+     * @return currently chosen batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return currently chosen linger time in milliseconds
+     */
+    public double getLingerMillis() {
+        return lingerNanos / 1e6;
+    }
+
+    /**
+     * @return observed arrival rate in messages per second
+     */
+    public double getArrivalRate() {
+        return arrivalRate;
+    }
+
+    /**
+     * @return p99 latency from enqueueing until sent in milliseconds, over the recent messages
+     */
+    public double getP99LatencyMillis() {
+        return p99LatencyNanos / 1e6;
+    }
+
+    /**
+     * @return average time to send one message in milliseconds
+     */
+    public double getAverageSendMillis() {
+        return averageSendNanos / 1e6;
+    }
+
+    /**
+     * @return estimated average size of a serialized message in bytes
+     */
+    public double getAverageMessageBytes() {
+        return averageMessageBytes;
+    }
+
+    /**
+     * @return number of messages waiting to be sent
+     */
+    public int getBacklog() {
+        return backlog.size();
+    }
+
+    @Override
+    protected void doSend(AuditMessageSender sender, AuditEventMessage[] auditEventMessages, InetAddress destination, int port) throws Exception {
+        enqueue(new Entry(sender, auditEventMessages, destination, port));
+    }
+
+    @Override
+    protected void doSend(AuditMessageSender sender, AuditEventMessage... auditEventMessages) throws Exception {
+        enqueue(new Entry(sender, auditEventMessages, null, 0));
+    }
+
+    private void enqueue(Entry entry) throws Exception {
+        // checking the flag and offering must not interleave with shutdown, otherwise an entry
+        // could be offered after the dispatcher has seen the backlog empty for the last time
+        Lock lock = shutdownLock.readLock();
+        lock.lock();
+        try {
+            if (!shutdown && backlog.offer(entry)) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        LOG.debug("Audit queue is full or shut down, sending event on caller thread");
+        entry.sendDirectly();
+    }
+
+    private void dispatch() {
+        List<Entry> batch = new ArrayList<>();
+        while (!shutdown || !backlog.isEmpty()) {
+            try {
+                Entry first = backlog.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                collect(batch);
+                long start = System.nanoTime();
+                send(batch);
+                adapt(batch, start, System.nanoTime());
+            } catch (InterruptedException e) {
+                // check for shutdown
+            } finally {
+                batch.clear();
+            }
+        }
+        LOG.info("Clean shutdown of adaptive batching audit queue finished");
+    }
+
+    private void collect(List<Entry> batch) throws InterruptedException {
+        int targetSize = Math.min(batchSize, maxBatchSize);
+        long targetMessages = Math.max(1L, (long) (maxBatchBytes / Math.max(1.0, averageMessageBytes)));
+        int limit = (int) Math.min(targetSize, targetMessages);
+        long deadline = System.nanoTime() + lingerNanos;
+        int messages = batch.get(0).msgs.length;
+        while (messages < limit) {
+            Entry next = backlog.poll();
+            if (next == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || shutdown) {
+                    break;
+                }
+                next = backlog.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    break;
+                }
+            }
+            batch.add(next);
+            messages += next.msgs.length;
+        }
+    }
+
+    private void send(List<Entry> batch) {
+        // entries may have been enqueued with different senders, e.g. across a configuration change
+        Map<AuditMessageSender, List<Entry>> bySender = new LinkedHashMap<>();
+        for (Entry entry : batch) {
+            bySender.computeIfAbsent(entry.sender, k -> new ArrayList<>()).add(entry);
+        }
+        for (Map.Entry<AuditMessageSender, List<Entry>> entries : bySender.entrySet()) {
+            send(entries.getKey(), entries.getValue());
+        }
+    }
+
+    private void send(AuditMessageSender sender, List<Entry> entries) {
+        List<AuditEventMessage> undirected = new ArrayList<>();
+        Map<InetSocketAddress, List<AuditEventMessage>> directed = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            if (entry.destination == null) {
+                undirected.addAll(Arrays.asList(entry.msgs));
+            } else {
+                directed.computeIfAbsent(new InetSocketAddress(entry.destination, entry.port), k -> new ArrayList<>())
+                        .addAll(Arrays.asList(entry.msgs));
+            }
+        }
+        try {
+            if (!undirected.isEmpty()) {
+                sender.sendAuditEvent(undirected.toArray(new AuditEventMessage[undirected.size()]));
+            }
+        } catch (Exception e) {
+            LOG.warn("Failed to send batch of " + undirected.size() + " ATNA events", e);
+        }
+        for (Map.Entry<InetSocketAddress, List<AuditEventMessage>> entry : directed.entrySet()) {
+            try {
+                List<AuditEventMessage> msgs = entry.getValue();
+                sender.sendAuditEvent(msgs.toArray(new AuditEventMessage[msgs.size()]),
+                        entry.getKey().getAddress(), entry.getKey().getPort());
+            } catch (Exception e) {
+                LOG.warn(String.format("Failed to send ATNA event to destination [%s]", entry.getKey()), e);
+            }
+        }
+    }
+
+    /**
+     * Updates the observed rates and latencies and derives the parameters of the next batch
+     */
+    private void adapt(List<Entry> batch, long start, long end) {
+        int messages = 0;
+        for (Entry entry : batch) {
+            messages += entry.msgs.length;
+            recordLatency(end - entry.enqueued);
+            arrivals++;
+            if (entry.enqueued > lastArrival) {
+                double instantRate = 1e9 / Math.max(1L, entry.enqueued - lastArrival);
+                arrivalRate = arrivalRate == 0.0 ? instantRate : ewma(arrivalRate, instantRate);
+                lastArrival = entry.enqueued;
+            }
+            if (arrivals % SIZE_SAMPLE_RATE == 1) {
+                sampleMessageSize(entry);
+            }
+        }
+        averageSendNanos = ewma(averageSendNanos, (double) (end - start) / Math.max(1, messages));
+        p99LatencyNanos = percentile99();
+
+        boolean backlogged = backlog.size() >= batchSize;
+        if (p99LatencyNanos > latencyTargetNanos) {
+            batchSize = Math.max(1, batchSize / 2);
+            lingerNanos = lingerNanos / 2;
+        } else if (backlogged || arrivalRate * averageSendNanos > 1e9) {
+            // messages arrive faster than they can be sent one by one
+            batchSize = Math.min(maxBatchSize, batchSize * 2);
+            lingerNanos = Math.min(Math.min(maxLingerNanos, latencyTargetNanos / 2),
+                    (long) (1e9 * batchSize / Math.max(1.0, arrivalRate)));
+        } else if (backlog.isEmpty()) {
+            // light load: send immediately
+            batchSize = Math.max(1, batchSize / 2);
+            lingerNanos = 0L;
+        }
+    }
+
+    private void sampleMessageSize(Entry entry) {
+        if (entry.msgs.length > 0 && entry.msgs[0] != null) {
+            byte[] serialized = entry.msgs[0].getSerializedMessage(false);
+            if (serialized != null) {
+                averageMessageBytes = ewma(averageMessageBytes, serialized.length);
+            }
+        }
+    }
+
+    private void recordLatency(long latency) {
+        latencies[latencyIndex] = latency;
+        latencyIndex = (latencyIndex + 1) % LATENCY_SAMPLES;
+        latencyCount = Math.min(LATENCY_SAMPLES, latencyCount + 1);
+    }
+
+    private long percentile99() {
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        return sorted[Math.max(0, (int) Math.ceil(0.99 * sorted.length) - 1)];
+    }
+
+    private static double ewma(double average, double sample) {
+        return average + EWMA_WEIGHT * (sample - average);
+    }
+
+    @Override
+    public void shutdown() {
+        Lock lock = shutdownLock.writeLock();
+        lock.lock();
+        try {
+            shutdown = true;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            dispatcher.join(TimeUnit.SECONDS.toMillis(shutdownTimeoutSeconds));
+            if (dispatcher.isAlive()) {
+                LOG.warn("Timeout occurred when flushing ATNA events, some events might have been lost");
+                dispatcher.interrupt();
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Thread interrupt when flushing ATNA events, some events might have been lost", e);
+        }
+    }
+
+    private static final class Entry {
+        private final AuditMessageSender sender;
+        private final AuditEventMessage[] msgs;
+        private final InetAddress destination;
+        private final int port;
+        private final long enqueued = System.nanoTime();
+
+        Entry(AuditMessageSender sender, AuditEventMessage[] msgs, InetAddress destination, int port) {
+            this.sender = sender;
+            this.msgs = msgs;
+            this.destination = destination;
+            this.port = port;
+        }
+
+        void sendDirectly() throws Exception {
+            if (destination == null) {
+                sender.sendAuditEvent(msgs);
+            } else {
+                sender.sendAuditEvent(msgs, destination, port);
+            }
+        }
+    }
+}
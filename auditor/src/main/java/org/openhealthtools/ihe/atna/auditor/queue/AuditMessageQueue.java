@@ -45,6 +45,21 @@ public interface AuditMessageQueue {
      */
     void sendAuditEvent(AuditEventMessage msg, InetAddress destination, int port);
 
+    /**
+     * Queues a batch of audit messages that belong together, e.g. the parts of an
+     * event that had to be split because of its size. The destination address and
+     * port held in each message determines its point of delivery. Implementations
+     * may hand over the batch to the sender in one go; by default the messages are
+     * queued one by one.
+     *
+     * @param msgs The messages to send
+     */
+    default void sendAuditEvents(AuditEventMessage[] msgs) {
+        for (AuditEventMessage msg : msgs) {
+            sendAuditEvent(msg);
+        }
+    }
+
     /**
      * Forces all unsent messages in the queue to be sent
      */
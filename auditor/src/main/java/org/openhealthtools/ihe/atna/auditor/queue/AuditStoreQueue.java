@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.auditor.queue;
+
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.store.AuditStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * Audit queue that keeps a local copy of every message in an {@link AuditStore} before
+ * passing it on to an optional downstream queue. Appending is a sequential write done on
+ * the calling thread, so the local copy exists before the message is sent to the audit
+ * record repository. Can also be used without a downstream queue as the target of an
+ * {@link org.openhealthtools.ihe.atna.auditor.routing.AuditRoute}.
+ *
+ * @since 3.7
+ */
+public class AuditStoreQueue implements AuditMessageQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuditStoreQueue.class);
+
+    private final AuditStore store;
+    private final AuditMessageQueue delegate;
+
+    /**
+     * @param store store receiving the messages
+     */
+    public AuditStoreQueue(AuditStore store) {
+        this(store, null);
+    }
+
+    /**
+     * @param store    store receiving the messages
+     * @param delegate queue the messages are passed on to, may be null
+     */
+    public AuditStoreQueue(AuditStore store, AuditMessageQueue delegate) {
+        if (store == null) throw new IllegalArgumentException("AuditStore must not be null");
+        this.store = store;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void sendAuditEvent(AuditEventMessage msg) {
+        store(msg);
+        if (delegate != null) {
+            delegate.sendAuditEvent(msg);
+        }
+    }
+
+    @Override
+    public void sendAuditEvent(AuditEventMessage msg, InetAddress destination, int port) {
+        store(msg);
+        if (delegate != null) {
+            delegate.sendAuditEvent(msg, destination, port);
+        }
+    }
+
+    @Override
+    public void sendAuditEvents(AuditEventMessage[] msgs) {
+        for (AuditEventMessage msg : msgs) {
+            store(msg);
+        }
+        if (delegate != null) {
+            delegate.sendAuditEvents(msgs);
+        }
+    }
+
+    @Override
+    public void flush() {
+        try {
+            store.flush();
+        } catch (IOException e) {
+            LOG.warn("Error flushing audit store", e);
+        }
+        if (delegate != null) {
+            delegate.flush();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (delegate != null) {
+            delegate.shutdown();
+        }
+        try {
+            store.close();
+        } catch (IOException e) {
+            LOG.warn("Error closing audit store", e);
+        }
+    }
+
+    /**
+     * @return the store receiving the messages
+     */
+    public AuditStore getStore() {
+        return store;
+    }
+
+    private void store(AuditEventMessage msg) {
+        try {
+            store.append(msg);
+        } catch (Exception e) {
+            LOG.warn("Error storing audit message", e);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.auditor.queue;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pooled off-heap storage for serialized audit messages. A single direct buffer is cut into
+ * blocks of equal size; a payload occupies as many blocks as it needs, which do not have to
+ * be adjacent. Blocks are handed out by {@link #store(byte[])} and must be given back through
+ * {@link #release(int[])} once the payload has been loaded.
+ *
+ * @since 3.7
+ */
+final class FrameSlab {
+
+    private final ByteBuffer slab;
+    private final int blockSize;
+    private final int[] free;
+    private int freeCount;
+
+    /**
+     * @param capacity  size of the slab in bytes
+     * @param blockSize size of a block in bytes
+     */
+    FrameSlab(int capacity, int blockSize) {
+        if (blockSize <= 0 || capacity < blockSize) {
+            throw new IllegalArgumentException("Slab capacity must hold at least one block of positive size");
+        }
+        this.blockSize = blockSize;
+        this.free = new int[capacity / blockSize];
+        this.slab = ByteBuffer.allocateDirect(free.length * blockSize);
+        for (int i = 0; i < free.length; i++) {
+            free[i] = free.length - 1 - i;
+        }
+        this.freeCount = free.length;
+    }
+
+    /**
+     * Copies a payload into the slab
+     *
+     * @param payload payload to store
+     * @return indexes of the blocks holding the payload, or null if not enough blocks are free
+     */
+    int[] store(byte[] payload) {
+        int[] blocks = allocate((payload.length + blockSize - 1) / blockSize);
+        if (blocks != null) {
+            ByteBuffer buffer = slab.duplicate();
+            for (int i = 0, offset = 0; i < blocks.length; i++, offset += blockSize) {
+                buffer.clear().position(blocks[i] * blockSize);
+                buffer.put(payload, offset, Math.min(blockSize, payload.length - offset));
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Copies a payload out of the slab. The blocks remain allocated.
+     *
+     * @param blocks result of {@link #store(byte[])}
+     * @param length length of the stored payload
+     * @return the payload
+     */
+    byte[] load(int[] blocks, int length) {
+        byte[] payload = new byte[length];
+        ByteBuffer buffer = slab.duplicate();
+        for (int i = 0, offset = 0; i < blocks.length; i++, offset += blockSize) {
+            buffer.clear().position(blocks[i] * blockSize);
+            buffer.get(payload, offset, Math.min(blockSize, length - offset));
+        }
+        return payload;
+    }
+
+    /**
+     * Returns blocks to the pool
+     *
+     * @param blocks result of {@link #store(byte[])}
+     */
+    synchronized void release(int[] blocks) {
+        for (int block : blocks) {
+            free[freeCount++] = block;
+        }
+    }
+
+    /**
+     * @return number of bytes in free blocks
+     */
+    synchronized long getFreeBytes() {
+        return (long) freeCount * blockSize;
+    }
+
+    private synchronized int[] allocate(int count) {
+        if (count > freeCount) {
+            return null;
+        }
+        int[] blocks = new int[count];
+        for (int i = 0; i < count; i++) {
+            blocks[i] = free[--freeCount];
+        }
+        return blocks;
+    }
+}
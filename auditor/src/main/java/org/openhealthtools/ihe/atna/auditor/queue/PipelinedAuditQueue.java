@@ -0,0 +1,448 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.auditor.queue;
+
+import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleContext;
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.sender.AuditMessageSender;
+import org.openhealthtools.ihe.atna.auditor.sender.FramedAuditMessageSender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Asynchronous audit queue that separates serialization from socket I/O.
+ * <p>
+ * Messages pass two stages. A fork-join pool of serialization workers, sized to the number
+ * of processors by default, turns each message into the framed bytes of the transport.
+ * A single I/O thread takes the results in enqueueing order and writes them to the
+ * destination connections, grouping consecutive messages for the same destination. A large
+ * message thus only occupies one worker instead of delaying all writes behind it, and
+ * workers keep serializing while the I/O thread waits for a slow connection.
+ * </p>
+ * <p>
+ * Both stages are bounded: at most <code>serializationCapacity</code> messages may be waiting
+ * for or in serialization, and at most <code>ioCapacity</code> messages may be accepted but not
+ * yet written. If either bound is reached, the message is sent on the caller's thread.
+ * Counters for each stage are available through {@link #getSerializationMetrics()} and
+ * {@link #getIoMetrics()}.
+ * </p>
+ * <p>
+ * The split requires a {@link FramedAuditMessageSender}, which the TLS and UDP syslog senders
+ * are. Messages for other senders are passed through in order and serialized by the sender
+ * on the I/O thread.
+ * </p>
+ *
+ * @since 3.7
+ */
+public class PipelinedAuditQueue extends AbstractAuditMessageQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PipelinedAuditQueue.class);
+
+    private static final int MAX_WRITE_BATCH = 64;
+
+    private final ForkJoinPool workers;
+    private final Semaphore serializationPermits;
+    private final int serializationCapacity;
+    private final BlockingQueue<Entry> ioBuffer;
+    private final Thread writer;
+    private final AtomicLong pending = new AtomicLong();
+    private final StageMetrics serializationMetrics = new StageMetrics();
+    private final StageMetrics ioMetrics = new StageMetrics();
+    private final ReadWriteLock shutdownLock = new ReentrantReadWriteLock();
+
+    private volatile boolean shutdown;
+    private int shutdownTimeoutSeconds = 30;
+
+    public PipelinedAuditQueue() {
+        this(AuditorModuleContext.getContext());
+    }
+
+    public PipelinedAuditQueue(AuditorModuleContext context) {
+        this(context, Runtime.getRuntime().availableProcessors(), 1000, 10000);
+    }
+
+    /**
+     * @param context               auditor module context
+     * @param serializationThreads  number of serialization workers
+     * @param serializationCapacity maximum number of messages waiting for or in serialization
+     * @param ioCapacity            maximum number of messages accepted but not yet written; should not be smaller
+     *                              than <code>serializationCapacity</code>
+     */
+    public PipelinedAuditQueue(AuditorModuleContext context, int serializationThreads, int serializationCapacity, int ioCapacity) {
+        super(context);
+        this.workers = new ForkJoinPool(serializationThreads);
+        this.serializationCapacity = serializationCapacity;
+        this.serializationPermits = new Semaphore(serializationCapacity);
+        this.ioBuffer = new ArrayBlockingQueue<>(ioCapacity);
+        this.writer = new Thread(this::write, "ATNA pipelined queue writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @param shutdownTimeoutSeconds time to wait for pending events on flush and shutdown. Defaults to 30.
+     */
+    public void setShutdownTimeoutSeconds(int shutdownTimeoutSeconds) {
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+    }
+
+    /**
+     * @return counters of the serialization stage; bytes are those of the produced frames
+     */
+    public StageMetrics getSerializationMetrics() {
+        return serializationMetrics;
+    }
+
+    /**
+     * @return counters of the I/O stage; waiting time is spent waiting for serialization to complete
+     */
+    public StageMetrics getIoMetrics() {
+        return ioMetrics;
+    }
+
+    /**
+     * @return number of messages waiting for or in serialization
+     */
+    public int getSerializationBacklog() {
+        return serializationCapacity - serializationPermits.availablePermits();
+    }
+
+    /**
+     * @return number of messages accepted but not yet written
+     */
+    public int getIoBacklog() {
+        return ioBuffer.size();
+    }
+
+    @Override
+    protected void doSend(AuditMessageSender sender, AuditEventMessage[] auditEventMessages, InetAddress destination, int port) throws Exception {
+        enqueue(new Entry(sender, auditEventMessages, destination, port));
+    }
+
+    @Override
+    protected void doSend(AuditMessageSender sender, AuditEventMessage... auditEventMessages) throws Exception {
+        enqueue(new Entry(sender, auditEventMessages, null, 0));
+    }
+
+    private void enqueue(Entry entry) throws Exception {
+        if (!offer(entry)) {
+            LOG.debug("Audit queue is full or shut down, sending event on caller thread");
+            entry.sendDirectly();
+        }
+    }
+
+    private boolean offer(Entry entry) {
+        // checking the flag and offering must not interleave with shutdown, otherwise an entry
+        // could be offered after the writer has seen the buffer empty for the last time
+        Lock lock = shutdownLock.readLock();
+        lock.lock();
+        try {
+            if (shutdown || !serializationPermits.tryAcquire()) {
+                return false;
+            }
+            // the entry takes its place in the write order before it is serialized
+            if (!ioBuffer.offer(entry)) {
+                serializationPermits.release();
+                return false;
+            }
+            pending.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            workers.execute(() -> serialize(entry));
+        } catch (RejectedExecutionException e) {
+            // the writer waits for the frames of every buffered entry
+            LOG.debug("Serialization worker rejected task, serializing on caller thread");
+            serialize(entry);
+        }
+        return true;
+    }
+
+    private void serialize(Entry entry) {
+        long start = System.nanoTime();
+        serializationMetrics.waitNanos.add(start - entry.enqueued);
+        try {
+            if (!(entry.sender instanceof FramedAuditMessageSender)) {
+                entry.frames.complete(null);
+                return;
+            }
+            FramedAuditMessageSender sender = (FramedAuditMessageSender) entry.sender;
+            List<Frame> frames = new ArrayList<>(entry.msgs.length);
+            long bytes = 0;
+            for (AuditEventMessage msg : entry.msgs) {
+                if (msg == null) {
+                    continue;
+                }
+                byte[] frame = sender.frame(msg);
+                if (frame != null) {
+                    InetAddress destination = entry.destination != null ? entry.destination : msg.getDestinationAddress();
+                    int port = entry.destination != null ? entry.port : msg.getDestinationPort();
+                    frames.add(new Frame(destination, port, frame));
+                    bytes += frame.length;
+                }
+            }
+            serializationMetrics.record(entry.msgs.length, bytes, System.nanoTime() - start);
+            entry.frames.complete(frames);
+        } catch (Throwable t) {
+            serializationMetrics.failed.add(entry.msgs.length);
+            entry.frames.completeExceptionally(t);
+        } finally {
+            serializationPermits.release();
+        }
+    }
+
+    private void write() {
+        List<Entry> batch = new ArrayList<>(MAX_WRITE_BATCH);
+        while (!shutdown || !ioBuffer.isEmpty()) {
+            try {
+                Entry first = ioBuffer.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                ioBuffer.drainTo(batch, MAX_WRITE_BATCH - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                // check for shutdown
+            } finally {
+                pending.addAndGet(-batch.size());
+                batch.clear();
+            }
+        }
+        LOG.info("Clean shutdown of pipelined audit queue finished");
+    }
+
+    /**
+     * Writes a batch of entries in order, passing runs of frames for the same destination
+     * to the sender at once
+     */
+    private void write(List<Entry> batch) throws InterruptedException {
+        FramedAuditMessageSender runSender = null;
+        List<byte[]> run = new ArrayList<>();
+        InetAddress runDestination = null;
+        int runPort = 0;
+        for (Entry entry : batch) {
+            List<Frame> frames;
+            long waitStart = System.nanoTime();
+            try {
+                frames = entry.frames.get();
+            } catch (ExecutionException e) {
+                LOG.warn("Failed to serialize " + entry.msgs.length + " ATNA events", e.getCause());
+                continue;
+            } finally {
+                ioMetrics.waitNanos.add(System.nanoTime() - waitStart);
+            }
+            if (frames == null) {
+                flushRun(runSender, run, runDestination, runPort);
+                writeDirectly(entry);
+                continue;
+            }
+            for (Frame frame : frames) {
+                if (runSender != entry.sender || !Objects.equals(runDestination, frame.destination) || runPort != frame.port) {
+                    flushRun(runSender, run, runDestination, runPort);
+                    runSender = (FramedAuditMessageSender) entry.sender;
+                    runDestination = frame.destination;
+                    runPort = frame.port;
+                }
+                run.add(frame.bytes);
+            }
+        }
+        flushRun(runSender, run, runDestination, runPort);
+    }
+
+    private void flushRun(FramedAuditMessageSender sender, List<byte[]> run, InetAddress destination, int port) {
+        if (run.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            sender.sendFrames(run, destination, port);
+            long bytes = 0;
+            for (byte[] frame : run) {
+                bytes += frame.length;
+            }
+            ioMetrics.record(run.size(), bytes, System.nanoTime() - start);
+        } catch (Exception e) {
+            ioMetrics.failed.add(run.size());
+            LOG.warn(String.format("Failed to send ATNA event to destination [%s:%d]", destination, port), e);
+        } finally {
+            run.clear();
+        }
+    }
+
+    private void writeDirectly(Entry entry) {
+        long start = System.nanoTime();
+        try {
+            entry.sendDirectly();
+            ioMetrics.record(entry.msgs.length, 0L, System.nanoTime() - start);
+        } catch (Exception e) {
+            ioMetrics.failed.add(entry.msgs.length);
+            LOG.warn(String.format("Failed to send ATNA event to destination [%s:%d]", entry.destination, entry.port), e);
+        }
+    }
+
+    /**
+     * Waits until all messages accepted so far have been written, at most for the shutdown timeout
+     */
+    @Override
+    public void flush() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(shutdownTimeoutSeconds);
+        try {
+            while (pending.get() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        Lock lock = shutdownLock.writeLock();
+        lock.lock();
+        try {
+            shutdown = true;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(shutdownTimeoutSeconds));
+            if (writer.isAlive()) {
+                LOG.warn("Timeout occurred when flushing ATNA events, some events might have been lost");
+                writer.interrupt();
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Thread interrupt when flushing ATNA events, some events might have been lost", e);
+        }
+        workers.shutdown();
+    }
+
+    /**
+     * Counters of one pipeline stage. All values are cumulative since the queue was created.
+     */
+    public static final class StageMetrics {
+
+        private final LongAdder messages = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder busyNanos = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+
+        private void record(int count, long size, long nanos) {
+            messages.add(count);
+            bytes.add(size);
+            busyNanos.add(nanos);
+        }
+
+        /**
+         * @return number of messages processed successfully
+         */
+        public long getMessages() {
+            return messages.sum();
+        }
+
+        /**
+         * @return number of messages that failed in this stage
+         */
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        /**
+         * @return number of bytes processed
+         */
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        /**
+         * @return time spent processing messages in milliseconds
+         */
+        public double getBusyMillis() {
+            return busyNanos.sum() / 1e6;
+        }
+
+        /**
+         * @return time messages spent waiting for this stage in milliseconds
+         */
+        public double getWaitMillis() {
+            return waitNanos.sum() / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("messages=%d, failed=%d, bytes=%d, busy=%.1fms, wait=%.1fms",
+                    getMessages(), getFailed(), getBytes(), getBusyMillis(), getWaitMillis());
+        }
+    }
+
+    private static final class Frame {
+        private final InetAddress destination;
+        private final int port;
+        private final byte[] bytes;
+
+        Frame(InetAddress destination, int port, byte[] bytes) {
+            this.destination = destination;
+            this.port = port;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class Entry {
+        private final AuditMessageSender sender;
+        private final AuditEventMessage[] msgs;
+        private final InetAddress destination;
+        private final int port;
+        private final long enqueued = System.nanoTime();
+        private final CompletableFuture<List<Frame>> frames = new CompletableFuture<>();
+
+        Entry(AuditMessageSender sender, AuditEventMessage[] msgs, InetAddress destination, int port) {
+            this.sender = sender;
+            this.msgs = msgs;
+            this.destination = destination;
+            this.port = port;
+        }
+
+        void sendDirectly() throws Exception {
+            if (destination == null) {
+                sender.sendAuditEvent(msgs);
+            } else {
+                sender.sendAuditEvent(msgs, destination, port);
+            }
+        }
+    }
+}
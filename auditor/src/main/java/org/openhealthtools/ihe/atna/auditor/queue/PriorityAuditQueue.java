@@ -0,0 +1,325 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.queue;
+
+import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleContext;
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.events.dicom.ApplicationActivityEvent;
+import org.openhealthtools.ihe.atna.auditor.events.dicom.SecurityAlertEvent;
+import org.openhealthtools.ihe.atna.auditor.events.dicom.UserAuthenticationEvent;
+import org.openhealthtools.ihe.atna.auditor.sender.AuditMessageSender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Asynchronous audit queue with two priority lanes of independent capacity.
+ * <p>
+ * Security alerts, user authentication and application start/stop events are
+ * assigned to the high priority lane by default, everything else goes to the low
+ * priority lane. A single dispatcher thread always serves the high priority lane first,
+ * but after {@link #setHighPriorityBurst(int) a burst} of high priority events takes
+ * one low priority event so that bulk events are not starved completely.
+ * </p>
+ * <p>
+ * Under pressure, low priority events are shed: they are dropped when their lane is
+ * full or, if {@link #setHeapUsageThreshold(double) configured}, when heap usage exceeds
+ * the given ratio. High priority events are never dropped; if their lane is full they
+ * are sent synchronously on the caller's thread.
+ * </p>
+ *
+ * @since 3.7
+ */
+public class PriorityAuditQueue extends AbstractAuditMessageQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PriorityAuditQueue.class);
+
+    public static final int DEFAULT_HIGH_PRIORITY_CAPACITY = 1000;
+    public static final int DEFAULT_LOW_PRIORITY_CAPACITY = 10000;
+
+    /**
+     * Event classes assigned to the high priority lane by default
+     */
+    public static final Set<Class<? extends AuditEventMessage>> DEFAULT_HIGH_PRIORITY_EVENTS =
+            new HashSet<>(Arrays.asList(
+                    SecurityAlertEvent.class,
+                    UserAuthenticationEvent.class,
+                    ApplicationActivityEvent.class));
+
+    private final BlockingQueue<Entry> highPriorityLane;
+    private final BlockingQueue<Entry> lowPriorityLane;
+    private final Semaphore pending = new Semaphore(0);
+    private final Set<Class<? extends AuditEventMessage>> highPriorityEvents;
+    private final ConcurrentMap<Class<?>, Boolean> priorityCache = new ConcurrentHashMap<>();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final Thread dispatcher;
+    private final ReadWriteLock shutdownLock = new ReentrantReadWriteLock();
+
+    private volatile boolean shutdown;
+    private volatile double heapUsageThreshold;
+    private volatile int highPriorityBurst = 16;
+    private int shutdownTimeoutSeconds = 30;
+
+    public PriorityAuditQueue() {
+        this(AuditorModuleContext.getContext());
+    }
+
+    public PriorityAuditQueue(AuditorModuleContext context) {
+        this(context, DEFAULT_HIGH_PRIORITY_CAPACITY, DEFAULT_LOW_PRIORITY_CAPACITY, DEFAULT_HIGH_PRIORITY_EVENTS);
+    }
+
+    /**
+     * @param context              auditor module context
+     * @param highPriorityCapacity capacity of the high priority lane
+     * @param lowPriorityCapacity  capacity of the low priority lane
+     * @param highPriorityEvents   event classes (including subclasses) assigned to the high priority lane
+     */
+    public PriorityAuditQueue(AuditorModuleContext context, int highPriorityCapacity, int lowPriorityCapacity,
+                              Set<Class<? extends AuditEventMessage>> highPriorityEvents) {
+        super(context);
+        this.highPriorityLane = new ArrayBlockingQueue<>(highPriorityCapacity);
+        this.lowPriorityLane = new ArrayBlockingQueue<>(lowPriorityCapacity);
+        this.highPriorityEvents = new HashSet<>(highPriorityEvents);
+        this.dispatcher = new Thread(this::dispatch, "ATNA priority queue dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Sets the heap usage ratio (0..1) above which low priority events are dropped.
+     * Defaults to 0, which disables heap-based shedding.
+     *
+     * @param heapUsageThreshold ratio of used to maximum heap
+     */
+    public void setHeapUsageThreshold(double heapUsageThreshold) {
+        this.heapUsageThreshold = heapUsageThreshold;
+    }
+
+    /**
+     * Sets the number of consecutive high priority events after which a pending low
+     * priority event is dispatched. Defaults to 16.
+     *
+     * @param highPriorityBurst maximum number of consecutive high priority events
+     */
+    public void setHighPriorityBurst(int highPriorityBurst) {
+        this.highPriorityBurst = highPriorityBurst;
+    }
+
+    /**
+     * Sets the time to wait for pending events on shutdown. Defaults to 30.
+     *
+     * @param shutdownTimeoutSeconds timeout in seconds
+     */
+    public void setShutdownTimeoutSeconds(int shutdownTimeoutSeconds) {
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+    }
+
+    /**
+     * @return number of events waiting in the high priority lane
+     */
+    public int getHighPriorityBacklog() {
+        return highPriorityLane.size();
+    }
+
+    /**
+     * @return number of events waiting in the low priority lane
+     */
+    public int getLowPriorityBacklog() {
+        return lowPriorityLane.size();
+    }
+
+    /**
+     * @return number of low priority events dropped so far
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * @param msg audit message
+     * @return true if the message is assigned to the high priority lane
+     */
+    public boolean isHighPriority(AuditEventMessage msg) {
+        return priorityCache.computeIfAbsent(msg.getClass(), this::isHighPriorityClass);
+    }
+
+    private boolean isHighPriorityClass(Class<?> clazz) {
+        for (Class<?> highPriorityClass : highPriorityEvents) {
+            if (highPriorityClass.isAssignableFrom(clazz)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected void doSend(AuditMessageSender sender, AuditEventMessage[] auditEventMessages, InetAddress destination, int port) throws Exception {
+        enqueue(new Entry(sender, auditEventMessages, destination, port));
+    }
+
+    @Override
+    protected void doSend(AuditMessageSender sender, AuditEventMessage... auditEventMessages) throws Exception {
+        enqueue(new Entry(sender, auditEventMessages, null, 0));
+    }
+
+    private void enqueue(Entry entry) throws Exception {
+        boolean highPriority = entry.isHighPriority();
+        // checking the flag and offering must not interleave with shutdown, otherwise an entry
+        // could be offered after the dispatcher has seen the lanes empty for the last time
+        Lock lock = shutdownLock.readLock();
+        lock.lock();
+        try {
+            if (!shutdown) {
+                if (highPriority) {
+                    if (highPriorityLane.offer(entry)) {
+                        pending.release();
+                        return;
+                    }
+                    LOG.warn("High priority audit lane is full, sending event on caller thread");
+                } else if (isHeapExhausted()) {
+                    shed("heap usage exceeds threshold of " + heapUsageThreshold);
+                    return;
+                } else if (lowPriorityLane.offer(entry)) {
+                    pending.release();
+                    return;
+                } else {
+                    shed("low priority audit lane is full");
+                    return;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        entry.send();
+    }
+
+    private boolean isHeapExhausted() {
+        double threshold = heapUsageThreshold;
+        if (threshold <= 0.0) {
+            return false;
+        }
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        return used >= threshold * runtime.maxMemory();
+    }
+
+    private void shed(String reason) {
+        long dropped = droppedEvents.incrementAndGet();
+        if (LOG.isDebugEnabled() || (dropped & 0x3FF) == 1) {
+            LOG.warn("Dropping low priority audit event because " + reason + " (" + dropped + " dropped so far)");
+        }
+    }
+
+    private void dispatch() {
+        int burst = 0;
+        while (!shutdown || !highPriorityLane.isEmpty() || !lowPriorityLane.isEmpty()) {
+            try {
+                if (!pending.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                continue;
+            }
+            Entry entry = null;
+            if (burst < highPriorityBurst) {
+                entry = highPriorityLane.poll();
+            }
+            if (entry == null) {
+                entry = lowPriorityLane.poll();
+                burst = 0;
+                if (entry == null) {
+                    entry = highPriorityLane.poll();
+                }
+            } else {
+                burst++;
+            }
+            if (entry != null) {
+                try {
+                    entry.send();
+                } catch (Exception e) {
+                    LOG.warn(String.format("Failed to send ATNA event to destination [%s:%d]", entry.destination, entry.port), e);
+                }
+            }
+        }
+        LOG.info("Clean shutdown of priority audit queue finished");
+    }
+
+    @Override
+    public void shutdown() {
+        Lock lock = shutdownLock.writeLock();
+        lock.lock();
+        try {
+            shutdown = true;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            dispatcher.join(TimeUnit.SECONDS.toMillis(shutdownTimeoutSeconds));
+            if (dispatcher.isAlive()) {
+                LOG.warn("Timeout occurred when flushing ATNA events, some events might have been lost");
+                dispatcher.interrupt();
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Thread interrupt when flushing ATNA events, some events might have been lost", e);
+        }
+    }
+
+    private final class Entry {
+        private final AuditMessageSender sender;
+        private final AuditEventMessage[] msgs;
+        private final InetAddress destination;
+        private final int port;
+
+        Entry(AuditMessageSender sender, AuditEventMessage[] msgs, InetAddress destination, int port) {
+            this.sender = sender;
+            this.msgs = msgs;
+            this.destination = destination;
+            this.port = port;
+        }
+
+        boolean isHighPriority() {
+            for (AuditEventMessage msg : msgs) {
+                if (msg != null && PriorityAuditQueue.this.isHighPriority(msg)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void send() throws Exception {
+            if (destination == null) {
+                sender.sendAuditEvent(msgs);
+            } else {
+                sender.sendAuditEvent(msgs, destination, port);
+            }
+        }
+    }
+}
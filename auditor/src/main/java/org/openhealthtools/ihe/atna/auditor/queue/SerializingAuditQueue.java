@@ -0,0 +1,331 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.auditor.queue;
+
+import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleContext;
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.sender.AuditMessageSender;
+import org.openhealthtools.ihe.atna.auditor.sender.FramedAuditMessageSender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Asynchronous audit queue that serializes messages on the producer thread and only retains
+ * their framed bytes until they are written.
+ * <p>
+ * A queued {@link AuditEventMessage} keeps its whole object model alive, i.e. dozens of
+ * small objects per message that the garbage collector has to trace. This queue calls
+ * {@link FramedAuditMessageSender#frame(AuditEventMessage)} when a message is accepted, so
+ * that the backlog consists of byte payloads and their destinations only. A single writer
+ * thread delivers them in order, passing consecutive payloads for the same destination to
+ * the sender at once. Serialization errors thus surface on the producer thread, where they
+ * are logged like those of a synchronous queue.
+ * </p>
+ * <p>
+ * The backlog is bounded by the total size of its payloads. Payloads that do not fit are
+ * written on the caller's thread. Optionally, payloads are kept off-heap in a pooled
+ * {@link FrameSlab}, which leaves a small descriptor per pending message on the heap; when
+ * the slab is exhausted, further payloads are kept on the heap.
+ * </p>
+ * <p>
+ * Messages for senders that are not {@link FramedAuditMessageSender}s have no compact form
+ * and are sent on the caller's thread.
+ * </p>
+ *
+ * @since 3.7
+ */
+public class SerializingAuditQueue extends AbstractAuditMessageQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SerializingAuditQueue.class);
+
+    /**
+     * Default bound of the payload bytes retained in the backlog
+     */
+    public static final long DEFAULT_MAX_BACKLOG_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Block size of the off-heap slab
+     */
+    public static final int SLAB_BLOCK_SIZE = 1024;
+
+    private static final int MAX_WRITE_BATCH = 64;
+
+    private final BlockingQueue<Payload> backlog = new LinkedBlockingQueue<>();
+    private final AtomicLong backlogBytes = new AtomicLong();
+    private final AtomicLong pending = new AtomicLong();
+    private final long maxBacklogBytes;
+    private final FrameSlab slab;
+    private final Thread writer;
+    private final ReadWriteLock shutdownLock = new ReentrantReadWriteLock();
+
+    private volatile boolean shutdown;
+    private int shutdownTimeoutSeconds = 30;
+
+    public SerializingAuditQueue() {
+        this(AuditorModuleContext.getContext());
+    }
+
+    public SerializingAuditQueue(AuditorModuleContext context) {
+        this(context, DEFAULT_MAX_BACKLOG_BYTES, 0);
+    }
+
+    /**
+     * @param context         auditor module context
+     * @param maxBacklogBytes maximum number of payload bytes accepted but not yet written
+     * @param offHeapCapacity size in bytes of the off-heap slab holding payloads, 0 to keep them on the heap
+     */
+    public SerializingAuditQueue(AuditorModuleContext context, long maxBacklogBytes, int offHeapCapacity) {
+        super(context);
+        this.maxBacklogBytes = maxBacklogBytes;
+        this.slab = offHeapCapacity > 0 ? new FrameSlab(offHeapCapacity, SLAB_BLOCK_SIZE) : null;
+        this.writer = new Thread(this::write, "ATNA serializing queue writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @param shutdownTimeoutSeconds time to wait for pending events on flush and shutdown. Defaults to 30.
+     */
+    public void setShutdownTimeoutSeconds(int shutdownTimeoutSeconds) {
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+    }
+
+    /**
+     * @return number of messages accepted but not yet written
+     */
+    public int getBacklogSize() {
+        return backlog.size();
+    }
+
+    /**
+     * @return number of payload bytes accepted but not yet written
+     */
+    public long getBacklogBytes() {
+        return backlogBytes.get();
+    }
+
+    /**
+     * @return number of free bytes in the off-heap slab, 0 if payloads are kept on the heap
+     */
+    public long getOffHeapFreeBytes() {
+        return slab != null ? slab.getFreeBytes() : 0L;
+    }
+
+    @Override
+    protected void doSend(AuditMessageSender sender, AuditEventMessage[] auditEventMessages, InetAddress destination, int port) throws Exception {
+        enqueue(sender, auditEventMessages, destination, port);
+    }
+
+    @Override
+    protected void doSend(AuditMessageSender sender, AuditEventMessage... auditEventMessages) throws Exception {
+        enqueue(sender, auditEventMessages, null, 0);
+    }
+
+    private void enqueue(AuditMessageSender sender, AuditEventMessage[] msgs, InetAddress destination, int port) throws Exception {
+        if (shutdown || !(sender instanceof FramedAuditMessageSender)) {
+            if (destination == null) {
+                sender.sendAuditEvent(msgs);
+            } else {
+                sender.sendAuditEvent(msgs, destination, port);
+            }
+            return;
+        }
+        FramedAuditMessageSender framedSender = (FramedAuditMessageSender) sender;
+        for (AuditEventMessage msg : msgs) {
+            if (msg == null) {
+                continue;
+            }
+            byte[] frame = framedSender.frame(msg);
+            if (frame == null) {
+                continue;
+            }
+            InetAddress msgDestination = destination != null ? destination : msg.getDestinationAddress();
+            int msgPort = destination != null ? port : msg.getDestinationPort();
+            if (backlogBytes.addAndGet(frame.length) > maxBacklogBytes) {
+                backlogBytes.addAndGet(-frame.length);
+                LOG.debug("Audit queue is full, sending event on caller thread");
+                framedSender.sendFrames(Collections.singletonList(frame), msgDestination, msgPort);
+                continue;
+            }
+            int[] blocks = slab != null ? slab.store(frame) : null;
+            Payload payload = blocks != null ?
+                    new Payload(framedSender, msgDestination, msgPort, null, blocks, frame.length) :
+                    new Payload(framedSender, msgDestination, msgPort, frame, null, frame.length);
+            if (!offer(payload)) {
+                if (blocks != null) {
+                    slab.release(blocks);
+                }
+                backlogBytes.addAndGet(-frame.length);
+                LOG.debug("Audit queue is shut down, sending event on caller thread");
+                framedSender.sendFrames(Collections.singletonList(frame), msgDestination, msgPort);
+            }
+        }
+    }
+
+    private boolean offer(Payload payload) {
+        // checking the flag and adding must not interleave with shutdown, otherwise a payload
+        // could be added after the writer has seen the backlog empty for the last time
+        Lock lock = shutdownLock.readLock();
+        lock.lock();
+        try {
+            if (shutdown) {
+                return false;
+            }
+            pending.incrementAndGet();
+            backlog.add(payload);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write() {
+        List<Payload> batch = new ArrayList<>(MAX_WRITE_BATCH);
+        while (!shutdown || !backlog.isEmpty()) {
+            try {
+                Payload first = backlog.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                backlog.drainTo(batch, MAX_WRITE_BATCH - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                // check for shutdown
+            } finally {
+                pending.addAndGet(-batch.size());
+                batch.clear();
+            }
+        }
+        LOG.info("Clean shutdown of serializing audit queue finished");
+    }
+
+    /**
+     * Writes a batch of payloads in order, passing runs for the same destination to the sender at once
+     */
+    private void write(List<Payload> batch) {
+        List<byte[]> run = new ArrayList<>();
+        Payload runStart = null;
+        long runBytes = 0;
+        for (Payload payload : batch) {
+            if (runStart != null && !payload.sameDestination(runStart)) {
+                flushRun(runStart, run, runBytes);
+                runBytes = 0;
+            }
+            if (run.isEmpty()) {
+                runStart = payload;
+            }
+            run.add(payload.load(slab));
+            runBytes += payload.length;
+        }
+        flushRun(runStart, run, runBytes);
+    }
+
+    private void flushRun(Payload runStart, List<byte[]> run, long runBytes) {
+        try {
+            runStart.sender.sendFrames(run, runStart.destination, runStart.port);
+        } catch (Exception e) {
+            LOG.warn(String.format("Failed to send ATNA event to destination [%s:%d]", runStart.destination, runStart.port), e);
+        } finally {
+            backlogBytes.addAndGet(-runBytes);
+            run.clear();
+        }
+    }
+
+    /**
+     * Waits until all messages accepted so far have been written, at most for the shutdown timeout
+     */
+    @Override
+    public void flush() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(shutdownTimeoutSeconds);
+        try {
+            while (pending.get() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        Lock lock = shutdownLock.writeLock();
+        lock.lock();
+        try {
+            shutdown = true;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(shutdownTimeoutSeconds));
+            if (writer.isAlive()) {
+                LOG.warn("Timeout occurred when flushing ATNA events, some events might have been lost");
+                writer.interrupt();
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Thread interrupt when flushing ATNA events, some events might have been lost", e);
+        }
+    }
+
+    /**
+     * Framed message waiting to be written, held either on the heap or in the slab
+     */
+    private static final class Payload {
+        private final FramedAuditMessageSender sender;
+        private final InetAddress destination;
+        private final int port;
+        private final byte[] bytes;
+        private final int[] blocks;
+        private final int length;
+
+        Payload(FramedAuditMessageSender sender, InetAddress destination, int port, byte[] bytes, int[] blocks, int length) {
+            this.sender = sender;
+            this.destination = destination;
+            this.port = port;
+            this.bytes = bytes;
+            this.blocks = blocks;
+            this.length = length;
+        }
+
+        boolean sameDestination(Payload other) {
+            return sender == other.sender && port == other.port && Objects.equals(destination, other.destination);
+        }
+
+        byte[] load(FrameSlab slab) {
+            if (blocks == null) {
+                return bytes;
+            }
+            byte[] loaded = slab.load(blocks, length);
+            slab.release(blocks);
+            return loaded;
+        }
+    }
+}
@@ -18,6 +18,7 @@ import java.util.List;
 import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleContext;
 import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
 import org.openhealthtools.ihe.atna.auditor.sender.AuditMessageSender;
+import org.openhealthtools.ihe.utils.jfr.FlightRecorderEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -155,6 +156,7 @@ public class ThreadedAuditQueue implements AuditMessageQueue
 					if (LOGGER.isDebugEnabled()) {
 						LOGGER.debug("Preparing to send " + msgs.size() + " audit messages");
 					}
+					FlightRecorderEvents.Probe probe = FlightRecorderEvents.start(FlightRecorderEvents.Kind.QUEUE_DRAIN);
 					AuditMessageSender sender = context.getSender();
 					try {
 						AuditEventMessage[] msgsToSend;
@@ -163,6 +165,7 @@ public class ThreadedAuditQueue implements AuditMessageQueue
 							msgs.clear();
 						}
 						sender.sendAuditEvent(msgsToSend);
+						probe.end(sender.getClass().getName(), null, 0, msgsToSend.length);
 					} catch (Exception e) {
 						LOGGER.debug("Error sending", e);
 						//e.printStackTrace();
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.routing;
+
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.queue.AuditMessageQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+
+/**
+ * Target of an {@link AuditRoutingRule}: a queue and, optionally, an explicit destination
+ * that overrides the destination set on the message or in the configuration.
+ * Instances are immutable.
+ *
+ * @since 3.7
+ */
+public final class AuditRoute {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuditRoute.class);
+
+    private final AuditMessageQueue queue;
+    private final InetAddress destination;
+    private final int port;
+
+    /**
+     * Route to a queue, keeping the destination of the message
+     *
+     * @param queue queue to submit to, or null for the queue of the auditor's context
+     */
+    public AuditRoute(AuditMessageQueue queue) {
+        this(queue, null, -1);
+    }
+
+    /**
+     * Route to a queue and an explicit destination
+     *
+     * @param queue       queue to submit to, or null for the queue of the auditor's context
+     * @param destination destination address, or null to keep the destination of the message
+     * @param port        destination port
+     */
+    public AuditRoute(AuditMessageQueue queue, InetAddress destination, int port) {
+        this.queue = queue;
+        this.destination = destination;
+        this.port = port;
+    }
+
+    public AuditMessageQueue getQueue() {
+        return queue;
+    }
+
+    public InetAddress getDestination() {
+        return destination;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Submits the message along this route
+     *
+     * @param msg          message to send
+     * @param defaultQueue queue to use if this route does not define one
+     */
+    void send(AuditEventMessage msg, AuditMessageQueue defaultQueue) {
+        AuditMessageQueue target = queue != null ? queue : defaultQueue;
+        if (target == null) {
+            LOG.error("No auditing queue available for " + this + ", unable to send audit message");
+        } else if (destination != null) {
+            target.sendAuditEvent(msg, destination, port);
+        } else {
+            target.sendAuditEvent(msg);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AuditRoute{queue=" + queue +
+                (destination != null ? ", destination=" + destination.getHostAddress() + ":" + port : "") + "}";
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.routing;
+
+import org.openhealthtools.ihe.atna.auditor.IHEAuditor;
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.AuditMessage;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.CodedValueType;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.EventIdentificationType;
+import org.openhealthtools.ihe.atna.auditor.queue.AuditMessageQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Routing stage between {@link IHEAuditor#audit(AuditEventMessage)} and the audit queues.
+ * <p>
+ * The configured {@link AuditRoutingRule rules} are compiled into one hash table per
+ * criterion (event ID, IHE transaction, outcome, auditor class) that maps a value to the
+ * bit set of rules accepting it. Routing a message thus takes a handful of hash lookups
+ * and bit operations, independent of the number of codes listed in the rules.
+ * All rules matching a message are applied in definition order, unless a matching rule
+ * is marked as {@link AuditRoutingRule#last() last}. At most {@value #MAX_RULES} rules
+ * are supported.
+ * <p>
+ * Routers are immutable and can be shared between threads.
+ *
+ * @since 3.7
+ */
+public class AuditRouter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuditRouter.class);
+
+    public static final int MAX_RULES = Long.SIZE;
+
+    private static final String IHE_TRANSACTIONS = "IHE Transactions";
+
+    private final AuditRoutingRule[] rules;
+    private final AuditRoute[][] routes;
+    private final long lastRules;
+
+    private final Map<String, Long> eventIdMasks;
+    private final long eventIdWildcard;
+    private final Map<String, Long> transactionMasks;
+    private final long transactionWildcard;
+    private final Map<Integer, Long> outcomeMasks;
+    private final long outcomeWildcard;
+    private final Map<Class<?>, Long> auditorMasks;
+    private final long auditorWildcard;
+
+    /**
+     * Compiles the given rules
+     *
+     * @param rules routing rules in order of precedence
+     */
+    public AuditRouter(List<AuditRoutingRule> rules) {
+        if (rules.size() > MAX_RULES) {
+            throw new IllegalArgumentException("At most " + MAX_RULES + " routing rules are supported, got " + rules.size());
+        }
+        this.rules = rules.toArray(new AuditRoutingRule[rules.size()]);
+        this.routes = new AuditRoute[this.rules.length][];
+        long last = 0L;
+        for (int i = 0; i < this.rules.length; i++) {
+            List<AuditRoute> ruleRoutes = this.rules[i].getRoutes();
+            routes[i] = ruleRoutes.toArray(new AuditRoute[ruleRoutes.size()]);
+            if (this.rules[i].isLast()) last |= 1L << i;
+        }
+        this.lastRules = last;
+
+        eventIdMasks = new HashMap<>();
+        eventIdWildcard = compile(eventIdMasks, AuditRoutingRule::getEventIds);
+        transactionMasks = new HashMap<>();
+        transactionWildcard = compile(transactionMasks, AuditRoutingRule::getTransactions);
+        outcomeMasks = new HashMap<>();
+        outcomeWildcard = compile(outcomeMasks, AuditRoutingRule::getOutcomes);
+        auditorMasks = new HashMap<>();
+        auditorWildcard = compile(auditorMasks, AuditRoutingRule::getAuditorClasses);
+    }
+
+    public AuditRouter(AuditRoutingRule... rules) {
+        this(Arrays.asList(rules));
+    }
+
+    /**
+     * Determines the bit set of rules matching the given message
+     *
+     * @param auditorClass class of the auditor emitting the message
+     * @param msg          audit message
+     * @return bit set of matching rules, bit n corresponding to rule n
+     */
+    public long match(Class<?> auditorClass, AuditEventMessage msg) {
+        AuditMessage auditMessage = msg.getAuditMessage();
+        EventIdentificationType eventIdentification = auditMessage != null ? auditMessage.getEventIdentification() : null;
+        if (eventIdentification == null) {
+            return 0L;
+        }
+        long mask = lookup(outcomeMasks, outcomeWildcard, eventIdentification.getEventOutcomeIndicator());
+        if (mask != 0L) {
+            mask &= lookup(auditorMasks, auditorWildcard, auditorClass);
+        }
+        if (mask != 0L) {
+            mask &= lookup(eventIdMasks, eventIdWildcard, eventIdentification.getEventID());
+        }
+        if (mask != 0L && (mask & ~transactionWildcard) != 0L) {
+            mask &= lookup(transactionMasks, transactionWildcard, transactionCode(eventIdentification));
+        }
+        if ((mask & lastRules) != 0L) {
+            long first = Long.lowestOneBit(mask & lastRules);
+            mask &= first | (first - 1);
+        }
+        return mask;
+    }
+
+    /**
+     * Sends the message along all routes of the matching rules
+     *
+     * @param auditor      auditor emitting the message
+     * @param msg          audit message
+     * @param defaultQueue queue used for routes that do not define one
+     * @return true if at least one rule matched, false if the caller has to take care of the message
+     */
+    public boolean route(IHEAuditor auditor, AuditEventMessage msg, AuditMessageQueue defaultQueue) {
+        long mask = match(auditor.getClass(), msg);
+        if (mask == 0L) {
+            return false;
+        }
+        while (mask != 0L) {
+            int index = Long.numberOfTrailingZeros(mask);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Routing audit message according to rule " + rules[index].getName());
+            }
+            for (AuditRoute route : routes[index]) {
+                route.send(msg, defaultQueue);
+            }
+            mask &= mask - 1;
+        }
+        return true;
+    }
+
+    private <T> long compile(Map<T, Long> masks, Function<AuditRoutingRule, Set<? extends T>> criterion) {
+        long wildcard = 0L;
+        for (int i = 0; i < rules.length; i++) {
+            Set<? extends T> values = criterion.apply(rules[i]);
+            if (values.isEmpty()) {
+                wildcard |= 1L << i;
+            } else {
+                for (T value : values) {
+                    Long mask = masks.get(value);
+                    masks.put(value, (mask == null ? 0L : mask) | 1L << i);
+                }
+            }
+        }
+        // rules without restriction match any value
+        for (Map.Entry<T, Long> entry : masks.entrySet()) {
+            entry.setValue(entry.getValue() | wildcard);
+        }
+        return wildcard;
+    }
+
+    private static <T> long lookup(Map<T, Long> masks, long wildcard, T value) {
+        if (value == null || masks.isEmpty()) {
+            return wildcard;
+        }
+        Long mask = masks.get(value);
+        return mask != null ? mask : wildcard;
+    }
+
+    private static long lookup(Map<String, Long> masks, long wildcard, CodedValueType code) {
+        if (code == null || masks.isEmpty()) {
+            return wildcard;
+        }
+        Long mask = masks.get(code.getCode());
+        if (code.getOriginalText() != null) {
+            Long textMask = masks.get(code.getOriginalText());
+            if (textMask != null) {
+                return mask != null ? mask | textMask : textMask;
+            }
+        }
+        return mask != null ? mask : wildcard;
+    }
+
+    private static CodedValueType transactionCode(EventIdentificationType eventIdentification) {
+        List<CodedValueType> eventTypeCodes = eventIdentification.getEventTypeCode();
+        if (eventTypeCodes != null) {
+            for (int i = 0; i < eventTypeCodes.size(); i++) {
+                CodedValueType code = eventTypeCodes.get(i);
+                if (IHE_TRANSACTIONS.equals(code.getCodeSystemName())) {
+                    return code;
+                }
+            }
+        }
+        return null;
+    }
+}
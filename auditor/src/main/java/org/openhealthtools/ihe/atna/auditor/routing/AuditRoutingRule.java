@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.routing;
+
+import org.openhealthtools.ihe.atna.auditor.IHEAuditor;
+import org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881EventCodes.RFC3881EventOutcomeCodes;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.CodedValueType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rule selecting one or more {@link AuditRoute routes} for audit messages. A rule matches
+ * if each of its criteria matches; criteria that have not been set match any message.
+ * Event IDs and IHE transactions are compared against both the code and the original
+ * text of the respective coded value, like the disabled event and transaction lists of
+ * {@link org.openhealthtools.ihe.atna.auditor.context.AuditorModuleConfig}.
+ * <p>
+ * Rules are configured once and then compiled into an {@link AuditRouter}; changing a
+ * rule afterwards has no effect on routers compiled before.
+ *
+ * @since 3.7
+ */
+public class AuditRoutingRule {
+
+    private final String name;
+    private final Set<String> eventIds = new HashSet<>();
+    private final Set<String> transactions = new HashSet<>();
+    private final Set<Integer> outcomes = new HashSet<>();
+    private final Set<Class<? extends IHEAuditor>> auditorClasses = new HashSet<>();
+    private final List<AuditRoute> routes = new ArrayList<>();
+    private boolean last;
+
+    /**
+     * @param name name of the rule, used for logging
+     */
+    public AuditRoutingRule(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Restricts the rule to the given event IDs, e.g. "110113" or "Security Alert"
+     */
+    public AuditRoutingRule forEventIds(String... codes) {
+        Collections.addAll(eventIds, codes);
+        return this;
+    }
+
+    /**
+     * Restricts the rule to the given event IDs
+     */
+    public AuditRoutingRule forEventIds(CodedValueType... codes) {
+        for (CodedValueType code : codes) {
+            eventIds.add(code.getCode());
+        }
+        return this;
+    }
+
+    /**
+     * Restricts the rule to the given IHE transactions, e.g. "ITI-18"
+     */
+    public AuditRoutingRule forTransactions(String... codes) {
+        Collections.addAll(transactions, codes);
+        return this;
+    }
+
+    /**
+     * Restricts the rule to the given IHE transactions
+     */
+    public AuditRoutingRule forTransactions(CodedValueType... codes) {
+        for (CodedValueType code : codes) {
+            transactions.add(code.getCode());
+        }
+        return this;
+    }
+
+    /**
+     * Restricts the rule to the given event outcomes
+     */
+    public AuditRoutingRule forOutcomes(RFC3881EventOutcomeCodes... codes) {
+        for (RFC3881EventOutcomeCodes code : codes) {
+            outcomes.add(code.getCode());
+        }
+        return this;
+    }
+
+    /**
+     * Restricts the rule to messages emitted by the given auditor classes
+     */
+    @SafeVarargs
+    public final AuditRoutingRule forAuditors(Class<? extends IHEAuditor>... classes) {
+        Collections.addAll(auditorClasses, classes);
+        return this;
+    }
+
+    /**
+     * Adds a route that matching messages are sent along
+     */
+    public AuditRoutingRule to(AuditRoute route) {
+        routes.add(route);
+        return this;
+    }
+
+    /**
+     * Marks this rule as last one: if it matches, rules defined after it are not applied
+     */
+    public AuditRoutingRule last() {
+        this.last = true;
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    Set<String> getEventIds() {
+        return eventIds;
+    }
+
+    Set<String> getTransactions() {
+        return transactions;
+    }
+
+    Set<Integer> getOutcomes() {
+        return outcomes;
+    }
+
+    Set<Class<? extends IHEAuditor>> getAuditorClasses() {
+        return auditorClasses;
+    }
+
+    List<AuditRoute> getRoutes() {
+        return routes;
+    }
+
+    boolean isLast() {
+        return last;
+    }
+
+    @Override
+    public String toString() {
+        return "AuditRoutingRule{" + name + "}";
+    }
+}
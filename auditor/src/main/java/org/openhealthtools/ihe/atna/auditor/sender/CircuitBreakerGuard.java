@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.sender;
+
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.queue.AuditMessageQueue;
+import org.openhealthtools.ihe.atna.nodeauth.CircuitBreaker;
+import org.openhealthtools.ihe.atna.nodeauth.CircuitBreakerOpenException;
+import org.openhealthtools.ihe.atna.nodeauth.CircuitBreakerRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Runs the deliveries of a sender through the circuit breakers of their destinations.
+ * While a breaker is open, messages are handed to the fallback queue if one is set,
+ * otherwise the delivery fails fast with a {@link CircuitBreakerOpenException}.
+ *
+ * @since 3.7
+ */
+final class CircuitBreakerGuard {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreakerGuard.class);
+
+    private static final int MAX_CACHED_HOST_NAMES = 256;
+
+    // host names of destination addresses, which may need a reverse lookup if the
+    // repository has been configured by address literal
+    private final ConcurrentMap<InetAddress, String> hostNames = new ConcurrentHashMap<>();
+    private volatile CircuitBreakerRegistry registry;
+    private volatile AuditMessageQueue fallbackQueue;
+
+    CircuitBreakerGuard(CircuitBreakerRegistry registry) {
+        this.registry = registry;
+    }
+
+    void setRegistry(CircuitBreakerRegistry registry) {
+        this.registry = registry;
+    }
+
+    void setFallbackQueue(AuditMessageQueue fallbackQueue) {
+        this.fallbackQueue = fallbackQueue;
+    }
+
+    /**
+     * @param delivery delivery to one destination
+     * @return the delivery guarded by the breaker of its destination
+     */
+    DestinationLanes.Delivery guard(DestinationLanes.Delivery delivery) {
+        return (destination, port, msgs) -> deliver(destination, port, msgs, () -> delivery.deliver(destination, port, msgs));
+    }
+
+    /**
+     * Runs a delivery to one destination
+     *
+     * @param destination destination address
+     * @param port        destination port
+     * @param msgs        messages being delivered, diverted to the fallback queue while the breaker
+     *                    is open; null if the messages are not available, e.g. for serialized frames
+     * @param delivery    the actual delivery
+     * @throws Exception if the delivery fails or is rejected
+     */
+    void deliver(InetAddress destination, int port, List<AuditEventMessage> msgs, Action delivery) throws Exception {
+        CircuitBreaker breaker = registry.getCircuitBreaker(hostName(destination), port);
+        try {
+            breaker.execute(() -> {
+                delivery.run();
+                return null;
+            });
+        } catch (CircuitBreakerOpenException e) {
+            AuditMessageQueue fallback = fallbackQueue;
+            if (fallback == null || msgs == null || e.getCircuitBreaker() != breaker) {
+                throw e;
+            }
+            LOG.debug("{}, diverting {} message(s) to the fallback queue", e.getMessage(), msgs.size());
+            for (AuditEventMessage msg : msgs) {
+                fallback.sendAuditEvent(msg, destination, port);
+            }
+        }
+    }
+
+    /**
+     * @param destination destination address
+     * @return the host name the senders connect to, which is also the key of the breaker
+     * the socket handler uses when connecting
+     */
+    private String hostName(InetAddress destination) {
+        String hostName = hostNames.get(destination);
+        if (hostName == null) {
+            if (hostNames.size() >= MAX_CACHED_HOST_NAMES) {
+                hostNames.clear();
+            }
+            hostName = destination.getHostName();
+            hostNames.put(destination, hostName);
+        }
+        return hostName;
+    }
+
+    /**
+     * Delivery to one destination
+     */
+    interface Action {
+        void run() throws Exception;
+    }
+}
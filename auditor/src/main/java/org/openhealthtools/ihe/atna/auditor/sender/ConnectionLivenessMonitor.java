@@ -0,0 +1,297 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.auditor.sender;
+
+import org.openhealthtools.ihe.utils.jfr.FlightRecorderEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Background check of the cached connections of a sender, one per destination.
+ * <p>
+ * A sender only notices a dead connection when a write fails, and a half-open connection
+ * does not even fail the first write after the repository has gone away: the message is
+ * silently lost, and reconnecting delays a real event. The monitor therefore replaces a
+ * connection ahead of time when
+ * <ul>
+ *     <li>it is broken, e.g. the repository has closed it (see {@link #isClosedByPeer(Socket)}), or</li>
+ *     <li>it is older than the maximum age.</li>
+ * </ul>
+ * A connection that has not been used for longer than the maximum idle time is closed and
+ * no longer monitored instead, because idle connections are often dropped silently by firewalls
+ * and NAT devices. The sender connects again when the destination is used next.
+ * Checks run on a single daemon thread, which is started with the first registered connection.
+ *
+ * @since 3.7
+ */
+public class ConnectionLivenessMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectionLivenessMonitor.class);
+
+    public static final long DEFAULT_CHECK_INTERVAL = 10000L;
+    public static final long DEFAULT_MAX_IDLE = 300000L;
+
+    /**
+     * Connection to one destination as seen by the monitor
+     */
+    public interface MonitoredConnection {
+
+        /**
+         * @return true if the connection is known to be unusable
+         */
+        boolean isBroken();
+
+        /**
+         * Replaces the connection with a newly established one
+         *
+         * @throws Exception if no new connection can be established
+         */
+        void reconnect() throws Exception;
+
+        /**
+         * Drops the connection, so that the sender connects again when it is used next
+         */
+        void discard();
+    }
+
+    private final String name;
+    private final ConcurrentMap<String, Entry> connections = new ConcurrentHashMap<>();
+    private final LongAdder reconnects = new LongAdder();
+    private volatile long checkInterval = DEFAULT_CHECK_INTERVAL;
+    private volatile long maxIdle = DEFAULT_MAX_IDLE;
+    private volatile long maxAge;
+    private volatile boolean enabled = true;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> task;
+
+    /**
+     * @param name name of the monitoring thread
+     */
+    public ConnectionLivenessMonitor(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param checkInterval time between two checks in milliseconds. Defaults to 10 seconds.
+     */
+    public synchronized void setCheckInterval(long checkInterval) {
+        this.checkInterval = checkInterval;
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+            schedule();
+        }
+    }
+
+    /**
+     * @param maxIdle time in milliseconds after which an unused connection is closed, 0 for no limit.
+     *                Defaults to 5 minutes.
+     */
+    public void setMaxIdle(long maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * @param maxAge time in milliseconds after which a connection is replaced, 0 for no limit (default)
+     */
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @param enabled whether connections are checked at all. Defaults to true.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return number of connections replaced by the monitor
+     */
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+
+    /**
+     * Starts monitoring a newly established connection, replacing the previous one for the same destination
+     *
+     * @param key        destination key
+     * @param connection connection
+     */
+    public void register(String key, MonitoredConnection connection) {
+        connections.put(key, new Entry(connection));
+        synchronized (this) {
+            if (task == null) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * Stops monitoring the connection to a destination
+     *
+     * @param key destination key
+     */
+    public void unregister(String key) {
+        connections.remove(key);
+    }
+
+    /**
+     * Notes that the connection to a destination has just been used
+     *
+     * @param key destination key
+     * @return false if the connection is not monitored, e.g. because it has been discarded
+     */
+    public boolean used(String key) {
+        Entry entry = connections.get(key);
+        if (entry != null) {
+            entry.lastUsed = System.currentTimeMillis();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks all connections once, closes those idle for too long and replaces those that are
+     * broken or too old
+     */
+    public void check() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Entry> monitored : connections.entrySet()) {
+            Entry entry = monitored.getValue();
+            if (maxIdle > 0 && now - entry.lastUsed > maxIdle) {
+                // reconnecting would keep an unused connection open forever
+                discard(monitored.getKey(), entry, "has been idle for too long");
+                continue;
+            }
+            String reason = null;
+            if (maxAge > 0 && now - entry.created > maxAge) {
+                reason = "reached its maximum age";
+            } else if (entry.connection.isBroken()) {
+                reason = "is broken";
+            }
+            if (reason != null) {
+                reconnect(monitored.getKey(), entry, reason);
+            }
+        }
+    }
+
+    /**
+     * Stops the monitoring thread
+     */
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+            task = null;
+        }
+    }
+
+    private void reconnect(String key, Entry entry, String reason) {
+        LOG.debug("Connection to {} {}, reconnecting", key, reason);
+        FlightRecorderEvents.Probe probe = FlightRecorderEvents.start(FlightRecorderEvents.Kind.SOCKET_RECONNECT);
+        try {
+            entry.connection.reconnect();
+            reconnects.increment();
+            probe.end(getClass().getName(), key, 0);
+            entry.created = entry.lastUsed = System.currentTimeMillis();
+        } catch (Exception e) {
+            LOG.info("Connection to {} {}, but reconnecting failed: {}", key, reason, e.getMessage());
+            discard(key, entry, reason);
+        }
+    }
+
+    private void discard(String key, Entry entry, String reason) {
+        if (connections.remove(key, entry)) {
+            LOG.debug("Connection to {} {}, closing it", key, reason);
+            entry.connection.discard();
+        }
+    }
+
+    private void schedule() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name + " connection monitor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        task = scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                check();
+            } catch (RuntimeException e) {
+                LOG.warn("Checking connections failed", e);
+            }
+        }, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Detects whether the peer has closed or reset a connection without blocking. Syslog
+     * receivers never send data, so a pending end of stream or error on the read side means
+     * the connection is gone, while a read timeout means it is still open. Data sent
+     * unexpectedly by the peer is discarded.
+     *
+     * @param socket connection to check
+     * @return true if the connection has been closed by either side
+     */
+    public static boolean isClosedByPeer(Socket socket) {
+        if (socket.isClosed() || socket.isInputShutdown()) {
+            return true;
+        }
+        try {
+            int timeout = socket.getSoTimeout();
+            socket.setSoTimeout(1);
+            try {
+                InputStream in = socket.getInputStream();
+                return in.read() < 0;
+            } finally {
+                socket.setSoTimeout(timeout);
+            }
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private static final class Entry {
+        private final MonitoredConnection connection;
+        private volatile long created = System.currentTimeMillis();
+        private volatile long lastUsed = created;
+
+        Entry(MonitoredConnection connection) {
+            this.connection = connection;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.sender;
+
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Partitions batches of audit messages by destination (address, port) and delivers the
+ * partitions concurrently, using one ordered lane per destination. Messages for the same
+ * destination are handed to the {@link Delivery} in their original order; a slow
+ * destination only delays its own lane, bounded by a per-destination timeout.
+ * <p>
+ * Batches addressing a single destination are delivered directly on the caller's thread.
+ *
+ * @since 3.7
+ */
+final class DestinationLanes {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DestinationLanes.class);
+
+    public static final long DEFAULT_DESTINATION_TIMEOUT = 30000L;
+
+    /**
+     * Delivers the messages of one partition
+     */
+    interface Delivery {
+        void deliver(InetAddress destination, int port, List<AuditEventMessage> msgs) throws Exception;
+    }
+
+    private final ConcurrentMap<InetSocketAddress, Lane> lanes = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private volatile long destinationTimeout = DEFAULT_DESTINATION_TIMEOUT;
+
+    DestinationLanes(String name) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, name + " destination lane " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void setDestinationTimeout(long destinationTimeout) {
+        this.destinationTimeout = destinationTimeout;
+    }
+
+    long getDestinationTimeout() {
+        return destinationTimeout;
+    }
+
+    /**
+     * Delivers the non-null messages of the batch, grouped by their destination. Messages
+     * without a destination address are skipped, they do not prevent the delivery of the others.
+     *
+     * @param msgs     batch of messages
+     * @param delivery delivery of one partition
+     * @throws Exception the first failure of any partition, or an {@link IllegalArgumentException} if
+     *                   messages without destination address were skipped; further failures are added as suppressed
+     */
+    void deliver(AuditEventMessage[] msgs, Delivery delivery) throws Exception {
+        int skipped = 0;
+        Map<InetSocketAddress, List<AuditEventMessage>> partitions = new LinkedHashMap<>();
+        for (AuditEventMessage msg : msgs) {
+            if (msg != null) {
+                if (msg.getDestinationAddress() == null) {
+                    skipped++;
+                    continue;
+                }
+                InetSocketAddress key = new InetSocketAddress(msg.getDestinationAddress(), msg.getDestinationPort());
+                partitions.computeIfAbsent(key, k -> new ArrayList<>()).add(msg);
+            }
+        }
+
+        Exception failure = deliver(partitions, delivery);
+        if (skipped > 0) {
+            LOG.warn("Skipped " + skipped + " audit message(s) without destination address");
+            failure = addFailure(failure, new IllegalArgumentException(skipped + " audit message(s) have no destination address"));
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private Exception deliver(Map<InetSocketAddress, List<AuditEventMessage>> partitions, Delivery delivery) {
+        if (partitions.size() == 1) {
+            Map.Entry<InetSocketAddress, List<AuditEventMessage>> partition = partitions.entrySet().iterator().next();
+            try {
+                delivery.deliver(partition.getKey().getAddress(), partition.getKey().getPort(), partition.getValue());
+                return null;
+            } catch (Exception e) {
+                return e;
+            }
+        }
+
+        Map<InetSocketAddress, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+        for (Map.Entry<InetSocketAddress, List<AuditEventMessage>> partition : partitions.entrySet()) {
+            InetSocketAddress key = partition.getKey();
+            List<AuditEventMessage> partitionMsgs = partition.getValue();
+            Lane lane = lanes.computeIfAbsent(key, k -> new Lane());
+            futures.put(key, lane.submit(() -> {
+                delivery.deliver(key.getAddress(), key.getPort(), partitionMsgs);
+                return null;
+            }));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(destinationTimeout);
+        Exception failure = null;
+        for (Map.Entry<InetSocketAddress, CompletableFuture<Void>> future : futures.entrySet()) {
+            try {
+                future.getValue().get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                LOG.warn("Delivery to " + future.getKey() + " did not complete within " + destinationTimeout + " ms");
+                failure = addFailure(failure, new TimeoutException("Delivery to " + future.getKey() + " timed out"));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                failure = addFailure(failure, cause instanceof Exception ? (Exception) cause : e);
+            } catch (InterruptedException e) {
+                return addFailure(failure, e);
+            }
+        }
+        return failure;
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private static Exception addFailure(Exception failure, Exception e) {
+        if (failure == null) {
+            return e;
+        }
+        failure.addSuppressed(e);
+        return failure;
+    }
+
+    /**
+     * Serializes the deliveries to one destination on the shared executor
+     */
+    private final class Lane {
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+
+        synchronized CompletableFuture<Void> submit(Callable<Void> task) {
+            CompletableFuture<Void> next = tail
+                    .handle((result, failure) -> (Void) null)
+                    .thenApplyAsync(ignored -> {
+                        try {
+                            return task.call();
+                        } catch (RuntimeException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            throw new CompletionException(e);
+                        }
+                    }, executor);
+            tail = next;
+            return next;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.auditor.sender;
+
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+
+import java.net.InetAddress;
+import java.util.List;
+
+/**
+ * Sender whose delivery can be split into a CPU-bound and an I/O-bound step, so that
+ * queues may prepare messages on other threads than the one writing to the connection.
+ * <p>
+ * Delivering the result of {@link #frame(AuditEventMessage)} through
+ * {@link #sendFrames(List, InetAddress, int)} must be equivalent to sending the message
+ * with {@link #sendAuditEvent(AuditEventMessage[], InetAddress, int)}.
+ *
+ * @since 3.7
+ */
+public interface FramedAuditMessageSender extends AuditMessageSender {
+
+    /**
+     * Serializes a message and wraps it into the framing of the transport. Must be
+     * thread-safe and must not perform I/O.
+     *
+     * @param msg message to prepare
+     * @return bytes to be written for the message, null if there is nothing to send
+     * @throws Exception if the message cannot be serialized
+     */
+    byte[] frame(AuditEventMessage msg) throws Exception;
+
+    /**
+     * Writes frames to a destination in the given order
+     *
+     * @param frames      results of {@link #frame(AuditEventMessage)}
+     * @param destination destination address
+     * @param port        destination port
+     * @throws Exception if the frames cannot be delivered
+     */
+    void sendFrames(List<byte[]> frames, InetAddress destination, int port) throws Exception;
+}
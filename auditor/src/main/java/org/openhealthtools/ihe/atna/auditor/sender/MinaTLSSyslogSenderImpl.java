@@ -60,14 +60,16 @@ public class MinaTLSSyslogSenderImpl extends NioTLSSyslogSenderImpl<IoSession> {
 
         private SocketAddress socketAddress;
         private IoConnector connector;
-        private IoSession session;
+        private volatile IoSession session;
         private IoSessionConfig connectorConfig;
         private ExecutorService executor;
         private long sendTimeout = 10000;
 
         public MinaDestination(String host, int port, boolean withLogging) throws Exception {
             socketAddress = new InetSocketAddress(host, port);
-            connector = new NioSocketConnector(Runtime.getRuntime().availableProcessors() + 1);
+            NioSocketConnector socketConnector = new NioSocketConnector(Runtime.getRuntime().availableProcessors() + 1);
+            socketConnector.getSessionConfig().setKeepAlive(true);
+            connector = socketConnector;
             connector.setConnectTimeoutMillis(10000L);
             connectorConfig = connector.getSessionConfig();
             executor = new OrderedThreadPoolExecutor(5);
@@ -96,10 +98,37 @@ public class MinaTLSSyslogSenderImpl extends NioTLSSyslogSenderImpl<IoSession> {
             }
         }
 
+        @Override
+        public boolean isBroken() {
+            IoSession current = session;
+            return current != null && !current.isConnected();
+        }
+
+        @Override
+        public synchronized void reconnect() throws Exception {
+            IoSession stale = session;
+            session = null;
+            getSession();
+            if (stale != null) {
+                stale.closeOnFlush();
+            }
+        }
+
+        @Override
+        public void discard() {
+            IoSession stale = session;
+            if (stale != null) {
+                stale.closeNow();
+            }
+        }
+
         @Override
         public IoSession getSession() throws SyslogSenderException {
             if (session == null || !session.isConnected()) {
                 synchronized (this) {
+                    if (session != null && session.isConnected()) {
+                        return session;
+                    }
                     LOG.debug("Lazily open connection to address: {} using connector: {}", socketAddress, connector);
                     // connect and wait until the connection is established
                     if (connectorConfig != null) {
@@ -52,7 +52,7 @@ public class NettyTLSSyslogSenderImpl extends NioTLSSyslogSenderImpl<Channel> {
         private long sendTimeout = 10000;
         private Bootstrap bootstrap;
         private EventLoopGroup workerGroup;
-        private Channel channel;
+        private volatile Channel channel;
 
         public NettyDestination(String host, int port, final boolean withLogging) {
 
@@ -63,6 +63,7 @@ public class NettyTLSSyslogSenderImpl extends NioTLSSyslogSenderImpl<Channel> {
                 .group(workerGroup)
                 .channel(NioSocketChannel.class)
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000)
+                .option(ChannelOption.SO_KEEPALIVE, true)
                 .remoteAddress(host, port)
                 .handler(new ChannelInitializer<SocketChannel>() {
                 @Override
@@ -93,6 +94,29 @@ public class NettyTLSSyslogSenderImpl extends NioTLSSyslogSenderImpl<Channel> {
             workerGroup.shutdownGracefully();
         }
 
+        @Override
+        public boolean isBroken() {
+            Channel current = channel;
+            return current != null && !current.isActive();
+        }
+
+        @Override
+        public void reconnect() throws Exception {
+            Channel stale = channel;
+            channel = bootstrap.connect().sync().channel();
+            if (stale != null) {
+                stale.close();
+            }
+        }
+
+        @Override
+        public void discard() {
+            Channel stale = channel;
+            if (stale != null) {
+                stale.close();
+            }
+        }
+
         @Override
         public Channel getSession() throws SyslogSenderException {
             if (channel == null || !channel.isActive()) {
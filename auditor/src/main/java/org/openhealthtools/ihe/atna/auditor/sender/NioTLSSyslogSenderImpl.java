@@ -12,9 +12,14 @@
 package org.openhealthtools.ihe.atna.auditor.sender;
 
 import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.queue.AuditMessageQueue;
 import org.openhealthtools.ihe.atna.auditor.utils.EventUtils;
+import org.openhealthtools.ihe.atna.nodeauth.CircuitBreakerRegistry;
+import org.openhealthtools.ihe.atna.nodeauth.context.NodeAuthModuleContext;
+import org.openhealthtools.ihe.utils.jfr.FlightRecorderEvents;
 
 import java.net.InetAddress;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -35,6 +40,12 @@ public abstract class NioTLSSyslogSenderImpl<S> extends RFC5424SyslogSenderImpl
 
     private Map<String, Destination<S>> destinations = new ConcurrentHashMap<>();
 
+    private final DestinationLanes lanes = new DestinationLanes(getClass().getSimpleName());
+
+    private final ConnectionLivenessMonitor monitor = new ConnectionLivenessMonitor(getClass().getSimpleName());
+
+    private final CircuitBreakerGuard guard = new CircuitBreakerGuard(NodeAuthModuleContext.getContext().getCircuitBreakerRegistry());
+
     public NioTLSSyslogSenderImpl() {
         super();
     }
@@ -56,54 +67,125 @@ public abstract class NioTLSSyslogSenderImpl<S> extends RFC5424SyslogSenderImpl
         if (EventUtils.isEmptyOrNull(msgBytes)) {
             return;
         }
+        FlightRecorderEvents.Probe probe = FlightRecorderEvents.start(FlightRecorderEvents.Kind.SOCKET_WRITE);
         destination.write(msgBytes);
+        InetAddress address = msg.getDestinationAddress();
+        probe.end(msg.getClass().getName(),
+                FlightRecorderEvents.destination(address == null ? null : address.getHostAddress(), msg.getDestinationPort()),
+                msgBytes.length);
     }
 
     @Override
     public void sendAuditEvent(AuditEventMessage[] msgs) throws Exception {
         if (!EventUtils.isEmptyOrNull(msgs)) {
-            for (int i = 0; i < msgs.length; i++) {
-                if (!EventUtils.isEmptyOrNull(msgs[i])) {
-                    send(msgs[i], getDestination(msgs[i].getDestinationAddress(), msgs[i].getDestinationPort()));
+            // deliver to each destination in its own ordered lane
+            lanes.deliver(msgs, guard.guard((address, port, destinationMsgs) -> {
+                Destination<S> destination = getDestination(address, port);
+                for (AuditEventMessage msg : destinationMsgs) {
+                    send(msg, destination);
                 }
-            }
+            }));
         }
     }
 
     @Override
     public void sendAuditEvent(AuditEventMessage[] msgs, InetAddress destination, int port) throws Exception {
         if (!EventUtils.isEmptyOrNull(msgs)) {
-            for (int i = 0; i < msgs.length; i++) {
-                send(msgs[i], getDestination(destination, port));
-            }
+            guard.deliver(destination, port, Arrays.asList(msgs), () -> {
+                for (int i = 0; i < msgs.length; i++) {
+                    send(msgs[i], getDestination(destination, port));
+                }
+            });
         }
     }
 
+    /**
+     * @return the monitor checking the connections in the background, e.g. for setting
+     * the maximum idle time or age of a connection
+     */
+    public ConnectionLivenessMonitor getLivenessMonitor() {
+        return monitor;
+    }
+
+    /**
+     * Sets the circuit breakers guarding the destinations. Defaults to the breakers of the
+     * node authentication context.
+     *
+     * @param registry circuit breaker registry
+     */
+    public void setCircuitBreakerRegistry(CircuitBreakerRegistry registry) {
+        guard.setRegistry(registry);
+    }
+
+    /**
+     * Sets the queue taking over messages for destinations whose circuit breaker is open.
+     * Without a fallback queue, such deliveries fail fast. The queue must not deliver back
+     * to this sender.
+     *
+     * @param fallbackQueue fallback queue, may be null
+     */
+    public void setFallbackQueue(AuditMessageQueue fallbackQueue) {
+        guard.setFallbackQueue(fallbackQueue);
+    }
+
+    /**
+     * Sets the maximum time to wait for the delivery to one destination when a batch
+     * is delivered to several destinations in parallel. Defaults to 30 seconds.
+     *
+     * @param destinationTimeout timeout in milliseconds
+     */
+    public void setDestinationTimeout(long destinationTimeout) {
+        lanes.setDestinationTimeout(destinationTimeout);
+    }
+
     private Destination<S> getDestination(InetAddress address, int port) throws Exception {
-        Destination<S> destination = destinations.get(address.getHostName() + port);
+        String key = address.getHostName() + port;
+        Destination<S> destination = destinations.get(key);
         if (destination == null) {
             synchronized (this) {
+                FlightRecorderEvents.Probe probe = FlightRecorderEvents.start(FlightRecorderEvents.Kind.SOCKET_RECONNECT);
                 destination = makeDestination(address.getHostName(), port, false);
-                Destination<S> existing = destinations.put(address.getHostName() + port, destination);
+                probe.end(getClass().getName(), FlightRecorderEvents.destination(address.getHostAddress(), port), 0);
+                Destination<S> existing = destinations.put(key, destination);
                 // shutdown replaced connection
                 if (existing != null) existing.shutdown();
+                monitor.register(key, destination);
             }
         }
+        if (!monitor.used(key)) {
+            // discarded as idle, the session is established again on this use
+            monitor.register(key, destination);
+        }
         return destination;
     }
 
     protected abstract Destination<S> makeDestination(String host, int port, boolean logging) throws Exception;
 
     protected void finalize() {
+        monitor.shutdown();
         destinations.values().forEach(Destination::shutdown);
+        lanes.shutdown();
     }
 
-    public interface Destination<S> {
+    public interface Destination<S> extends ConnectionLivenessMonitor.MonitoredConnection {
 
         void write(byte[] bytes);
         void shutdown();
         S getSession() throws SyslogSenderException;
 
+        @Override
+        default boolean isBroken() {
+            return false;
+        }
+
+        @Override
+        default void reconnect() throws Exception {
+        }
+
+        @Override
+        default void discard() {
+        }
+
         final class SyslogSenderException extends Exception {
             public SyslogSenderException(String message) {
                 super(message);
@@ -15,6 +15,8 @@ import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 
 import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.serializer.AuditMessageSerializer;
+import org.openhealthtools.ihe.atna.auditor.serializer.DestinationSerializers;
 import org.openhealthtools.ihe.atna.auditor.utils.EventUtils;
 import org.openhealthtools.ihe.atna.auditor.utils.TimestampUtils;
 import org.slf4j.Logger;
@@ -68,6 +70,11 @@ public class RFC5424SyslogSenderImpl
 	 * Default syslog MSGID for this transport
 	 */
 	public static final String TRANSPORT_DEFAULT_MSGID = "IHE+RFC-3881";
+	
+	/**
+	 * Output formats used by this sender
+	 */
+	private final DestinationSerializers serializers = new DestinationSerializers();
 
 	/**
 	 * Default constructor
@@ -77,6 +84,27 @@ public class RFC5424SyslogSenderImpl
 
 	}
 	
+	/**
+	 * Gets the output format selection of this sender. Messages are
+	 * sent as RFC 3881 XML unless configured otherwise.
+	 * 
+	 * @return Output formats by destination
+	 */
+	public DestinationSerializers getSerializers()
+	{
+		return serializers;
+	}
+	
+	/**
+	 * Sets the output format for all destinations without an explicit one
+	 * 
+	 * @param serializer Output format to use
+	 */
+	public void setSerializer(AuditMessageSerializer serializer)
+	{
+		serializers.setDefaultSerializer(serializer);
+	}
+	
 	/**
 	 * Serialize, format, and prepare the message payload body 
 	 * for sending by this transport.  This includes adding
@@ -91,7 +119,8 @@ public class RFC5424SyslogSenderImpl
 			return null;
 		}
 		
-		byte[] msgBytes = msg.getSerializedMessage(false);
+		AuditMessageSerializer serializer = serializers.select(msg);
+		byte[] msgBytes = msg.getSerializedMessage(serializer, false);
 		if (EventUtils.isEmptyOrNull(msgBytes)) {
 			return null;
 		}
@@ -120,7 +149,7 @@ public class RFC5424SyslogSenderImpl
 		sb.append(getPROCID());
 		sb.append(" ");
 		//MSGID SP; SHOULD identify the type of message
-		sb.append(TRANSPORT_DEFAULT_MSGID); 
+		sb.append(serializer.getMessageId()); 
 		//sb.append(" "); // added to next string
 		//STRUCTURED-DATA
 		sb.append(" - "); // this is the nil value, since IHE ATNA does not use it
@@ -132,7 +161,7 @@ public class RFC5424SyslogSenderImpl
 		// BOM for UTF-8
 		//sb.append("\u00EF\u00BB\u00BF");
 		sb.append("\uFEFF"); // recommended by Jeremy Huiskamp, over the wire result is EF BB EF as I think it should be
-		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		sb.append(serializer.getDeclaration());
 		/* end UTF 8 alternative*/
 
 		// remainder of XML payload
@@ -12,23 +12,32 @@
 package org.openhealthtools.ihe.atna.auditor.sender;
 
 import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.queue.AuditMessageQueue;
 import org.openhealthtools.ihe.atna.auditor.utils.EventUtils;
 import org.openhealthtools.ihe.atna.nodeauth.context.NodeAuthModuleContext;
+import org.openhealthtools.ihe.utils.jfr.FlightRecorderEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Simple client implementation of RFC 5425 TLS syslog transport
  * for sending audit messages to an Audit Record Repository
  * that implements TLS syslog.  
- * Multiple messages may be sent over the same socket.
+ * Multiple messages may be sent over the same socket.  Cached sockets
+ * are checked and replaced in the background by a {@link ConnectionLivenessMonitor}.
+ * Deliveries go through the circuit breaker of their destination, which is shared
+ * with the socket handler of the node authentication context.
  * 
  * Designed to run in a standalone mode from the standard IHE Auditor
  * and is not dependent on any context or configuration.
@@ -37,10 +46,20 @@ import java.util.Map;
  * Derived from code written by Matthew Davis of IBM.
  *
  */
-public class TLSSyslogSenderImpl extends RFC5424SyslogSenderImpl implements AuditMessageSender
+public class TLSSyslogSenderImpl extends RFC5424SyslogSenderImpl implements FramedAuditMessageSender
 {
 	private static Map<String, Socket> socketMap = new HashMap<>();
 
+	/**
+	 * Ordered delivery lanes, one per destination
+	 */
+	private static final DestinationLanes lanes = new DestinationLanes("TLS syslog");
+
+	/**
+	 * Background check replacing cached sockets that are closed, idle or too old
+	 */
+	private static final ConnectionLivenessMonitor monitor = new ConnectionLivenessMonitor("TLS syslog");
+
 	/**
 	 * Logger instance
 	 */
@@ -52,10 +71,45 @@ public class TLSSyslogSenderImpl extends RFC5424SyslogSenderImpl implements Audi
 	public static final int TRANSPORT_DEFAULT_PORT = 6514;
 	
 	/**
-	 * Default constructor
+	 * Node authentication context providing the sockets
+	 */
+	private final NodeAuthModuleContext nodeAuthContext;
+	
+	/**
+	 * Circuit breakers of the destinations, shared with the socket handler
+	 */
+	private final CircuitBreakerGuard guard;
+	
+	/**
+	 * Default constructor, uses the node authentication context of the current thread
 	 */
 	public TLSSyslogSenderImpl()
 	{
+		this(NodeAuthModuleContext.getContext());
+	}
+	
+	/**
+	 * Constructor using the given node authentication context
+	 * 
+	 * @param nodeAuthContext Context providing the sockets
+	 */
+	public TLSSyslogSenderImpl(NodeAuthModuleContext nodeAuthContext)
+	{
+		this.nodeAuthContext = nodeAuthContext;
+		this.guard = new CircuitBreakerGuard(nodeAuthContext.getCircuitBreakerRegistry());
+	}
+	
+	/**
+	 * Sets the queue taking over messages for destinations whose circuit breaker
+	 * is open.  Without a fallback queue, such deliveries fail fast.  The queue must
+	 * not deliver back to this sender, e.g. use an {@link org.openhealthtools.ihe.atna.auditor.queue.AuditStoreQueue}
+	 * spooling to a local store.
+	 * 
+	 * @param fallbackQueue Fallback queue, may be null
+	 */
+	public void setFallbackQueue(AuditMessageQueue fallbackQueue)
+	{
+		guard.setFallbackQueue(fallbackQueue);
 	}
 	
 	/**
@@ -67,50 +121,98 @@ public class TLSSyslogSenderImpl extends RFC5424SyslogSenderImpl implements Audi
 	 * @throws Exception
 	 */
 	private void send(AuditEventMessage msg, Socket socket) throws Exception
+	{
+		byte[] frame = frame(msg);
+		if (frame != null) {
+			send(frame, msg.getClass().getName(), socket);
+		}
+	}
+	
+	/**
+	 * Serializes and formats an event message for syslog and prepends the 
+	 * SYSLOG-FRAME, which is just the length of the message with no leading 
+	 * zeros followed by a space
+	 * 
+	 * @see org.openhealthtools.ihe.atna.auditor.sender.FramedAuditMessageSender#frame(org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage)
+	 */
+	public byte[] frame(AuditEventMessage msg) throws Exception
 	{
 		if (EventUtils.isEmptyOrNull(msg)) {
-			return;
+			return null;
 		}
-		
-		// Serialize and format event message for syslog
 		byte[] msgBytes = getTransportPayload(msg);
 		if (EventUtils.isEmptyOrNull(msgBytes)) {
-			return;
+			return null;
 		}
-
-		//TODO: prepend the SYSLOG-FRAME, which is just the length of msgBytes with no leading zeros followed by a space
-		String syslogFrame = String.valueOf(msgBytes.length) + " ";
-		
-		//TODO: send the frame + message over the socket
+		byte[] syslogFrame = (msgBytes.length + " ").getBytes(StandardCharsets.US_ASCII);
+		byte[] frame = new byte[syslogFrame.length + msgBytes.length];
+		System.arraycopy(syslogFrame, 0, frame, 0, syslogFrame.length);
+		System.arraycopy(msgBytes, 0, frame, syslogFrame.length, msgBytes.length);
+		return frame;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.openhealthtools.ihe.atna.auditor.sender.FramedAuditMessageSender#sendFrames(java.util.List, java.net.InetAddress, int)
+	 */
+	public void sendFrames(List<byte[]> frames, InetAddress destination, int port) throws Exception
+	{
+		if (!frames.isEmpty()) {
+			guard.deliver(destination, port, null, () -> {
+				Socket s = getTLSSocket(destination, port);
+				for (byte[] frame : frames) {
+					send(frame, null, s);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Writes a framed message to the TLS socket specified, replacing the socket
+	 * once if it turns out to be broken.
+	 * 
+	 * @param frame Framed message
+	 * @param auditorClass Name of the message class, for diagnostics only
+	 * @param socket TLS socket to use
+	 * @throws Exception
+	 */
+	private void send(byte[] frame, String auditorClass, Socket socket) throws Exception
+	{
        if (LOGGER.isDebugEnabled()) {
         	LOGGER.debug("Auditing to " + socket.getInetAddress().getHostAddress() + ":" + socket.getPort());
-        	LOGGER.debug(new String(msgBytes));
+        	LOGGER.debug(new String(frame));
        }
 
        // multiple threads can get a pointer to the socket but only one should write at a time
        synchronized (socket){
+    	   FlightRecorderEvents.Probe probe = FlightRecorderEvents.start(FlightRecorderEvents.Kind.SOCKET_WRITE);
     	   try{
 		       OutputStream out = socket.getOutputStream();
-		       out.write(syslogFrame.getBytes());
-		       out.write(msgBytes);
+		       out.write(frame);
 		       out.flush();
+		       probe.end(auditorClass,
+		    		   FlightRecorderEvents.destination(socket.getInetAddress().getHostAddress(), socket.getPort()), frame.length);
     	   } catch(SocketException e) {
     		   try {
 	    		   LOGGER.info("Failed to connect with existing TLS socket.  Will create a new connection and retry.");
 	    		   String key = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
 	    		   synchronized (socketMap) {
-	    			   socketMap.remove(key);
+	    			   FlightRecorderEvents.Probe reconnectProbe = FlightRecorderEvents.start(FlightRecorderEvents.Kind.SOCKET_RECONNECT);
+	    			   // the monitor may already have replaced the broken socket
+	    			   socketMap.remove(key, socket);
 		    		   Socket newSocket = this.getTLSSocket(socket.getInetAddress(), socket.getPort());
 				       OutputStream out = newSocket.getOutputStream();
-				       out.write(syslogFrame.getBytes());
-				       out.write(msgBytes);
+				       out.write(frame);
 				       out.flush();
 				       socketMap.put(key, newSocket);
+				       reconnectProbe.end(auditorClass, key, frame.length);
 	    		   }
     		   } catch (Exception exception) {
 	    		   LOGGER.error("Still exception trying to audit to TLS socket, throwing away socket.  Cannot connect to server, this log message will be lost.", e);
 	    		   synchronized (socketMap) {
 	    			   // since we don't know what the key was for this socket, just dump the whole map cause something is probably gone wrong anyway
+	    			   for(String closeKey : socketMap.keySet()){
+	    				   monitor.unregister(closeKey);
+	    			   }
 	    			   for(Socket closeMe : socketMap.values()){
 	    				   try{
 	    					   closeMe.close();
@@ -134,13 +236,14 @@ public class TLSSyslogSenderImpl extends RFC5424SyslogSenderImpl implements Audi
 	public void sendAuditEvent(AuditEventMessage[] msgs) throws Exception 
 	{
         if (!EventUtils.isEmptyOrNull(msgs)) {
-
-    		for (int i=0; i<msgs.length; i++) {
-    			if (!EventUtils.isEmptyOrNull(msgs[i])) {
-    	    		Socket s = getTLSSocket(msgs[i].getDestinationAddress(), msgs[i].getDestinationPort());
-    				send(msgs[i], s);
-    			}
-    		}
+        	// deliver to each destination in its own ordered lane, so that a slow
+        	// repository does not hold up the others
+        	lanes.deliver(msgs, guard.guard((destination, port, destinationMsgs) -> {
+        		Socket s = getTLSSocket(destination, port);
+        		for (AuditEventMessage msg : destinationMsgs) {
+        			send(msg, s);
+        		}
+        	}));
     		
     		//TODO: tear down the TLS transport socket, if needed
         }
@@ -152,16 +255,40 @@ public class TLSSyslogSenderImpl extends RFC5424SyslogSenderImpl implements Audi
 	public void sendAuditEvent(AuditEventMessage[] msgs, InetAddress destination, int port) throws Exception 
 	{
         if (!EventUtils.isEmptyOrNull(msgs)) {
-    		Socket s = getTLSSocket(destination, port);
-
-    		for (int i=0; i<msgs.length; i++) {
-				send(msgs[i], s);
-    		}
+        	guard.deliver(destination, port, Arrays.asList(msgs), () -> {
+	    		Socket s = getTLSSocket(destination, port);
+	
+	    		for (int i=0; i<msgs.length; i++) {
+					send(msgs[i], s);
+	    		}
+        	});
     		
     		//TODO: tear down the TLS transport socket, if needed
         }
 	}
 
+	/**
+	 * Sets the maximum time to wait for the delivery to one destination
+	 * when a batch is delivered to several destinations in parallel
+	 * 
+	 * @param destinationTimeout Timeout in milliseconds
+	 */
+	public static void setDestinationTimeout(long destinationTimeout)
+	{
+		lanes.setDestinationTimeout(destinationTimeout);
+	}
+
+	/**
+	 * Gets the monitor checking the cached sockets in the background, 
+	 * e.g. for setting the maximum idle time or age of a connection
+	 * 
+	 * @return The connection liveness monitor
+	 */
+	public static ConnectionLivenessMonitor getLivenessMonitor()
+	{
+		return monitor;
+	}
+
 	/**
 	 * Gets the socket tied to the address and port for this transport 
 	 * 
@@ -175,19 +302,85 @@ public class TLSSyslogSenderImpl extends RFC5424SyslogSenderImpl implements Audi
 			Socket socket = socketMap.get(key);
 			if (socket == null){
 				// create a new one
-				NodeAuthModuleContext nodeAuthContext = NodeAuthModuleContext.getContext();
 	        	socket = nodeAuthContext.getSocketHandler().getSocket(destination.getHostName(), port, true);
+	        	socket.setKeepAlive(true);
 	        	// remember it for next time
 	        	// TODO: had trouble with this with Steve Moore's online ATNA server so not caching the sockets
 	        	// need to worry about synchronization if we try to put this optimization back
 	        	// there appears to be one AuditorModuleContext per host/port so may can pool them based on that object?
 				socketMap.put(key, socket);
+				monitor.register(key, new MonitoredSocket(destination, port, key));
 			}
+			monitor.used(key);
 			// whatever happened, now return the socket
 			return socket;		
 		}
 	}
 	
+	/**
+	 * Closes a socket that has been replaced, once a write in progress is finished
+	 * 
+	 * @param socket Socket to close, may be null
+	 */
+	private static void close(Socket socket)
+	{
+		if (socket != null) {
+			synchronized (socket) {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// nothing we can do about this, ignore it
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Cached socket to a destination as seen by the liveness monitor
+	 */
+	private final class MonitoredSocket implements ConnectionLivenessMonitor.MonitoredConnection
+	{
+		private final InetAddress destination;
+		private final int port;
+		private final String key;
+		
+		MonitoredSocket(InetAddress destination, int port, String key)
+		{
+			this.destination = destination;
+			this.port = port;
+			this.key = key;
+		}
+		
+		public boolean isBroken()
+		{
+			Socket socket;
+			synchronized (socketMap) {
+				socket = socketMap.get(key);
+			}
+			return socket != null && ConnectionLivenessMonitor.isClosedByPeer(socket);
+		}
+		
+		public void reconnect() throws Exception
+		{
+			Socket socket = nodeAuthContext.getSocketHandler().getSocket(destination.getHostName(), port, true);
+			socket.setKeepAlive(true);
+			Socket stale;
+			synchronized (socketMap) {
+				stale = socketMap.put(key, socket);
+			}
+			close(stale);
+		}
+		
+		public void discard()
+		{
+			Socket stale;
+			synchronized (socketMap) {
+				stale = socketMap.remove(key);
+			}
+			close(stale);
+		}
+	}
+	
 	// called when the object is destroyed
 	// since this can be used in a webapp it may be used multiple times
 	// in a JVM so this will save resources
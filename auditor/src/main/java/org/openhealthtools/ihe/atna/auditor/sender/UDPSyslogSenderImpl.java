@@ -14,6 +14,7 @@ package org.openhealthtools.ihe.atna.auditor.sender;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.util.List;
 
 import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
 import org.openhealthtools.ihe.atna.auditor.utils.EventUtils;
@@ -34,7 +35,7 @@ import org.slf4j.LoggerFactory;
  * Derived from code written by Matthew Davis of IBM.
  *
  */
-public class UDPSyslogSenderImpl extends RFC5424SyslogSenderImpl implements AuditMessageSender
+public class UDPSyslogSenderImpl extends RFC5424SyslogSenderImpl implements FramedAuditMessageSender
 {
 
 	/**
@@ -147,6 +148,35 @@ public class UDPSyslogSenderImpl extends RFC5424SyslogSenderImpl implements Audi
         }
 	}
 
+	/**
+	 * Serializes and formats an event message for syslog. Each message is 
+	 * sent as one datagram, so no further framing is needed.
+	 * 
+	 * @see org.openhealthtools.ihe.atna.auditor.sender.FramedAuditMessageSender#frame(org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage)
+	 */
+	public byte[] frame(AuditEventMessage msg) throws Exception
+	{
+		if (EventUtils.isEmptyOrNull(msg)) {
+			return null;
+		}
+		return getTransportPayload(msg);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.openhealthtools.ihe.atna.auditor.sender.FramedAuditMessageSender#sendFrames(java.util.List, java.net.InetAddress, int)
+	 */
+	public void sendFrames(List<byte[]> frames, InetAddress destination, int port) throws Exception
+	{
+		if (!frames.isEmpty()) {
+			int portToUse = getTransportPort(port);
+			try (DatagramSocket socket = new DatagramSocket()) {
+				for (byte[] frame : frames) {
+					send(frame, socket, destination, portToUse);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Gets the port designated for this transport
 	 * 
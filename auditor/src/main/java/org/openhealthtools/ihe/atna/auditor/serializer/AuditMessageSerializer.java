@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.serializer;
+
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.AuditMessage;
+
+/**
+ * Output format of audit messages. Serializers turn the RFC 3881 model of an audit
+ * message into its wire representation and must be thread-safe.
+ *
+ * @see RFC3881XmlSerializer
+ * @see FhirAuditEventJsonSerializer
+ * @since 3.7
+ */
+public interface AuditMessageSerializer {
+
+    /**
+     * Serializes an audit message
+     *
+     * @param message    audit message model
+     * @param useSpacing whether to use line breaks and indentation
+     * @return serialized message
+     */
+    byte[] serialize(AuditMessage message, boolean useSpacing);
+
+    /**
+     * @return syslog MSGID identifying this format (RFC 5424 header)
+     */
+    String getMessageId();
+
+    /**
+     * @return text preceding the serialized message in a syslog frame, e.g. an XML declaration
+     */
+    String getDeclaration();
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.serializer;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+
+/**
+ * Selects the output format of a sender, either for all messages or per destination.
+ * Without any per-destination entries the selection costs a single field read.
+ *
+ * @since 3.7
+ */
+public class DestinationSerializers {
+
+    private volatile AuditMessageSerializer defaultSerializer = RFC3881XmlSerializer.INSTANCE;
+
+    private final Map<InetSocketAddress, AuditMessageSerializer> serializers = new ConcurrentHashMap<>();
+
+    /**
+     * @return output format for destinations without an explicit one
+     */
+    public AuditMessageSerializer getDefaultSerializer() {
+        return defaultSerializer;
+    }
+
+    /**
+     * @param serializer output format for destinations without an explicit one
+     */
+    public void setDefaultSerializer(AuditMessageSerializer serializer) {
+        if (serializer == null) throw new IllegalArgumentException("Serializer must not be null");
+        this.defaultSerializer = serializer;
+    }
+
+    /**
+     * Sets the output format for one destination
+     *
+     * @param address    destination address
+     * @param port       destination port
+     * @param serializer output format, null to fall back to the default
+     */
+    public void setSerializer(InetAddress address, int port, AuditMessageSerializer serializer) {
+        InetSocketAddress destination = new InetSocketAddress(address, port);
+        if (serializer == null) {
+            serializers.remove(destination);
+        } else {
+            serializers.put(destination, serializer);
+        }
+    }
+
+    /**
+     * @param msg message to send
+     * @return output format for the destination of the message
+     */
+    public AuditMessageSerializer select(AuditEventMessage msg) {
+        if (serializers.isEmpty() || msg.getDestinationAddress() == null) {
+            return defaultSerializer;
+        }
+        AuditMessageSerializer serializer = serializers.get(
+                new InetSocketAddress(msg.getDestinationAddress(), msg.getDestinationPort()));
+        return serializer != null ? serializer : defaultSerializer;
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.serializer;
+
+import java.util.List;
+
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.ActiveParticipantType;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.AuditMessage;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.AuditSourceIdentificationType;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.AuditSourceType;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.CodedValueType;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.EventIdentificationType;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.ParticipantObjectIdentificationType;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.TypeValuePairType;
+import org.openhealthtools.ihe.atna.auditor.utils.EventUtils;
+
+/**
+ * Output format producing FHIR R4 <code>AuditEvent</code> resources in JSON, following
+ * the RFC 3881 to FHIR mapping of IHE RESTful ATNA. The JSON is streamed straight from
+ * the RFC 3881 model into a UTF-8 buffer, without any intermediate tree.
+ * <p>
+ * Codes are mapped as follows: coded values with a code system OID get the system
+ * <code>urn:oid:&lt;oid&gt;</code>, DICOM and IHE transaction codes get their canonical
+ * FHIR systems, and the numeric RFC 3881 codes (outcome, source type, object type and role,
+ * data life cycle, network access point type) are translated to the corresponding FHIR
+ * code systems.
+ *
+ * @since 3.7
+ */
+public final class FhirAuditEventJsonSerializer implements AuditMessageSerializer {
+
+    public static final FhirAuditEventJsonSerializer INSTANCE = new FhirAuditEventJsonSerializer();
+
+    static final String DICOM_SYSTEM = "http://dicom.nema.org/resources/ontology/DCM";
+    static final String IHE_EVENT_TYPE_SYSTEM = "urn:ihe:event-type-code";
+    static final String SOURCE_TYPE_SYSTEM = "http://terminology.hl7.org/CodeSystem/security-source-type";
+    static final String ENTITY_TYPE_SYSTEM = "http://terminology.hl7.org/CodeSystem/audit-entity-type";
+    static final String OBJECT_ROLE_SYSTEM = "http://terminology.hl7.org/CodeSystem/object-role";
+    static final String LIFECYCLE_SYSTEM = "http://terminology.hl7.org/CodeSystem/dicom-audit-lifecycle";
+
+    /**
+     * Initial buffer size, large enough for typical messages
+     */
+    private static final int INITIAL_CAPACITY = 2048;
+
+    private FhirAuditEventJsonSerializer() {
+    }
+
+    @Override
+    public byte[] serialize(AuditMessage message, boolean useSpacing) {
+        JsonWriter json = new JsonWriter(INITIAL_CAPACITY, useSpacing);
+        json.beginObject();
+        json.name("resourceType").value("AuditEvent");
+        writeEventIdentification(json, message.getEventIdentification());
+        writeAgents(json, message.getActiveParticipant());
+        writeSource(json, message.getAuditSourceIdentification());
+        writeEntities(json, message.getParticipantObjectIdentification());
+        json.endObject();
+        return json.toByteArray();
+    }
+
+    @Override
+    public String getMessageId() {
+        return "IHE+FHIR";
+    }
+
+    @Override
+    public String getDeclaration() {
+        return "";
+    }
+
+    private static void writeEventIdentification(JsonWriter json, EventIdentificationType event) {
+        if (event == null) {
+            return;
+        }
+        if (event.getEventID() != null) {
+            json.name("type");
+            writeCoding(json, event.getEventID());
+        }
+        if (!EventUtils.isEmptyOrNull(event.getEventTypeCode())) {
+            json.name("subtype").beginArray();
+            for (CodedValueType subtype : event.getEventTypeCode()) {
+                writeCoding(json, subtype);
+            }
+            json.endArray();
+        }
+        json.optional("action", event.getEventActionCode());
+        json.optional("recorded", event.getEventDateTime());
+        json.name("outcome").value(Integer.toString(event.getEventOutcomeIndicator()));
+        if (!EventUtils.isEmptyOrNull(event.getPurposesOfUse())) {
+            json.name("purposeOfEvent").beginArray();
+            for (CodedValueType purpose : event.getPurposesOfUse()) {
+                writeCodeableConcept(json, purpose);
+            }
+            json.endArray();
+        }
+    }
+
+    private static void writeAgents(JsonWriter json, List<ActiveParticipantType> participants) {
+        if (EventUtils.isEmptyOrNull(participants)) {
+            return;
+        }
+        json.name("agent").beginArray();
+        for (ActiveParticipantType participant : participants) {
+            json.beginObject();
+            if (!EventUtils.isEmptyOrNull(participant.getRoleIDCode())) {
+                json.name("role").beginArray();
+                for (CodedValueType role : participant.getRoleIDCode()) {
+                    writeCodeableConcept(json, role);
+                }
+                json.endArray();
+            }
+            if (participant.getUserID() != null) {
+                json.name("who");
+                writeIdentifier(json, participant.getUserID());
+            }
+            json.optional("altId", participant.getAlternativeUserID());
+            json.optional("name", participant.getUserName());
+            json.name("requestor").value(participant.isUserIsRequestor());
+            if (participant.getNetworkAccessPointID() != null) {
+                json.name("network").beginObject();
+                json.name("address").value(participant.getNetworkAccessPointID());
+                if (participant.getNetworkAccessPointTypeCode() != null) {
+                    json.name("type").value(participant.getNetworkAccessPointTypeCode().toString());
+                }
+                json.endObject();
+            }
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    private static void writeSource(JsonWriter json, List<AuditSourceIdentificationType> sources) {
+        // FHIR allows exactly one source, RFC 3881 messages carry one in practice
+        if (EventUtils.isEmptyOrNull(sources)) {
+            return;
+        }
+        AuditSourceIdentificationType source = sources.get(0);
+        json.name("source").beginObject();
+        json.optional("site", source.getAuditEnterpriseSiteID());
+        json.name("observer");
+        writeIdentifier(json, EventUtils.isEmptyOrNull(source.getAuditSourceID()) ? "unknown" : source.getAuditSourceID());
+        json.name("type").beginArray();
+        if (EventUtils.isEmptyOrNull(source.getAuditSourceType())) {
+            writeCoding(json, SOURCE_TYPE_SYSTEM, "9", "Other");
+        } else {
+            for (AuditSourceType type : source.getAuditSourceType()) {
+                writeCoding(json, SOURCE_TYPE_SYSTEM, type.getCode(), type.getOriginalText());
+            }
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    private static void writeEntities(JsonWriter json, List<ParticipantObjectIdentificationType> objects) {
+        if (EventUtils.isEmptyOrNull(objects)) {
+            return;
+        }
+        json.name("entity").beginArray();
+        for (ParticipantObjectIdentificationType object : objects) {
+            json.beginObject();
+            json.name("what").beginObject();
+            json.name("identifier").beginObject();
+            if (object.getParticipantObjectIDTypeCode() != null) {
+                json.name("type");
+                writeCodeableConcept(json, object.getParticipantObjectIDTypeCode());
+            }
+            json.name("value").value(object.getParticipantObjectID() == null ? "" : object.getParticipantObjectID());
+            json.endObject();
+            json.endObject();
+            if (object.getParticipantObjectTypeCode() != null) {
+                json.name("type");
+                writeCoding(json, ENTITY_TYPE_SYSTEM, object.getParticipantObjectTypeCode().toString(), null);
+            }
+            if (object.getParticipantObjectTypeCodeRole() != null) {
+                json.name("role");
+                writeCoding(json, OBJECT_ROLE_SYSTEM, object.getParticipantObjectTypeCodeRole().toString(), null);
+            }
+            if (object.getParticipantObjectDataLifeCycle() != null) {
+                json.name("lifecycle");
+                writeCoding(json, LIFECYCLE_SYSTEM, object.getParticipantObjectDataLifeCycle().toString(), null);
+            }
+            if (object.getParticipantObjectSensitivity() != null) {
+                json.name("securityLabel").beginArray();
+                writeCoding(json, null, object.getParticipantObjectSensitivity(), null);
+                json.endArray();
+            }
+            json.optional("name", object.getParticipantObjectName());
+            if (!EventUtils.isEmptyOrNull(object.getParticipantObjectQuery())) {
+                json.name("query").asciiValue(EventUtils.encodeBase64(object.getParticipantObjectQuery()));
+            }
+            if (!EventUtils.isEmptyOrNull(object.getParticipantObjectDetail())) {
+                json.name("detail").beginArray();
+                for (TypeValuePairType detail : object.getParticipantObjectDetail()) {
+                    json.beginObject();
+                    json.name("type").value(detail.getType() == null ? "" : detail.getType());
+                    // the model already holds the value Base64 encoded
+                    json.name("valueBase64Binary").asciiValue(detail.getValue() == null ? new byte[0] : detail.getValue());
+                    json.endObject();
+                }
+                json.endArray();
+            }
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    private static void writeIdentifier(JsonWriter json, String value) {
+        json.beginObject();
+        json.name("identifier").beginObject();
+        json.name("value").value(value);
+        json.endObject();
+        json.endObject();
+    }
+
+    private static void writeCodeableConcept(JsonWriter json, CodedValueType code) {
+        json.beginObject();
+        json.name("coding").beginArray();
+        writeCoding(json, code);
+        json.endArray();
+        json.endObject();
+    }
+
+    private static void writeCoding(JsonWriter json, CodedValueType code) {
+        writeCoding(json, system(code), code.getCode(), code.getOriginalText());
+    }
+
+    private static void writeCoding(JsonWriter json, String system, String code, String display) {
+        json.beginObject();
+        json.optional("system", system);
+        json.optional("code", code);
+        json.optional("display", display);
+        json.endObject();
+    }
+
+    private static String system(CodedValueType code) {
+        if (!EventUtils.isEmptyOrNull(code.getCodeSystem())) {
+            return "urn:oid:" + code.getCodeSystem();
+        }
+        String name = code.getCodeSystemName();
+        if ("DCM".equals(name)) {
+            return DICOM_SYSTEM;
+        }
+        if ("IHE Transactions".equals(name)) {
+            return IHE_EVENT_TYPE_SYSTEM;
+        }
+        return name;
+    }
+}
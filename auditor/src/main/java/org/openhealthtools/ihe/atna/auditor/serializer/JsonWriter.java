@@ -0,0 +1,245 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.serializer;
+
+import java.util.Arrays;
+
+/**
+ * Minimal streaming JSON writer that encodes directly into a growing UTF-8 byte buffer.
+ * Callers are responsible for producing well-formed structures; the writer only
+ * takes care of separators, escaping and optional indentation.
+ *
+ * @since 3.7
+ */
+final class JsonWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private final boolean pretty;
+    private byte[] buf;
+    private int count;
+
+    /**
+     * Per nesting level: whether a value has already been written at that level
+     */
+    private boolean[] hasValue = new boolean[8];
+    private int depth;
+    private boolean afterName;
+
+    JsonWriter(int initialCapacity, boolean pretty) {
+        this.buf = new byte[initialCapacity];
+        this.pretty = pretty;
+    }
+
+    JsonWriter beginObject() {
+        beforeValue();
+        write('{');
+        push();
+        return this;
+    }
+
+    JsonWriter endObject() {
+        pop();
+        write('}');
+        return this;
+    }
+
+    JsonWriter beginArray() {
+        beforeValue();
+        write('[');
+        push();
+        return this;
+    }
+
+    JsonWriter endArray() {
+        pop();
+        write(']');
+        return this;
+    }
+
+    JsonWriter name(String name) {
+        separate();
+        writeString(name);
+        write(':');
+        if (pretty) {
+            write(' ');
+        }
+        afterName = true;
+        return this;
+    }
+
+    JsonWriter value(String value) {
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    JsonWriter value(boolean value) {
+        beforeValue();
+        writeAscii(value ? "true" : "false");
+        return this;
+    }
+
+    JsonWriter value(long value) {
+        beforeValue();
+        writeAscii(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * Writes a string value whose content is known to be plain ASCII without
+     * characters requiring escapes, e.g. Base64
+     */
+    JsonWriter asciiValue(byte[] value) {
+        beforeValue();
+        write('"');
+        ensureCapacity(value.length);
+        System.arraycopy(value, 0, buf, count, value.length);
+        count += value.length;
+        write('"');
+        return this;
+    }
+
+    /**
+     * Writes a name/value pair if the value is not null
+     */
+    JsonWriter optional(String name, String value) {
+        if (value != null) {
+            name(name).value(value);
+        }
+        return this;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+        } else {
+            separate();
+        }
+    }
+
+    private void separate() {
+        if (depth > 0) {
+            if (hasValue[depth]) {
+                write(',');
+            }
+            hasValue[depth] = true;
+            newline(depth);
+        }
+    }
+
+    private void push() {
+        depth++;
+        if (depth == hasValue.length) {
+            hasValue = Arrays.copyOf(hasValue, depth * 2);
+        }
+        hasValue[depth] = false;
+    }
+
+    private void pop() {
+        boolean empty = !hasValue[depth];
+        depth--;
+        if (!empty) {
+            newline(depth);
+        }
+    }
+
+    private void newline(int indent) {
+        if (pretty) {
+            ensureCapacity(1 + 2 * indent);
+            buf[count++] = '\n';
+            for (int i = 0; i < indent; i++) {
+                buf[count++] = ' ';
+                buf[count++] = ' ';
+            }
+        }
+    }
+
+    private void writeAscii(String s) {
+        int length = s.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buf[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void writeString(String s) {
+        int length = s.length();
+        // worst case: 6 bytes per char (\\uXXXX) plus quotes
+        ensureCapacity(length * 6 + 2);
+        byte[] b = buf;
+        int n = count;
+        b[n++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c < 0x20) {
+                    switch (c) {
+                        case '\n': b[n++] = '\\'; b[n++] = 'n'; break;
+                        case '\r': b[n++] = '\\'; b[n++] = 'r'; break;
+                        case '\t': b[n++] = '\\'; b[n++] = 't'; break;
+                        default:
+                            b[n++] = '\\';
+                            b[n++] = 'u';
+                            b[n++] = '0';
+                            b[n++] = '0';
+                            b[n++] = HEX[c >> 4];
+                            b[n++] = HEX[c & 0xf];
+                    }
+                } else {
+                    if (c == '"' || c == '\\') {
+                        b[n++] = '\\';
+                    }
+                    b[n++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                b[n++] = (byte) (0xc0 | (c >> 6));
+                b[n++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                b[n++] = (byte) (0xf0 | (cp >> 18));
+                b[n++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                b[n++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                b[n++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate
+                b[n++] = '?';
+            } else {
+                b[n++] = (byte) (0xe0 | (c >> 12));
+                b[n++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                b[n++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        b[n++] = '"';
+        count = n;
+    }
+
+    private void write(char c) {
+        ensureCapacity(1);
+        buf[count++] = (byte) c;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (count + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + extra));
+        }
+    }
+}
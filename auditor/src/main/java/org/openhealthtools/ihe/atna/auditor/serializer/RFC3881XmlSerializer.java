@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.serializer;
+
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.AuditMessage;
+
+/**
+ * Default output format: RFC 3881 / DICOM audit message XML as produced by
+ * {@link AuditMessage#toString(boolean)}.
+ *
+ * @since 3.7
+ */
+public final class RFC3881XmlSerializer implements AuditMessageSerializer {
+
+    public static final RFC3881XmlSerializer INSTANCE = new RFC3881XmlSerializer();
+
+    private RFC3881XmlSerializer() {
+    }
+
+    @Override
+    public byte[] serialize(AuditMessage message, boolean useSpacing) {
+        return message.toString(useSpacing).getBytes();
+    }
+
+    @Override
+    public String getMessageId() {
+        return "IHE+RFC-3881";
+    }
+
+    @Override
+    public String getDeclaration() {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+    }
+}
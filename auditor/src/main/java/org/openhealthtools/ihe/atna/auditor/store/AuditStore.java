@@ -0,0 +1,386 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.auditor.store;
+
+import org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881ParticipantObjectCodes.RFC3881ParticipantObjectTypeRoleCodes;
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.AuditMessage;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.CodedValueType;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.EventIdentificationType;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.ParticipantObjectIdentificationType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Embedded, append-only store keeping a local copy of the audit trail.
+ * <p>
+ * Serialized audit messages are appended sequentially to the last of a series of segment
+ * files in one directory. Each record carries the values it is indexed by: the event time,
+ * the EventID code, the IHE transaction code and the IDs of all participant objects with
+ * the patient role. Per segment, these are kept in compact in-memory indexes (a time-ordered
+ * array and one hash table per {@link Index}), so queries only touch the records they
+ * return. Full segments are sealed: their indexes are persisted next to them and the
+ * segment is memory-mapped for reading.
+ * <p>
+ * Whole segments are deleted once all of their records are older than the retention period.
+ * <p>
+ * Appends are serialized; queries may run concurrently with each other.
+ *
+ * @since 3.7
+ */
+public class AuditStore implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuditStore.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String IHE_TRANSACTIONS = "IHE Transactions";
+    private static final Short PATIENT_ROLE = RFC3881ParticipantObjectTypeRoleCodes.PATIENT.getCode();
+
+    /**
+     * Secondary indexes of the store
+     */
+    public enum Index {
+        /** Code of the EventID */
+        EVENT_ID,
+        /** Code of the IHE transaction event type */
+        TRANSACTION,
+        /** ID of a participant object with the patient role */
+        PATIENT
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long retentionMillis;
+    private final List<AuditStoreSegment> segments = new ArrayList<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private AuditStoreSegment active;
+    private boolean closed;
+
+    /**
+     * Opens a store with segments of {@value #DEFAULT_SEGMENT_SIZE} bytes and unlimited retention
+     *
+     * @param directory directory of the segment files, created if missing
+     * @throws IOException if the store cannot be opened
+     */
+    public AuditStore(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, 0L);
+    }
+
+    /**
+     * Opens a store, recovering the segments that already exist in the directory
+     *
+     * @param directory       directory of the segment files, created if missing
+     * @param segmentSize     size in bytes after which a new segment is started
+     * @param retentionMillis minimum time to keep records, relative to their event time; 0 to keep them forever
+     * @throws IOException if the store cannot be opened
+     */
+    public AuditStore(Path directory, int segmentSize, long retentionMillis) throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.retentionMillis = retentionMillis;
+        Files.createDirectories(directory);
+        List<Long> baseOffsets = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + AuditStoreSegment.LOG_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                baseOffsets.add(Long.parseLong(name.substring(0, name.length() - AuditStoreSegment.LOG_SUFFIX.length())));
+            }
+        }
+        Collections.sort(baseOffsets);
+        for (int i = 0; i < baseOffsets.size(); i++) {
+            segments.add(AuditStoreSegment.open(directory, baseOffsets.get(i), i == baseOffsets.size() - 1));
+        }
+        if (segments.isEmpty()) {
+            segments.add(AuditStoreSegment.create(directory, 0L));
+        }
+        active = segments.get(segments.size() - 1);
+        LOG.debug("Opened audit store {} with {} segments", directory, segments.size());
+    }
+
+    /**
+     * Appends an audit message
+     *
+     * @param msg message to store
+     * @return offset of the stored record
+     * @throws IOException if the message cannot be written
+     */
+    public long append(AuditEventMessage msg) throws IOException {
+        AuditMessage auditMessage = msg.getAuditMessage();
+        long time = msg.getDateTime() != null ? msg.getDateTime().getTime() : System.currentTimeMillis();
+        String eventId = eventId(auditMessage);
+        String transaction = transaction(auditMessage);
+        List<String> patientIds = patientIds(auditMessage);
+        ByteBuffer record = StoredAuditRecord.encode(time, eventId, transaction, patientIds, msg.getSerializedMessage(false));
+
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            if (active.size() > 0 && (long) active.size() + record.remaining() > segmentSize) {
+                roll();
+            }
+            return active.getBaseOffset() + active.append(record, time, eventId, transaction, patientIds);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds all records with an event time in the given range
+     *
+     * @param from earliest event time in milliseconds, inclusive
+     * @param to   latest event time in milliseconds, inclusive
+     * @return records in event time order
+     * @throws IOException if records cannot be read
+     */
+    public List<StoredAuditRecord> findByTime(long from, long to) throws IOException {
+        List<StoredAuditRecord> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            for (AuditStoreSegment segment : segments) {
+                try {
+                    segment.scanTime(from, to, position -> {
+                        try {
+                            result.add(segment.read(position, true));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        result.sort(Comparator.comparingLong(StoredAuditRecord::getEventTime)
+                .thenComparingLong(StoredAuditRecord::getOffset));
+        return result;
+    }
+
+    /**
+     * Finds all records indexed with the given value
+     *
+     * @param index index to use
+     * @param value indexed value, e.g. a patient ID
+     * @return records in insertion order
+     * @throws IOException if records cannot be read
+     */
+    public List<StoredAuditRecord> find(Index index, String value) throws IOException {
+        return find(index, value, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Finds all records indexed with the given value and an event time in the given range
+     *
+     * @param index index to use
+     * @param value indexed value, e.g. a patient ID
+     * @param from  earliest event time in milliseconds, inclusive
+     * @param to    latest event time in milliseconds, inclusive
+     * @return records in insertion order
+     * @throws IOException if records cannot be read
+     */
+    public List<StoredAuditRecord> find(Index index, String value, long from, long to) throws IOException {
+        List<StoredAuditRecord> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            for (AuditStoreSegment segment : segments) {
+                if (segment.recordCount() == 0 || segment.getMaxTime() < from || segment.getMinTime() > to) {
+                    continue;
+                }
+                boolean checkTime = segment.getMinTime() < from || segment.getMaxTime() > to;
+                for (int position : segment.lookup(index, value)) {
+                    if (checkTime) {
+                        long time = segment.timeAt(position);
+                        if (time < from || time > to) {
+                            continue;
+                        }
+                    }
+                    result.add(segment.read(position, true));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Finds all records referring to a patient
+     *
+     * @param patientId ID of a participant object with the patient role
+     * @return records in insertion order
+     * @throws IOException if records cannot be read
+     */
+    public List<StoredAuditRecord> findByPatient(String patientId) throws IOException {
+        return find(Index.PATIENT, patientId);
+    }
+
+    /**
+     * Deletes the segments whose records are all older than the configured retention period.
+     * Also done whenever a new segment is started.
+     *
+     * @return number of deleted segments
+     * @throws IOException if a segment cannot be deleted
+     */
+    public int applyRetention() throws IOException {
+        return retentionMillis > 0 ? deleteBefore(System.currentTimeMillis() - retentionMillis) : 0;
+    }
+
+    /**
+     * Deletes the sealed segments whose records all have an event time before the given time.
+     * The active segment is never deleted.
+     *
+     * @param time event time in milliseconds
+     * @return number of deleted segments
+     * @throws IOException if a segment cannot be deleted
+     */
+    public int deleteBefore(long time) throws IOException {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            return deleteSegmentsBefore(time);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forces all appended records to the storage device
+     *
+     * @throws IOException if the records cannot be written
+     */
+    public void flush() throws IOException {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            active.force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of segment files
+     */
+    public int getSegmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!closed) {
+                closed = true;
+                for (AuditStoreSegment segment : segments) {
+                    segment.close();
+                }
+                segments.clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void roll() throws IOException {
+        active.seal();
+        active = AuditStoreSegment.create(directory, active.getBaseOffset() + active.size());
+        segments.add(active);
+        if (retentionMillis > 0) {
+            deleteSegmentsBefore(System.currentTimeMillis() - retentionMillis);
+        }
+    }
+
+    private int deleteSegmentsBefore(long time) throws IOException {
+        int deleted = 0;
+        for (Iterator<AuditStoreSegment> it = segments.iterator(); it.hasNext(); ) {
+            AuditStoreSegment segment = it.next();
+            if (segment != active && segment.getMaxTime() < time) {
+                it.remove();
+                segment.delete();
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            LOG.debug("Deleted {} segments of audit store {}", deleted, directory);
+        }
+        return deleted;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Audit store " + directory + " is closed");
+        }
+    }
+
+    private static String eventId(AuditMessage auditMessage) {
+        EventIdentificationType event = auditMessage.getEventIdentification();
+        return event != null && event.getEventID() != null ? event.getEventID().getCode() : null;
+    }
+
+    private static String transaction(AuditMessage auditMessage) {
+        EventIdentificationType event = auditMessage.getEventIdentification();
+        if (event != null) {
+            for (CodedValueType code : event.getEventTypeCode()) {
+                if (IHE_TRANSACTIONS.equals(code.getCodeSystemName())) {
+                    return code.getCode();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static List<String> patientIds(AuditMessage auditMessage) {
+        List<String> patientIds = null;
+        for (ParticipantObjectIdentificationType object : auditMessage.getParticipantObjectIdentification()) {
+            if (PATIENT_ROLE.equals(object.getParticipantObjectTypeCodeRole()) && object.getParticipantObjectID() != null) {
+                if (patientIds == null) {
+                    patientIds = new ArrayList<>(1);
+                }
+                patientIds.add(object.getParticipantObjectID());
+            }
+        }
+        return patientIds == null ? Collections.emptyList() : patientIds;
+    }
+}
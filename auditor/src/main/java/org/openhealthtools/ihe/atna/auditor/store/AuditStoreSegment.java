@@ -0,0 +1,428 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.auditor.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * One file of an {@link AuditStore}. The active segment is appended to through a file
+ * channel and indexed in memory; once full it is sealed, i.e. its indexes are written to
+ * a sidecar file and the log is memory-mapped read-only. Reopening a sealed segment only
+ * loads the sidecar, whereas the active segment is recovered by scanning its record headers.
+ * <p>
+ * Not thread-safe; {@link AuditStore} guards all access.
+ *
+ * @since 3.7
+ */
+final class AuditStoreSegment implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuditStoreSegment.class);
+
+    static final String LOG_SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".idx";
+
+    private static final int INDEX_MAGIC = 0x4154494e;
+
+    private final long baseOffset;
+    private final Path logFile;
+    private final Path indexFile;
+
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private int size;
+
+    // time index, parallel arrays in append order (or time order once sealed)
+    private long[] times = new long[256];
+    private int[] positions = new int[256];
+    private int count;
+    private boolean timeOrdered = true;
+    private long minTime = Long.MAX_VALUE;
+    private long maxTime = Long.MIN_VALUE;
+
+    private final Map<AuditStore.Index, Map<String, Positions>> keys = new EnumMap<>(AuditStore.Index.class);
+
+    private AuditStoreSegment(Path directory, long baseOffset) {
+        this.baseOffset = baseOffset;
+        String name = String.format("%020d", baseOffset);
+        this.logFile = directory.resolve(name + LOG_SUFFIX);
+        this.indexFile = directory.resolve(name + INDEX_SUFFIX);
+        for (AuditStore.Index index : AuditStore.Index.values()) {
+            keys.put(index, new HashMap<>());
+        }
+    }
+
+    static AuditStoreSegment create(Path directory, long baseOffset) throws IOException {
+        AuditStoreSegment segment = new AuditStoreSegment(directory, baseOffset);
+        segment.channel = FileChannel.open(segment.logFile,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return segment;
+    }
+
+    /**
+     * @param active whether the segment is the last one and will be appended to
+     */
+    static AuditStoreSegment open(Path directory, long baseOffset, boolean active) throws IOException {
+        AuditStoreSegment segment = new AuditStoreSegment(directory, baseOffset);
+        if (!active && Files.exists(segment.indexFile) && segment.loadIndex()) {
+            segment.map();
+            return segment;
+        }
+        segment.channel = FileChannel.open(segment.logFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment.recover();
+        if (!active) {
+            segment.seal();
+        }
+        return segment;
+    }
+
+    long getBaseOffset() {
+        return baseOffset;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int recordCount() {
+        return count;
+    }
+
+    long getMinTime() {
+        return minTime;
+    }
+
+    long getMaxTime() {
+        return maxTime;
+    }
+
+    boolean isSealed() {
+        return channel == null;
+    }
+
+    /**
+     * Appends an encoded record
+     *
+     * @return position of the record within this segment
+     */
+    int append(ByteBuffer record, long time, String eventId, String transaction, List<String> patientIds) throws IOException {
+        int position = size;
+        while (record.hasRemaining()) {
+            channel.write(record, size + record.position());
+        }
+        size += record.limit();
+        index(position, time, eventId, transaction, patientIds);
+        return position;
+    }
+
+    void force() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Makes the segment read-only: persists its indexes and maps the log into memory
+     */
+    void seal() throws IOException {
+        channel.force(true);
+        sortByTime();
+        writeIndex();
+        channel.close();
+        channel = null;
+        map();
+    }
+
+    /**
+     * Reports the positions of all records with an event time in the given range, in time
+     * order if the records have been appended in time order
+     */
+    void scanTime(long from, long to, IntConsumer consumer) {
+        if (count == 0 || maxTime < from || minTime > to) {
+            return;
+        }
+        if (timeOrdered) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (times[mid] < from) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            for (int i = low; i < count && times[i] <= to; i++) {
+                consumer.accept(positions[i]);
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                if (times[i] >= from && times[i] <= to) {
+                    consumer.accept(positions[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return positions of the records indexed with the given value, in append order
+     */
+    int[] lookup(AuditStore.Index index, String value) {
+        Positions result = keys.get(index).get(value);
+        return result == null ? new int[0] : Arrays.copyOf(result.values, result.size);
+    }
+
+    /**
+     * Reads the record at the given position
+     */
+    StoredAuditRecord read(int position, boolean withBody) throws IOException {
+        return StoredAuditRecord.decode(baseOffset + position, recordBuffer(position), withBody);
+    }
+
+    /**
+     * @return event time of the record at the given position
+     */
+    long timeAt(int position) throws IOException {
+        ByteBuffer buffer = recordBuffer(position);
+        return buffer.getLong(buffer.position() + StoredAuditRecord.HEADER_SIZE);
+    }
+
+    private ByteBuffer recordBuffer(int position) throws IOException {
+        if (mapped != null) {
+            ByteBuffer buffer = mapped.duplicate();
+            buffer.position(position);
+            return buffer;
+        }
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(length, position);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length.getInt(0));
+        readFully(buffer, position);
+        buffer.flip();
+        return buffer;
+    }
+
+    private void readFully(ByteBuffer buffer, int position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of " + logFile);
+            }
+        }
+    }
+
+    private void map() throws IOException {
+        try (FileChannel readChannel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            size = (int) readChannel.size();
+            mapped = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * Rebuilds the indexes from the record headers and cuts off a torn record at the end,
+     * which is left behind if the process died in the middle of an append
+     */
+    private void recover() throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        int position = 0;
+        while (position + StoredAuditRecord.HEADER_SIZE <= fileSize) {
+            buffer.position(position);
+            int length = buffer.getInt(position);
+            if (length < 4 || position + 4L + length > fileSize || !StoredAuditRecord.isIntact(buffer)) {
+                break;
+            }
+            StoredAuditRecord record = StoredAuditRecord.decode(baseOffset + position, buffer, false);
+            index(position, record.getEventTime(), record.getEventId(), record.getTransaction(), record.getPatientIds());
+            position += 4 + length;
+        }
+        if (position < fileSize) {
+            LOG.warn("Truncating {} at {} of {} bytes after an incomplete record", logFile, position, fileSize);
+            channel.truncate(position);
+        }
+        size = position;
+    }
+
+    private void index(int position, long time, String eventId, String transaction, List<String> patientIds) {
+        if (count == times.length) {
+            times = Arrays.copyOf(times, count * 2);
+            positions = Arrays.copyOf(positions, count * 2);
+        }
+        if (count > 0 && time < times[count - 1]) {
+            timeOrdered = false;
+        }
+        times[count] = time;
+        positions[count] = position;
+        count++;
+        minTime = Math.min(minTime, time);
+        maxTime = Math.max(maxTime, time);
+        addKey(AuditStore.Index.EVENT_ID, eventId, position);
+        addKey(AuditStore.Index.TRANSACTION, transaction, position);
+        for (String patientId : patientIds) {
+            addKey(AuditStore.Index.PATIENT, patientId, position);
+        }
+    }
+
+    private void addKey(AuditStore.Index index, String value, int position) {
+        if (value != null) {
+            keys.get(index).computeIfAbsent(value, v -> new Positions()).add(position);
+        }
+    }
+
+    private void sortByTime() {
+        if (timeOrdered) {
+            return;
+        }
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        long[] unsortedTimes = times;
+        Arrays.sort(order, (a, b) -> Long.compare(unsortedTimes[a], unsortedTimes[b]));
+        long[] sortedTimes = new long[count];
+        int[] sortedPositions = new int[count];
+        for (int i = 0; i < count; i++) {
+            sortedTimes[i] = times[order[i]];
+            sortedPositions[i] = positions[order[i]];
+        }
+        times = sortedTimes;
+        positions = sortedPositions;
+        timeOrdered = true;
+    }
+
+    private void writeIndex() throws IOException {
+        Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(size);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeLong(times[i]);
+                out.writeInt(positions[i]);
+            }
+            for (AuditStore.Index index : AuditStore.Index.values()) {
+                Map<String, Positions> values = keys.get(index);
+                out.writeInt(values.size());
+                for (Map.Entry<String, Positions> entry : values.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    Positions p = entry.getValue();
+                    out.writeInt(p.size);
+                    for (int i = 0; i < p.size; i++) {
+                        out.writeInt(p.values[i]);
+                    }
+                }
+            }
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return false if the sidecar does not match the log, which is then scanned instead
+     */
+    private boolean loadIndex() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != Files.size(logFile)) {
+                LOG.warn("Ignoring stale index {}", indexFile);
+                return false;
+            }
+            count = in.readInt();
+            times = new long[Math.max(count, 1)];
+            positions = new int[Math.max(count, 1)];
+            for (int i = 0; i < count; i++) {
+                times[i] = in.readLong();
+                positions[i] = in.readInt();
+            }
+            if (count > 0) {
+                minTime = times[0];
+                maxTime = times[count - 1];
+            }
+            for (AuditStore.Index index : AuditStore.Index.values()) {
+                Map<String, Positions> values = keys.get(index);
+                int valueCount = in.readInt();
+                for (int v = 0; v < valueCount; v++) {
+                    String value = in.readUTF();
+                    int n = in.readInt();
+                    Positions p = new Positions(n);
+                    for (int i = 0; i < n; i++) {
+                        p.add(in.readInt());
+                    }
+                    values.put(value, p);
+                }
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.force(true);
+            channel.close();
+            channel = null;
+        }
+        mapped = null;
+    }
+
+    /**
+     * Closes and removes the files of this segment
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(indexFile);
+        Files.deleteIfExists(logFile);
+    }
+
+    private static final class Positions {
+
+        private int[] values;
+        private int size;
+
+        Positions() {
+            this(4);
+        }
+
+        Positions(int capacity) {
+            values = new int[Math.max(capacity, 1)];
+        }
+
+        void add(int position) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = position;
+        }
+    }
+}
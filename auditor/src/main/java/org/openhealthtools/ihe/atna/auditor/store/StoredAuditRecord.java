@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.auditor.store;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Audit message read back from an {@link AuditStore}, together with the values it has
+ * been indexed by.
+ *
+ * @since 3.7
+ */
+public final class StoredAuditRecord {
+
+    /**
+     * Size of the length and checksum fields preceding each record body
+     */
+    static final int HEADER_SIZE = 8;
+
+    private final long offset;
+    private final long eventTime;
+    private final String eventId;
+    private final String transaction;
+    private final List<String> patientIds;
+    private final byte[] payload;
+
+    StoredAuditRecord(long offset, long eventTime, String eventId, String transaction, List<String> patientIds, byte[] payload) {
+        this.offset = offset;
+        this.eventTime = eventTime;
+        this.eventId = eventId;
+        this.transaction = transaction;
+        this.patientIds = patientIds;
+        this.payload = payload;
+    }
+
+    /**
+     * Encodes a record as <code>length crc32 eventTime eventId transaction patientCount patientId* payloadLength payload</code>,
+     * where the length counts all bytes following the length field and strings are written as
+     * unsigned short length followed by UTF-8 bytes.
+     */
+    static ByteBuffer encode(long eventTime, String eventId, String transaction, List<String> patientIds, byte[] payload) {
+        if (patientIds.size() > 255) {
+            throw new IllegalArgumentException("At most 255 patient IDs per record are supported");
+        }
+        byte[] eventIdBytes = bytes(eventId);
+        byte[] transactionBytes = bytes(transaction);
+        byte[][] patientBytes = new byte[patientIds.size()][];
+        int bodyLength = 8 + 2 + eventIdBytes.length + 2 + transactionBytes.length + 1 + 4 + payload.length;
+        for (int i = 0; i < patientBytes.length; i++) {
+            patientBytes[i] = bytes(patientIds.get(i));
+            bodyLength += 2 + patientBytes[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bodyLength);
+        buffer.putInt(bodyLength + 4).putInt(0).putLong(eventTime);
+        putString(buffer, eventIdBytes);
+        putString(buffer, transactionBytes);
+        buffer.put((byte) patientBytes.length);
+        for (byte[] patient : patientBytes) {
+            putString(buffer, patient);
+        }
+        buffer.putInt(payload.length).put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, bodyLength);
+        buffer.putInt(4, (int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decodes the record starting at the current position of the buffer
+     *
+     * @param offset   logical offset of the record in the store
+     * @param buffer   buffer positioned at the length field of the record
+     * @param withBody whether the payload is needed or only the index values
+     */
+    static StoredAuditRecord decode(long offset, ByteBuffer buffer, boolean withBody) {
+        buffer.position(buffer.position() + HEADER_SIZE);
+        long eventTime = buffer.getLong();
+        String eventId = getString(buffer);
+        String transaction = getString(buffer);
+        int patientCount = buffer.get() & 0xff;
+        List<String> patientIds;
+        if (patientCount == 0) {
+            patientIds = Collections.emptyList();
+        } else {
+            patientIds = new ArrayList<>(patientCount);
+            for (int i = 0; i < patientCount; i++) {
+                patientIds.add(getString(buffer));
+            }
+        }
+        byte[] payload = null;
+        if (withBody) {
+            payload = new byte[buffer.getInt()];
+            buffer.get(payload);
+        }
+        return new StoredAuditRecord(offset, eventTime, eventId, transaction, patientIds, payload);
+    }
+
+    /**
+     * @return true if the checksum of the record starting at the current position of the buffer is valid
+     */
+    static boolean isIntact(ByteBuffer buffer) {
+        int start = buffer.position();
+        int bodyLength = buffer.getInt(start) - 4;
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + bodyLength);
+        crc.update(body);
+        return (int) crc.getValue() == buffer.getInt(start + 4);
+    }
+
+    private static byte[] bytes(String s) {
+        byte[] bytes = s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff) {
+            throw new IllegalArgumentException("Indexed value exceeds 65535 bytes");
+        }
+        return bytes;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return logical position of the record in the store, increasing with insertion order
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return event date and time in milliseconds since the epoch
+     */
+    public long getEventTime() {
+        return eventTime;
+    }
+
+    /**
+     * @return code of the EventID, may be null
+     */
+    public String getEventId() {
+        return eventId;
+    }
+
+    /**
+     * @return code of the IHE transaction event type, may be null
+     */
+    public String getTransaction() {
+        return transaction;
+    }
+
+    /**
+     * @return IDs of the participant objects with the patient role
+     */
+    public List<String> getPatientIds() {
+        return patientIds;
+    }
+
+    /**
+     * @return serialized audit message
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return "StoredAuditRecord{offset=" + offset + ", eventTime=" + eventTime + ", eventId=" + eventId +
+                ", transaction=" + transaction + ", patientIds=" + patientIds + '}';
+    }
+}
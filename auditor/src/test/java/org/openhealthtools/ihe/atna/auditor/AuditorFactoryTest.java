@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor;
+
+import org.junit.Test;
+import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleContext;
+import org.openhealthtools.ihe.atna.context.SecurityContext;
+import org.openhealthtools.ihe.atna.context.SecurityContextFactory;
+import org.openhealthtools.ihe.atna.nodeauth.context.NodeAuthModuleContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class AuditorFactoryTest {
+
+    @Test
+    public void modulesRegisteredThroughProviders() {
+        SecurityContext securityContext = SecurityContextFactory.getSecurityContext();
+        securityContext.initialize();
+        assertTrue(securityContext.getModuleContext(AuditorModuleContext.CONTEXT_ID) instanceof AuditorModuleContext);
+        assertTrue(securityContext.getModuleContext("org.openhealthtools.ihe.atna.nodeauth") instanceof NodeAuthModuleContext);
+    }
+
+    @Test
+    public void builtInAuditorsWithoutReflection() {
+        assertTrue(AuditorFactory.getRegisteredAuditorClasses().contains(XDSSourceAuditor.class));
+        assertSame(XDSSourceAuditor.class, AuditorFactory.getAuditorClassForClassName(XDSSourceAuditor.class.getName()));
+        assertTrue(AuditorFactory.getAuditor(XDSSourceAuditor.class, null, null) instanceof XDSSourceAuditor);
+    }
+
+    @Test
+    public void registeredConstructorIsUsed() {
+        AtomicInteger created = new AtomicInteger();
+        AuditorFactory.registerAuditorClass(CustomAuditor.class, () -> {
+            created.incrementAndGet();
+            return new CustomAuditor();
+        });
+        IHEAuditor auditor = AuditorModuleContext.getContext().getAuditor(CustomAuditor.class.getName(), false);
+        assertTrue(auditor instanceof CustomAuditor);
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    public void concurrentLookupsShareOneAuditor() throws Exception {
+        AuditorModuleContext context = AuditorModuleContext.getContext();
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<IHEAuditor>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit((Callable<IHEAuditor>) () -> {
+                    start.await();
+                    return context.getAuditor(XCPDInitiatingGatewayAuditor.class);
+                }));
+            }
+            start.countDown();
+            IHEAuditor first = results.get(0).get();
+            assertNotNull(first);
+            for (Future<IHEAuditor> result : results) {
+                assertSame(first, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public static class CustomAuditor extends IHEAuditor {
+    }
+}
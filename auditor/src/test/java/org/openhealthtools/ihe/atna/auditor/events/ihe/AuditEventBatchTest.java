@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.auditor.events.ihe;
+
+import org.junit.Test;
+import org.openhealthtools.ihe.atna.auditor.XDSRepositoryAuditor;
+import org.openhealthtools.ihe.atna.auditor.codes.ihe.IHETransactionEventTypeCodes;
+import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleConfig;
+import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleContext;
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.CodedValueType;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.ParticipantObjectIdentificationType;
+import org.openhealthtools.ihe.atna.auditor.queue.AuditMessageQueue;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+import static org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881EventCodes.RFC3881EventOutcomeCodes.SUCCESS;
+
+/**
+ *
+ */
+public class AuditEventBatchTest {
+
+    @Test
+    public void smallTransactionStaysOneEvent() {
+        AuditEventBatch<ImportEvent> batch = new AuditEventBatch<>(AuditEventBatchTest::retrieveEvent,
+                AuditorModuleConfig.AUDITOR_DEFAULT_MAX_MESSAGE_SIZE);
+        batch.addDocumentParticipantObjects(documentIds(3), repeat("1.2.3", 3), repeat("urn:oid:1.2.4", 3));
+        assertEquals(1, batch.getEvents().size());
+        assertEquals(4, batch.getEvents().get(0).getAuditMessage().getParticipantObjectIdentification().size());
+    }
+
+    @Test
+    public void largeTransactionIsSplitUnderBudget() {
+        int budget = 20000;
+        String[] documentIds = documentIds(5000);
+        AuditEventBatch<ImportEvent> batch = new AuditEventBatch<>(AuditEventBatchTest::retrieveEvent, budget);
+        batch.addDocumentParticipantObjects(documentIds, repeat("1.2.3", 5000), repeat("urn:oid:1.2.4", 5000));
+
+        List<String> audited = new ArrayList<>();
+        for (ImportEvent event : batch.getEvents()) {
+            assertTrue(event.getAuditMessage().toString(false).getBytes(StandardCharsets.UTF_8).length <= budget);
+            assertEquals(3, event.getAuditMessage().getActiveParticipant().size());
+            List<ParticipantObjectIdentificationType> objects = event.getAuditMessage().getParticipantObjectIdentification();
+            assertEquals("patient-1", objects.get(0).getParticipantObjectID());
+            for (ParticipantObjectIdentificationType object : objects.subList(1, objects.size())) {
+                audited.add(object.getParticipantObjectID());
+            }
+        }
+        assertTrue(batch.getEvents().size() > 1);
+        assertEquals(Arrays.asList(documentIds), audited);
+    }
+
+    @Test
+    public void auditorSubmitsSplitEventsAsOneBatch() {
+        List<AuditEventMessage[]> batches = new ArrayList<>();
+        XDSRepositoryAuditor auditor = new XDSRepositoryAuditor() {
+            @Override
+            public void audit(AuditEventMessage[] msgs) {
+                batches.add(msgs);
+            }
+        };
+        AuditorModuleConfig config = new AuditorModuleConfig();
+        config.setMaxMessageSize(10000);
+        auditor.setConfig(config);
+
+        auditor.auditRetrieveDocumentSetEvent(SUCCESS, "consumer", null, "10.0.0.1", "http://repository/xds",
+                documentIds(1000), "1.2.3", "urn:oid:1.2.4", null, null);
+
+        assertEquals(1, batches.size());
+        int documents = 0;
+        for (AuditEventMessage msg : batches.get(0)) {
+            assertTrue(msg.getAuditMessage().toString(false).getBytes(StandardCharsets.UTF_8).length <= 10000);
+            documents += msg.getAuditMessage().getParticipantObjectIdentification().size();
+        }
+        assertTrue(batches.get(0).length > 1);
+        assertEquals(1000, documents);
+    }
+
+    @Test
+    public void messagesWithoutDestinationDoNotDropTheBatch() throws Exception {
+        AuditorModuleConfig config = new AuditorModuleConfig();
+        config.setAuditorEnabled(true);
+        AuditMessageQueue queue = mock(AuditMessageQueue.class);
+        AuditorModuleContext context = mock(AuditorModuleContext.class);
+        when(context.getQueue()).thenReturn(queue);
+        XDSRepositoryAuditor auditor = new XDSRepositoryAuditor();
+        auditor.setConfig(config);
+        auditor.setContext(context);
+
+        // no audit repository is configured, so only messages with their own destination can be sent
+        ImportEvent undirected1 = retrieveEvent();
+        ImportEvent directed = retrieveEvent();
+        directed.setDestinationAddress(InetAddress.getLoopbackAddress());
+        directed.setDestinationPort(6514);
+        ImportEvent undirected2 = retrieveEvent();
+        auditor.audit(new AuditEventMessage[]{undirected1, directed, undirected2});
+
+        verify(queue).sendAuditEvents(new AuditEventMessage[]{directed});
+        verifyNoMoreInteractions(queue);
+    }
+
+    private static ImportEvent retrieveEvent() {
+        ImportEvent event = new ImportEvent(false, SUCCESS, new IHETransactionEventTypeCodes.RetrieveDocumentSet(), null);
+        event.setAuditSourceId("source", "site");
+        event.addSourceActiveParticipant("http://repository/xds", null, null, "repository", false);
+        event.addDestinationActiveParticipant("consumer", "1234", "consumer", "10.0.0.1", true);
+        event.addHumanRequestorActiveParticipant("user", null, "user", (List<CodedValueType>) null);
+        event.addPatientParticipantObject("patient-1");
+        return event;
+    }
+
+    private static String[] documentIds(int count) {
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = "1.2.840.113619.20.2.1." + i;
+        }
+        return ids;
+    }
+
+    private static String[] repeat(String value, int count) {
+        String[] values = new String[count];
+        Arrays.fill(values, value);
+        return values;
+    }
+}
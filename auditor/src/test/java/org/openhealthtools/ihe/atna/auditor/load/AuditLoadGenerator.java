@@ -0,0 +1,289 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.auditor.load;
+
+import io.vertx.core.Vertx;
+import org.openhealthtools.ihe.atna.auditor.IHEAuditor;
+import org.openhealthtools.ihe.atna.auditor.XDSConsumerAuditor;
+import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleConfig;
+import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleContext;
+import org.openhealthtools.ihe.atna.auditor.queue.AdaptiveBatchingAuditQueue;
+import org.openhealthtools.ihe.atna.auditor.queue.AsynchronousAuditQueue;
+import org.openhealthtools.ihe.atna.auditor.queue.AuditMessageQueue;
+import org.openhealthtools.ihe.atna.auditor.queue.PipelinedAuditQueue;
+import org.openhealthtools.ihe.atna.auditor.queue.PriorityAuditQueue;
+import org.openhealthtools.ihe.atna.auditor.queue.SerializingAuditQueue;
+import org.openhealthtools.ihe.atna.auditor.queue.SynchronousAuditQueue;
+import org.openhealthtools.ihe.atna.auditor.queue.ThreadedAuditQueue;
+import org.openhealthtools.ihe.atna.nodeauth.SecurityDomain;
+import org.openhealthtools.ihe.atna.nodeauth.context.NodeAuthModuleContext;
+import org.openhealthtools.ihe.atna.test.load.LoadTestSyslogServer;
+import org.openhealthtools.ihe.atna.test.load.LogLinearHistogram;
+import org.openhealthtools.ihe.atna.test.load.SyslogSinkStatistics;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881EventCodes.RFC3881EventOutcomeCodes.SUCCESS;
+import static org.openhealthtools.ihe.atna.auditor.tests.mesa.TestConfiguration.*;
+import static org.openhealthtools.ihe.atna.nodeauth.SecurityDomain.*;
+
+/**
+ * Drives a configurable mix of auditors through every combination of the given queues
+ * and transports at a fixed target rate and reports what the client achieved next to
+ * what a {@link LoadTestSyslogServer} received. Not run as part of the build.
+ * <p>
+ * Arguments are <code>key=value</code> pairs, lists are comma-separated:
+ * <ul>
+ *     <li><code>transports</code> - TCP, TLS and/or UDP (default TCP)</li>
+ *     <li><code>queues</code> - sync, threaded, async, priority, adaptive, pipelined and/or serializing (default sync)</li>
+ *     <li><code>auditors</code> - auditor class names, relative to the auditor package or fully qualified
+ *     (default PIXConsumerAuditor,XDSConsumerAuditor)</li>
+ *     <li><code>rate</code> - target audit events per second over all threads (default 1000)</li>
+ *     <li><code>duration</code> - seconds per combination (default 10)</li>
+ *     <li><code>threads</code> - number of threads generating events (default 4)</li>
+ *     <li><code>host</code>, <code>port</code> - external ARR to use instead of the in-process sink;
+ *     only the client-side figures are reported then</li>
+ * </ul>
+ * Example: <code>transports=TCP,TLS queues=sync,adaptive rate=5000 duration=30</code>
+ */
+public class AuditLoadGenerator {
+
+    private static final String AUDITOR_PACKAGE = "org.openhealthtools.ihe.atna.auditor.";
+    private static final String SECURITY_DOMAIN = "load-test";
+
+    private final Map<String, String> options;
+    private final Vertx vertx = Vertx.vertx();
+    private final SyslogSinkStatistics statistics = new SyslogSinkStatistics();
+
+    AuditLoadGenerator(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        AuditLoadGenerator generator = new AuditLoadGenerator(options);
+        try {
+            generator.run();
+        } finally {
+            generator.vertx.close();
+        }
+    }
+
+    void run() throws Exception {
+        for (String transport : list("transports", "TCP")) {
+            for (String queue : list("queues", "sync")) {
+                runCombination(transport.toUpperCase(), queue.toLowerCase());
+            }
+        }
+    }
+
+    private void runCombination(String transport, String queueType) throws Exception {
+        boolean external = options.containsKey("host");
+        String host = options.getOrDefault("host", "localhost");
+        int port = external ? Integer.parseInt(options.get("port")) : freePort();
+        String deploymentId = external ? null : deploySink(transport, port);
+        statistics.reset();
+
+        AuditorModuleContext context = AuditorModuleContext.getContext();
+        AuditorModuleConfig config = context.getConfig();
+        config.setAuditRepositoryHost(host);
+        config.setAuditRepositoryPort(port);
+        config.setAuditRepositoryTransport(transport.equals("UDP") ? "UDP" : "TLS");
+        if (!transport.equals("UDP")) {
+            initSecurityDomain(host, port, transport.equals("TLS"));
+        }
+        AuditMessageQueue queue = createQueue(queueType, context);
+        context.setQueue(queue);
+
+        List<IHEAuditor> auditors = new ArrayList<>();
+        for (String name : list("auditors", "PIXConsumerAuditor,XDSConsumerAuditor")) {
+            auditors.add(context.getAuditor(name.contains(".") ? name : AUDITOR_PACKAGE + name));
+        }
+
+        int threads = intOption("threads", 4);
+        double rate = Double.parseDouble(options.getOrDefault("rate", "1000"));
+        long duration = TimeUnit.SECONDS.toNanos(intOption("duration", 10));
+        long interval = (long) (1e9 * threads / rate);
+
+        LongAdder sent = new LongAdder();
+        LongAdder failed = new LongAdder();
+        LogLinearHistogram callTime = new LogLinearHistogram();
+        LogLinearHistogram scheduleLag = new LogLinearHistogram();
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    long n = 0;
+                    for (long due = start + offset * interval / threads; due - start < duration; due += interval) {
+                        long now = System.nanoTime();
+                        if (due > now) {
+                            LockSupport.parkNanos(due - now);
+                        } else {
+                            scheduleLag.record(TimeUnit.NANOSECONDS.toMicros(now - due));
+                        }
+                        long before = System.nanoTime();
+                        try {
+                            audit(auditors.get((int) ((n + offset) % auditors.size())), n++);
+                            sent.increment();
+                        } catch (RuntimeException e) {
+                            failed.increment();
+                        }
+                        callTime.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - before));
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }, "audit-load-" + t);
+            thread.start();
+        }
+        done.await();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        queue.flush();
+        boolean complete = external || statistics.awaitMessages(sent.sum(), 30, TimeUnit.SECONDS);
+        queue.shutdown();
+        if (deploymentId != null) {
+            vertx.undeploy(deploymentId);
+        }
+
+        System.out.printf("=== transport=%s queue=%s auditors=%d threads=%d target=%.0f/s%n",
+                transport, queueType, auditors.size(), threads, rate);
+        System.out.printf("client: sent=%d failed=%d achieved=%.1f/s%n", sent.sum(), failed.sum(), sent.sum() / elapsed);
+        System.out.printf("  call time [us]    %s%n", callTime);
+        System.out.printf("  schedule lag [us] %s%n", scheduleLag);
+        if (!external) {
+            System.out.printf("sink: %s%s%n", statistics, complete ? "" : "\n  (timed out waiting for outstanding messages)");
+        }
+    }
+
+    private void audit(IHEAuditor auditor, long n) {
+        if (auditor instanceof XDSConsumerAuditor && n % 2 == 0) {
+            ((XDSConsumerAuditor) auditor).auditRegistryStoredQueryEvent(SUCCESS,
+                    "http://localhost:8080/xds/registry", MESA_USER_IDENTITY,
+                    "urn:uuid:14d4debf-8f97-4251-9a74-a90016b0af0d",
+                    "<AdhocQueryRequest>" + n + "</AdhocQueryRequest>", null,
+                    "PID-" + n + "^^^&1.3.6.1.4.1.21367.2005.3.7&ISO", Collections.emptyList(), Collections.emptyList());
+        } else if (n % 2 == 0) {
+            auditor.auditActorStartEvent(SUCCESS, MESA_SYSTEM_ID, MESA_USER_IDENTITY);
+        } else {
+            auditor.auditActorStopEvent(SUCCESS, MESA_SYSTEM_ID, MESA_USER_IDENTITY);
+        }
+    }
+
+    private static AuditMessageQueue createQueue(String type, AuditorModuleContext context) {
+        switch (type) {
+            case "threaded":
+                return new ThreadedAuditQueue(context);
+            case "async":
+                return new AsynchronousAuditQueue(context);
+            case "priority":
+                return new PriorityAuditQueue(context);
+            case "adaptive":
+                return new AdaptiveBatchingAuditQueue(context);
+            case "pipelined":
+                return new PipelinedAuditQueue(context);
+            case "serializing":
+                return new SerializingAuditQueue(context);
+            case "sync":
+                return new SynchronousAuditQueue(context);
+            default:
+                throw new IllegalArgumentException("Unknown queue " + type);
+        }
+    }
+
+    private String deploySink(String transport, int port) throws Exception {
+        LoadTestSyslogServer server;
+        switch (transport) {
+            case "UDP":
+                server = LoadTestSyslogServer.udp("localhost", port, statistics);
+                break;
+            case "TLS":
+                server = LoadTestSyslogServer.tls("localhost", port,
+                        resource(TRUST_STORE), TRUST_STORE_PASS, null, null, statistics);
+                break;
+            default:
+                server = LoadTestSyslogServer.tcp("localhost", port, statistics);
+        }
+        CompletableFuture<String> deployed = new CompletableFuture<>();
+        vertx.deployVerticle(server, result -> {
+            if (result.succeeded()) {
+                deployed.complete(result.result());
+            } else {
+                deployed.completeExceptionally(result.cause());
+            }
+        });
+        return deployed.get(10, TimeUnit.SECONDS);
+    }
+
+    private static void initSecurityDomain(String host, int port, boolean enableTls) throws Exception {
+        Properties properties = new Properties();
+        properties.put(JAVAX_NET_SSL_KEYSTORE, resource(KEY_STORE));
+        properties.put(JAVAX_NET_SSL_KEYSTORE_PASSWORD, KEY_STORE_PASS);
+        properties.put(JAVAX_NET_SSL_TRUSTSTORE, resource(TRUST_STORE));
+        properties.put(JAVAX_NET_SSL_TRUSTSTORE_PASSWORD, TRUST_STORE_PASS);
+        properties.put(JDK_TLS_CLIENT_PROTOCOLS, "TLSv1.2");
+        NodeAuthModuleContext nodeAuthContext = NodeAuthModuleContext.getContext();
+        nodeAuthContext.getSecurityDomainManager().registerSecurityDomain(new SecurityDomain(SECURITY_DOMAIN, properties));
+        nodeAuthContext.getSecurityDomainManager()
+                .registerURItoSecurityDomain(new URI("atna://" + host + ":" + port), SECURITY_DOMAIN);
+        nodeAuthContext.setTLSEnabled(enableTls);
+        nodeAuthContext.setNonTLSConnectionsPermitted(!enableTls);
+    }
+
+    private static String resource(String path) {
+        return AuditLoadGenerator.class.getResource(path).getPath();
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private List<String> list(String key, String defaultValue) {
+        List<String> result = new ArrayList<>();
+        for (String s : options.getOrDefault(key, defaultValue).split(",")) {
+            if (!s.trim().isEmpty()) {
+                result.add(s.trim());
+            }
+        }
+        return result;
+    }
+
+    private int intOption(String key, int defaultValue) {
+        String value = options.get(key);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+}
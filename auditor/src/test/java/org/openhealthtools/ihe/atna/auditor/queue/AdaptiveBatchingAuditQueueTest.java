@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.queue;
+
+import org.junit.Test;
+import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleContext;
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.sender.AuditMessageSender;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ */
+public class AdaptiveBatchingAuditQueueTest {
+
+    @Test
+    public void sendImmediatelyUnderLightLoad() throws Exception {
+        final AuditMessageSender messageSender = mock(AuditMessageSender.class);
+        final AuditorModuleContext context = mock(AuditorModuleContext.class);
+        when(context.getSender()).thenReturn(messageSender);
+        final AdaptiveBatchingAuditQueue queue = new AdaptiveBatchingAuditQueue(context);
+        try {
+            AuditEventMessage message = mock(AuditEventMessage.class);
+            queue.sendAuditEvent(message);
+            verify(messageSender, timeout(1000)).sendAuditEvent(new AuditEventMessage[]{message});
+            assertEquals(1, queue.getBatchSize());
+            assertEquals(0.0, queue.getLingerMillis(), 0.0);
+        } finally {
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void growBatchesUnderHeavyLoad() throws Exception {
+        final int messages = 2000;
+        final int maxBatchSize = 64;
+        final AtomicInteger sent = new AtomicInteger();
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger largestBatch = new AtomicInteger();
+        final AuditMessageSender messageSender = mock(AuditMessageSender.class);
+        doAnswer(invocation -> {
+            AuditEventMessage[] batch = (AuditEventMessage[]) invocation.getArguments()[0];
+            Thread.sleep(2);
+            calls.incrementAndGet();
+            sent.addAndGet(batch.length);
+            largestBatch.accumulateAndGet(batch.length, Math::max);
+            return null;
+        }).when(messageSender).sendAuditEvent(any(AuditEventMessage[].class));
+        final AuditorModuleContext context = mock(AuditorModuleContext.class);
+        when(context.getSender()).thenReturn(messageSender);
+
+        final AdaptiveBatchingAuditQueue queue = new AdaptiveBatchingAuditQueue(context, messages);
+        queue.setMaxBatchSize(maxBatchSize);
+        try {
+            AuditEventMessage message = mock(AuditEventMessage.class);
+            for (int i = 0; i < messages; i++) {
+                queue.sendAuditEvent(message);
+            }
+        } finally {
+            queue.shutdown();
+        }
+        assertEquals(messages, sent.get());
+        assertTrue("expected batching, but got " + calls.get() + " calls", calls.get() < messages / 4);
+        assertTrue(largestBatch.get() <= maxBatchSize);
+        assertTrue(queue.getArrivalRate() > 0.0);
+    }
+
+    @Test
+    public void batchesAreSplitBySender() throws Exception {
+        final int messages = 1000;
+        final AuditEventMessage first = mock(AuditEventMessage.class);
+        final AuditEventMessage second = mock(AuditEventMessage.class);
+        final AtomicInteger misrouted = new AtomicInteger();
+        final AtomicInteger sentFirst = new AtomicInteger();
+        final AtomicInteger sentSecond = new AtomicInteger();
+        final AuditMessageSender firstSender = countingSender(first, sentFirst, misrouted);
+        final AuditMessageSender secondSender = countingSender(second, sentSecond, misrouted);
+        final AuditorModuleContext context = mock(AuditorModuleContext.class);
+
+        final AdaptiveBatchingAuditQueue queue = new AdaptiveBatchingAuditQueue(context, 2 * messages);
+        try {
+            // sender changes, e.g. after a configuration rebuild, while a backlog is pending
+            when(context.getSender()).thenReturn(firstSender);
+            for (int i = 0; i < messages; i++) {
+                queue.sendAuditEvent(first);
+            }
+            when(context.getSender()).thenReturn(secondSender);
+            for (int i = 0; i < messages; i++) {
+                queue.sendAuditEvent(second);
+            }
+        } finally {
+            queue.shutdown();
+        }
+        assertEquals(0, misrouted.get());
+        assertEquals(messages, sentFirst.get());
+        assertEquals(messages, sentSecond.get());
+    }
+
+    @Test
+    public void noEventIsLostWhileShuttingDown() throws Exception {
+        final AuditEventMessage message = mock(AuditEventMessage.class);
+        final AtomicInteger sent = new AtomicInteger();
+        final AtomicInteger misrouted = new AtomicInteger();
+        final AuditMessageSender messageSender = countingSender(message, sent, misrouted);
+        final AuditorModuleContext context = mock(AuditorModuleContext.class);
+        when(context.getSender()).thenReturn(messageSender);
+
+        final AdaptiveBatchingAuditQueue queue = new AdaptiveBatchingAuditQueue(context);
+        final int producers = 4;
+        final int perProducer = 2000;
+        final CountDownLatch started = new CountDownLatch(producers);
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            threads[i] = new Thread(() -> {
+                started.countDown();
+                for (int j = 0; j < perProducer; j++) {
+                    queue.sendAuditEvent(message);
+                }
+            });
+            threads[i].start();
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        queue.shutdown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, misrouted.get());
+        assertEquals(producers * perProducer, sent.get());
+    }
+
+    private static AuditMessageSender countingSender(AuditEventMessage expected, AtomicInteger sent, AtomicInteger misrouted) throws Exception {
+        AuditMessageSender sender = mock(AuditMessageSender.class);
+        doAnswer(invocation -> {
+            Thread.sleep(1);
+            for (AuditEventMessage msg : (AuditEventMessage[]) invocation.getArguments()[0]) {
+                if (msg == expected) {
+                    sent.incrementAndGet();
+                } else {
+                    misrouted.incrementAndGet();
+                }
+            }
+            return null;
+        }).when(sender).sendAuditEvent(any(AuditEventMessage[].class));
+        return sender;
+    }
+}
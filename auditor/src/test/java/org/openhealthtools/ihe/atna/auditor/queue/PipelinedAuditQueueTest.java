@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.auditor.queue;
+
+import org.junit.Test;
+import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleContext;
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.sender.AuditMessageSender;
+import org.openhealthtools.ihe.atna.auditor.sender.FramedAuditMessageSender;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ */
+public class PipelinedAuditQueueTest {
+
+    @Test
+    public void writeInOrder() throws Exception {
+        final int messages = 500;
+        RecordingSender sender = new RecordingSender();
+        AuditorModuleContext context = mock(AuditorModuleContext.class);
+        when(context.getSender()).thenReturn(sender);
+        PipelinedAuditQueue queue = new PipelinedAuditQueue(context, 4, messages, messages);
+        try {
+            for (int i = 0; i < messages; i++) {
+                queue.sendAuditEvent(message(i));
+            }
+            queue.flush();
+        } finally {
+            queue.shutdown();
+        }
+        assertEquals(messages, sender.written.size());
+        for (int i = 0; i < messages; i++) {
+            assertEquals(i, sender.written.get(i).intValue());
+        }
+        // frames are produced by the workers and written by a single other thread
+        assertEquals(1, sender.writerThreads.size());
+        assertFalse(sender.writerThreads.contains(Thread.currentThread().getName()));
+        assertTrue(Collections.disjoint(sender.writerThreads, sender.framingThreads));
+        assertEquals(messages, queue.getSerializationMetrics().getMessages());
+        assertEquals(messages, queue.getIoMetrics().getMessages());
+        assertEquals(messages * 4L, queue.getIoMetrics().getBytes());
+        assertEquals(0, queue.getIoBacklog());
+        assertEquals(0, queue.getSerializationBacklog());
+    }
+
+    @Test
+    public void plainSender() throws Exception {
+        AuditMessageSender sender = mock(AuditMessageSender.class);
+        AuditorModuleContext context = mock(AuditorModuleContext.class);
+        when(context.getSender()).thenReturn(sender);
+        PipelinedAuditQueue queue = new PipelinedAuditQueue(context);
+        try {
+            AuditEventMessage message = message(1);
+            queue.sendAuditEvent(message);
+            verify(sender, timeout(1000)).sendAuditEvent(new AuditEventMessage[]{message});
+        } finally {
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void sendOnCallerThreadWhenFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSender sender = new RecordingSender() {
+            @Override
+            public byte[] frame(AuditEventMessage msg) throws Exception {
+                release.await(10, TimeUnit.SECONDS);
+                return super.frame(msg);
+            }
+        };
+        AuditorModuleContext context = mock(AuditorModuleContext.class);
+        when(context.getSender()).thenReturn(sender);
+        PipelinedAuditQueue queue = new PipelinedAuditQueue(context, 1, 2, 10);
+        try {
+            queue.sendAuditEvent(message(0));
+            queue.sendAuditEvent(message(1));
+            assertEquals(2, queue.getSerializationBacklog());
+            // serialization stage is full
+            AuditEventMessage overflow = message(2);
+            Thread caller = new Thread(() -> queue.sendAuditEvent(overflow));
+            caller.start();
+            Thread.sleep(100);
+            release.countDown();
+            caller.join(5000);
+            queue.flush();
+        } finally {
+            queue.shutdown();
+        }
+        assertEquals(3, sender.written.size());
+        assertEquals(2, queue.getIoMetrics().getMessages());
+    }
+
+    @Test
+    public void noEventIsLostWhileShuttingDown() throws Exception {
+        int producers = 4;
+        int perProducer = 500;
+        RecordingSender sender = new RecordingSender();
+        AuditorModuleContext context = mock(AuditorModuleContext.class);
+        when(context.getSender()).thenReturn(sender);
+        PipelinedAuditQueue queue = new PipelinedAuditQueue(context);
+        AuditEventMessage message = message(0);
+        CountDownLatch started = new CountDownLatch(producers);
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            threads[i] = new Thread(() -> {
+                started.countDown();
+                for (int j = 0; j < perProducer; j++) {
+                    queue.sendAuditEvent(message);
+                }
+            });
+            threads[i].start();
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        queue.shutdown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(producers * perProducer, sender.written.size());
+    }
+
+    private static AuditEventMessage message(int sequence) {
+        AuditEventMessage message = mock(AuditEventMessage.class);
+        when(message.getDestinationAddress()).thenReturn(InetAddress.getLoopbackAddress());
+        when(message.getDestinationPort()).thenReturn(6514);
+        when(message.getSerializedMessage(false)).thenReturn(ByteBuffer.allocate(4).putInt(sequence).array());
+        return message;
+    }
+
+    private static class RecordingSender implements FramedAuditMessageSender {
+
+        final List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+        final Set<String> writerThreads = ConcurrentHashMap.newKeySet();
+        final Set<String> framingThreads = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public byte[] frame(AuditEventMessage msg) throws Exception {
+            framingThreads.add(Thread.currentThread().getName());
+            // uneven serialization times, so that workers finish out of order
+            Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+            return msg.getSerializedMessage(false);
+        }
+
+        @Override
+        public void sendFrames(List<byte[]> frames, InetAddress destination, int port) {
+            writerThreads.add(Thread.currentThread().getName());
+            for (byte[] frame : frames) {
+                written.add(ByteBuffer.wrap(frame).getInt());
+            }
+        }
+
+        @Override
+        public void sendAuditEvent(AuditEventMessage[] msgs) throws Exception {
+            sendAuditEvent(msgs, null, 0);
+        }
+
+        @Override
+        public void sendAuditEvent(AuditEventMessage[] msgs, InetAddress destination, int port) throws Exception {
+            for (AuditEventMessage msg : msgs) {
+                written.add(ByteBuffer.wrap(msg.getSerializedMessage(false)).getInt());
+            }
+        }
+    }
+}
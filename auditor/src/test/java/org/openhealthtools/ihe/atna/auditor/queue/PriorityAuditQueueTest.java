@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.queue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleContext;
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.events.dicom.SecurityAlertEvent;
+import org.openhealthtools.ihe.atna.auditor.events.ihe.QueryEvent;
+import org.openhealthtools.ihe.atna.auditor.sender.AuditMessageSender;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ */
+public class PriorityAuditQueueTest {
+
+    private AuditMessageSender messageSender;
+    private AuditorModuleContext context;
+    private CountDownLatch sending;
+    private CountDownLatch release;
+
+    @Before
+    public void setup() {
+        messageSender = mock(AuditMessageSender.class);
+        context = mock(AuditorModuleContext.class);
+        when(context.getSender()).thenReturn(messageSender);
+        sending = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+    }
+
+    @Test
+    public void highPriorityEventsOvertakeBacklog() throws Exception {
+        PriorityAuditQueue queue = new PriorityAuditQueue(context);
+        AuditEventMessage blocking = lowPriorityMessage();
+        AuditEventMessage low1 = lowPriorityMessage();
+        AuditEventMessage low2 = lowPriorityMessage();
+        AuditEventMessage high = highPriorityMessage();
+        try {
+            blockOn(blocking);
+
+            queue.sendAuditEvent(blocking);
+            assertTrue(sending.await(5, TimeUnit.SECONDS));
+            queue.sendAuditEvent(low1);
+            queue.sendAuditEvent(low2);
+            queue.sendAuditEvent(high);
+            assertEquals(1, queue.getHighPriorityBacklog());
+            assertEquals(2, queue.getLowPriorityBacklog());
+            release.countDown();
+        } finally {
+            queue.shutdown();
+        }
+        ArgumentCaptor<AuditEventMessage[]> sent = ArgumentCaptor.forClass(AuditEventMessage[].class);
+        verify(messageSender, times(4)).sendAuditEvent(sent.capture());
+        assertArrayEquals(new AuditEventMessage[]{blocking, high, low1, low2}, flatten(sent.getAllValues()));
+    }
+
+    @Test
+    public void shedLowPriorityButNeverHighPriorityEvents() throws Exception {
+        PriorityAuditQueue queue = new PriorityAuditQueue(context, 1, 1, PriorityAuditQueue.DEFAULT_HIGH_PRIORITY_EVENTS);
+        try {
+            AuditEventMessage blocking = lowPriorityMessage();
+            blockOn(blocking);
+            queue.sendAuditEvent(blocking);
+            assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+            queue.sendAuditEvent(lowPriorityMessage());
+            queue.sendAuditEvent(lowPriorityMessage());
+            assertEquals(1, queue.getDroppedEvents());
+
+            AuditEventMessage high1 = highPriorityMessage();
+            AuditEventMessage high2 = highPriorityMessage();
+            queue.sendAuditEvent(high1);
+            queue.sendAuditEvent(high2);
+            // second high priority event did not fit and was sent on this thread
+            verify(messageSender).sendAuditEvent(new AuditEventMessage[]{high2});
+            release.countDown();
+        } finally {
+            queue.shutdown();
+        }
+        verify(messageSender, times(4)).sendAuditEvent(any(AuditEventMessage[].class));
+        assertEquals(1, queue.getDroppedEvents());
+    }
+
+    @Test
+    public void shedOnHeapThreshold() throws Exception {
+        PriorityAuditQueue queue = new PriorityAuditQueue(context);
+        try {
+            queue.setHeapUsageThreshold(Double.MIN_VALUE);
+            queue.sendAuditEvent(lowPriorityMessage());
+            queue.sendAuditEvent(highPriorityMessage());
+        } finally {
+            queue.shutdown();
+        }
+        assertEquals(1, queue.getDroppedEvents());
+        verify(messageSender).sendAuditEvent(argThat(isHighPriority()));
+        verifyNoMoreInteractions(messageSender);
+    }
+
+    @Test
+    public void noEventIsLostWhileShuttingDown() throws Exception {
+        AtomicInteger sent = new AtomicInteger();
+        doAnswer(invocation -> {
+            sent.addAndGet(((AuditEventMessage[]) invocation.getArguments()[0]).length);
+            return null;
+        }).when(messageSender).sendAuditEvent(any(AuditEventMessage[].class));
+        PriorityAuditQueue queue = new PriorityAuditQueue(context);
+        AuditEventMessage msg = lowPriorityMessage();
+        int producers = 4;
+        int perProducer = 2000;
+        CountDownLatch started = new CountDownLatch(producers);
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            threads[i] = new Thread(() -> {
+                started.countDown();
+                for (int j = 0; j < perProducer; j++) {
+                    queue.sendAuditEvent(msg);
+                }
+            });
+            threads[i].start();
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        queue.shutdown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, queue.getDroppedEvents());
+        assertEquals(producers * perProducer, sent.get());
+    }
+
+    private void blockOn(AuditEventMessage msg) throws Exception {
+        doAnswer(invocation -> {
+            sending.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(messageSender).sendAuditEvent(new AuditEventMessage[]{msg});
+    }
+
+    private static org.hamcrest.Matcher<AuditEventMessage[]> isHighPriority() {
+        return new org.mockito.ArgumentMatcher<AuditEventMessage[]>() {
+            @Override
+            public boolean matches(Object argument) {
+                return ((AuditEventMessage[]) argument)[0] instanceof SecurityAlertEvent;
+            }
+        };
+    }
+
+    private static AuditEventMessage[] flatten(List<AuditEventMessage[]> batches) {
+        return batches.stream().flatMap(Arrays::stream).toArray(AuditEventMessage[]::new);
+    }
+
+    private static AuditEventMessage lowPriorityMessage() {
+        return mock(QueryEvent.class);
+    }
+
+    private static AuditEventMessage highPriorityMessage() {
+        return mock(SecurityAlertEvent.class);
+    }
+}
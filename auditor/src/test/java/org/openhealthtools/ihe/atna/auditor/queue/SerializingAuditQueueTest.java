@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.auditor.queue;
+
+import org.junit.Test;
+import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleContext;
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.sender.FramedAuditMessageSender;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ */
+public class SerializingAuditQueueTest {
+
+    @Test
+    public void serializeOnProducerThreadAndWriteInOrder() throws Exception {
+        final int messages = 500;
+        RecordingSender sender = new RecordingSender();
+        SerializingAuditQueue queue = new SerializingAuditQueue(context(sender));
+        try {
+            for (int i = 0; i < messages; i++) {
+                queue.sendAuditEvent(message(i, 100));
+            }
+            queue.flush();
+        } finally {
+            queue.shutdown();
+        }
+        assertEquals(messages, sender.written.size());
+        for (int i = 0; i < messages; i++) {
+            assertArrayEquals(payload(i, 100), sender.written.get(i));
+        }
+        assertEquals(Collections.singleton(Thread.currentThread().getName()), sender.framingThreads);
+        assertEquals(1, sender.writerThreads.size());
+        assertFalse(sender.writerThreads.contains(Thread.currentThread().getName()));
+        assertEquals(0, queue.getBacklogSize());
+        assertEquals(0L, queue.getBacklogBytes());
+    }
+
+    @Test
+    public void offHeapPayloads() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSender sender = new RecordingSender(release);
+        // 8 blocks: room for two payloads of 3000 bytes, the rest is kept on the heap
+        SerializingAuditQueue queue = new SerializingAuditQueue(context(sender), 1L << 20, 8 * SerializingAuditQueue.SLAB_BLOCK_SIZE);
+        try {
+            queue.sendAuditEvent(message(0, 10));
+            awaitBacklog(queue, 0);
+            for (int i = 1; i <= 4; i++) {
+                queue.sendAuditEvent(message(i, 3000));
+            }
+            assertEquals(4, queue.getBacklogSize());
+            assertEquals(12010L, queue.getBacklogBytes());
+            assertEquals(2L * SerializingAuditQueue.SLAB_BLOCK_SIZE, queue.getOffHeapFreeBytes());
+            release.countDown();
+            queue.flush();
+            assertEquals(8L * SerializingAuditQueue.SLAB_BLOCK_SIZE, queue.getOffHeapFreeBytes());
+        } finally {
+            queue.shutdown();
+        }
+        assertEquals(5, sender.written.size());
+        for (int i = 1; i <= 4; i++) {
+            assertArrayEquals(payload(i, 3000), sender.written.get(i));
+        }
+    }
+
+    @Test
+    public void sendOnCallerThreadWhenFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSender sender = new RecordingSender(release);
+        SerializingAuditQueue queue = new SerializingAuditQueue(context(sender), 350, 0);
+        try {
+            queue.sendAuditEvent(message(0, 100));
+            awaitBacklog(queue, 0);
+            queue.sendAuditEvent(message(1, 100));
+            queue.sendAuditEvent(message(2, 100));
+            assertEquals(300L, queue.getBacklogBytes());
+            // the backlog is full, so the next message is written right away
+            Thread caller = new Thread(() -> queue.sendAuditEvent(message(3, 100)), "caller");
+            caller.start();
+            Thread.sleep(100);
+            assertTrue(sender.writerThreads.contains("caller"));
+            release.countDown();
+            caller.join(5000);
+            queue.flush();
+        } finally {
+            queue.shutdown();
+        }
+        assertEquals(4, sender.written.size());
+    }
+
+    @Test
+    public void noEventIsLostWhileShuttingDown() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        long slabBytes = 64L * SerializingAuditQueue.SLAB_BLOCK_SIZE;
+        SerializingAuditQueue queue = new SerializingAuditQueue(context(sender), 1L << 20, (int) slabBytes);
+        AuditEventMessage message = message(0, 100);
+        int producers = 4;
+        int perProducer = 2000;
+        CountDownLatch started = new CountDownLatch(producers);
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            threads[i] = new Thread(() -> {
+                started.countDown();
+                for (int j = 0; j < perProducer; j++) {
+                    queue.sendAuditEvent(message);
+                }
+            });
+            threads[i].start();
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        queue.shutdown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(producers * perProducer, sender.written.size());
+        assertEquals(0, queue.getBacklogSize());
+        assertEquals(0L, queue.getBacklogBytes());
+        assertEquals(slabBytes, queue.getOffHeapFreeBytes());
+    }
+
+    @Test
+    public void slabRoundTrip() {
+        FrameSlab slab = new FrameSlab(4096, 1000);
+        assertEquals(4000L, slab.getFreeBytes());
+        byte[] payload = payload(7, 2500);
+        int[] blocks = slab.store(payload);
+        assertEquals(3, blocks.length);
+        assertNull(slab.store(new byte[1001]));
+        assertNotNull(slab.store(new byte[1000]));
+        assertArrayEquals(payload, slab.load(blocks, payload.length));
+        slab.release(blocks);
+        assertEquals(3000L, slab.getFreeBytes());
+        assertEquals(0, slab.store(new byte[0]).length);
+    }
+
+    private static void awaitBacklog(SerializingAuditQueue queue, int size) throws InterruptedException {
+        for (int i = 0; i < 100 && queue.getBacklogSize() != size; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, queue.getBacklogSize());
+    }
+
+    private static AuditorModuleContext context(FramedAuditMessageSender sender) {
+        AuditorModuleContext context = mock(AuditorModuleContext.class);
+        when(context.getSender()).thenReturn(sender);
+        return context;
+    }
+
+    private static AuditEventMessage message(int sequence, int size) {
+        AuditEventMessage message = mock(AuditEventMessage.class);
+        when(message.getDestinationAddress()).thenReturn(InetAddress.getLoopbackAddress());
+        when(message.getDestinationPort()).thenReturn(6514);
+        when(message.getSerializedMessage(false)).thenReturn(payload(sequence, size));
+        return message;
+    }
+
+    private static byte[] payload(int sequence, int size) {
+        byte[] payload = new byte[size];
+        for (int i = 0; i < size; i++) {
+            payload[i] = (byte) (sequence + i);
+        }
+        return payload;
+    }
+
+    private static class RecordingSender implements FramedAuditMessageSender {
+
+        final List<byte[]> written = Collections.synchronizedList(new ArrayList<>());
+        final Set<String> writerThreads = ConcurrentHashMap.newKeySet();
+        final Set<String> framingThreads = ConcurrentHashMap.newKeySet();
+        private final CountDownLatch release;
+
+        RecordingSender() {
+            this(new CountDownLatch(0));
+        }
+
+        RecordingSender(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public byte[] frame(AuditEventMessage msg) {
+            framingThreads.add(Thread.currentThread().getName());
+            return msg.getSerializedMessage(false);
+        }
+
+        @Override
+        public void sendFrames(List<byte[]> frames, InetAddress destination, int port) throws Exception {
+            writerThreads.add(Thread.currentThread().getName());
+            if (!"caller".equals(Thread.currentThread().getName())) {
+                release.await(10, TimeUnit.SECONDS);
+            }
+            written.addAll(frames);
+        }
+
+        @Override
+        public void sendAuditEvent(AuditEventMessage[] msgs) throws Exception {
+            sendAuditEvent(msgs, null, 0);
+        }
+
+        @Override
+        public void sendAuditEvent(AuditEventMessage[] msgs, InetAddress destination, int port) throws Exception {
+            for (AuditEventMessage msg : msgs) {
+                sendFrames(Collections.singletonList(frame(msg)), destination, port);
+            }
+        }
+    }
+}
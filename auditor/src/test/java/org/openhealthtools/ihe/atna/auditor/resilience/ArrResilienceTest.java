@@ -0,0 +1,349 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.auditor.resilience;
+
+import io.vertx.core.Vertx;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.openhealthtools.ihe.atna.auditor.IHEAuditor;
+import org.openhealthtools.ihe.atna.auditor.PIXConsumerAuditor;
+import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleConfig;
+import org.openhealthtools.ihe.atna.auditor.context.AuditorModuleContext;
+import org.openhealthtools.ihe.atna.auditor.queue.AdaptiveBatchingAuditQueue;
+import org.openhealthtools.ihe.atna.auditor.queue.AsynchronousAuditQueue;
+import org.openhealthtools.ihe.atna.auditor.queue.AuditMessageQueue;
+import org.openhealthtools.ihe.atna.auditor.queue.PipelinedAuditQueue;
+import org.openhealthtools.ihe.atna.auditor.queue.PriorityAuditQueue;
+import org.openhealthtools.ihe.atna.auditor.queue.SerializingAuditQueue;
+import org.openhealthtools.ihe.atna.auditor.queue.SynchronousAuditQueue;
+import org.openhealthtools.ihe.atna.context.SecurityContextFactory;
+import org.openhealthtools.ihe.atna.nodeauth.SecurityDomain;
+import org.openhealthtools.ihe.atna.nodeauth.context.NodeAuthModuleContext;
+import org.openhealthtools.ihe.atna.test.Fault;
+import org.openhealthtools.ihe.atna.test.FaultInjectingSyslogServer;
+import org.openhealthtools.ihe.atna.test.FaultSchedule;
+import org.openhealthtools.ihe.atna.test.load.LogLinearHistogram;
+import org.openhealthtools.ihe.atna.test.load.SyslogSinkStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881EventCodes.RFC3881EventOutcomeCodes.SUCCESS;
+import static org.openhealthtools.ihe.atna.auditor.tests.mesa.TestConfiguration.*;
+import static org.openhealthtools.ihe.atna.nodeauth.SecurityDomain.*;
+import static org.openhealthtools.ihe.atna.test.SyslogServerFactory.*;
+
+/**
+ * Runs the TLS syslog sender behind each queue against an ARR that misbehaves, and checks
+ * that callers are held up for a bounded time only, that queues do not grow beyond their
+ * capacity and that delivery recovers once the fault is gone. Recovery times are logged.
+ */
+@RunWith(Parameterized.class)
+public class ArrResilienceTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArrResilienceTest.class);
+
+    private static final int QUEUE_CAPACITY = 500;
+    private static final long RECOVERY_TIMEOUT = 15000L;
+
+    private static final String[] QUIET_LOGGERS = {
+            "org.openhealthtools.ihe.atna.auditor.queue",
+            "org.openhealthtools.ihe.atna.auditor.sender",
+            "org.openhealthtools.ihe.atna.nodeauth"};
+
+    private static final Map<String, Level> previousLevels = new HashMap<>();
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> queues() {
+        return Arrays.asList(new Object[][]{{"sync"}, {"async"}, {"adaptive"}, {"priority"}, {"pipelined"}, {"serializing"}});
+    }
+
+    private final String queueType;
+
+    private Vertx vertx;
+    private FaultInjectingSyslogServer arr;
+    private SyslogSinkStatistics statistics;
+    private AuditorModuleContext context;
+    private AuditMessageQueue queue;
+    private IHEAuditor auditor;
+    private Properties systemProperties;
+
+    public ArrResilienceTest(String queueType) {
+        this.queueType = queueType;
+    }
+
+    @BeforeClass
+    public static void quietLogging() {
+        // failing sends are expected here and would otherwise log thousands of stack trace lines
+        for (String name : QUIET_LOGGERS) {
+            previousLevels.put(name, LogManager.getLogger(name).getLevel());
+        }
+        for (String name : QUIET_LOGGERS) {
+            Configurator.setLevel(name, Level.OFF);
+        }
+    }
+
+    @AfterClass
+    public static void restoreLogging() {
+        Configurator.setLevel(previousLevels);
+        previousLevels.clear();
+    }
+
+    @Before
+    public void setup() {
+        systemProperties = (Properties) System.getProperties().clone();
+        vertx = Vertx.vertx();
+        context = AuditorModuleContext.getContext();
+        NodeAuthModuleContext.getContext().getConfig().setSocketRetryWait(100);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (queue != null) {
+            queue.shutdown();
+        }
+        context.setQueue(new SynchronousAuditQueue(context));
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(result -> closed.complete(null));
+        closed.get(10, TimeUnit.SECONDS);
+        System.setProperties(systemProperties);
+        SecurityContextFactory.cleanupSecurityContext();
+    }
+
+    @Test
+    public void latency() throws Exception {
+        start(false);
+        arr.inject(Fault.LATENCY, 1000, 20);
+        LogLinearHistogram callTime = send(50, 10);
+        assertTrue(statistics.awaitMessages(50, RECOVERY_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(arr.getInjectedFaults(Fault.LATENCY) > 0);
+        assertTrue("Caller latency " + callTime, callTime.getMax() < TimeUnit.MILLISECONDS.toMicros(500));
+    }
+
+    @Test
+    public void stall() throws Exception {
+        start(false);
+        send(1, 0);
+        assertTrue(statistics.awaitMessages(1, RECOVERY_TIMEOUT, TimeUnit.MILLISECONDS));
+        long stallMillis = 1500;
+        long stallEnd = System.currentTimeMillis() + stallMillis;
+        arr.inject(Fault.STALL, stallMillis, 0);
+        long heapBefore = usedHeap();
+        int[] maxBacklog = new int[1];
+        LogLinearHistogram callTime = send(2000, 0, () -> maxBacklog[0] = Math.max(maxBacklog[0], backlog()));
+        assertTrue("Caller latency " + callTime,
+                callTime.getMax() < TimeUnit.MILLISECONDS.toMicros(stallMillis + 3000));
+        assertTrue("Backlog " + maxBacklog[0], maxBacklog[0] <= QUEUE_CAPACITY);
+        // the priority queue sheds low priority events instead of blocking when full
+        long expected = 2001 - dropped();
+        assertTrue(statistics.toString(), statistics.awaitMessages(expected, RECOVERY_TIMEOUT, TimeUnit.MILLISECONDS));
+        LOG.info("{}: all messages delivered {} ms after the end of a {} ms stall, caller {}",
+                queueType, System.currentTimeMillis() - stallEnd, stallMillis, callTime);
+        assertEquals(0, backlog());
+        assertTrue("Heap growth", usedHeap() - heapBefore < 64 * 1024 * 1024);
+    }
+
+    @Test
+    public void reset() throws Exception {
+        start(false);
+        send(10, 5);
+        assertTrue(statistics.awaitMessages(10, RECOVERY_TIMEOUT, TimeUnit.MILLISECONDS));
+        arr.inject(Fault.RESET, 500, 0);
+        LogLinearHistogram callTime = send(10, 50);
+        assertTrue(arr.getInjectedFaults(Fault.RESET) > 0);
+        assertTrue("Caller latency " + callTime, callTime.getMax() < TimeUnit.SECONDS.toMicros(5));
+        LOG.info("{}: delivery recovered {} ms after connection resets", queueType, recover());
+    }
+
+    @Test
+    public void partialFrame() throws Exception {
+        start(false);
+        send(5, 5);
+        assertTrue(statistics.awaitMessages(5, RECOVERY_TIMEOUT, TimeUnit.MILLISECONDS));
+        arr.inject(Fault.PARTIAL_FRAME, 200, 0);
+        send(1, 0);
+        Thread.sleep(200);
+        LOG.info("{}: delivery recovered {} ms after a truncated frame", queueType, recover());
+        assertEquals(0, statistics.getInvalidMessages());
+        assertTrue(statistics.getFramingErrors() > 0);
+    }
+
+    @Test
+    public void handshakeFailure() throws Exception {
+        // connection establishment does not depend on the queue
+        Assume.assumeTrue("sync".equals(queueType));
+        start(true);
+        arr.injectOnConnections(Fault.HANDSHAKE_FAILURE, 2);
+        LogLinearHistogram callTime = send(5, 50);
+        assertTrue(arr.getInjectedFaults(Fault.HANDSHAKE_FAILURE) > 0);
+        assertTrue("Caller latency " + callTime, callTime.getMax() < TimeUnit.SECONDS.toMicros(5));
+        LOG.info("{}: delivery recovered {} ms after failing TLS handshakes", queueType, recover());
+        // delivery cannot recover before both failing handshakes have been consumed
+        assertEquals(2, arr.getInjectedFaults(Fault.HANDSHAKE_FAILURE));
+    }
+
+    /**
+     * Keeps sending one message every 20 ms until the repository receives new messages
+     *
+     * @return milliseconds until delivery has recovered
+     */
+    private long recover() throws Exception {
+        long start = System.currentTimeMillis();
+        long received = statistics.getMessages();
+        while (statistics.getMessages() == received) {
+            assertTrue("No recovery: " + statistics, System.currentTimeMillis() - start < RECOVERY_TIMEOUT);
+            send(1, 20);
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private LogLinearHistogram send(int count, long periodMillis) throws InterruptedException {
+        return send(count, periodMillis, () -> { });
+    }
+
+    private LogLinearHistogram send(int count, long periodMillis, Runnable probe) throws InterruptedException {
+        LogLinearHistogram callTime = new LogLinearHistogram();
+        for (int i = 0; i < count; i++) {
+            long before = System.nanoTime();
+            auditor.auditActorStartEvent(SUCCESS, MESA_SYSTEM_ID, MESA_USER_IDENTITY);
+            callTime.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - before));
+            probe.run();
+            if (periodMillis > 0) {
+                Thread.sleep(periodMillis);
+            }
+        }
+        return callTime;
+    }
+
+    private void start(boolean tls) throws Exception {
+        int port = freePort();
+        int sinkPort = freePort();
+        arr = tls ?
+                createFaultInjectingTLSServer(port, sinkPort, resource(TRUST_STORE), TRUST_STORE_PASS, new FaultSchedule()) :
+                createFaultInjectingTCPServer(port, sinkPort, new FaultSchedule());
+        statistics = arr.getStatistics();
+        CompletableFuture<Void> deployed = new CompletableFuture<>();
+        vertx.deployVerticle(arr, result -> {
+            if (result.succeeded()) {
+                deployed.complete(null);
+            } else {
+                deployed.completeExceptionally(result.cause());
+            }
+        });
+        deployed.get(10, TimeUnit.SECONDS);
+
+        Properties properties = new Properties();
+        properties.put(JAVAX_NET_SSL_KEYSTORE, resource(KEY_STORE));
+        properties.put(JAVAX_NET_SSL_KEYSTORE_PASSWORD, KEY_STORE_PASS);
+        properties.put(JAVAX_NET_SSL_TRUSTSTORE, resource(TRUST_STORE));
+        properties.put(JAVAX_NET_SSL_TRUSTSTORE_PASSWORD, TRUST_STORE_PASS);
+        properties.put(JDK_TLS_CLIENT_PROTOCOLS, "TLSv1.2");
+        NodeAuthModuleContext nodeAuthContext = NodeAuthModuleContext.getContext();
+        nodeAuthContext.getSecurityDomainManager().registerSecurityDomain(new SecurityDomain("resilience", properties));
+        nodeAuthContext.getSecurityDomainManager()
+                .registerURItoSecurityDomain(new URI("atna://localhost:" + port), "resilience");
+        nodeAuthContext.setTLSEnabled(tls);
+        nodeAuthContext.setNonTLSConnectionsPermitted(!tls);
+
+        AuditorModuleConfig config = context.getConfig();
+        config.setAuditRepositoryHost("localhost");
+        config.setAuditRepositoryPort(port);
+        config.setAuditRepositoryTransport("TLS");
+        queue = createQueue();
+        context.setQueue(queue);
+        auditor = context.getAuditor(PIXConsumerAuditor.class);
+    }
+
+    private AuditMessageQueue createQueue() {
+        switch (queueType) {
+            case "async":
+                AsynchronousAuditQueue async = new AsynchronousAuditQueue(context);
+                async.setExecutorService(Executors.newSingleThreadExecutor());
+                return async;
+            case "adaptive":
+                return new AdaptiveBatchingAuditQueue(context, QUEUE_CAPACITY);
+            case "priority":
+                return new PriorityAuditQueue(context, QUEUE_CAPACITY, QUEUE_CAPACITY,
+                        PriorityAuditQueue.DEFAULT_HIGH_PRIORITY_EVENTS);
+            case "pipelined":
+                return new PipelinedAuditQueue(context, 2, QUEUE_CAPACITY, QUEUE_CAPACITY);
+            case "serializing":
+                // audit messages take more than 1 KiB, half of the backlog goes off-heap
+                return new SerializingAuditQueue(context, QUEUE_CAPACITY * 1024L, QUEUE_CAPACITY * 1024);
+            default:
+                return new SynchronousAuditQueue(context);
+        }
+    }
+
+    private int backlog() {
+        if (queue instanceof AdaptiveBatchingAuditQueue) {
+            return ((AdaptiveBatchingAuditQueue) queue).getBacklog();
+        }
+        if (queue instanceof PipelinedAuditQueue) {
+            return ((PipelinedAuditQueue) queue).getIoBacklog();
+        }
+        if (queue instanceof SerializingAuditQueue) {
+            return ((SerializingAuditQueue) queue).getBacklogSize();
+        }
+        if (queue instanceof PriorityAuditQueue) {
+            PriorityAuditQueue priorityQueue = (PriorityAuditQueue) queue;
+            return Math.max(priorityQueue.getHighPriorityBacklog(), priorityQueue.getLowPriorityBacklog());
+        }
+        return 0;
+    }
+
+    private long dropped() {
+        return queue instanceof PriorityAuditQueue ? ((PriorityAuditQueue) queue).getDroppedEvents() : 0L;
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String resource(String path) {
+        return ArrResilienceTest.class.getResource(path).getPath();
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
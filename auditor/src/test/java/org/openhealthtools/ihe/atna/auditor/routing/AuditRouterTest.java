@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.routing;
+
+import org.junit.Test;
+import org.openhealthtools.ihe.atna.auditor.PIXConsumerAuditor;
+import org.openhealthtools.ihe.atna.auditor.XDSConsumerAuditor;
+import org.openhealthtools.ihe.atna.auditor.codes.dicom.DICOMEventIdCodes;
+import org.openhealthtools.ihe.atna.auditor.codes.dicom.DICOMEventTypeCodes;
+import org.openhealthtools.ihe.atna.auditor.codes.ihe.IHETransactionEventTypeCodes;
+import org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881EventCodes.RFC3881EventOutcomeCodes;
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.events.dicom.SecurityAlertEvent;
+import org.openhealthtools.ihe.atna.auditor.events.ihe.QueryEvent;
+import org.openhealthtools.ihe.atna.auditor.queue.AuditMessageQueue;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+import static org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881EventCodes.RFC3881EventOutcomeCodes.*;
+
+/**
+ *
+ */
+public class AuditRouterTest {
+
+    @Test
+    public void matchByEventIdTransactionOutcomeAndAuditor() {
+        AuditRouter router = new AuditRouter(
+                new AuditRoutingRule("security").forEventIds(new DICOMEventIdCodes.SecurityAlert()),
+                new AuditRoutingRule("pix").forTransactions("ITI-9"),
+                new AuditRoutingRule("failures").forOutcomes(MINOR_FAILURE, SERIOUS_FAILURE, MAJOR_FAILURE),
+                new AuditRoutingRule("xds").forAuditors(XDSConsumerAuditor.class),
+                new AuditRoutingRule("all"));
+
+        assertEquals(0b10001L, router.match(PIXConsumerAuditor.class, securityAlert(SUCCESS)));
+        assertEquals(0b10101L, router.match(PIXConsumerAuditor.class, securityAlert(MAJOR_FAILURE)));
+        assertEquals(0b10010L, router.match(PIXConsumerAuditor.class, pixQuery()));
+        assertEquals(0b11000L, router.match(XDSConsumerAuditor.class, new QueryEvent(true, SUCCESS,
+                new IHETransactionEventTypeCodes.RegistryStoredQuery(), null)));
+    }
+
+    @Test
+    public void matchByOriginalText() {
+        AuditRouter router = new AuditRouter(new AuditRoutingRule("security").forEventIds("Security Alert"));
+        assertEquals(1L, router.match(PIXConsumerAuditor.class, securityAlert(SUCCESS)));
+        assertEquals(0L, router.match(PIXConsumerAuditor.class, pixQuery()));
+    }
+
+    @Test
+    public void lastRuleStopsEvaluation() {
+        AuditRouter router = new AuditRouter(
+                new AuditRoutingRule("first").forTransactions("ITI-18"),
+                new AuditRoutingRule("security").forEventIds(new DICOMEventIdCodes.SecurityAlert()).last(),
+                new AuditRoutingRule("all"));
+
+        assertEquals(0b010L, router.match(PIXConsumerAuditor.class, securityAlert(SUCCESS)));
+        assertEquals(0b100L, router.match(PIXConsumerAuditor.class, pixQuery()));
+    }
+
+    @Test
+    public void routeToQueuesAndDestinations() throws Exception {
+        AuditMessageQueue defaultQueue = mock(AuditMessageQueue.class);
+        AuditMessageQueue alertQueue = mock(AuditMessageQueue.class);
+        InetAddress address = InetAddress.getLoopbackAddress();
+        AuditRouter router = new AuditRouter(
+                new AuditRoutingRule("security")
+                        .forEventIds(new DICOMEventIdCodes.SecurityAlert())
+                        .to(new AuditRoute(alertQueue))
+                        .to(new AuditRoute(null, address, 6514)));
+
+        AuditEventMessage alert = securityAlert(SUCCESS);
+        assertTrue(router.route(PIXConsumerAuditor.getAuditor(), alert, defaultQueue));
+        verify(alertQueue).sendAuditEvent(alert);
+        verify(defaultQueue).sendAuditEvent(alert, address, 6514);
+
+        assertFalse(router.route(PIXConsumerAuditor.getAuditor(), pixQuery(), defaultQueue));
+        verifyNoMoreInteractions(alertQueue, defaultQueue);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyRules() {
+        AuditRoutingRule[] rules = new AuditRoutingRule[AuditRouter.MAX_RULES + 1];
+        for (int i = 0; i < rules.length; i++) {
+            rules[i] = new AuditRoutingRule("rule" + i);
+        }
+        new AuditRouter(rules);
+    }
+
+    private static AuditEventMessage securityAlert(RFC3881EventOutcomeCodes outcome) {
+        return new SecurityAlertEvent(outcome, new DICOMEventTypeCodes.NodeAuthentication());
+    }
+
+    private static AuditEventMessage pixQuery() {
+        return new QueryEvent(true, SUCCESS, new IHETransactionEventTypeCodes.PIXQuery(), null);
+    }
+}
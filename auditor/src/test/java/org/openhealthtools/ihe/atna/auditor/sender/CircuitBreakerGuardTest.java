@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.sender;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.queue.AuditMessageQueue;
+import org.openhealthtools.ihe.atna.nodeauth.CircuitBreaker;
+import org.openhealthtools.ihe.atna.nodeauth.CircuitBreakerOpenException;
+import org.openhealthtools.ihe.atna.nodeauth.CircuitBreakerRegistry;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ */
+public class CircuitBreakerGuardTest {
+
+    private final InetAddress address = InetAddress.getLoopbackAddress();
+    private final AuditEventMessage msg = mock(AuditEventMessage.class);
+    private final List<AuditEventMessage> msgs = Arrays.asList(msg, msg);
+    private CircuitBreakerRegistry registry;
+    private CircuitBreakerGuard guard;
+
+    @Before
+    public void setUp() {
+        registry = new CircuitBreakerRegistry();
+        registry.setSlidingWindowSize(1);
+        registry.setWaitDurationInOpenState(60000);
+        guard = new CircuitBreakerGuard(registry);
+    }
+
+    @Test
+    public void failingDeliveryOpensBreaker() throws Exception {
+        open();
+        AtomicInteger deliveries = new AtomicInteger();
+        try {
+            guard.deliver(address, 6514, msgs, deliveries::incrementAndGet);
+            fail();
+        } catch (CircuitBreakerOpenException e) {
+            assertEquals(CircuitBreaker.State.OPEN, e.getCircuitBreaker().getState());
+        }
+        assertEquals(0, deliveries.get());
+    }
+
+    @Test
+    public void openBreakerDivertsToFallbackQueue() throws Exception {
+        AuditMessageQueue fallback = mock(AuditMessageQueue.class);
+        guard.setFallbackQueue(fallback);
+        open();
+        guard.deliver(address, 6514, msgs, CircuitBreakerGuardTest::notDelivered);
+        verify(fallback, times(2)).sendAuditEvent(msg, address, 6514);
+
+        // frames cannot be diverted
+        try {
+            guard.deliver(address, 6514, null, CircuitBreakerGuardTest::notDelivered);
+            fail();
+        } catch (CircuitBreakerOpenException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void otherDestinationsAreNotAffected() throws Exception {
+        open();
+        AtomicInteger deliveries = new AtomicInteger();
+        guard.guard((destination, port, destinationMsgs) -> deliveries.incrementAndGet())
+                .deliver(address, 514, msgs);
+        assertEquals(1, deliveries.get());
+    }
+
+    @Test
+    public void breakerIsSharedWithSocketHandler() throws Exception {
+        byte[] ip = {10, 0, 0, 5};
+        CircuitBreaker socketBreaker = registry.getCircuitBreaker("arr.example.org", 6514);
+        guard.deliver(InetAddress.getByAddress("arr.example.org", ip), 6514, msgs,
+                () -> assertTrue(socketBreaker.isHeldByCurrentThread()));
+        // later messages carry fresh addresses without host name, which is not looked up again
+        guard.deliver(InetAddress.getByAddress(ip), 6514, msgs,
+                () -> assertTrue(socketBreaker.isHeldByCurrentThread()));
+        assertEquals(2, socketBreaker.getSuccessfulCalls());
+    }
+
+    private void open() {
+        try {
+            guard.deliver(address, 6514, msgs, () -> {
+                throw new IOException("Broken pipe");
+            });
+            fail();
+        } catch (Exception e) {
+            assertTrue(e instanceof IOException);
+        }
+    }
+
+    private static void notDelivered() {
+        fail("must not be delivered");
+    }
+}
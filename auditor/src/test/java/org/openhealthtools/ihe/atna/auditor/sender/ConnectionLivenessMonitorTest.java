@@ -0,0 +1,210 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.sender;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ConnectionLivenessMonitorTest {
+
+    private final ConnectionLivenessMonitor monitor = new ConnectionLivenessMonitor("test");
+
+    @After
+    public void tearDown() {
+        monitor.shutdown();
+    }
+
+    @Test
+    public void healthyConnectionIsKept() {
+        FakeConnection connection = new FakeConnection();
+        monitor.register("a", connection);
+        monitor.check();
+        assertEquals(0, connection.reconnects);
+        assertEquals(0, monitor.getReconnects());
+    }
+
+    @Test
+    public void brokenConnectionIsReplaced() {
+        FakeConnection connection = new FakeConnection();
+        monitor.register("a", connection);
+        connection.broken = true;
+        monitor.check();
+        assertEquals(1, connection.reconnects);
+        assertEquals(1, monitor.getReconnects());
+        assertFalse(connection.broken);
+    }
+
+    @Test
+    public void idleConnectionIsClosed() throws Exception {
+        monitor.setMaxIdle(50);
+        FakeConnection idle = new FakeConnection();
+        FakeConnection busy = new FakeConnection();
+        monitor.register("idle", idle);
+        monitor.register("busy", busy);
+        Thread.sleep(100);
+        assertTrue(monitor.used("busy"));
+        monitor.check();
+        assertTrue(idle.discarded);
+        assertEquals(0, idle.reconnects);
+        assertFalse(busy.discarded);
+        assertEquals(0, monitor.getReconnects());
+
+        // no longer monitored, the sender connects again on next use
+        idle.discarded = false;
+        monitor.check();
+        assertFalse(idle.discarded);
+        assertFalse(monitor.used("idle"));
+    }
+
+    @Test
+    public void idleConnectionIsNotReplacedWhenBroken() throws Exception {
+        monitor.setMaxIdle(50);
+        FakeConnection connection = new FakeConnection();
+        monitor.register("a", connection);
+        connection.broken = true;
+        Thread.sleep(100);
+        monitor.check();
+        assertTrue(connection.discarded);
+        assertEquals(0, connection.reconnects);
+    }
+
+    @Test
+    public void oldConnectionIsReplaced() throws Exception {
+        monitor.setMaxAge(50);
+        FakeConnection connection = new FakeConnection();
+        monitor.register("a", connection);
+        Thread.sleep(100);
+        monitor.used("a");
+        monitor.check();
+        assertEquals(1, connection.reconnects);
+    }
+
+    @Test
+    public void failedReconnectDiscardsConnection() {
+        FakeConnection connection = new FakeConnection();
+        connection.failReconnect = true;
+        monitor.register("a", connection);
+        connection.broken = true;
+        monitor.check();
+        assertTrue(connection.discarded);
+        assertEquals(0, monitor.getReconnects());
+
+        // no longer monitored
+        connection.discarded = false;
+        monitor.check();
+        assertFalse(connection.discarded);
+    }
+
+    @Test
+    public void disabledMonitorDoesNotCheck() {
+        monitor.setEnabled(false);
+        FakeConnection connection = new FakeConnection();
+        monitor.register("a", connection);
+        connection.broken = true;
+        monitor.check();
+        assertEquals(0, connection.reconnects);
+    }
+
+    @Test
+    public void scheduledCheckReplacesBrokenConnection() throws Exception {
+        monitor.setCheckInterval(20);
+        FakeConnection connection = new FakeConnection();
+        monitor.register("a", connection);
+        connection.broken = true;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (connection.reconnects == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, connection.reconnects);
+    }
+
+    @Test
+    public void detectsConnectionClosedByPeer() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+             Socket accepted = server.accept()) {
+            client.setSoTimeout(5000);
+            assertFalse(ConnectionLivenessMonitor.isClosedByPeer(client));
+            assertEquals(5000, client.getSoTimeout());
+
+            // still usable after the probe
+            client.getOutputStream().write('x');
+            client.getOutputStream().flush();
+            assertEquals('x', accepted.getInputStream().read());
+
+            accepted.close();
+            assertTrue(awaitClosed(client));
+        }
+    }
+
+    @Test
+    public void detectsLocallyClosedConnection() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+             Socket ignored = server.accept()) {
+            client.close();
+            assertTrue(ConnectionLivenessMonitor.isClosedByPeer(client));
+        }
+    }
+
+    private static boolean awaitClosed(Socket socket) throws InterruptedException {
+        // the FIN may take a moment to arrive
+        for (int i = 0; i < 100; i++) {
+            if (ConnectionLivenessMonitor.isClosedByPeer(socket)) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    private static final class FakeConnection implements ConnectionLivenessMonitor.MonitoredConnection {
+        volatile boolean broken;
+        volatile boolean failReconnect;
+        volatile boolean discarded;
+        volatile int reconnects;
+
+        @Override
+        public boolean isBroken() {
+            return broken;
+        }
+
+        @Override
+        public void reconnect() throws Exception {
+            if (failReconnect) {
+                throw new IOException("Connection refused");
+            }
+            reconnects++;
+            broken = false;
+        }
+
+        @Override
+        public void discard() {
+            discarded = true;
+        }
+    }
+}
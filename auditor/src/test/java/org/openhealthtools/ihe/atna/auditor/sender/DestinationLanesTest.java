@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.sender;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ *
+ */
+public class DestinationLanesTest {
+
+    private final DestinationLanes lanes = new DestinationLanes("test");
+    private final InetAddress address = InetAddress.getLoopbackAddress();
+
+    @After
+    public void tearDown() {
+        lanes.shutdown();
+    }
+
+    @Test
+    public void singleDestinationIsDeliveredOnCallerThread() throws Exception {
+        AuditEventMessage[] msgs = {message(1), message(1)};
+        List<Thread> threads = new ArrayList<>();
+        lanes.deliver(msgs, (destination, port, destinationMsgs) -> {
+            threads.add(Thread.currentThread());
+            assertEquals(Arrays.asList(msgs), destinationMsgs);
+        });
+        assertEquals(Collections.singletonList(Thread.currentThread()), threads);
+    }
+
+    @Test
+    public void slowDestinationDoesNotBlockOthers() throws Exception {
+        CountDownLatch fastDelivered = new CountDownLatch(1);
+        AuditEventMessage[] msgs = {message(1), message(2), message(1), message(2)};
+        List<AuditEventMessage> delivered = Collections.synchronizedList(new ArrayList<>());
+        lanes.deliver(msgs, (destination, port, destinationMsgs) -> {
+            if (port == 1) {
+                // only proceeds once the other destination has been served
+                assertTrue(fastDelivered.await(5, TimeUnit.SECONDS));
+                delivered.addAll(destinationMsgs);
+            } else {
+                delivered.addAll(destinationMsgs);
+                fastDelivered.countDown();
+            }
+        });
+        assertEquals(Arrays.asList(msgs[1], msgs[3], msgs[0], msgs[2]), delivered);
+    }
+
+    @Test
+    public void timeoutIsReportedPerDestination() throws Exception {
+        lanes.setDestinationTimeout(200L);
+        CountDownLatch release = new CountDownLatch(1);
+        AuditEventMessage[] msgs = {message(1), message(2)};
+        List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+        try {
+            lanes.deliver(msgs, (destination, port, destinationMsgs) -> {
+                if (port == 1) release.await(5, TimeUnit.SECONDS);
+                delivered.add(port);
+            });
+            fail();
+        } catch (TimeoutException e) {
+            assertEquals(Collections.singletonList(2), delivered);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void failuresOfAllDestinationsAreReported() throws Exception {
+        AuditEventMessage[] msgs = {message(1), message(2)};
+        try {
+            lanes.deliver(msgs, (destination, port, destinationMsgs) -> {
+                throw new IllegalStateException("failed " + port);
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("failed 1", e.getMessage());
+            assertEquals(1, e.getSuppressed().length);
+        }
+    }
+
+    @Test
+    public void messagesWithoutDestinationDoNotAbortTheBatch() throws Exception {
+        AuditEventMessage undirected = mock(AuditEventMessage.class);
+        AuditEventMessage[] msgs = {message(1), undirected, message(2), message(1)};
+        List<AuditEventMessage> delivered = Collections.synchronizedList(new ArrayList<>());
+        try {
+            lanes.deliver(msgs, (destination, port, destinationMsgs) -> delivered.addAll(destinationMsgs));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals(3, delivered.size());
+            assertTrue(delivered.containsAll(Arrays.asList(msgs[0], msgs[2], msgs[3])));
+        }
+    }
+
+    private AuditEventMessage message(int port) {
+        AuditEventMessage msg = mock(AuditEventMessage.class);
+        when(msg.getDestinationAddress()).thenReturn(address);
+        when(msg.getDestinationPort()).thenReturn(port);
+        return msg;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.serializer;
+
+import org.junit.Test;
+import org.openhealthtools.ihe.atna.auditor.codes.ihe.IHETransactionEventTypeCodes;
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.events.ihe.QueryEvent;
+import org.openhealthtools.ihe.atna.auditor.sender.UDPSyslogSenderImpl;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+import static org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881EventCodes.RFC3881EventOutcomeCodes.SUCCESS;
+
+/**
+ *
+ */
+public class FhirAuditEventJsonSerializerTest {
+
+    static QueryEvent queryEvent() {
+        QueryEvent event = new QueryEvent(true, SUCCESS, new IHETransactionEventTypeCodes.RegistryStoredQuery(), null);
+        event.setAuditSourceId("source-\u00e9\"1\"", "site");
+        event.addSourceActiveParticipant("http://client/ws", "1234@client", null, "10.0.0.1", true);
+        event.addDestinationActiveParticipant("http://registry/ws", null, null, "registry.example.com", false);
+        event.addPatientParticipantObject("4711^^^&1.2.3&ISO");
+        event.addQueryParticipantObject("urn:uuid:14d4debf-8f97-4251-9a74-a90016b0af0d", "urn:oid:1.2.3.4",
+                "<query>\n\t<slot/></query>".getBytes(StandardCharsets.UTF_8), null,
+                new IHETransactionEventTypeCodes.RegistryStoredQuery());
+        return event;
+    }
+
+    @Test
+    public void mapsQueryEventToAuditEvent() {
+        QueryEvent event = queryEvent();
+        byte[] json = event.getSerializedMessage(FhirAuditEventJsonSerializer.INSTANCE, false);
+        String s = new String(json, StandardCharsets.UTF_8);
+        String recorded = event.getAuditMessage().getEventIdentification().getEventDateTime();
+
+        assertTrue(s.startsWith("{\"resourceType\":\"AuditEvent\",\"type\":{\"system\":\"http://dicom.nema.org/resources/ontology/DCM\",\"code\":\"110112\""));
+        assertTrue(s.contains("\"subtype\":[{\"system\":\"urn:ihe:event-type-code\",\"code\":\"ITI-18\""));
+        assertTrue(s.contains("\"action\":\"E\""));
+        assertTrue(s.contains("\"recorded\":\"" + recorded + "\",\"outcome\":\"0\""));
+        assertTrue(s.contains("\"who\":{\"identifier\":{\"value\":\"http://client/ws\"}},\"altId\":\"1234@client\",\"requestor\":true"));
+        assertTrue(s.contains("\"network\":{\"address\":\"10.0.0.1\",\"type\":\"2\"}"));
+        assertTrue(s.contains("\"network\":{\"address\":\"registry.example.com\",\"type\":\"1\"}"));
+        assertTrue(s.contains("\"source\":{\"site\":\"site\",\"observer\":{\"identifier\":{\"value\":\"source-\u00e9\\\"1\\\"\"}}"));
+        assertTrue(s.contains("\"value\":\"4711^^^&1.2.3&ISO\""));
+        assertTrue(s.contains("\"role\":{\"system\":\"http://terminology.hl7.org/CodeSystem/object-role\",\"code\":\"24\"}"));
+        assertTrue(s.contains("\"query\":\"" + new String(java.util.Base64.getEncoder().encode(
+                "<query>\n\t<slot/></query>".getBytes(StandardCharsets.UTF_8)), StandardCharsets.US_ASCII) + "\""));
+        assertTrue(s.contains("{\"type\":\"urn:ihe:iti:xca:2010:homeCommunityId\",\"valueBase64Binary\":\""));
+        assertTrue(s.endsWith("}]}]}"));
+    }
+
+    @Test
+    public void prettyPrinting() {
+        String s = new String(queryEvent().getSerializedMessage(FhirAuditEventJsonSerializer.INSTANCE, true),
+                StandardCharsets.UTF_8);
+        assertTrue(s.startsWith("{\n  \"resourceType\": \"AuditEvent\",\n  \"type\": {\n    \"system\""));
+        assertTrue(s.endsWith("\n}"));
+    }
+
+    @Test
+    public void perDestinationSelection() throws Exception {
+        InetAddress localhost = InetAddress.getLoopbackAddress();
+        AuditEventMessage msg = queryEvent();
+        msg.setDestinationAddress(localhost);
+        msg.setDestinationPort(4000);
+
+        DestinationSerializers serializers = new UDPSyslogSenderImpl().getSerializers();
+        assertSame(RFC3881XmlSerializer.INSTANCE, serializers.select(msg));
+        serializers.setSerializer(localhost, 4000, FhirAuditEventJsonSerializer.INSTANCE);
+        assertSame(FhirAuditEventJsonSerializer.INSTANCE, serializers.select(msg));
+        msg.setDestinationPort(4001);
+        assertSame(RFC3881XmlSerializer.INSTANCE, serializers.select(msg));
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.auditor.serializer;
+
+import org.openhealthtools.ihe.atna.auditor.events.ihe.QueryEvent;
+
+/**
+ * Compares the XML and FHIR JSON output formats in size and serialization throughput.
+ * Not run as part of the build; start the main method from the IDE or with
+ * <code>mvn exec:java -Dexec.classpathScope=test -Dexec.mainClass=...</code>.
+ */
+public class SerializerBenchmark {
+
+    private static final int WARMUP = 200_000;
+    private static final int ITERATIONS = 1_000_000;
+
+    public static void main(String[] args) {
+        QueryEvent event = FhirAuditEventJsonSerializerTest.queryEvent();
+        AuditMessageSerializer[] serializers = {RFC3881XmlSerializer.INSTANCE, FhirAuditEventJsonSerializer.INSTANCE};
+        for (AuditMessageSerializer serializer : serializers) {
+            long bytes = 0;
+            for (int i = 0; i < WARMUP; i++) {
+                bytes += serializer.serialize(event.getAuditMessage(), false).length;
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                bytes += serializer.serialize(event.getAuditMessage(), false).length;
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%-30s %5d bytes/message %8.0f ns/message (%d)%n",
+                    serializer.getClass().getSimpleName(),
+                    serializer.serialize(event.getAuditMessage(), false).length,
+                    (double) elapsed / ITERATIONS, bytes);
+        }
+    }
+}
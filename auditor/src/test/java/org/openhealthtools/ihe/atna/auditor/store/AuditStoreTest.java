@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.auditor.store;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openhealthtools.ihe.atna.auditor.codes.dicom.DICOMEventIdCodes;
+import org.openhealthtools.ihe.atna.auditor.codes.ihe.IHETransactionEventTypeCodes;
+import org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881EventCodes.RFC3881EventActionCodes;
+import org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881ParticipantObjectCodes.RFC3881ParticipantObjectIDTypeCodes;
+import org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881ParticipantObjectCodes.RFC3881ParticipantObjectTypeCodes;
+import org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881ParticipantObjectCodes.RFC3881ParticipantObjectTypeRoleCodes;
+import org.openhealthtools.ihe.atna.auditor.events.AuditEventMessage;
+import org.openhealthtools.ihe.atna.auditor.events.GenericAuditEventMessageImpl;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.CodedValueType;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+import static org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881EventCodes.RFC3881EventOutcomeCodes.SUCCESS;
+
+/**
+ *
+ */
+public class AuditStoreTest {
+
+    private static final long T0 = 1500000000000L;
+    private static final int COUNT = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private AuditStore store;
+
+    @Before
+    public void setup() throws IOException {
+        directory = folder.getRoot().toPath();
+        store = new AuditStore(directory, 32 * 1024, 0L);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+    }
+
+    @Test
+    public void appendAndFind() throws IOException {
+        fill();
+        assertTrue(store.getSegmentCount() > 10);
+        assertQueries();
+    }
+
+    @Test
+    public void reopen() throws IOException {
+        fill();
+        int segments = store.getSegmentCount();
+        store.close();
+        store = new AuditStore(directory, 32 * 1024, 0L);
+        assertEquals(segments, store.getSegmentCount());
+        assertQueries();
+
+        // a torn write at the end of the active segment is cut off on recovery
+        store.close();
+        Path last;
+        try (Stream<Path> files = Files.list(directory)) {
+            last = files.filter(p -> p.toString().endsWith(".log")).sorted().reduce((a, b) -> b).get();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(last.toFile(), "rw")) {
+            file.setLength(file.length() - 10);
+        }
+        store = new AuditStore(directory, 32 * 1024, 0L);
+        assertEquals(COUNT - 1, store.findByTime(Long.MIN_VALUE, Long.MAX_VALUE).size());
+        store.append(event(T0 + COUNT * 1000L, "p-x", new IHETransactionEventTypeCodes.RegistryStoredQuery()));
+        assertEquals(1, store.findByPatient("p-x").size());
+    }
+
+    @Test
+    public void retention() throws IOException {
+        fill();
+        int segments = store.getSegmentCount();
+        int deleted = store.deleteBefore(T0 + COUNT / 2 * 1000L);
+        assertTrue(deleted > 0);
+        assertEquals(segments - deleted, store.getSegmentCount());
+        List<StoredAuditRecord> remaining = store.findByTime(Long.MIN_VALUE, Long.MAX_VALUE);
+        assertTrue(remaining.size() < COUNT);
+        // only records older than the cutoff are gone
+        assertEquals(COUNT / 2, store.findByTime(T0 + COUNT / 2 * 1000L, Long.MAX_VALUE).size());
+        assertEquals(remaining.size(), store.find(AuditStore.Index.EVENT_ID, "110112").size());
+        assertEquals(0, store.deleteBefore(T0 + COUNT / 2 * 1000L));
+    }
+
+    private void fill() throws IOException {
+        long previous = -1;
+        for (int i = 0; i < COUNT; i++) {
+            // one out-of-order event in each hundred
+            long time = T0 + (i % 100 == 50 ? i - 20 : i) * 1000L;
+            CodedValueType transaction = i % 2 == 0
+                    ? new IHETransactionEventTypeCodes.RegistryStoredQuery()
+                    : new IHETransactionEventTypeCodes.PIXQuery();
+            long offset = store.append(event(time, "p-" + (i % 10), transaction));
+            assertTrue(offset > previous);
+            previous = offset;
+        }
+    }
+
+    private void assertQueries() throws IOException {
+        List<StoredAuditRecord> patient = store.findByPatient("p-3");
+        assertEquals(COUNT / 10, patient.size());
+        for (StoredAuditRecord record : patient) {
+            assertEquals("110112", record.getEventId());
+            assertEquals("ITI-9", record.getTransaction());
+            assertEquals("p-3", record.getPatientIds().get(0));
+            assertTrue(new String(record.getPayload(), StandardCharsets.UTF_8).contains("ParticipantObjectID=\"p-3\""));
+        }
+
+        List<StoredAuditRecord> range = store.findByTime(T0 + 100000L, T0 + 199000L);
+        assertEquals(100, range.size());
+        List<Long> times = range.stream().map(StoredAuditRecord::getEventTime).collect(Collectors.toList());
+        assertEquals(times.stream().sorted().collect(Collectors.toList()), times);
+
+        assertEquals(COUNT / 2, store.find(AuditStore.Index.TRANSACTION, "ITI-18").size());
+        assertEquals(10, store.find(AuditStore.Index.PATIENT, "p-4", T0, T0 + 99000L).size());
+        assertTrue(store.findByPatient("unknown").isEmpty());
+    }
+
+    private static AuditEventMessage event(long time, String patientId, CodedValueType transaction) {
+        GenericAuditEventMessageImpl event = new GenericAuditEventMessageImpl(SUCCESS, RFC3881EventActionCodes.EXECUTE,
+                new DICOMEventIdCodes.Query(), new CodedValueType[]{transaction}, new Date(time), null);
+        event.addParticipantObjectIdentification(new RFC3881ParticipantObjectIDTypeCodes.PatientNumber(), null, null,
+                null, patientId, RFC3881ParticipantObjectTypeCodes.PERSON, RFC3881ParticipantObjectTypeRoleCodes.PATIENT,
+                null, null);
+        return event;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.context;
+
+/**
+ * Service provider interface for modules whose context shall be created together
+ * with the {@link SecurityContext}. Implementations are discovered with
+ * {@link java.util.ServiceLoader} from
+ * <code>META-INF/services/org.openhealthtools.ihe.atna.context.ModuleContextProvider</code>
+ * and must have a public no-argument constructor.
+ *
+ * @since 3.7
+ */
+public interface ModuleContextProvider {
+
+    /**
+     * @return identifier the module context is registered under in the security context
+     */
+    String getContextId();
+
+    /**
+     * @return a new, default-initialized module context
+     */
+    AbstractModuleContext createContext();
+
+    /**
+     * Builds the expensive runtime objects of the given context up front. Only called
+     * when eager initialization is enabled via {@value SecurityContextInitializer#EAGER_INIT_PROPERTY},
+     * after all module contexts have been registered.
+     *
+     * @param context context created by {@link #createContext()}
+     */
+    default void initializeEagerly(AbstractModuleContext context) {
+    }
+}
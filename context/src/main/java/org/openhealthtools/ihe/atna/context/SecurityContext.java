@@ -12,8 +12,8 @@ package org.openhealthtools.ihe.atna.context;
 
 import java.io.Serializable;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -64,12 +64,12 @@ public final class SecurityContext implements Serializable
 	/**
 	 * Registry of contexts stored in the security context
 	 */
-	private final Map<String,AbstractModuleContext> contexts = Collections.synchronizedMap(new HashMap<String,AbstractModuleContext>());
+	private final Map<String,AbstractModuleContext> contexts = new ConcurrentHashMap<String,AbstractModuleContext>();
 
 	/**
 	 * Whether the security context is initialized
 	 */
-	private boolean isInitialized = false;
+	private volatile boolean isInitialized = false;
 	
 	/**
 	 * Default constructor
@@ -111,7 +111,11 @@ public final class SecurityContext implements Serializable
 	 */
 	public void registerModuleContext(String moduleName, AbstractModuleContext context)
 	{
-		contexts.put(moduleName, context);
+		if (context == null) {
+			contexts.remove(moduleName);
+		} else {
+			contexts.put(moduleName, context);
+		}
 	}
 	
 	/**
@@ -135,6 +139,7 @@ public final class SecurityContext implements Serializable
 		}
 		SecurityContextInitializer.initialize(this);
 		isInitialized = true;
+		SecurityContextInitializer.initializeEagerly(this);
 	}
 	
 	/* (non-Javadoc)
@@ -13,6 +13,9 @@
  */
 package org.openhealthtools.ihe.atna.context;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
 import org.openhealthtools.ihe.utils.thread.ConfigurableInheritableThreadLocal;
 
 
@@ -24,6 +27,12 @@ import org.openhealthtools.ihe.utils.thread.ConfigurableInheritableThreadLocal;
  *
  * SecurityContext context = SecurityContextFactory.getInstance().getSecurityContext()
  *
+ * Components on the auditing path (auditors, queues, senders) resolve their module context
+ * once and keep it, so they do not depend on the thread they run on. Code that needs the
+ * security context of the submitting thread in a pooled thread should pass it along
+ * explicitly using {@link #propagate(Runnable)}, {@link #propagate(Callable)} or
+ * {@link #propagate(Executor)} rather than relying on thread inheritance.
+ *
  * @author <a href="mailto:mattadav@us.ibm.com>Matthew Davis</a>
  *
  */
@@ -53,6 +62,63 @@ public class SecurityContextFactory {
         return SECURITY_CONTEXT_THREAD_LOCAL_INSTANCE.get();
     }
 
+    /**
+     * Wraps a task so that it runs with the security context of the calling thread.
+     * Without thread support (see {@link ConfigurableInheritableThreadLocal#enableThreading(boolean)})
+     * all threads share one security context and the task is returned as is.
+     *
+     * @param task task to wrap
+     * @return task running with the current security context
+     */
+    public static Runnable propagate(final Runnable task) {
+        if (!ConfigurableInheritableThreadLocal.isThreadingEnabled()) {
+            return task;
+        }
+        final SecurityContext context = getSecurityContext();
+        return () -> {
+            SECURITY_CONTEXT_THREAD_LOCAL_INSTANCE.set(context);
+            try {
+                task.run();
+            } finally {
+                SECURITY_CONTEXT_THREAD_LOCAL_INSTANCE.remove();
+            }
+        };
+    }
+
+    /**
+     * Wraps a task so that it runs with the security context of the calling thread
+     *
+     * @param task task to wrap
+     * @return task running with the current security context
+     * @see #propagate(Runnable)
+     */
+    public static <V> Callable<V> propagate(final Callable<V> task) {
+        if (!ConfigurableInheritableThreadLocal.isThreadingEnabled()) {
+            return task;
+        }
+        final SecurityContext context = getSecurityContext();
+        return () -> {
+            SECURITY_CONTEXT_THREAD_LOCAL_INSTANCE.set(context);
+            try {
+                return task.call();
+            } finally {
+                SECURITY_CONTEXT_THREAD_LOCAL_INSTANCE.remove();
+            }
+        };
+    }
+
+    /**
+     * Wraps an executor so that all submitted tasks run with the security context
+     * of the thread submitting them
+     *
+     * @param executor executor to wrap
+     * @return propagating executor
+     * @see #propagate(Runnable)
+     */
+    public static Executor propagate(final Executor executor) {
+        return task -> executor.execute(propagate(task));
+    }
+
     /**
      * Aloows threads to clean up their thread-local SecurityContext
      */
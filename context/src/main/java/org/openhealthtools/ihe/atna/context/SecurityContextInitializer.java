@@ -11,6 +11,12 @@
 package org.openhealthtools.ihe.atna.context;
 
 import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,6 +25,11 @@ import org.slf4j.LoggerFactory;
  * Static Security Context initializer for active loading and configuration
  * of the Security Context as well as for calling associated module contexts
  * that should be initialized by default upon loading of the security context.
+ * <p>
+ * Modules are discovered as {@link ModuleContextProvider} services. The default modules
+ * are initialized first and in their fixed order; for default modules without a
+ * registered provider the module's <code>ContextInitializer</code> is still looked up
+ * reflectively.
  * 
  * @author <a href="mailto:mattadav@us.ibm.com>Matthew Davis</a>
  *
@@ -50,6 +61,17 @@ public final class SecurityContextInitializer
 	 */
 	private static final String MODULE_INITIALIZER_METHOD = "defaultInitialize";
 	
+	/**
+	 * System property that, if set to <code>true</code>, makes the module contexts build 
+	 * their runtime objects when the security context is initialized instead of on first use
+	 */
+	public static final String EAGER_INIT_PROPERTY = "org.openhealthtools.ihe.atna.eagerInit";
+	
+	/**
+	 * Module context providers by context ID, discovered once
+	 */
+	private static volatile Map<String, ModuleContextProvider> providers;
+	
 	/**
 	 * 
 	 */
@@ -85,53 +107,141 @@ public final class SecurityContextInitializer
 			LOGGER.debug("SecurityContext default module initializer starting");
 		}
 		
-		String moduleName;
+		Map<String, ModuleContextProvider> remaining = new LinkedHashMap<String, ModuleContextProvider>(getProviders());
 		
-		// Loop through the module names
-		for (int i=0; i<DEFAULT_MODULES.length; i++) {
-			moduleName = DEFAULT_MODULES[i];
+		// Default modules first, in their fixed order
+		for (String moduleName : DEFAULT_MODULES) {
+			ModuleContextProvider provider = remaining.remove(moduleName);
+			if (provider != null) {
+				initializeModule(context, moduleName, provider);
+			} else {
+				initializeModuleReflectively(context, moduleName);
+			}
+		}
+		
+		// Additional modules contributed as services
+		for (Map.Entry<String, ModuleContextProvider> entry : remaining.entrySet()) {
+			initializeModule(context, entry.getKey(), entry.getValue());
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("SecurityContext default module initializer ending");
+		}		
+	}
+	
+	/**
+	 * Lets the module context providers build the runtime objects of their registered 
+	 * contexts if eager initialization is enabled. Must be called after the security context 
+	 * has been marked as initialized, as module contexts look each other up.
+	 * 
+	 * @param context The initialized Security Context
+	 */
+	static void initializeEagerly(SecurityContext context)
+	{
+		if (!Boolean.getBoolean(EAGER_INIT_PROPERTY)) {
+			return;
+		}
+		for (Map.Entry<String, ModuleContextProvider> entry : getProviders().entrySet()) {
+			AbstractModuleContext moduleContext = context.getModuleContext(entry.getKey());
+			if (moduleContext == null) {
+				continue;
+			}
 			try {
-				LOGGER.debug(moduleName + MODULE_INITIALIZER_CLASS);
-				
-				// Get a class instance for the module initializer
-				Class<?> clazz = Class.forName(moduleName + MODULE_INITIALIZER_CLASS);
-				
-				// Get the method instance for the module initializer's initialization method
-				Method method = clazz.getMethod(MODULE_INITIALIZER_METHOD, (Class[])null);
-				
-				// Invoke the initialization method
-				Object invokeResult = method.invoke(clazz.newInstance(), (Object[])null);
-				
-				// Validate that the result of the initialization is a valid module context
-				if (invokeResult instanceof AbstractModuleContext) {
-					
-					// Register the module context
-					context.registerModuleContext(moduleName, (AbstractModuleContext)invokeResult);
-				} else {
-					throw new IllegalArgumentException("Initializer method did not return correct type");
-				}
-
-				if (LOGGER.isInfoEnabled()) {
-					LOGGER.info("SecurityContext module "+ moduleName + " initialized");
-				}
-			}  catch (ClassNotFoundException cnfe) {
-				LOGGER.warn("SecurityContext module "+ moduleName + " not found, skipping.");
+				entry.getValue().initializeEagerly(moduleContext);
 				if (LOGGER.isDebugEnabled()) {
-					LOGGER.debug("Stack trace: ", cnfe);
-				}
-			} catch (NoSuchMethodException nsme) {
-				LOGGER.warn("SecurityContext module "+ moduleName + " does not support default initialization, skipping.", nsme);
-				if (LOGGER.isDebugEnabled()) {
-					LOGGER.debug("Stack trace: ", nsme);
+					LOGGER.debug("SecurityContext module "+ entry.getKey() + " eagerly initialized");
 				}
 			} catch (Throwable t) {
-				LOGGER.error("Error initializing SecurityContext module "+ moduleName, t);
-			} finally {
+				LOGGER.error("Error eagerly initializing SecurityContext module "+ entry.getKey(), t);
+			}
+		}
+	}
+	
+	private static void initializeModule(SecurityContext context, String moduleName, ModuleContextProvider provider)
+	{
+		try {
+			context.registerModuleContext(moduleName, provider.createContext());
+			if (LOGGER.isInfoEnabled()) {
+				LOGGER.info("SecurityContext module "+ moduleName + " initialized");
+			}
+		} catch (Throwable t) {
+			LOGGER.error("Error initializing SecurityContext module "+ moduleName, t);
+		}
+	}
+	
+	private static void initializeModuleReflectively(SecurityContext context, String moduleName)
+	{
+		try {
+			LOGGER.debug(moduleName + MODULE_INITIALIZER_CLASS);
+			
+			// Get a class instance for the module initializer
+			Class<?> clazz = Class.forName(moduleName + MODULE_INITIALIZER_CLASS);
+			
+			// Get the method instance for the module initializer's initialization method
+			Method method = clazz.getMethod(MODULE_INITIALIZER_METHOD, (Class[])null);
+			
+			// Invoke the initialization method
+			Object invokeResult = method.invoke(clazz.newInstance(), (Object[])null);
+			
+			// Validate that the result of the initialization is a valid module context
+			if (invokeResult instanceof AbstractModuleContext) {
+				
+				// Register the module context
+				context.registerModuleContext(moduleName, (AbstractModuleContext)invokeResult);
+			} else {
+				throw new IllegalArgumentException("Initializer method did not return correct type");
+			}
 
+			if (LOGGER.isInfoEnabled()) {
+				LOGGER.info("SecurityContext module "+ moduleName + " initialized");
+			}
+		}  catch (ClassNotFoundException cnfe) {
+			LOGGER.warn("SecurityContext module "+ moduleName + " not found, skipping.");
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Stack trace: ", cnfe);
 			}
+		} catch (NoSuchMethodException nsme) {
+			LOGGER.warn("SecurityContext module "+ moduleName + " does not support default initialization, skipping.", nsme);
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Stack trace: ", nsme);
+			}
+		} catch (Throwable t) {
+			LOGGER.error("Error initializing SecurityContext module "+ moduleName, t);
 		}
-		if (LOGGER.isDebugEnabled()) {
-			LOGGER.debug("SecurityContext default module initializer ending");
-		}		
+	}
+	
+	/**
+	 * @return Module context providers by context ID, default modules first
+	 */
+	private static Map<String, ModuleContextProvider> getProviders()
+	{
+		Map<String, ModuleContextProvider> result = providers;
+		if (result == null) {
+			result = new LinkedHashMap<String, ModuleContextProvider>();
+			Iterator<ModuleContextProvider> iterator = ServiceLoader.load(ModuleContextProvider.class, 
+					SecurityContextInitializer.class.getClassLoader()).iterator();
+			while (true) {
+				try {
+					if (!iterator.hasNext()) {
+						break;
+					}
+					ModuleContextProvider provider = iterator.next();
+					result.put(provider.getContextId(), provider);
+				} catch (ServiceConfigurationError e) {
+					LOGGER.warn("Could not load SecurityContext module provider, skipping.", e);
+				}
+			}
+			// Default modules first, so they are also eagerly initialized in their fixed order
+			Map<String, ModuleContextProvider> ordered = new LinkedHashMap<String, ModuleContextProvider>();
+			for (String moduleName : DEFAULT_MODULES) {
+				ModuleContextProvider provider = result.remove(moduleName);
+				if (provider != null) {
+					ordered.put(moduleName, provider);
+				}
+			}
+			ordered.putAll(result);
+			result = Collections.unmodifiableMap(ordered);
+			providers = result;
+		}
+		return result;
 	}
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.context.tests;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openhealthtools.ihe.atna.context.SecurityContext;
+import org.openhealthtools.ihe.atna.context.SecurityContextFactory;
+import org.openhealthtools.ihe.utils.thread.ConfigurableInheritableThreadLocal;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class SecurityContextPropagationTest {
+
+    private final boolean threading = ConfigurableInheritableThreadLocal.isThreadingEnabled();
+
+    @After
+    public void restoreThreading() {
+        ConfigurableInheritableThreadLocal.enableThreading(threading);
+    }
+
+    @Test
+    public void propagateIntoPooledThread() throws Exception {
+        ConfigurableInheritableThreadLocal.enableThreading(true);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // the pool thread inherits the context of this thread when it is created
+            SecurityContext inherited = executor.submit(SecurityContextFactory::getSecurityContext).get();
+            SecurityContextFactory.cleanupSecurityContext();
+            SecurityContext current = SecurityContextFactory.getSecurityContext();
+            assertNotSame(inherited, current);
+
+            assertSame(current, executor.submit(SecurityContextFactory.propagate(
+                    SecurityContextFactory::getSecurityContext)).get());
+            // the pool thread does not keep the propagated context
+            assertNotSame(current, executor.submit(SecurityContextFactory::getSecurityContext).get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void noWrappingWithoutThreadSupport() {
+        ConfigurableInheritableThreadLocal.enableThreading(false);
+        Runnable task = () -> { };
+        assertSame(task, SecurityContextFactory.propagate(task));
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.nodeauth;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Circuit breaker guarding the calls to one destination (host and port).
+ * <p>
+ * While {@link State#CLOSED closed}, the outcomes of the last calls are kept in a sliding
+ * window. Once the window holds a minimum number of calls and the share of failed calls
+ * reaches the failure rate threshold, the breaker {@link State#OPEN opens} and rejects all
+ * calls without trying. After the configured wait, the next call moves the breaker to
+ * {@link State#HALF_OPEN half-open} and a limited number of probe calls are let through:
+ * if they all succeed the breaker closes again, if one fails it opens for another wait.
+ * <p>
+ * Breakers are obtained from a {@link CircuitBreakerRegistry}, which holds the settings
+ * and notifies listeners of state changes. Calls guarded with {@link #execute(Callable)}
+ * may be nested on the same thread, e.g. a sender guarding a delivery that opens a socket
+ * through the {@link SocketHandler}; only the outermost call takes a permission and
+ * records an outcome.
+ *
+ * @since 3.7
+ */
+public class CircuitBreaker {
+
+    /**
+     * States of a circuit breaker
+     */
+    public enum State {
+        /** Calls are permitted, outcomes are recorded */
+        CLOSED,
+        /** Calls are rejected until the wait in open state has elapsed */
+        OPEN,
+        /** A limited number of probe calls are permitted to decide whether to close again */
+        HALF_OPEN
+    }
+
+    /**
+     * Listener notified about state changes of the breakers of a registry
+     */
+    public interface Listener {
+
+        /**
+         * @param breaker circuit breaker that changed its state
+         * @param from    previous state
+         * @param to      new state
+         */
+        void stateChanged(CircuitBreaker breaker, State from, State to);
+    }
+
+    private final String destination;
+    private final CircuitBreakerRegistry registry;
+    private final ThreadLocal<Boolean> held = new ThreadLocal<>();
+
+    private State state = State.CLOSED;
+    private boolean[] window;
+    private int windowIndex;
+    private int windowCalls;
+    private int windowFailures;
+    private long openUntil;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+    private long successfulCalls;
+    private long failedCalls;
+    private long rejectedCalls;
+
+    CircuitBreaker(String destination, CircuitBreakerRegistry registry) {
+        this.destination = destination;
+        this.registry = registry;
+        this.window = new boolean[registry.getSlidingWindowSize()];
+    }
+
+    /**
+     * Runs a call if the breaker permits it and records its outcome. Any exception thrown
+     * by the call counts as failure. Nested calls on the same thread are run unguarded.
+     *
+     * @param call call to the destination
+     * @param <T>  result type
+     * @return result of the call
+     * @throws CircuitBreakerOpenException if the breaker rejects the call
+     * @throws Exception                   thrown by the call
+     */
+    public <T> T execute(Callable<T> call) throws Exception {
+        if (isHeldByCurrentThread()) {
+            return call.call();
+        }
+        if (!tryAcquirePermission()) {
+            throw new CircuitBreakerOpenException(this);
+        }
+        held.set(Boolean.TRUE);
+        boolean recorded = false;
+        try {
+            T result = call.call();
+            recorded = true;
+            onSuccess();
+            return result;
+        } catch (Exception e) {
+            recorded = true;
+            onFailure();
+            throw e;
+        } finally {
+            held.remove();
+            if (!recorded) {
+                // e.g. an Error, which must not keep the only half-open permit
+                releasePermission();
+            }
+        }
+    }
+
+    /**
+     * @return true if the current thread is inside {@link #execute(Callable)} of this breaker,
+     * so that the outcome of a nested call is recorded by the enclosing one
+     */
+    public boolean isHeldByCurrentThread() {
+        return held.get() != null;
+    }
+
+    /**
+     * Asks for permission to call the destination. Every granted permission must be followed
+     * by {@link #onSuccess()}, {@link #onFailure()} or {@link #releasePermission()}.
+     *
+     * @return true if the call may proceed
+     */
+    public boolean tryAcquirePermission() {
+        if (!registry.isEnabled()) {
+            return true;
+        }
+        State from = null;
+        boolean permitted;
+        synchronized (this) {
+            if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+                from = transitionTo(State.HALF_OPEN);
+            }
+            switch (state) {
+                case CLOSED:
+                    permitted = true;
+                    break;
+                case HALF_OPEN:
+                    permitted = halfOpenPermits > 0;
+                    if (permitted) {
+                        halfOpenPermits--;
+                    }
+                    break;
+                default:
+                    permitted = false;
+            }
+            if (!permitted) {
+                rejectedCalls++;
+            }
+        }
+        if (from != null) {
+            registry.stateChanged(this, from, State.HALF_OPEN);
+        }
+        return permitted;
+    }
+
+    /**
+     * Records a successful call
+     */
+    public void onSuccess() {
+        if (!registry.isEnabled()) {
+            return;
+        }
+        State from = null;
+        synchronized (this) {
+            successfulCalls++;
+            if (state == State.CLOSED) {
+                record(false);
+            } else if (state == State.HALF_OPEN && ++halfOpenSuccesses >= registry.getPermittedCallsInHalfOpenState()) {
+                from = transitionTo(State.CLOSED);
+            }
+        }
+        if (from != null) {
+            registry.stateChanged(this, from, State.CLOSED);
+        }
+    }
+
+    /**
+     * Records a failed call
+     */
+    public void onFailure() {
+        if (!registry.isEnabled()) {
+            return;
+        }
+        State from = null;
+        synchronized (this) {
+            failedCalls++;
+            if (state == State.CLOSED) {
+                record(true);
+                if (windowCalls >= registry.getMinimumNumberOfCalls()
+                        && windowFailures * 100 >= registry.getFailureRateThreshold() * windowCalls) {
+                    from = transitionTo(State.OPEN);
+                }
+            } else if (state == State.HALF_OPEN) {
+                from = transitionTo(State.OPEN);
+            }
+        }
+        if (from != null) {
+            registry.stateChanged(this, from, State.OPEN);
+        }
+    }
+
+    /**
+     * Returns a permission without recording an outcome, e.g. because the call was cancelled
+     */
+    public synchronized void releasePermission() {
+        if (state == State.HALF_OPEN) {
+            halfOpenPermits++;
+        }
+    }
+
+    /**
+     * Closes the breaker and forgets the recorded outcomes
+     */
+    public void reset() {
+        State from;
+        synchronized (this) {
+            from = transitionTo(State.CLOSED);
+        }
+        if (from != State.CLOSED) {
+            registry.stateChanged(this, from, State.CLOSED);
+        }
+    }
+
+    /**
+     * @return destination guarded by this breaker as host:port
+     */
+    public String getDestination() {
+        return destination;
+    }
+
+    /**
+     * @return current state. An open breaker whose wait has elapsed is reported as open
+     * until the next call moves it to half-open.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return percentage of failed calls in the sliding window, or -1 if the window does not
+     * yet hold the minimum number of calls
+     */
+    public synchronized float getFailureRate() {
+        return windowCalls < registry.getMinimumNumberOfCalls() ? -1.0f : windowFailures * 100.0f / windowCalls;
+    }
+
+    /**
+     * @return number of successful calls since the breaker was created
+     */
+    public synchronized long getSuccessfulCalls() {
+        return successfulCalls;
+    }
+
+    /**
+     * @return number of failed calls since the breaker was created
+     */
+    public synchronized long getFailedCalls() {
+        return failedCalls;
+    }
+
+    /**
+     * @return number of calls rejected without trying since the breaker was created
+     */
+    public synchronized long getRejectedCalls() {
+        return rejectedCalls;
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker[" + destination + ", " + getState() + "]";
+    }
+
+    private void record(boolean failure) {
+        int size = registry.getSlidingWindowSize();
+        if (window.length != size) {
+            window = new boolean[size];
+            windowIndex = windowCalls = windowFailures = 0;
+        }
+        if (windowCalls == window.length) {
+            if (window[windowIndex]) {
+                windowFailures--;
+            }
+        } else {
+            windowCalls++;
+        }
+        window[windowIndex] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowIndex = (windowIndex + 1) % window.length;
+    }
+
+    private State transitionTo(State to) {
+        State from = state;
+        state = to;
+        windowIndex = windowCalls = windowFailures = 0;
+        if (to == State.OPEN) {
+            openUntil = System.currentTimeMillis() + registry.getWaitDurationInOpenState();
+        } else if (to == State.HALF_OPEN) {
+            halfOpenPermits = registry.getPermittedCallsInHalfOpenState();
+            halfOpenSuccesses = 0;
+        }
+        return from;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.nodeauth;
+
+import java.net.ConnectException;
+
+/**
+ * Thrown instead of connecting when the circuit breaker of a destination rejects the call.
+ * Extends {@link ConnectException}, so existing handling of connect failures applies.
+ *
+ * @since 3.7
+ */
+public class CircuitBreakerOpenException extends ConnectException {
+
+    private static final long serialVersionUID = -3101657209862427305L;
+
+    private final transient CircuitBreaker circuitBreaker;
+
+    /**
+     * @param circuitBreaker breaker that rejected the call
+     */
+    public CircuitBreakerOpenException(CircuitBreaker circuitBreaker) {
+        super("Circuit breaker for " + circuitBreaker.getDestination() + " is " + circuitBreaker.getState());
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @return breaker that rejected the call
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+}
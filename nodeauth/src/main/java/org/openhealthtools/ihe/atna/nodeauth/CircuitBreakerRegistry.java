@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.nodeauth;
+
+import org.openhealthtools.ihe.utils.jfr.FlightRecorderEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Circuit breakers keyed by destination, shared by the {@link SocketHandler} and the
+ * audit message senders, together with their settings. The registry of the node
+ * authentication module is obtained via
+ * {@link org.openhealthtools.ihe.atna.nodeauth.context.NodeAuthModuleContext#getCircuitBreakerRegistry()}.
+ * <p>
+ * State changes are logged, emitted as Java Flight Recorder events and passed on to
+ * registered {@link CircuitBreaker.Listener listeners}. Settings apply to existing
+ * breakers from their next call on.
+ *
+ * @since 3.7
+ */
+public class CircuitBreakerRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreakerRegistry.class);
+
+    public static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+    public static final int DEFAULT_SLIDING_WINDOW_SIZE = 10;
+    public static final int DEFAULT_MINIMUM_NUMBER_OF_CALLS = 5;
+    public static final long DEFAULT_WAIT_DURATION_IN_OPEN_STATE = 5000L;
+    public static final int DEFAULT_PERMITTED_CALLS_IN_HALF_OPEN_STATE = 1;
+
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final List<CircuitBreaker.Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean enabled = true;
+    private volatile int failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+    private volatile int slidingWindowSize = DEFAULT_SLIDING_WINDOW_SIZE;
+    private volatile int minimumNumberOfCalls = DEFAULT_MINIMUM_NUMBER_OF_CALLS;
+    private volatile long waitDurationInOpenState = DEFAULT_WAIT_DURATION_IN_OPEN_STATE;
+    private volatile int permittedCallsInHalfOpenState = DEFAULT_PERMITTED_CALLS_IN_HALF_OPEN_STATE;
+
+    /**
+     * Returns the breaker of a destination, creating it if necessary
+     *
+     * @param host host name or address
+     * @param port port
+     * @return circuit breaker for host:port
+     */
+    public CircuitBreaker getCircuitBreaker(String host, int port) {
+        String destination = host.toLowerCase(Locale.ROOT) + ":" + port;
+        CircuitBreaker breaker = breakers.get(destination);
+        return breaker != null ? breaker : breakers.computeIfAbsent(destination, key -> new CircuitBreaker(key, this));
+    }
+
+    /**
+     * @return the breakers created so far, e.g. for exposing their states and counters as metrics
+     */
+    public Collection<CircuitBreaker> getCircuitBreakers() {
+        return Collections.unmodifiableCollection(new ArrayList<>(breakers.values()));
+    }
+
+    /**
+     * Closes all breakers
+     */
+    public void reset() {
+        breakers.values().forEach(CircuitBreaker::reset);
+    }
+
+    /**
+     * @param listener listener to notify about state changes
+     */
+    public void addListener(CircuitBreaker.Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener listener to remove
+     */
+    public void removeListener(CircuitBreaker.Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param enabled whether breakers may reject calls at all. Defaults to true.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * @param failureRateThreshold percentage of failed calls in the sliding window that opens a breaker.
+     *                             Defaults to 50.
+     */
+    public void setFailureRateThreshold(int failureRateThreshold) {
+        if (failureRateThreshold < 1 || failureRateThreshold > 100) {
+            throw new IllegalArgumentException("Failure rate threshold must be between 1 and 100");
+        }
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public int getSlidingWindowSize() {
+        return slidingWindowSize;
+    }
+
+    /**
+     * @param slidingWindowSize number of most recent calls the failure rate is computed from.
+     *                          Defaults to 10.
+     */
+    public void setSlidingWindowSize(int slidingWindowSize) {
+        if (slidingWindowSize < 1) {
+            throw new IllegalArgumentException("Sliding window size must be positive");
+        }
+        this.slidingWindowSize = slidingWindowSize;
+    }
+
+    public int getMinimumNumberOfCalls() {
+        return Math.min(minimumNumberOfCalls, slidingWindowSize);
+    }
+
+    /**
+     * @param minimumNumberOfCalls number of calls in the sliding window before the failure rate is
+     *                             evaluated, capped at the window size. Defaults to 5.
+     */
+    public void setMinimumNumberOfCalls(int minimumNumberOfCalls) {
+        if (minimumNumberOfCalls < 1) {
+            throw new IllegalArgumentException("Minimum number of calls must be positive");
+        }
+        this.minimumNumberOfCalls = minimumNumberOfCalls;
+    }
+
+    public long getWaitDurationInOpenState() {
+        return waitDurationInOpenState;
+    }
+
+    /**
+     * @param waitDurationInOpenState milliseconds an open breaker rejects calls before probing the
+     *                                destination again. Defaults to 5 seconds.
+     */
+    public void setWaitDurationInOpenState(long waitDurationInOpenState) {
+        this.waitDurationInOpenState = waitDurationInOpenState;
+    }
+
+    public int getPermittedCallsInHalfOpenState() {
+        return permittedCallsInHalfOpenState;
+    }
+
+    /**
+     * @param permittedCallsInHalfOpenState number of probe calls that must succeed to close a half-open
+     *                                      breaker. Defaults to 1.
+     */
+    public void setPermittedCallsInHalfOpenState(int permittedCallsInHalfOpenState) {
+        if (permittedCallsInHalfOpenState < 1) {
+            throw new IllegalArgumentException("Permitted calls in half-open state must be positive");
+        }
+        this.permittedCallsInHalfOpenState = permittedCallsInHalfOpenState;
+    }
+
+    void stateChanged(CircuitBreaker breaker, CircuitBreaker.State from, CircuitBreaker.State to) {
+        if (to == CircuitBreaker.State.OPEN) {
+            LOG.warn("Circuit breaker for {} changed from {} to {}, calls are rejected for {} ms",
+                    breaker.getDestination(), from, to, waitDurationInOpenState);
+        } else {
+            LOG.info("Circuit breaker for {} changed from {} to {}", breaker.getDestination(), from, to);
+        }
+        FlightRecorderEvents.circuitBreakerStateChanged(breaker.getDestination(), from.name(), to.name());
+        for (CircuitBreaker.Listener listener : listeners) {
+            try {
+                listener.stateChanged(breaker, from, to);
+            } catch (RuntimeException e) {
+                LOG.warn("Circuit breaker listener failed", e);
+            }
+        }
+    }
+}
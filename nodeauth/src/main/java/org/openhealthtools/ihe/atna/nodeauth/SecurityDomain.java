@@ -11,10 +11,11 @@
 package org.openhealthtools.ihe.atna.nodeauth;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
@@ -23,13 +24,18 @@ import java.security.cert.CertificateException;
 import java.util.Enumeration;
 import java.util.Properties;
 
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509KeyManager;
 
 import org.openhealthtools.ihe.atna.nodeauth.utils.AliasSensitiveX509KeyManager;
+import org.openhealthtools.ihe.atna.nodeauth.utils.DomainSSLSocketFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -108,11 +114,23 @@ public class SecurityDomain implements Cloneable {
      */
     private String name;
 
-    KeyManagerFactory keyManagerFactory = null;
-    KeyStore keyStore = null;
-    TrustManagerFactory trustManagerFactory = null;
-    KeyStore trustStore = null;
-    private KeyManager[] keyManagers;
+    /**
+     * Key and trust stores, loaded on first use and shared with clones
+     */
+    private volatile KeyMaterial keyMaterial;
+
+    /**
+     * Key managers selecting the preferred alias of this domain, created on first use
+     */
+    private volatile KeyManager[] keyManagers;
+
+    /**
+     * SSL context and socket factory built from the key and trust managers, created on first use
+     */
+    private volatile SSLContext sslContext;
+    private volatile SSLSocketFactory sslSocketFactory;
+
+    private static final HostnameVerifier ACCEPT_ALL_HOSTNAMES = (hostname, session) -> true;
 
     /**
      *
@@ -136,8 +154,6 @@ public class SecurityDomain implements Cloneable {
 
     private boolean domainSpoofCheck = false;
     private String preferredKeyAlias;
-    protected boolean keystoreInitialized = false;
-    protected boolean truststoreInitialized = false;
 
     /**
      * Creates a security domain that uses the default key alias from the keystore
@@ -191,8 +207,11 @@ public class SecurityDomain implements Cloneable {
 
 
     /**
+     * Sets the properties of this domain. The key and trust stores are not read until they are
+     * first used or {@link #load() loaded} explicitly.
+     *
      * @param properties
-     * @throws SecurityDomainException
+     * @throws SecurityDomainException if no key store is defined
      */
     public void setProperties(Properties properties) throws SecurityDomainException {
         domainProperties = cloneProperties(properties);
@@ -206,14 +225,23 @@ public class SecurityDomain implements Cloneable {
         if (domainProperties.getProperty(JDK_TLS_CLIENT_PROTOCOLS) == null) {
             domainProperties.setProperty(JDK_TLS_CLIENT_PROTOCOLS, DEFAULT_JDK_TLS_CLIENT_PROTOCOLS);
         }
-        initStores();
+        String keyStoreName = domainProperties.getProperty(JAVAX_NET_SSL_KEYSTORE, null);
+        if (logger.isDebugEnabled())
+            logger.debug("Name of key store for security domain " + name + " is " + keyStoreName);
+        if (keyStoreName == null) {
+            throw new SecurityDomainException(name, "Key Store file is undefined");
+        }
+        keyMaterial = new KeyMaterial(domainProperties);
+        keyManagers = null;
+        resetSSLContext();
         if (logger.isDebugEnabled())
             logger.debug("Success: Security name " + name + " configured.");
     }
 
     /**
      * Sets the System environment to support the Security Domain's settings. This is used for protocols which only read their crypto
-     * settings via environment variables.
+     * settings via environment variables. Changing System properties affects all threads, so connections created by this library
+     * do not use it, see {@link #getSSLSocketFactory()}.
      * <br>Also see {@link #restoreSystemEnvironment()}
      */
     public void setDomainEnvironment() {
@@ -271,29 +299,28 @@ public class SecurityDomain implements Cloneable {
     }
 
     /**
+     * @param material
      * @param truststoreInputStream
      * @param truststorePassword
      * @throws NoSuchAlgorithmException
      * @throws CertificateException
      * @throws IOException
      */
-    protected void initTrustStore(InputStream truststoreInputStream, char[] truststorePassword) throws SecurityDomainException, NoSuchAlgorithmException, CertificateException {
-        if (null == truststoreInputStream) {
-            truststoreInitialized = true;
-            logger.warn("Truststore input stream is null.  Using JVM default trust store.");
-            return;
-        }
-
+    private void initTrustStore(KeyMaterial material, InputStream truststoreInputStream, char[] truststorePassword) throws SecurityDomainException, NoSuchAlgorithmException, CertificateException {
+        boolean truststoreInitialized = false;
         for (int typeIndex = 0; typeIndex < SECURITY_STORE_FORMATS.length; typeIndex++) {
             String storeType = SECURITY_STORE_FORMATS[typeIndex];
             try {
                 truststoreInputStream.reset();
                 // Create the truststore
-                trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+                KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
                 trustStore.load(truststoreInputStream, truststorePassword);
                 // Create and init the trust manager
-                trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
                 trustManagerFactory.init(trustStore);
+                material.trustStore = trustStore;
+                material.trustManagerFactory = trustManagerFactory;
+                material.trustManagers = trustManagerFactory.getTrustManagers();
                 // If we're here, then it was successful
                 truststoreInitialized = true;
 
@@ -316,6 +343,7 @@ public class SecurityDomain implements Cloneable {
 
 
     /**
+     * @param material
      * @param keystoreInputStream
      * @param keystorePassword
      * @throws NoSuchAlgorithmException
@@ -323,19 +351,21 @@ public class SecurityDomain implements Cloneable {
      * @throws UnrecoverableKeyException
      * @throws IOException
      */
-    protected void initKeyStore(InputStream keystoreInputStream, char[] keystorePassword) throws SecurityDomainException, NoSuchAlgorithmException, CertificateException, UnrecoverableKeyException {
+    private void initKeyStore(KeyMaterial material, InputStream keystoreInputStream, char[] keystorePassword) throws SecurityDomainException, NoSuchAlgorithmException, CertificateException, UnrecoverableKeyException {
+        boolean keystoreInitialized = false;
         for (int typeIndex = 0; typeIndex < SECURITY_STORE_FORMATS.length; typeIndex++) {
             String storeType = SECURITY_STORE_FORMATS[typeIndex];
             try {
                 keystoreInputStream.reset();
                 // Create the keystore
-                keyStore = KeyStore.getInstance(storeType);
+                KeyStore keyStore = KeyStore.getInstance(storeType);
                 keyStore.load(keystoreInputStream, keystorePassword);
                 // Create and init the key manager
-                keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+                KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
                 keyManagerFactory.init(keyStore, keystorePassword);
-                // Run the X509 checker and add aliases to the keys
-                fixKeyManagers();
+                material.keyStore = keyStore;
+                material.keyManagerFactory = keyManagerFactory;
+                material.keyManagers = keyManagerFactory.getKeyManagers();
                 // If we're here, success
                 keystoreInitialized = true;
 
@@ -358,24 +388,65 @@ public class SecurityDomain implements Cloneable {
 
 
     /**
-     * Initialize the key and trust stores
+     * Initialize the key and trust stores now rather than on first use
      * @throws SecurityDomainException
      */
     protected void initStores() throws SecurityDomainException {
-        setDomainEnvironment();
+        loadKeyMaterial();
+    }
 
-        char[] keyStorePasswd = domainProperties.getProperty(JAVAX_NET_SSL_KEYSTORE_PASSWORD, "").toCharArray();
-        char[] trustStorePasswd = domainProperties.getProperty(JAVAX_NET_SSL_TRUSTSTORE_PASSWORD, "").toCharArray();
+    /**
+     * Loads and decrypts the key and trust stores now rather than on first use, e.g. to detect
+     * configuration errors at startup. Clones share the loaded stores, so they are read once for a
+     * domain and all its clones. Does nothing if the stores are loaded already.
+     * <br>Also see {@link SecurityDomainManager#loadSecurityDomains(int)}
+     *
+     * @throws SecurityDomainException if a store cannot be loaded
+     * @since 3.7
+     */
+    public void load() throws SecurityDomainException {
+        loadKeyMaterial();
+    }
 
-        String keyStoreName = domainProperties.getProperty(JAVAX_NET_SSL_KEYSTORE, null);
-        if (logger.isDebugEnabled())
-            logger.debug("Name of key store for security domain " + name + " is " + keyStoreName);
-        if (keyStoreName == null) {
-            restoreSystemEnvironment();
-            throw new SecurityDomainException(name, "Key Store file is undefined");
+    /**
+     * @return whether the key and trust stores have been loaded
+     * @since 3.7
+     */
+    public boolean isLoaded() {
+        return keyMaterial.loaded;
+    }
+
+    private KeyMaterial loadKeyMaterial() throws SecurityDomainException {
+        KeyMaterial material = keyMaterial;
+        if (!material.loaded) {
+            synchronized (material) {
+                if (!material.loaded) {
+                    loadStores(material);
+                    material.loaded = true;
+                }
+            }
+        }
+        return material;
+    }
+
+    /**
+     * @return the loaded key material, for accessors that cannot throw checked exceptions
+     */
+    private KeyMaterial keyMaterial() {
+        try {
+            return loadKeyMaterial();
+        } catch (SecurityDomainException e) {
+            throw new IllegalStateException(e.getMessage(), e);
         }
+    }
 
-        String trustStoreName = domainProperties.getProperty(JAVAX_NET_SSL_TRUSTSTORE, null);
+    /**
+     * Reads the key and trust stores. The System environment is not changed, as domains may be
+     * loaded concurrently.
+     */
+    private void loadStores(KeyMaterial material) throws SecurityDomainException {
+        String keyStoreName = material.keyStoreName;
+        String trustStoreName = material.trustStoreName;
         if (logger.isDebugEnabled()) {
             if (trustStoreName != null) {
                 logger.debug("Name of trust store for security domain " + name + " is " + trustStoreName);
@@ -386,61 +457,50 @@ public class SecurityDomain implements Cloneable {
 
         // Key Store
         try {
-            InputStream keystoreInputStream = preBufferInputStream(new FileInputStream(keyStoreName));
-            initKeyStore(keystoreInputStream, keyStorePasswd);
+            InputStream keystoreInputStream = preBufferInputStream(keyStoreName);
+            initKeyStore(material, keystoreInputStream, material.keyStorePassword);
             if (logger.isDebugEnabled())
                 logger.debug("Key store for security domain " + name + " initialized successfully");
         } catch (NoSuchAlgorithmException e) {
             String msg = "Error: Key Store Manager Algorithm " + KeyManagerFactory.getDefaultAlgorithm() + " is not supported. " + e.getLocalizedMessage();
             logger.error(msg);
-            restoreSystemEnvironment();
             throw new SecurityDomainException(name, msg, e);
         } catch (CertificateException | IOException | UnrecoverableKeyException e) {
             String msg = "Error loading key store file " + keyStoreName + ".  " + e.getLocalizedMessage();
             logger.error(msg);
-            restoreSystemEnvironment();
             throw new SecurityDomainException(name, msg, e);
         }
 
         if (trustStoreName != null) {
             // Trust Store
             try {
-                InputStream trustoreInputStream = preBufferInputStream(new FileInputStream(trustStoreName));
-                initTrustStore(trustoreInputStream, trustStorePasswd);
+                InputStream trustoreInputStream = preBufferInputStream(trustStoreName);
+                initTrustStore(material, trustoreInputStream, material.trustStorePassword);
                 if (logger.isDebugEnabled())
                     logger.debug("Trust store for security domain " + name + " initialized successfully");
 
             } catch (NoSuchAlgorithmException e) {
                 String msg = "Error: Key Store Manager Algorithm " + KeyManagerFactory.getDefaultAlgorithm() + " is not supported. " + e.getLocalizedMessage();
                 logger.error(msg);
-                restoreSystemEnvironment();
                 throw new SecurityDomainException(name, msg, e);
             } catch (CertificateException e) {
                 String msg = "Error loading trust store file " + trustStoreName + ".  " + e.getLocalizedMessage();
                 logger.error(msg);
-                restoreSystemEnvironment();
                 throw new SecurityDomainException(name, msg, e);
             } catch (IOException e) {
                 String msg = "Error loading trust store file " + trustStoreName + ".  " + e.getLocalizedMessage();
                 logger.error(msg);
-                restoreSystemEnvironment();
                 throw new SecurityDomainException(name, msg, e);
             }
         }
-        restoreSystemEnvironment();
     }
 
     /**
      * If a keystore alias is defined, then override the key manager assigned
      * to with an alias-sensitive wrapper that selects the proper key from your
-     * assigned key alias.
+     * assigned key alias. The wrapped key managers are shared with clones.
      */
-    private void fixKeyManagers() {
-        // If the key manager factory is null, do not continue
-        if (null == keyManagerFactory || null == keyManagerFactory.getKeyManagers()) {
-            return;
-        }
-        KeyManager[] defaultKeyManagers = keyManagerFactory.getKeyManagers();
+    private KeyManager[] aliasSensitiveKeyManagers(KeyManager[] defaultKeyManagers) {
         KeyManager[] newKeyManagers = new KeyManager[defaultKeyManagers.length];
 
         KeyManager mgr = null;
@@ -453,41 +513,106 @@ public class SecurityDomain implements Cloneable {
             }
             newKeyManagers[i] = mgr;
         }
-
-        keyManagers = newKeyManagers;
+        return newKeyManagers;
     }
 
 
     /**
      * @return
+     * @throws IllegalStateException if the key store cannot be loaded
      */
     public KeyStore getKeyStore() {
-        return keyStore;
+        return keyMaterial().keyStore;
     }
 
 
     /**
-     * @return
+     * @return the trust store, or null if the JVM default trust store is used
+     * @throws IllegalStateException if the stores cannot be loaded
      */
     public KeyStore getTrustStore() {
-        return trustStore;
+        return keyMaterial().trustStore;
     }
 
     /**
      * @return
+     * @throws IllegalStateException if the key store cannot be loaded
      */
     public KeyManager[] getKeyManagers() {
-        if (null == keyManagers) {
-            return keyManagerFactory.getKeyManagers();
+        KeyManager[] managers = keyManagers;
+        if (managers == null) {
+            managers = aliasSensitiveKeyManagers(keyMaterial().keyManagers);
+            keyManagers = managers;
         }
-        return keyManagers;
+        return managers;
     }
 
     /**
-     * @return
+     * @return the trust managers, or null if the JVM default trust store is used
+     * @throws IllegalStateException if the stores cannot be loaded
      */
     public TrustManager[] getTrustManagers() {
-        return trustManagerFactory.getTrustManagers();
+        return keyMaterial().trustManagers;
+    }
+
+    /**
+     * Returns the SSL context initialized with the key and trust managers of this domain, using
+     * the first of its client protocols. The context is created on first use and cached; without
+     * a trust store, the JVM default trust managers are used.
+     *
+     * @return SSL context of this domain
+     * @throws NoSuchAlgorithmException if the protocol is not supported
+     * @throws KeyManagementException if the context cannot be initialized or the stores cannot be loaded
+     */
+    public SSLContext getSSLContext() throws NoSuchAlgorithmException, KeyManagementException {
+        SSLContext context = sslContext;
+        if (context == null) {
+            synchronized (this) {
+                context = sslContext;
+                if (context == null) {
+                    try {
+                        load();
+                    } catch (SecurityDomainException e) {
+                        throw (KeyManagementException) new KeyManagementException(e.getMessage()).initCause(e);
+                    }
+                    context = SSLContext.getInstance(getJdkTlsClientProtocols()[0]);
+                    context.init(getKeyManagers(), getTrustManagers(), null);
+                    sslContext = context;
+                }
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Returns a socket factory for HTTPS connections of this domain. Sockets are created from
+     * the cached {@link #getSSLContext() SSL context} with the protocols and cipher suites of the
+     * {@value #HTTPS_PROTOCOLS} and {@value #HTTPS_CIPHERSUITES} properties of this domain, so the
+     * global <code>javax.net.ssl.*</code> and <code>https.*</code> System properties are neither read nor
+     * changed, and connections of different domains can be opened concurrently.
+     *
+     * @return socket factory of this domain
+     * @throws NoSuchAlgorithmException if the protocol is not supported
+     * @throws KeyManagementException if the context cannot be initialized
+     */
+    public SSLSocketFactory getSSLSocketFactory() throws NoSuchAlgorithmException, KeyManagementException {
+        SSLSocketFactory factory = sslSocketFactory;
+        if (factory == null) {
+            factory = new DomainSSLSocketFactory(getSSLContext().getSocketFactory(), getHttpsProtocols(), getCipherSuites());
+            sslSocketFactory = factory;
+        }
+        return factory;
+    }
+
+    /**
+     * Returns the hostname verifier for HTTPS connections of this domain: the default one of
+     * {@link HttpsURLConnection} if the domain spoof check is enabled, otherwise one accepting
+     * all host names.
+     *
+     * @return hostname verifier of this domain
+     */
+    public HostnameVerifier getHostnameVerifier() {
+        return domainSpoofCheck ? HttpsURLConnection.getDefaultHostnameVerifier() : ACCEPT_ALL_HOSTNAMES;
     }
 
 
@@ -497,7 +622,7 @@ public class SecurityDomain implements Cloneable {
      * @return
      */
     public KeyManagerFactory getKeyManagerFactory() {
-        return keyManagerFactory;
+        return keyMaterial().keyManagerFactory;
     }
 
 
@@ -507,7 +632,7 @@ public class SecurityDomain implements Cloneable {
      * @return
      */
     public TrustManagerFactory getTrustManagerFactory() {
-        return trustManagerFactory;
+        return keyMaterial().trustManagerFactory;
     }
 
     /**
@@ -524,6 +649,12 @@ public class SecurityDomain implements Cloneable {
         return suites;
     }
 
+    public String[] getHttpsProtocols() {
+        String protocolString = domainProperties.getProperty(HTTPS_PROTOCOLS);
+        String[] protocols = protocolString.split(",");
+        return protocols;
+    }
+
     public String[] getJdkTlsClientProtocols() {
         String protocolString = domainProperties.getProperty(JDK_TLS_CLIENT_PROTOCOLS);
         String[] protocols = protocolString.split(",");
@@ -566,20 +697,22 @@ public class SecurityDomain implements Cloneable {
     }
 
 
-    private static ByteArrayInputStream preBufferInputStream(InputStream in) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        int buf;
-        while ((buf = in.read()) != -1) {
-            baos.write(buf);
-        }
-        return new ByteArrayInputStream(baos.toByteArray());
+    private void resetSSLContext() {
+        sslContext = null;
+        sslSocketFactory = null;
+    }
+
+    private static ByteArrayInputStream preBufferInputStream(String fileName) throws IOException {
+        return new ByteArrayInputStream(Files.readAllBytes(Paths.get(fileName)));
     }
 
     public SecurityDomain clone() {
         SecurityDomain clone = null;
         try {
             clone = (SecurityDomain) super.clone();
-            clone.fixKeyManagers();
+            // the key material is shared, but the key managers of the clone refer to the clone's preferred alias
+            clone.keyManagers = null;
+            clone.resetSSLContext();
         } catch (Exception e) {
 
         }
@@ -594,4 +727,28 @@ public class SecurityDomain implements Cloneable {
         return clone;
     }
 
-}
+    /**
+     * Key and trust stores with their decoded managers
+     */
+    private static final class KeyMaterial {
+        final String keyStoreName;
+        final char[] keyStorePassword;
+        final String trustStoreName;
+        final char[] trustStorePassword;
+        KeyStore keyStore;
+        KeyManagerFactory keyManagerFactory;
+        KeyManager[] keyManagers;
+        KeyStore trustStore;
+        TrustManagerFactory trustManagerFactory;
+        TrustManager[] trustManagers;
+        volatile boolean loaded;
+
+        KeyMaterial(Properties properties) {
+            keyStoreName = properties.getProperty(JAVAX_NET_SSL_KEYSTORE);
+            keyStorePassword = properties.getProperty(JAVAX_NET_SSL_KEYSTORE_PASSWORD, "").toCharArray();
+            trustStoreName = properties.getProperty(JAVAX_NET_SSL_TRUSTSTORE);
+            trustStorePassword = properties.getProperty(JAVAX_NET_SSL_TRUSTSTORE_PASSWORD, "").toCharArray();
+        }
+    }
+
+}
\ No newline at end of file
@@ -12,10 +12,22 @@ package org.openhealthtools.ihe.atna.nodeauth;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +54,12 @@ import org.slf4j.LoggerFactory;
  * <br>This class also provides the control point to force TLS NOT TO BE USED for any connection. This is 
  * done with the {@link #setTLSEnabled(boolean)} method. Unless set, the default is to allow TLS.
  * 
+ * <p>Destinations are resolved to a security domain in this order: a domain registered for the exact
+ * host and port, a domain registered for the host on any port, a domain registered for the most specific
+ * host pattern such as <code>*.example.org</code>, and finally the DEFAULT domain. Host names are compared
+ * case-insensitively. Registrations are copied into an immutable index that is replaced as a whole 
+ * whenever they change, so lookups never lock.
+ * 
  * 
  * @author Glenn Deen  <a href="mailto:glenn@almaden.ibm.com">glenn@almaden.ibm.com</a>
  *
@@ -51,12 +69,28 @@ public class SecurityDomainManager
 {
 	private static final Logger LOGGER = LoggerFactory.getLogger(SecurityDomainManager.class);
 
-    private Map<String,SecurityDomain> securityDomains = Collections.synchronizedMap(new HashMap<String,SecurityDomain>());
+	/**
+	 * Port of registrations matching any port
+	 */
+	private static final int ANY_PORT = -1;
+
+	/**
+	 * Registered security domains by name, guarded by this
+	 */
+	private final Map<String,SecurityDomain> securityDomains = new HashMap<String,SecurityDomain>();
 
-    private Map<String,String> uriToSecurityDomain = Collections.synchronizedMap(new HashMap<String,String>());
+	/**
+	 * Names of the security domains registered for a lower case host or host pattern, by port, guarded by this
+	 */
+	private final Map<String,Map<Integer,String>> hostToSecurityDomain = new HashMap<String,Map<Integer,String>>();
 
-    private boolean isDefaultSecurityDomainRegistered = false;
-    
+	/**
+	 * Index built from the registrations above, replaced on every change
+	 */
+	private volatile Index index = new Index(securityDomains, hostToSecurityDomain);
+
+	private boolean isDefaultSecurityDomainRegistered = false;
+	
 	/**
 	 * 
 	 */
@@ -75,9 +109,10 @@ public class SecurityDomainManager
 	 * @param securityDomain domain to add to the configuration manager
 	 * @return
 	 */
-	public void registerSecurityDomain(SecurityDomain securityDomain) 
+	public synchronized void registerSecurityDomain(SecurityDomain securityDomain) 
 	{
 		securityDomains.put(securityDomain.getName(), securityDomain);
+		publish();
 		if (LOGGER.isDebugEnabled())
 			LOGGER.debug("Security Domain "+securityDomain.getName()+" has been successfully registered to the configuration manager.");
 	}
@@ -96,7 +131,7 @@ public class SecurityDomainManager
 	 * @param securityDomain
 	 * @return
 	 */
-	public void registerDefaultSecurityDomain(SecurityDomain securityDomain) 
+	public synchronized void registerDefaultSecurityDomain(SecurityDomain securityDomain) 
 	{
 		securityDomains.put(SecurityDomain.DEFAULT_SECURITY_DOMAIN,securityDomain);
 		registerSecurityDomain(securityDomain);
@@ -117,13 +152,49 @@ public class SecurityDomainManager
 	public void registerURItoSecurityDomain(URI uri, String name) throws URISyntaxException
 	{
 		if (uri == null) throw new IllegalArgumentException("URI parameter cannot be null");
-		if (! securityDomains.containsKey(name) ) throw new IllegalArgumentException("Security domain "+name+" is not a configured security domain.");
-		if (uriToSecurityDomain.containsKey(uri)) uriToSecurityDomain.remove(uri);
-		uriToSecurityDomain.put(formatKey(uri), name);
+		formatKey(uri);
+		register(uri.getHost(), uri.getPort(), name);
 		if (LOGGER.isDebugEnabled())
 			LOGGER.debug("Security domain "+name+" has been registered for URI "+uri.toString());
 	}
-	
+
+	/**
+	 * Registers the association of a host on any port to the named security domain. Registrations for the host and
+	 * a specific port, e.g. via {@link #registerURItoSecurityDomain(URI, String)}, take precedence.
+	 * <br>The host may be a pattern of the form <code>*.example.org</code>, which matches all hosts ending 
+	 * with <code>.example.org</code>. Of several matching patterns, the longest one is used.
+	 * @param host host name, address or pattern, may not be null
+	 * @param name of SecurityDomain to associate
+	 * @throws {@link IllegalArgumentException If the specified domain doesn't exist, or if the host is not valid
+	 * @since 3.7
+	 */
+	public void registerHostToSecurityDomain(String host, String name)
+	{
+		registerHostToSecurityDomain(host, ANY_PORT, name);
+	}
+
+	/**
+	 * Registers the association of a host and port to the named security domain.
+	 * <br>The host may be a pattern of the form <code>*.example.org</code>, which matches all hosts ending 
+	 * with <code>.example.org</code>. Of several matching patterns, the longest one is used; a pattern with 
+	 * port takes precedence over the same pattern without.
+	 * @param host host name, address or pattern, may not be null
+	 * @param port port, or -1 for any port
+	 * @param name of SecurityDomain to associate
+	 * @throws {@link IllegalArgumentException If the specified domain doesn't exist, or if host or port are not valid
+	 * @since 3.7
+	 */
+	public void registerHostToSecurityDomain(String host, int port, String name)
+	{
+		if (host == null || host.isEmpty()) throw new IllegalArgumentException("Host parameter cannot be empty");
+		if (port < 1 && port != ANY_PORT) throw new IllegalArgumentException("The port value must be greater than zero");
+		int wildcard = host.lastIndexOf('*');
+		if (wildcard > 0 || (wildcard == 0 && (host.length() < 3 || host.charAt(1) != '.'))) 
+			throw new IllegalArgumentException("Host pattern "+host+" must be of the form *.domain");
+		register(host, port, name);
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("Security domain "+name+" has been registered for host "+host+(port == ANY_PORT ? "" : " and port "+port));
+	}
 
 	/**
 	 * Removes the URI from registered set of URI's
@@ -132,21 +203,37 @@ public class SecurityDomainManager
 	public void unregisterURItoSecurityDomain(URI uri)
 	{
 		try {
-			uriToSecurityDomain.remove(formatKey(uri));
+			formatKey(uri);
+			unregisterHostToSecurityDomain(uri.getHost(), uri.getPort());
 		} catch (Exception e) {
 			
 		}
 	}
+
+	/**
+	 * Removes the association of a host or host pattern and port
+	 * @param host host name, address or pattern as registered
+	 * @param port port as registered, or -1 for any port
+	 * @since 3.7
+	 */
+	public synchronized void unregisterHostToSecurityDomain(String host, int port)
+	{
+		if (host == null) return;
+		String key = host.toLowerCase(Locale.ROOT);
+		Map<Integer,String> ports = hostToSecurityDomain.get(key);
+		if (ports != null && ports.remove(port) != null) {
+			if (ports.isEmpty()) hostToSecurityDomain.remove(key);
+			publish();
+		}
+	}
 	
 	/**
-	 * Unregisters the default security domain, if it exists
+	 * Unregisters the default security domain, if it exists. The domain remains registered under its own name.
 	 */
-	public void unregisterDefaultSecurityDomain()
+	public synchronized void unregisterDefaultSecurityDomain()
 	{
-		try {
-			uriToSecurityDomain.remove(SecurityDomain.DEFAULT_SECURITY_DOMAIN);
-		} catch (Exception e) {
-			
+		if (securityDomains.remove(SecurityDomain.DEFAULT_SECURITY_DOMAIN) != null) {
+			publish();
 		}
 	}
 	
@@ -155,9 +242,9 @@ public class SecurityDomainManager
 	 * @param name
 	 * @return
 	 */
-	public synchronized SecurityDomain getSecurityDomain(String name) 
+	public SecurityDomain getSecurityDomain(String name) 
 	{
-		return securityDomains.get(name);
+		return index.domains.get(name);
 	}
 	
 	/**
@@ -170,7 +257,7 @@ public class SecurityDomainManager
 	 * @throws NoSecurityDomainException  if no security name has been associated with the URI
 	 * @throws URISyntaxException 
 	 */
-	public synchronized SecurityDomain getSecurityDomain(URI uri) throws NoSecurityDomainException, URISyntaxException
+	public SecurityDomain getSecurityDomain(URI uri) throws NoSecurityDomainException, URISyntaxException
 	{
 		return getSecurityDomain(uri.getHost(), uri.getPort());
 	}
@@ -182,52 +269,121 @@ public class SecurityDomainManager
 	 * @throws NoSecurityDomainException
 	 * @throws URISyntaxException
 	 */
-	public synchronized SecurityDomain getSecurityDomain(String host, int port) throws NoSecurityDomainException, URISyntaxException
+	public SecurityDomain getSecurityDomain(String host, int port) throws NoSecurityDomainException, URISyntaxException
 	{
-		String name = uriToSecurityDomain.get(formatKey(host,port));
-		if (name == null)
+		if (port < 1) {
+			throw new URISyntaxException("","The port value must be greater than zero");
+		}
+		if ("".equals(host)) {
+			throw new URISyntaxException("","The host cannot be null");
+		}
+
+		Index current = index;
+		Binding binding = current.resolve(host, port);
+		if (binding == null)
 		{	
-			if (!isDefaultSecurityDomainRegistered) {
-				registerDefaultSecurityDomain();
+			if (current.defaultDomain == null) {
+				initializeDefaultSecurityDomain();
+				current = index;
 			}
 			
-			LOGGER.debug("No explicit Security Domain was registered for host "+host+" and port "+ port);
-			if (securityDomains.containsKey(SecurityDomain.DEFAULT_SECURITY_DOMAIN)) {
-				name = SecurityDomain.DEFAULT_SECURITY_DOMAIN;
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("No explicit Security Domain was registered for host "+host+" and port "+ port);
+			}
+			if (current.defaultDomain != null) {
 				if (LOGGER.isDebugEnabled()) {
-					LOGGER.debug("Default Security Domain ["+name+"] has been found and will be used for host "+host+" and port "+ port);
+					LOGGER.debug("Default Security Domain ["+SecurityDomain.DEFAULT_SECURITY_DOMAIN+"] has been found and will be used for host "+host+" and port "+ port);
 				}
+				return current.defaultDomain;
 			} else {
 				throw new NoSecurityDomainException(null,"No DEFAULT Security Domain available for host "+host+" and port "+ port);
 			}
-		} else {
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("Security Domain ["+name+"] has been found and will be used for host "+host+" and port "+ port);
-			}	
 		}
-		
-		SecurityDomain domain = securityDomains.get(name);
 
-		if (domain == null) {		
-			String msg="Security Domain ["+name+"] was set for host "+host+" and port "+ port+
+		if (binding.domain == null) {		
+			String msg="Security Domain ["+binding.name+"] was set for host "+host+" and port "+ port+
 			           " but it could not be located in the set of registered domains.";
 			LOGGER.error(msg);
 			throw  new NoSecurityDomainException(null,msg);
 		}
 		if (LOGGER.isDebugEnabled()) {
-			LOGGER.debug("Security Domain ["+name+"] successfully retrieved.");
+			LOGGER.debug("Security Domain ["+binding.name+"] has been found and will be used for host "+host+" and port "+ port);
+		}
+		return binding.domain;
+	}
+
+	/**
+	 * Registers the default security domain from the system properties now 
+	 * rather than on the first lookup of a destination without an explicit domain
+	 */
+	public synchronized void initializeDefaultSecurityDomain()
+	{
+		if (!isDefaultSecurityDomainRegistered) {
+			registerDefaultSecurityDomain();
+		}
+	}
+
+	/**
+	 * Loads the key and trust stores of all registered security domains in parallel, rather than 
+	 * on their first use, and initializes their SSL contexts. Domains that are loaded already are 
+	 * skipped. Failures are logged and returned; the affected domains try again on first use.
+	 * @param threads number of domains to load at the same time
+	 * @return the errors by name of the domains that could not be loaded
+	 * @since 3.7
+	 */
+	public Map<String,Exception> loadSecurityDomains(int threads)
+	{
+		Map<SecurityDomain,String> pending = new IdentityHashMap<SecurityDomain,String>();
+		for (Map.Entry<String,SecurityDomain> entry : index.domains.entrySet()) {
+			if (!entry.getValue().isLoaded()) {
+				pending.put(entry.getValue(), entry.getKey());
+			}
+		}
+		Map<String,Exception> failures = new ConcurrentHashMap<String,Exception>();
+		if (pending.isEmpty()) {
+			return failures;
+		}
+		long start = System.currentTimeMillis();
+		AtomicInteger count = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, pending.size())), runnable -> {
+			Thread thread = new Thread(runnable, "nodeauth-domain-loader-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (Map.Entry<SecurityDomain,String> entry : pending.entrySet()) {
+				futures.add(executor.submit(() -> {
+					try {
+						entry.getKey().getSSLContext();
+					} catch (Exception e) {
+						LOGGER.warn("Could not load security domain " + entry.getValue(), e);
+						failures.put(entry.getValue(), e);
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			LOGGER.warn("Could not load security domains", e.getCause());
+		} finally {
+			executor.shutdownNow();
 		}
-		return domain;
+		LOGGER.info("Loaded {} security domain(s) in {} ms", pending.size() - failures.size(), System.currentTimeMillis() - start);
+		return failures;
 	}
 
 	/**
 	 * Returns the names of the registered security domains.
-	 * <br>The returned set is a read only unmodifiable set
+	 * <br>The returned set is a read only snapshot
 	 * @return set 
 	 */
 	public Set<String> getRegisteredSecurityDomains()
 	{                             
-		return  Collections.unmodifiableSet(securityDomains.keySet());
+		return  index.domains.keySet();
 	}
 	
 	/**
@@ -285,5 +441,153 @@ public class SecurityDomainManager
 			LOGGER.warn("No default security domain defined.");
 		}
 	}
-	
+
+	private synchronized void register(String host, int port, String name)
+	{
+		if (! securityDomains.containsKey(name) ) throw new IllegalArgumentException("Security domain "+name+" is not a configured security domain.");
+		String key = host == null ? null : host.toLowerCase(Locale.ROOT);
+		Map<Integer,String> ports = hostToSecurityDomain.get(key);
+		if (ports == null) {
+			ports = new HashMap<Integer,String>();
+			hostToSecurityDomain.put(key, ports);
+		}
+		ports.put(port, name);
+		publish();
+	}
+
+	/**
+	 * Replaces the index after a registration change, must be called holding the lock
+	 */
+	private void publish()
+	{
+		index = new Index(securityDomains, hostToSecurityDomain);
+	}
+
+	/**
+	 * Security domain name and the domain registered under it at the time the index was built
+	 */
+	private static final class Binding
+	{
+		final String name;
+		final SecurityDomain domain;
+
+		Binding(String name, Map<String,SecurityDomain> domains)
+		{
+			this.name = name;
+			this.domain = domains.get(name);
+		}
+	}
+
+	/**
+	 * Bindings of one host, with the ports sorted for binary search
+	 */
+	private static final class HostBindings
+	{
+		final int[] ports;
+		final Binding[] bindings;
+		final Binding anyPort;
+
+		HostBindings(Map<Integer,String> names, Map<String,SecurityDomain> domains)
+		{
+			TreeMap<Integer,String> sorted = new TreeMap<Integer,String>(names);
+			String anyPortName = sorted.remove(ANY_PORT);
+			this.anyPort = anyPortName == null ? null : new Binding(anyPortName, domains);
+			this.ports = new int[sorted.size()];
+			this.bindings = new Binding[sorted.size()];
+			int i = 0;
+			for (Map.Entry<Integer,String> entry : sorted.entrySet()) {
+				ports[i] = entry.getKey();
+				bindings[i++] = new Binding(entry.getValue(), domains);
+			}
+		}
+
+		Binding get(int port)
+		{
+			int i = Arrays.binarySearch(ports, port);
+			return i >= 0 ? bindings[i] : null;
+		}
+	}
+
+	/**
+	 * Binding of a host pattern <code>*.suffix</code>
+	 */
+	private static final class HostPattern
+	{
+		final String suffix;
+		final int port;
+		final Binding binding;
+
+		HostPattern(String pattern, int port, Binding binding)
+		{
+			this.suffix = pattern.substring(1);
+			this.port = port;
+			this.binding = binding;
+		}
+
+		boolean matches(String host, int port)
+		{
+			int offset = host.length() - suffix.length();
+			return offset > 0 
+					&& (this.port == ANY_PORT || this.port == port)
+					&& host.regionMatches(true, offset, suffix, 0, suffix.length());
+		}
+	}
+
+	/**
+	 * Immutable resolution index
+	 */
+	private static final class Index
+	{
+		final Map<String,SecurityDomain> domains;
+		final Map<String,HostBindings> hosts;
+		final HostPattern[] patterns;
+		final SecurityDomain defaultDomain;
+
+		Index(Map<String,SecurityDomain> securityDomains, Map<String,Map<Integer,String>> hostToSecurityDomain)
+		{
+			this.domains = Collections.unmodifiableMap(new HashMap<String,SecurityDomain>(securityDomains));
+			this.defaultDomain = securityDomains.get(SecurityDomain.DEFAULT_SECURITY_DOMAIN);
+			Map<String,HostBindings> hosts = new HashMap<String,HostBindings>();
+			List<HostPattern> patterns = new ArrayList<HostPattern>();
+			for (Map.Entry<String,Map<Integer,String>> entry : hostToSecurityDomain.entrySet()) {
+				String host = entry.getKey();
+				if (host != null && host.startsWith("*.")) {
+					for (Map.Entry<Integer,String> port : entry.getValue().entrySet()) {
+						patterns.add(new HostPattern(host, port.getKey(), new Binding(port.getValue(), securityDomains)));
+					}
+				} else {
+					hosts.put(host, new HostBindings(entry.getValue(), securityDomains));
+				}
+			}
+			// most specific first: longer suffixes, then patterns with a port
+			Collections.sort(patterns, (a, b) -> a.suffix.length() != b.suffix.length() 
+					? b.suffix.length() - a.suffix.length() 
+					: Boolean.compare(a.port == ANY_PORT, b.port == ANY_PORT));
+			this.hosts = hosts;
+			this.patterns = patterns.toArray(new HostPattern[patterns.size()]);
+		}
+
+		Binding resolve(String host, int port)
+		{
+			// toLowerCase returns the host itself if it is lower case already
+			HostBindings bindings = hosts.get(host == null ? null : host.toLowerCase(Locale.ROOT));
+			if (bindings != null) {
+				Binding binding = bindings.get(port);
+				if (binding == null) {
+					binding = bindings.anyPort;
+				}
+				if (binding != null) {
+					return binding;
+				}
+			}
+			if (host != null) {
+				for (HostPattern pattern : patterns) {
+					if (pattern.matches(host, port)) {
+						return pattern.binding;
+					}
+				}
+			}
+			return null;
+		}
+	}
 }
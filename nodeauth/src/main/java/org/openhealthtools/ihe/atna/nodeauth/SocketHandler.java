@@ -12,8 +12,10 @@
 package org.openhealthtools.ihe.atna.nodeauth;
 
 import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.Socket;
 import java.net.URI;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Interface for creating socket handlers in the Node Authentication Module.
@@ -97,6 +99,35 @@ public interface SocketHandler
 	 */
 	public Socket getSocket(String host, int port, boolean useSecureSocket, SecurityDomain securityDomain, Socket socketWrapper) throws Exception;
 	
+	/**
+	 * Starts negotiating a socket for a given hostname and port in the background and returns 
+	 * immediately.  Connect, handshake, and retries happen on the handler's own threads, with 
+	 * a growing wait between attempts, so the calling thread is never blocked.  If requested, 
+	 * the socket is secured using the default SecurityDomain for this host and port.
+	 * 
+	 * @param host The hostname or IP address to create a socket to
+	 * @param port The port to create a socket to
+	 * @param useSecureSocket If the socket should be secured
+	 * @return A future completed with a socket ready for input/output, or with the exception 
+	 * that would have been thrown by {@link #getSocket(String, int, boolean)}
+	 */
+	public CompletableFuture<Socket> getSocketAsync(String host, int port, boolean useSecureSocket);
+	
+	/**
+	 * Starts negotiating a socket for a given hostname and port in the background and returns 
+	 * immediately.  If a secure socket is requested, the supplied "SecurityDomain" configuration 
+	 * is used for keystore, truststore, and cipher information.  Cancelling the future stops 
+	 * pending retries.
+	 * 
+	 * @param host The hostname or IP address to create a socket to
+	 * @param port The port to create a socket to
+	 * @param useSecureSocket If the socket should be secured
+	 * @param securityDomain Security Domain config to use in securing the socket
+	 * @param socketWrapper Socket to wrap connection in, generally for HTTPS tunnels, may be null
+	 * @return A future completed with a socket ready for input/output
+	 */
+	public CompletableFuture<Socket> getSocketAsync(String host, int port, boolean useSecureSocket, SecurityDomain securityDomain, Socket socketWrapper);
+	
 	/**
 	 * MAD 09/24/2008
 	 * Removing HTTP-sensitive input stream handlers for the time being
@@ -129,4 +160,31 @@ public interface SocketHandler
 	 * @throws Exception
 	 */
 	public InputStream getInputStream(URI uri, SecurityDomain securityDomain) throws Exception;
+
+	/**
+	 * Opens an HTTP connection for a given URI.  For HTTPS URIs, the connection
+	 * is configured with the socket factory and hostname verifier of the 
+	 * SecurityDomain registered for the URI.  The connection is not yet connected,
+	 * so request method and headers can still be set.
+	 * 
+	 * @param uri The HTTP or HTTPS URI to connect to
+	 * @return An unconnected HTTP connection
+	 * @throws Exception
+	 * @since 3.7
+	 */
+	public HttpURLConnection getHttpConnection(URI uri) throws Exception;
+
+	/**
+	 * Opens an HTTP connection for a given URI.  For HTTPS URIs, the connection
+	 * is configured with the socket factory and hostname verifier of the 
+	 * SecurityDomain supplied.  No System properties are read or changed, so 
+	 * connections using different SecurityDomains can be opened concurrently.
+	 * 
+	 * @param uri The HTTP or HTTPS URI to connect to
+	 * @param securityDomain Security Domain config to use in securing the connection
+	 * @return An unconnected HTTP connection
+	 * @throws Exception
+	 * @since 3.7
+	 */
+	public HttpURLConnection getHttpConnection(URI uri, SecurityDomain securityDomain) throws Exception;
 }
\ No newline at end of file
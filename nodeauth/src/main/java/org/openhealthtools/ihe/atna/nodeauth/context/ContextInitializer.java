@@ -28,6 +28,12 @@ public class ContextInitializer {
 	
 	public static int DEFAULT_SOCKET_RETRY_WAIT = 2000;
 	
+	public static int DEFAULT_SOCKET_RETRY_MAX_WAIT = 30000;
+	
+	public static int DEFAULT_CONNECT_THREADS = 4;
+	
+	public static int DEFAULT_PRELOAD_THREADS = 4;
+	
 	public static void initialize(String fileName)
 	{
 		
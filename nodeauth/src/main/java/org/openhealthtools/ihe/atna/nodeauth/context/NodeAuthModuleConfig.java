@@ -45,6 +45,21 @@ public class NodeAuthModuleConfig extends AbstractModuleConfig
      */
     public static final String NODEAUTH_SOCKET_RETRY_WAIT_KEY = "nodeauth.socket.retry.wait";
     
+    /**
+     * Config reference key for the upper bound of the growing wait between retries, in milliseconds
+     */
+    public static final String NODEAUTH_SOCKET_RETRY_MAX_WAIT_KEY = "nodeauth.socket.retry.max.wait";
+    
+    /**
+     * Config reference key for the number of threads connecting sockets in the background
+     */
+    public static final String NODEAUTH_CONNECT_THREADS_KEY = "nodeauth.connect.threads";
+    
+    /**
+     * Config reference key for the number of security domains loaded in parallel on eager initialization
+     */
+    public static final String NODEAUTH_PRELOAD_THREADS_KEY = "nodeauth.preload.threads";
+    
     /**
      * Config reference key for the number of milliseconds before the socket times out
      */
@@ -65,6 +80,9 @@ public class NodeAuthModuleConfig extends AbstractModuleConfig
         setNonTLSConnectionsPermitted(true);
         setSocketRetries(ContextInitializer.DEFAULT_SOCKET_RETRIES);
         setSocketRetryWait(ContextInitializer.DEFAULT_SOCKET_RETRY_WAIT);
+        setSocketRetryMaxWait(ContextInitializer.DEFAULT_SOCKET_RETRY_MAX_WAIT);
+        setConnectThreads(ContextInitializer.DEFAULT_CONNECT_THREADS);
+        setPreloadThreads(ContextInitializer.DEFAULT_PRELOAD_THREADS);
         setSocketTimeout(ContextInitializer.DEFAULT_SOCKET_TIMEOUT);
         setConnectTimeout(ContextInitializer.DEFAULT_CONNECT_TIMEOUT);
     }
@@ -144,6 +162,64 @@ public class NodeAuthModuleConfig extends AbstractModuleConfig
     	setOption(NODEAUTH_SOCKET_RETRY_WAIT_KEY, Integer.toString(ms));
     }
     
+    /**
+     * Gets the maximum number of milliseconds to wait between two connect attempts.
+     * The wait starts at {@link #getSocketRetryWait()} and doubles with each failed attempt.
+     * @return The maximum wait time in milliseconds between attempts
+     */
+    public int getSocketRetryMaxWait()
+    {
+    	return Integer.valueOf(getOption(NODEAUTH_SOCKET_RETRY_MAX_WAIT_KEY));
+    }
+    
+    /**
+     * Sets the maximum number of milliseconds to wait between two connect attempts
+     * @param ms The maximum number of milliseconds to wait
+     */
+    public void setSocketRetryMaxWait(int ms)
+    {
+    	setOption(NODEAUTH_SOCKET_RETRY_MAX_WAIT_KEY, Integer.toString(ms));
+    }
+    
+    /**
+     * Gets the number of threads used to connect and handshake sockets in the background.
+     * The value is read when the first socket is requested.
+     * @return The number of connect threads
+     */
+    public int getConnectThreads()
+    {
+    	return Integer.valueOf(getOption(NODEAUTH_CONNECT_THREADS_KEY));
+    }
+    
+    /**
+     * Sets the number of threads used to connect and handshake sockets in the background
+     * @param count The number of connect threads
+     */
+    public void setConnectThreads(int count)
+    {
+    	setOption(NODEAUTH_CONNECT_THREADS_KEY, Integer.toString(count));
+    }
+    
+    /**
+     * Gets the number of threads loading the key and trust stores of the registered 
+     * security domains when the security context is initialized eagerly
+     * @return The number of preload threads
+     */
+    public int getPreloadThreads()
+    {
+    	return Integer.valueOf(getOption(NODEAUTH_PRELOAD_THREADS_KEY));
+    }
+    
+    /**
+     * Sets the number of threads loading the key and trust stores of the registered 
+     * security domains when the security context is initialized eagerly
+     * @param count The number of preload threads
+     */
+    public void setPreloadThreads(int count)
+    {
+    	setOption(NODEAUTH_PRELOAD_THREADS_KEY, Integer.toString(count));
+    }
+    
     /**
      * Gets the number of milliseconds to wait before a socket times out
      * @return The socket timeout in milliseconds
@@ -15,6 +15,7 @@ import org.slf4j.LoggerFactory;
 import org.openhealthtools.ihe.atna.context.AbstractModuleContext;
 import org.openhealthtools.ihe.atna.context.SecurityContext;
 import org.openhealthtools.ihe.atna.context.SecurityContextFactory;
+import org.openhealthtools.ihe.atna.nodeauth.CircuitBreakerRegistry;
 import org.openhealthtools.ihe.atna.nodeauth.SecurityDomainManager;
 import org.openhealthtools.ihe.atna.nodeauth.SocketHandler;
 import org.openhealthtools.ihe.atna.nodeauth.handlers.TLSEnabledSocketHandler;
@@ -68,7 +69,7 @@ public class NodeAuthModuleContext extends AbstractModuleContext
 	/**
 	 * Context ID for the Node Authentication Module Context
 	 */
-	private static final String CONTEXT_ID = "org.openhealthtools.ihe.atna.nodeauth";
+	static final String CONTEXT_ID = "org.openhealthtools.ihe.atna.nodeauth";
 	
 	/**
 	 * Socket handler to use for socket creation
@@ -80,6 +81,12 @@ public class NodeAuthModuleContext extends AbstractModuleContext
      * Security Domain configurations (for keystores and truststores)
      */
     private SecurityDomainManager domainManager = new SecurityDomainManager();
+    
+    /**
+     * Circuit breakers of the destinations, shared by the socket handler
+     * and the audit message senders
+     */
+    private final CircuitBreakerRegistry circuitBreakerRegistry = new CircuitBreakerRegistry();
 
 
 	/**
@@ -155,6 +162,17 @@ public class NodeAuthModuleContext extends AbstractModuleContext
 	{
 		return domainManager;
 	}
+	
+	/**
+	 * Gets the circuit breakers that make connections to a failing destination
+	 * fail fast instead of going through the full connect and retry cycle.
+	 * 
+	 * @return The context's circuit breaker registry
+	 */
+	public final CircuitBreakerRegistry getCircuitBreakerRegistry()
+	{
+		return circuitBreakerRegistry;
+	}
 	    
     /**
      * Sets if TLS connections are currently allowed
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.nodeauth.context;
+
+import org.openhealthtools.ihe.atna.context.AbstractModuleContext;
+import org.openhealthtools.ihe.atna.context.ModuleContextProvider;
+import org.openhealthtools.ihe.atna.nodeauth.SecurityDomainManager;
+
+/**
+ * Provides the {@link NodeAuthModuleContext} to the security context. Eager initialization
+ * registers the default security domain and loads the key stores and TLS contexts of all
+ * registered security domains in parallel, so that the JSSE provider is warmed up before
+ * the first connection.
+ *
+ * @since 3.7
+ */
+public class NodeAuthModuleContextProvider implements ModuleContextProvider {
+
+    @Override
+    public String getContextId() {
+        return NodeAuthModuleContext.CONTEXT_ID;
+    }
+
+    @Override
+    public AbstractModuleContext createContext() {
+        return ContextInitializer.defaultInitialize();
+    }
+
+    @Override
+    public void initializeEagerly(AbstractModuleContext context) {
+        NodeAuthModuleContext nodeAuthContext = (NodeAuthModuleContext) context;
+        if (!nodeAuthContext.isTLSEnabled()) {
+            return;
+        }
+        SecurityDomainManager domainManager = nodeAuthContext.getSecurityDomainManager();
+        domainManager.initializeDefaultSecurityDomain();
+        domainManager.loadSecurityDomains(nodeAuthContext.getConfig().getPreloadThreads());
+    }
+}
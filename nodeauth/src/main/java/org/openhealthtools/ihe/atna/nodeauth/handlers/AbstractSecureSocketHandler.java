@@ -11,6 +11,7 @@
 package org.openhealthtools.ihe.atna.nodeauth.handlers;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
@@ -20,11 +21,27 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.SocketFactory;
+import javax.net.ssl.SSLHandshakeException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.openhealthtools.ihe.atna.nodeauth.CircuitBreaker;
+import org.openhealthtools.ihe.atna.nodeauth.CircuitBreakerOpenException;
 import org.openhealthtools.ihe.atna.nodeauth.NoSecurityDomainException;
 import org.openhealthtools.ihe.atna.nodeauth.SecurityDomain;
 import org.openhealthtools.ihe.atna.nodeauth.SocketHandler;
@@ -52,22 +69,20 @@ public abstract class AbstractSecureSocketHandler implements SocketHandler
 	 */
 	protected final NodeAuthModuleContext CONTEXT;
 	
-	public AbstractSecureSocketHandler(NodeAuthModuleContext context)
-	{
-		CONTEXT = context;
-	}
+	/**
+	 * Threads connecting sockets, created on first use
+	 */
+	private ExecutorService connectExecutor;
 	
 	/**
-	 * Creates a TLS-enabled secure socket for a given URI and SecurityDomain configuration
-	 * 
-	 * @param host Host to connect to
-	 * @param port Port to connect to
-	 * @param securityDomain Configuration options to use when securing the socket
-	 * @return A socket secured using TLS for a given URI and SecurityDomain
-	 * @throws Exception
+	 * Timer scheduling connect retries, created on first use
 	 */
-	protected abstract Socket createSecureSocket(String host, int port, SecurityDomain securityDomain, Socket socketWrapper) throws Exception;
+	private ScheduledExecutorService retryTimer;
 	
+	public AbstractSecureSocketHandler(NodeAuthModuleContext context)
+	{
+		CONTEXT = context;
+	}
 	
 	/* (non-Javadoc)
 	 * @see org.openhealthtools.ihe.atna.nodeauth.SocketHandler#getSocket(java.net.URI, boolean)
@@ -127,92 +142,317 @@ public abstract class AbstractSecureSocketHandler implements SocketHandler
 	}
 	
 	public Socket getSocket(String host, int port, boolean useSecureSocket, SecurityDomain securityDomain, Socket socketWrapper) throws Exception {
+		return await(getSocketAsync(host,port,useSecureSocket,securityDomain,socketWrapper));
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.openhealthtools.ihe.atna.nodeauth.SocketHandler#getSocketAsync(java.lang.String, int, boolean)
+	 */
+	public CompletableFuture<Socket> getSocketAsync(String host, int port, boolean useSecureSocket)
+	{
+		// Get the registered security domain for the URI
+		SecurityDomain securityDomain = null;
+		if (useSecureSocket) {
+			try {
+				securityDomain = CONTEXT.getSecurityDomainManager().getSecurityDomain(host,port);
+			} catch (Exception e) {
+				return failed(e);
+			}
+		}
+		return getSocketAsync(host,port,useSecureSocket,securityDomain,null);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.openhealthtools.ihe.atna.nodeauth.SocketHandler#getSocketAsync(java.lang.String, int, boolean, org.openhealthtools.ihe.atna.nodeauth.SecurityDomain, java.net.Socket)
+	 */
+	public CompletableFuture<Socket> getSocketAsync(final String host, final int port, boolean useSecureSocket, final SecurityDomain securityDomain, final Socket socketWrapper)
+	{
 		if (!CONTEXT.isTLSEnabled() && ! CONTEXT.isNonTLSConnectionsPermitted()) {
-			throw new NoSuchAlgorithmException("TLS has been disabled for ATNA connections via "+NodeAuthModuleContext.class.getName()+".setTLSEnabled(false)");
+			return failed(new NoSuchAlgorithmException("TLS has been disabled for ATNA connections via "+NodeAuthModuleContext.class.getName()+".setTLSEnabled(false)"));
 		}
 
 		boolean useTLS = useSecureSocket && CONTEXT.isTLSEnabled() || ! CONTEXT.isNonTLSConnectionsPermitted();
 
-		Socket socket=null;
 		if (useTLS) {
 			if (null == securityDomain) {
-				throw new NoSecurityDomainException("TLS was requested but no Security Domain provided for the host "+ host +" on port " + port);
+				return failed(new NoSecurityDomainException("TLS was requested but no Security Domain provided for the host "+ host +" on port " + port));
 			}
 
-			socket = createSecureSocket(host,port,securityDomain,socketWrapper);
-			if (useTLS) logger.info("Connection succesfully made using TLS to host "+ host +" on port " + port);
-		} else {
-			socket = createSocket(host,port);
+			CompletableFuture<Socket> future = connectGuarded(host, port, 
+					() -> connectSecureSocket(host,port,securityDomain,socketWrapper), "Secure socket retries exhausted.");
+			future.thenRun(() -> logger.info("Connection succesfully made using TLS to host "+ host +" on port " + port));
+			return future;
+		}
+		return connectGuarded(host, port, 
+				() -> createSocketFromFactory(SocketFactory.getDefault(), host, port), "Socket Connect Retries Exhausted.");
+	}
+	
+	/**
+	 * Connects through the circuit breaker of the destination.  If the breaker is open, the
+	 * returned future fails right away with a {@link CircuitBreakerOpenException}.  Failed
+	 * connects count against the breaker once all retries are exhausted.  If the calling thread 
+	 * already holds the breaker, e.g. in a sender reconnecting while delivering, the caller 
+	 * records the outcome.
+	 */
+	private CompletableFuture<Socket> connectGuarded(String host, int port, Callable<Socket> connector, String exhaustedMessage)
+	{
+		CircuitBreaker breaker = CONTEXT.getCircuitBreakerRegistry().getCircuitBreaker(host, port);
+		if (breaker.isHeldByCurrentThread()) {
+			return connectAsync(host, port, connector, exhaustedMessage);
+		}
+		if (!breaker.tryAcquirePermission()) {
+			return failed(new CircuitBreakerOpenException(breaker));
 		}
-		return socket;
+		CompletableFuture<Socket> future = connectAsync(host, port, connector, exhaustedMessage);
+		future.whenComplete((socket, failure) -> {
+			if (failure == null) {
+				breaker.onSuccess();
+			} else if (failure instanceof IOException) {
+				breaker.onFailure();
+			} else {
+				breaker.releasePermission();
+			}
+		});
+		return future;
 	}
 	
 	/**
-     * Create non-secure socket for a given URI.
+	 * Creates a TLS-enabled secure socket for a given URI and SecurityDomain configuration,
+	 * retrying as configured
+	 * 
+	 * @param host Host to connect to
+	 * @param port Port to connect to
+	 * @param securityDomain Configuration options to use when securing the socket
+	 * @param socketWrapper Socket to wrap the connection in, may be null
+	 * @return A socket secured using TLS for a given URI and SecurityDomain
+	 * @throws Exception
+	 */
+	protected Socket createSecureSocket(String host, int port, SecurityDomain securityDomain, Socket socketWrapper) throws Exception
+	{
+		return await(connectAsync(host, port, 
+				() -> connectSecureSocket(host,port,securityDomain,socketWrapper), "Secure socket retries exhausted."));
+	}
+	
+	/**
+     * Create non-secure socket for a given URI, retrying as configured.
      * 
      * @param host host to connect to
      * @param port port to connect to
      * @return socket
 	 * @throws SocketException
 	 * @throws UnknownHostException
-     * @throws Exception
      */
 	protected Socket createSocket(String host, int port) throws SocketException, UnknownHostException
     {
-        Socket socket = null;
-        int retries = 0;
-
-        // Loop to get a connection or until we've exhausted number of retries
-        Throwable cause = null;
-        while (retries < CONTEXT.getConfig().getSocketRetries()) {
-            try {
-            	
-            	socket = createSocketFromFactory(SocketFactory.getDefault(), host, port);
-            	
-                break;
-            } catch (UnknownHostException e) {
-            	logger.error("Unknown host. Unable to establish connection to " + host + " on port "+ port +". Reason: "+e.getLocalizedMessage(),e);
-            	throw e;
-            } catch (SocketException e) {
-                // Some kind of error, retry if we haven't exceeded max retry
-                // count
-            	logger.error("Error connecting to " + host + " on port "+ port +". Will retry in " + CONTEXT.getConfig().getSocketRetryWait() / 1000 + " seconds. "
-            			       + (CONTEXT.getConfig().getSocketRetries() - retries) +" retries left. Cause: "+e.getLocalizedMessage(),e);
-
-            	cause = e;
-            	retries++;
-            	
-                try {
-                    Thread.sleep(CONTEXT.getConfig().getSocketRetryWait());
-                    continue;
-                } catch (InterruptedException ie) {
-                	if(logger.isDebugEnabled()){
-                		logger.debug("Sleep awoken early");
-                	}
-                    continue;
-                }
-
-            } catch (IOException e) {
-                // Some kind of error, retry if we haven't exceeded max retry
-                // count
-            	logger.error("Error connecting to " + host + " on port "+ port +". Will retry in "
-                        + CONTEXT.getConfig().getSocketRetryWait() / 1000 + " seconds. "
-     			       + (CONTEXT.getConfig().getSocketRetries() - retries) +" retries left. Cause: "+e.getLocalizedMessage(),e);
-
-                retries++;
-                cause = e;
-                continue;
-            }
-        }
-
-        if (retries >= CONTEXT.getConfig().getSocketRetries()) {
-			logger.error("Socket Connect Retries Exhausted.", cause);
-           	throw new ConnectException("Socket Connect Retries Exhausted. "+ (cause != null ? "Cause was: "+cause.getLocalizedMessage():""));
-        }
-
-        return socket;
+		try {
+			return await(connectAsync(host, port, 
+					() -> createSocketFromFactory(SocketFactory.getDefault(), host, port), "Socket Connect Retries Exhausted."));
+		} catch (SocketException | UnknownHostException e) {
+			throw e;
+		} catch (Exception e) {
+			SocketException se = new SocketException(e.getLocalizedMessage());
+			se.initCause(e);
+			throw se;
+		}
     }
 	
+	/**
+	 * Connects a socket on the handler's connect threads.  Failed attempts are retried up to 
+	 * the configured number of socket retries.  Instead of sleeping, each retry is scheduled 
+	 * on a timer, waiting the configured retry wait after the first failure and twice as long 
+	 * after each further one, up to the configured maximum wait.  The actual wait is picked 
+	 * randomly from the upper half of that range, so that clients which lost their 
+	 * connections at the same time do not all come back at once.
+	 * <p>
+	 * Unknown hosts and failed TLS handshakes are not retried.  Sockets connected after the 
+	 * returned future has been cancelled are closed.
+	 * 
+	 * @param host Host to connect to, used for logging
+	 * @param port Port to connect to, used for logging
+	 * @param connector Single connect attempt
+	 * @param exhaustedMessage Message of the exception thrown when all attempts have failed
+	 * @return A future completed with the connected socket
+	 */
+	protected CompletableFuture<Socket> connectAsync(String host, int port, Callable<Socket> connector, String exhaustedMessage)
+	{
+		ConnectAttempt attempt = new ConnectAttempt(host, port, connector, exhaustedMessage);
+		if (CONTEXT.getConfig().getSocketRetries() <= 0) {
+			attempt.exhausted(null);
+		} else {
+			attempt.submit();
+		}
+		return attempt.future;
+	}
+	
+	/**
+	 * Creates a TLS-enabled secure socket for a given URI and SecurityDomain configuration
+	 * and performs the TLS handshake.  This is a single attempt, retries are handled by
+	 * the caller.
+	 * 
+	 * @param host Host to connect to
+	 * @param port Port to connect to
+	 * @param securityDomain Configuration options to use when securing the socket
+	 * @param socketWrapper Socket to wrap the connection in, may be null
+	 * @return A socket secured using TLS for a given URI and SecurityDomain
+	 * @throws Exception
+	 */
+	protected abstract Socket connectSecureSocket(String host, int port, SecurityDomain securityDomain, Socket socketWrapper) throws Exception;
+	
+	/**
+	 * Computes the wait before the next connect attempt
+	 * 
+	 * @param failures Number of attempts that have failed so far
+	 * @return Wait in milliseconds
+	 */
+	protected long getRetryDelay(int failures)
+	{
+		long wait = Math.max(0, CONTEXT.getConfig().getSocketRetryWait());
+		long maxWait = Math.max(wait, CONTEXT.getConfig().getSocketRetryMaxWait());
+		long delay = Math.min(maxWait, wait << Math.min(failures - 1, 20));
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+	
+	private synchronized ExecutorService getConnectExecutor()
+	{
+		if (connectExecutor == null) {
+			int threads = Math.max(1, CONTEXT.getConfig().getConnectThreads());
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<>(), daemonThreadFactory("nodeauth-connect-"));
+			executor.allowCoreThreadTimeOut(true);
+			connectExecutor = executor;
+		}
+		return connectExecutor;
+	}
+	
+	private synchronized ScheduledExecutorService getRetryTimer()
+	{
+		if (retryTimer == null) {
+			ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, daemonThreadFactory("nodeauth-retry-timer-"));
+			timer.setRemoveOnCancelPolicy(true);
+			timer.setKeepAliveTime(60L, TimeUnit.SECONDS);
+			timer.allowCoreThreadTimeOut(true);
+			retryTimer = timer;
+		}
+		return retryTimer;
+	}
+	
+	private static ThreadFactory daemonThreadFactory(String prefix)
+	{
+		AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+	
+	private static CompletableFuture<Socket> failed(Exception e)
+	{
+		CompletableFuture<Socket> future = new CompletableFuture<>();
+		future.completeExceptionally(e);
+		return future;
+	}
+	
+	/**
+	 * Waits for a socket being connected in the background and rethrows the exception
+	 * it failed with
+	 */
+	private static Socket await(CompletableFuture<Socket> future) throws Exception
+	{
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		} catch (InterruptedException e) {
+			future.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while connecting");
+		}
+	}
+	
+	/**
+	 * State of one socket acquisition across its retries
+	 */
+	private final class ConnectAttempt
+	{
+		private final CompletableFuture<Socket> future = new CompletableFuture<>();
+		private final String host;
+		private final int port;
+		private final Callable<Socket> connector;
+		private final String exhaustedMessage;
+		private int failures;
+		
+		ConnectAttempt(String host, int port, Callable<Socket> connector, String exhaustedMessage)
+		{
+			this.host = host;
+			this.port = port;
+			this.connector = connector;
+			this.exhaustedMessage = exhaustedMessage;
+		}
+		
+		void submit()
+		{
+			try {
+				getConnectExecutor().execute(this::run);
+			} catch (RejectedExecutionException e) {
+				future.completeExceptionally(e);
+			}
+		}
+		
+		private void run()
+		{
+			if (future.isDone()) {
+				return;
+			}
+			Socket socket;
+			try {
+				socket = connector.call();
+			} catch (Exception e) {
+				onFailure(e);
+				return;
+			}
+			if (!future.complete(socket)) {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					logger.debug("Error closing socket no longer needed for " + host + " on port " + port, e);
+				}
+			}
+		}
+		
+		private void onFailure(Exception e)
+		{
+			if (e instanceof UnknownHostException) {
+				logger.error("Unknown host. Unable to establish connection to " + host + " on port "+ port +". Reason: "+e.getLocalizedMessage(),e);
+				future.completeExceptionally(e);
+			} else if (!(e instanceof IOException) || e instanceof SSLHandshakeException) {
+				future.completeExceptionally(e);
+			} else if (++failures >= CONTEXT.getConfig().getSocketRetries()) {
+				exhausted(e);
+			} else {
+				long delay = getRetryDelay(failures);
+				logger.error("Error connecting to " + host + " on port "+ port +". Will retry in " + delay + " ms. "
+						+ (CONTEXT.getConfig().getSocketRetries() - failures) +" retries left. Cause: "+e.getLocalizedMessage(),e);
+				try {
+					getRetryTimer().schedule(this::submit, delay, TimeUnit.MILLISECONDS);
+				} catch (RejectedExecutionException ree) {
+					future.completeExceptionally(e);
+				}
+			}
+		}
+		
+		private void exhausted(Exception cause)
+		{
+			logger.error(exhaustedMessage, cause);
+			ConnectException e = new ConnectException(exhaustedMessage + (cause != null ? " Cause was: "+cause.getLocalizedMessage():""));
+			e.initCause(cause);
+			future.completeExceptionally(e);
+		}
+	}
+	
 	/**
 	 * Creates a new connected socket to a given host and port from a provided Socket Factory.
 	 * @param factory Java Socket Factory to use in the connection
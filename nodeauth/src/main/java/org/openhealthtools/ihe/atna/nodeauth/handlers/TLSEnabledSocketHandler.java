@@ -15,23 +15,21 @@ import org.openhealthtools.ihe.atna.nodeauth.NoSecurityDomainException;
 import org.openhealthtools.ihe.atna.nodeauth.SecurityDomain;
 import org.openhealthtools.ihe.atna.nodeauth.SecurityDomainManager;
 import org.openhealthtools.ihe.atna.nodeauth.context.NodeAuthModuleContext;
+import org.openhealthtools.ihe.utils.jfr.FlightRecorderEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.KeyManager;
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLHandshakeException;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManager;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.ConnectException;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.Socket;
-import java.net.SocketException;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
 import java.security.KeyManagementException;
@@ -145,34 +143,14 @@ public class TLSEnabledSocketHandler extends AbstractSecureSocketHandler {
 
 
     /* (non-Javadoc)
-     * @see org.openhealthtools.ihe.atna.nodeauth.handlers.AbstractSecureSocketHandler#createSecureSocket(java.lang.String, int, org.openhealthtools.ihe.atna.nodeauth.SecurityDomain)
+     * @see org.openhealthtools.ihe.atna.nodeauth.handlers.AbstractSecureSocketHandler#connectSecureSocket(java.lang.String, int, org.openhealthtools.ihe.atna.nodeauth.SecurityDomain, java.net.Socket)
      */
-    protected SSLSocket createSecureSocket(String host, int port, SecurityDomain securityDomain, Socket nestedSocket) throws NoSecurityDomainException, NoSuchAlgorithmException, KeyManagementException, UnknownHostException, IOException {
+    protected SSLSocket connectSecureSocket(String host, int port, SecurityDomain securityDomain, Socket nestedSocket) throws NoSuchAlgorithmException, KeyManagementException, UnknownHostException, IOException {
         if (!CONTEXT.isTLSEnabled())
             throw new NoSuchAlgorithmException("TLS has been disabled for ATNA connections via " + SecurityDomainManager.class.getName() + ".setSetTLSEnabled(false)");
 
-        SSLContext ctx = null;
-
-        // Attempt to get an instance of the first support TLS protocol
-        try {
-            ctx = SSLContext.getInstance(securityDomain.getJdkTlsClientProtocols()[0]);
-        } catch (NoSuchAlgorithmException e) {
-            securityDomain.restoreSystemEnvironment();
-            throw e;
-        }
-
-        // Initialize the instance for the key and trust stores
-        try {
-            KeyManager[] keyMgrs = securityDomain.getKeyManagers();
-            TrustManager[] trustMgrs = securityDomain.getTrustManagers();
-
-            ctx.init(keyMgrs, trustMgrs, null);
-        } catch (KeyManagementException e) {
-            throw e;
-        }
-
-        SSLSocketFactory factory = ctx.getSocketFactory();
-        SSLSocket socket = null;
+        // The context of the domain is initialized with its key and trust stores
+        SSLSocketFactory factory = securityDomain.getSSLContext().getSocketFactory();
 
         if (logger.isDebugEnabled()) {
             String[] supportedSuites = factory.getSupportedCipherSuites();
@@ -180,115 +158,109 @@ public class TLSEnabledSocketHandler extends AbstractSecureSocketHandler {
             for (int i = 0; i < supportedSuites.length; i++) {
                 logger.debug("\t" + supportedSuites[i]);
             }
+            logger.debug("Connecting to " + host + " on port " + port +
+                    " (timeout: " + CONTEXT.getConfig().getConnectTimeout() + " ms) using factory " + factory.getClass().getName());
         }
 
-        int retries = 0;
-
-        Throwable cause = null;
-        // Loop to get a connection or until we've exhausted number of retries
-        while (retries < CONTEXT.getConfig().getSocketRetries()) {
-            try {
+        FlightRecorderEvents.Probe probe = FlightRecorderEvents.start(FlightRecorderEvents.Kind.TLS_HANDSHAKE);
 
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Connecting to " + host + " on port " + port +
-                            " (timeout: " + CONTEXT.getConfig().getConnectTimeout() + " ms) using factory " + factory.getClass().getName());
-                }
-
-                //SocketAddress address = new InetSocketAddress(host,port);
-                if (nestedSocket instanceof Socket) {
-                    socket = (SSLSocket) (factory.createSocket(nestedSocket, host, port, true));
-                } else {
-                    socket = (SSLSocket) (factory.createSocket(host, port));
-                }
+        SSLSocket socket = null;
+        try {
+            if (nestedSocket instanceof Socket) {
+                socket = (SSLSocket) (factory.createSocket(nestedSocket, host, port, true));
+            } else {
+                socket = (SSLSocket) (factory.createSocket(host, port));
+            }
 
-                //socket.connect(address, CONTEXT.getConfig().getConnectTimeout());
-                // Set amount of time to wait on socket read before timing out
-                socket.setSoTimeout(CONTEXT.getConfig().getSocketTimeout());
-                socket.setKeepAlive(true);
+            // Set amount of time to wait on socket read before timing out
+            socket.setSoTimeout(CONTEXT.getConfig().getSocketTimeout());
+            socket.setKeepAlive(true);
 
-                socket.setEnabledProtocols(securityDomain.getJdkTlsClientProtocols());
-                socket.setEnabledCipherSuites(securityDomain.getCipherSuites());
+            socket.setEnabledProtocols(securityDomain.getJdkTlsClientProtocols());
+            socket.setEnabledCipherSuites(securityDomain.getCipherSuites());
 
-                if (logger.isDebugEnabled()) {
-                    logger.debug("\n\nEnabled Cipher suites for connection are: ");
-                    String[] suites = socket.getEnabledCipherSuites();
-                    for (int i = 0; i < suites.length; i++) {
-                        logger.debug("\t" + suites[i]);
-                    }
+            if (logger.isDebugEnabled()) {
+                logger.debug("\n\nEnabled Cipher suites for connection are: ");
+                String[] suites = socket.getEnabledCipherSuites();
+                for (int i = 0; i < suites.length; i++) {
+                    logger.debug("\t" + suites[i]);
                 }
+            }
 
-                // Force the TLS handshake at this point so we can catch any authentication errors
-                socket.startHandshake();
-                break;
-
-            } catch (SSLHandshakeException e) {
+            // Force the TLS handshake at this point so we can catch any authentication errors
+            socket.startHandshake();
+        } catch (IOException e) {
+            if (e instanceof SSLHandshakeException) {
                 logger.error("Handshake failed with server " + host + " on port " + port + " reason " + e.getLocalizedMessage(), e);
+            }
+            if (socket != null) {
                 try {
                     socket.close();
                 } catch (IOException e1) {
                     logger.error("Error trying to close socket for " + host + " on port " + port + " reason " + e1.getLocalizedMessage(), e1);
                 }
-                //securityDomain.restoreSystemEnvironment();
-                throw e;
-            } catch (UnknownHostException e) {
-                logger.error("Unable to establish connection to " + host + " on port " + port + " reason " + e.getLocalizedMessage(), e);
-                //securityDomain.restoreSystemEnvironment();
-                throw e;
-            } catch (SocketException e) {
-                logger.error("Error connecting to " + host + " on port " + port + ". Will retry in "
-                        + CONTEXT.getConfig().getSocketRetryWait() / 1000 + " seconds.", e);
-                retries++;
-                cause = e;
-
-                try {
-                    Thread.sleep(CONTEXT.getConfig().getSocketRetryWait());
-                    continue;
-                } catch (InterruptedException ie) {
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Sleep awoken early");
-                    }
-                    continue;
-                }
-
-            } catch (IOException e) {
-                logger.error("Error connecting to " + host + " on port " + port + ". Will retry in "
-                        + CONTEXT.getConfig().getSocketRetryWait() / 1000 + " seconds." + " reason " + e.getLocalizedMessage(), e);
-                retries++;
-                cause = e;
-
-                try {
-                    Thread.sleep(CONTEXT.getConfig().getSocketRetryWait());
-                    continue;
-                } catch (InterruptedException ie) {
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Sleep awoken early");
-                    }
-                    continue;
-                }
             }
+            throw e;
+        } finally {
+            // failed connects and handshakes are recorded as well
+            probe.end(getClass().getName(), FlightRecorderEvents.destination(host, port), 0);
+        }
+        return socket;
+    }
 
+	/* (non-Javadoc)
+     * @see org.openhealthtools.ihe.atna.nodeauth.SocketHandler#getInputStream(java.net.URI, org.openhealthtools.ihe.atna.nodeauth.SecurityDomain)
+	 */
+    public InputStream getInputStream(URI uri, SecurityDomain securityDomain) throws NoSecurityDomainException, MalformedURLException, IOException, NoSuchAlgorithmException, KeyManagementException {
+        URLConnection connection = openConnection(uri, securityDomain);
+        InputStream is = connection.getInputStream();
+        if (connection instanceof HttpsURLConnection) {
+            logger.info("Secure connection successfully made using TLS to " + uri.toString());
+        } else {
+            logger.info("Unsecure connection successfully made to " + uri.toString());
         }
+        return is;
+    }
+
+    /*
+     * The HTTPS parameters are taken from the security domain registered for the URI, not from
+     * the system environment.
+     *
+     * @see org.openhealthtools.ihe.atna.nodeauth.SocketHandler#getInputStream(java.net.URI)
+     */
+    public InputStream getInputStream(URI uri) throws Exception {
+        return getInputStream(uri, getSecurityDomain(uri));
+    }
 
-        // If socket retries exceed maximum allowed, throw an exception
-        if (retries >= CONTEXT.getConfig().getSocketRetries()) {
-            //securityDomain.restoreSystemEnvironment();
-            logger.error("Secure Socket Connect Retries Exhausted.", cause);
-            throw new ConnectException("Secure socket retries exhausted");
+    /* (non-Javadoc)
+     * @see org.openhealthtools.ihe.atna.nodeauth.SocketHandler#getHttpConnection(java.net.URI, org.openhealthtools.ihe.atna.nodeauth.SecurityDomain)
+     */
+    public HttpURLConnection getHttpConnection(URI uri, SecurityDomain securityDomain) throws NoSecurityDomainException, MalformedURLException, IOException, NoSuchAlgorithmException, KeyManagementException {
+        if (!"http".equalsIgnoreCase(uri.getScheme()) && !"https".equalsIgnoreCase(uri.getScheme())) {
+            throw new MalformedURLException("Not an HTTP URI: " + uri);
         }
+        return (HttpURLConnection) openConnection(uri, securityDomain);
+    }
 
-        //securityDomain.restoreSystemEnvironment();
-        return socket;
+    /* (non-Javadoc)
+     * @see org.openhealthtools.ihe.atna.nodeauth.SocketHandler#getHttpConnection(java.net.URI)
+     */
+    public HttpURLConnection getHttpConnection(URI uri) throws Exception {
+        return getHttpConnection(uri, getSecurityDomain(uri));
+    }
+
+    private SecurityDomain getSecurityDomain(URI uri) throws NoSecurityDomainException, URISyntaxException {
+        boolean tlsURI = uri.getScheme().equalsIgnoreCase("https");
+        return tlsURI ? CONTEXT.getSecurityDomainManager().getSecurityDomain(uri) : null;
     }
 
     /**
-     * TODO: To be removed in the 2009 post-Connectathon Branch
+     * Opens an unconnected connection for the URI. HTTPS connections get the socket factory and
+     * hostname verifier of the security domain set on the connection itself, so neither the
+     * System properties nor the defaults of {@link HttpsURLConnection} are touched.
      */
-
-	/* (non-Javadoc)
-     * @see org.openhealthtools.ihe.atna.nodeauth.SocketHandler#getInputStream(java.net.URI, org.openhealthtools.ihe.atna.nodeauth.SecurityDomain)
-	 */
-    public InputStream getInputStream(URI uri, SecurityDomain securityDomain) throws NoSecurityDomainException, MalformedURLException, IOException, NoSuchAlgorithmException {
-        final NodeAuthModuleContext context = NodeAuthModuleContext.getContext();
+    private URLConnection openConnection(URI uri, SecurityDomain securityDomain) throws NoSecurityDomainException, MalformedURLException, IOException, NoSuchAlgorithmException, KeyManagementException {
+        final NodeAuthModuleContext context = CONTEXT;
         if (!context.isTLSEnabled() && !context.isNonTLSConnectionsPermitted()) {
             throw new NoSuchAlgorithmException("TLS has been disabled for ATNA connections");
         }
@@ -300,48 +272,15 @@ public class TLSEnabledSocketHandler extends AbstractSecureSocketHandler {
             throw new NoSecurityDomainException(uri, "Security domain provided is null");
         }
 
-        if (useTLS) {
-            securityDomain.setDomainEnvironment();
-        }
-        InputStream is = null;
-        try {
-            URLConnection connection = uri.toURL().openConnection();
-
-            if (useTLS && !securityDomain.doDomainSpoofCheck()) {
-                ((HttpsURLConnection) connection).setHostnameVerifier((urlHostName, session) -> true);
-            }
-
-            is = connection.getInputStream();
-            if (useTLS) {
-                logger.info("Secure connection successfully made using TLS to " + uri.toString());
-            } else {
-                logger.info("Unsecure connection successfully made to " + uri.toString());
-            }
-        } catch (IOException e) {
-            if (useTLS) securityDomain.restoreSystemEnvironment();
-            throw e;
-        }
-
-        if (useTLS) securityDomain.restoreSystemEnvironment();
-        return is;
-    }
-
-
-    /*
-     * Note that this method always uses the system environment (specifically https.protocols)
-     * in order to derive the HTTPS parameters. As such {@link SecurityDomain#SET_DOMAIN_ENVIRONMENT} must be
-     * set to true if these parameters are not configured via system properties anyway.
-     *
-     * @see org.openhealthtools.ihe.atna.nodeauth.SocketHandler#getInputStream(java.net.URI)
-     */
-    public InputStream getInputStream(URI uri) throws Exception {
-        boolean tlsURI = uri.getScheme().equalsIgnoreCase("https");
-        SecurityDomain securityDomain = null;
-        if (tlsURI) {
-            final NodeAuthModuleContext context = NodeAuthModuleContext.getContext();
-            securityDomain = context.getSecurityDomainManager().getSecurityDomain(uri);
+        URLConnection connection = uri.toURL().openConnection();
+        connection.setConnectTimeout(context.getConfig().getConnectTimeout());
+        connection.setReadTimeout(context.getConfig().getSocketTimeout());
+        if (useTLS && connection instanceof HttpsURLConnection) {
+            HttpsURLConnection httpsConnection = (HttpsURLConnection) connection;
+            httpsConnection.setSSLSocketFactory(securityDomain.getSSLSocketFactory());
+            httpsConnection.setHostnameVerifier(securityDomain.getHostnameVerifier());
         }
-        return getInputStream(uri, securityDomain);
+        return connection;
     }
 
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.nodeauth.utils;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * SSL socket factory enabling a fixed set of protocols and cipher suites on every socket
+ * it creates, e.g. those of a {@link org.openhealthtools.ihe.atna.nodeauth.SecurityDomain}.
+ * Unlike the <code>https.protocols</code> and <code>https.cipherSuites</code> System
+ * properties, the settings only apply to connections using this factory.
+ *
+ * @since 3.7
+ */
+public class DomainSSLSocketFactory extends SSLSocketFactory {
+
+    private final SSLSocketFactory delegate;
+    private final String[] protocols;
+    private final String[] cipherSuites;
+
+    /**
+     * @param delegate     factory creating the sockets
+     * @param protocols    protocols to enable
+     * @param cipherSuites cipher suites to enable
+     */
+    public DomainSSLSocketFactory(SSLSocketFactory delegate, String[] protocols, String[] cipherSuites) {
+        this.delegate = delegate;
+        this.protocols = protocols.clone();
+        this.cipherSuites = cipherSuites.clone();
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return cipherSuites.clone();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return delegate.getSupportedCipherSuites();
+    }
+
+    /**
+     * @return protocols enabled on the created sockets
+     */
+    public String[] getProtocols() {
+        return protocols.clone();
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return configure(delegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+        return configure(delegate.createSocket(s, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket(Socket s, InputStream consumed, boolean autoClose) throws IOException {
+        return configure(delegate.createSocket(s, consumed, autoClose));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return configure(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return configure(delegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return configure(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return configure(delegate.createSocket(address, port, localAddress, localPort));
+    }
+
+    private Socket configure(Socket socket) throws IOException {
+        if (socket instanceof SSLSocket) {
+            SSLSocket sslSocket = (SSLSocket) socket;
+            try {
+                sslSocket.setEnabledProtocols(protocols);
+                sslSocket.setEnabledCipherSuites(cipherSuites);
+            } catch (IllegalArgumentException e) {
+                socket.close();
+                throw new IOException("Unsupported protocol or cipher suite", e);
+            }
+        }
+        return socket;
+    }
+}
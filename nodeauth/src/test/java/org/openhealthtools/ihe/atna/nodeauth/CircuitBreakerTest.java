@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.nodeauth;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openhealthtools.ihe.atna.nodeauth.CircuitBreaker.State;
+import org.openhealthtools.ihe.atna.nodeauth.context.NodeAuthModuleContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class CircuitBreakerTest {
+
+    private CircuitBreakerRegistry registry;
+    private CircuitBreaker breaker;
+    private final List<String> transitions = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        registry = new CircuitBreakerRegistry();
+        registry.setSlidingWindowSize(4);
+        registry.setMinimumNumberOfCalls(4);
+        registry.setWaitDurationInOpenState(50);
+        registry.addListener((b, from, to) -> transitions.add(from + "->" + to));
+        breaker = registry.getCircuitBreaker("ARR.example.org", 6514);
+    }
+
+    @Test
+    public void breakersAreSharedPerDestination() {
+        assertSame(breaker, registry.getCircuitBreaker("arr.example.org", 6514));
+        assertNotSame(breaker, registry.getCircuitBreaker("arr.example.org", 514));
+        assertEquals("arr.example.org:6514", breaker.getDestination());
+        assertEquals(2, registry.getCircuitBreakers().size());
+    }
+
+    @Test
+    public void opensWhenFailureRateIsReached() throws Exception {
+        succeed();
+        fail(2);
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(-1.0f, breaker.getFailureRate(), 0.0f);
+        fail(1);
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(3, breaker.getFailedCalls());
+
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            breaker.execute(calls::incrementAndGet);
+            org.junit.Assert.fail();
+        } catch (CircuitBreakerOpenException e) {
+            assertSame(breaker, e.getCircuitBreaker());
+        }
+        assertEquals(0, calls.get());
+        assertEquals(1, breaker.getRejectedCalls());
+        assertEquals(1, transitions.size());
+        assertEquals("CLOSED->OPEN", transitions.get(0));
+    }
+
+    @Test
+    public void slidingWindowForgetsOldFailures() throws Exception {
+        fail(1);
+        succeed();
+        succeed();
+        succeed();
+        assertEquals(25.0f, breaker.getFailureRate(), 0.0f);
+        succeed();
+        assertEquals(0.0f, breaker.getFailureRate(), 0.0f);
+        fail(1);
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void halfOpenProbeClosesOrReopens() throws Exception {
+        fail(4);
+        Thread.sleep(80);
+        // one probe fails
+        fail(1);
+        assertEquals(State.OPEN, breaker.getState());
+        Thread.sleep(80);
+        assertTrue(breaker.tryAcquirePermission());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        // no second probe at the same time
+        assertFalse(breaker.tryAcquirePermission());
+        breaker.onSuccess();
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->OPEN, OPEN->HALF_OPEN, HALF_OPEN->CLOSED]",
+                transitions.toString());
+    }
+
+    @Test
+    public void releasedProbeCanBeRetaken() throws Exception {
+        fail(4);
+        Thread.sleep(80);
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.releasePermission();
+        assertTrue(breaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void errorInProbeReleasesPermission() throws Exception {
+        fail(4);
+        Thread.sleep(80);
+        try {
+            breaker.execute(() -> {
+                throw new AssertionError("probe");
+            });
+            org.junit.Assert.fail();
+        } catch (AssertionError e) {
+            assertEquals("probe", e.getMessage());
+        }
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertEquals("ok", breaker.execute(() -> "ok"));
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void nestedCallsAreRecordedOnce() throws Exception {
+        breaker.execute(() -> {
+            assertTrue(breaker.isHeldByCurrentThread());
+            return breaker.execute(() -> "inner");
+        });
+        assertFalse(breaker.isHeldByCurrentThread());
+        assertEquals(1, breaker.getSuccessfulCalls());
+    }
+
+    @Test
+    public void disabledBreakerNeverRejects() throws Exception {
+        registry.setEnabled(false);
+        fail(10);
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals("ok", breaker.execute(() -> "ok"));
+    }
+
+    @Test
+    public void socketHandlerFailsFastWhileOpen() throws Exception {
+        NodeAuthModuleContext context = NodeAuthModuleContext.getContext();
+        int retries = context.getConfig().getSocketRetries();
+        int retryWait = context.getConfig().getSocketRetryWait();
+        context.getConfig().setSocketRetries(1);
+        context.getConfig().setSocketRetryWait(0);
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        CircuitBreaker socketBreaker = context.getCircuitBreakerRegistry().getCircuitBreaker("localhost", port);
+        try {
+            for (int i = 0; i < CircuitBreakerRegistry.DEFAULT_MINIMUM_NUMBER_OF_CALLS; i++) {
+                try {
+                    context.getSocketHandler().getSocketAsync("localhost", port, false).get(5, TimeUnit.SECONDS);
+                    org.junit.Assert.fail();
+                } catch (ExecutionException e) {
+                    assertFalse(e.getCause() instanceof CircuitBreakerOpenException);
+                }
+            }
+            // the outcome is recorded when the future completes, which may wake us up first
+            for (int i = 0; i < 100 && socketBreaker.getState() != State.OPEN; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(State.OPEN, socketBreaker.getState());
+            try {
+                context.getSocketHandler().getSocket("localhost", port, false);
+                org.junit.Assert.fail();
+            } catch (CircuitBreakerOpenException e) {
+                assertSame(socketBreaker, e.getCircuitBreaker());
+            }
+        } finally {
+            socketBreaker.reset();
+            context.getConfig().setSocketRetries(retries);
+            context.getConfig().setSocketRetryWait(retryWait);
+        }
+    }
+
+    private void succeed() throws Exception {
+        breaker.execute(() -> null);
+    }
+
+    private void fail(int count) {
+        for (int i = 0; i < count; i++) {
+            try {
+                breaker.execute(() -> {
+                    throw new IOException("Connection refused");
+                });
+            } catch (Exception e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.nodeauth;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class SecurityDomainManagerTest {
+
+    private static SecurityDomain a, b, c, d;
+
+    private final SecurityDomainManager manager = new SecurityDomainManager();
+
+    @Before
+    public void setUp() throws Exception {
+        if (a == null) {
+            a = domain("a");
+            b = domain("b");
+            c = domain("c");
+            d = domain("d");
+        }
+        manager.registerSecurityDomain(a);
+        manager.registerSecurityDomain(b);
+        manager.registerSecurityDomain(c);
+        manager.registerDefaultSecurityDomain(d);
+    }
+
+    @Test
+    public void resolvesMostSpecificRegistration() throws Exception {
+        manager.registerURItoSecurityDomain(URI.create("atna://arr.example.org:6514"), "a");
+        manager.registerHostToSecurityDomain("arr.example.org", "b");
+        manager.registerHostToSecurityDomain("*.example.org", "c");
+        manager.registerHostToSecurityDomain("*.sub.example.org", 443, "a");
+
+        assertSame(a, manager.getSecurityDomain("arr.example.org", 6514));
+        assertSame(b, manager.getSecurityDomain("arr.example.org", 3001));
+        assertSame(c, manager.getSecurityDomain("xds.example.org", 6514));
+        assertSame(c, manager.getSecurityDomain("xds.sub.example.org", 80));
+        assertSame(a, manager.getSecurityDomain("xds.sub.example.org", 443));
+        assertSame(d, manager.getSecurityDomain("example.org", 6514));
+        assertSame(d, manager.getSecurityDomain("other.org", 6514));
+        assertSame(a, manager.getSecurityDomain(URI.create("https://arr.example.org:6514/ATNA")));
+    }
+
+    @Test
+    public void hostsAreCaseInsensitive() throws Exception {
+        manager.registerURItoSecurityDomain(URI.create("atna://ARR.example.org:6514"), "a");
+        manager.registerHostToSecurityDomain("*.Example.ORG", "b");
+        assertSame(a, manager.getSecurityDomain("arr.EXAMPLE.org", 6514));
+        assertSame(b, manager.getSecurityDomain("XDS.example.org", 6514));
+    }
+
+    @Test
+    public void unregisteredDestinationsFallBack() throws Exception {
+        URI uri = URI.create("atna://arr.example.org:6514");
+        manager.registerURItoSecurityDomain(uri, "a");
+        manager.registerHostToSecurityDomain("*.example.org", "b");
+        manager.unregisterURItoSecurityDomain(uri);
+        assertSame(b, manager.getSecurityDomain(uri));
+        manager.unregisterHostToSecurityDomain("*.example.org", -1);
+        assertSame(d, manager.getSecurityDomain(uri));
+
+        manager.unregisterDefaultSecurityDomain();
+        assertNull(manager.getSecurityDomain(SecurityDomain.DEFAULT_SECURITY_DOMAIN));
+        assertSame(d, manager.getSecurityDomain("d"));
+        if (System.getProperty(SecurityDomain.JAVAX_NET_SSL_KEYSTORE) == null) {
+            try {
+                manager.getSecurityDomain(uri);
+                fail();
+            } catch (NoSecurityDomainException expected) {
+                // no default
+            }
+        }
+    }
+
+    @Test
+    public void reregisteredDomainReplacesPrevious() throws Exception {
+        manager.registerHostToSecurityDomain("arr.example.org", "a");
+        SecurityDomain replacement = domain("a");
+        manager.registerSecurityDomain(replacement);
+        assertSame(replacement, manager.getSecurityDomain("arr.example.org", 6514));
+        assertSame(replacement, manager.getSecurityDomain("a"));
+        assertTrue(manager.getRegisteredSecurityDomains().contains("a"));
+    }
+
+    @Test
+    public void rejectsInvalidRegistrationsAndLookups() throws Exception {
+        for (String pattern : new String[]{"arr.*.org", "*example.org", "*", ""}) {
+            try {
+                manager.registerHostToSecurityDomain(pattern, "a");
+                fail(pattern);
+            } catch (IllegalArgumentException expected) {
+                // invalid pattern
+            }
+        }
+        try {
+            manager.registerHostToSecurityDomain("arr.example.org", "unknown");
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // unknown domain
+        }
+        try {
+            manager.getSecurityDomain("arr.example.org", 0);
+            fail();
+        } catch (URISyntaxException expected) {
+            // invalid port
+        }
+    }
+
+    @Test
+    public void lookupsSeeConsistentRegistrationsWhileChanging() throws Exception {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 2000; i++) {
+                    manager.registerHostToSecurityDomain("arr.example.org", 6514, i % 2 == 0 ? "a" : "b");
+                    manager.registerHostToSecurityDomain("host" + i + ".example.org", "c");
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            SecurityDomain domain = manager.getSecurityDomain("arr.example.org", 6514);
+            assertTrue(domain == a || domain == b || domain == d);
+        }
+        writer.join();
+        assertNull(failure.get());
+        assertSame(b, manager.getSecurityDomain("arr.example.org", 6514));
+        assertSame(c, manager.getSecurityDomain("host1999.example.org", 6514));
+    }
+
+    @Test
+    public void loadsRegisteredDomainsInParallel() throws Exception {
+        SecurityDomainManager manager = new SecurityDomainManager();
+        for (int i = 0; i < 8; i++) {
+            manager.registerSecurityDomain(domain("domain" + i));
+        }
+        Properties properties = SecurityDomainTest.properties();
+        properties.setProperty(SecurityDomain.JAVAX_NET_SSL_KEYSTORE, "/nonexistent/keystore.jks");
+        manager.registerSecurityDomain(new SecurityDomain("broken", properties));
+
+        Map<String, Exception> failures = manager.loadSecurityDomains(4);
+        assertEquals(Collections.singleton("broken"), failures.keySet());
+        for (int i = 0; i < 8; i++) {
+            assertTrue(manager.getSecurityDomain("domain" + i).isLoaded());
+        }
+        assertFalse(manager.getSecurityDomain("broken").isLoaded());
+    }
+
+    private static SecurityDomain domain(String name) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(SecurityDomain.JAVAX_NET_SSL_KEYSTORE, resource("/mesa_certs/test_sys_1.2009.jks"));
+        properties.setProperty(SecurityDomain.JAVAX_NET_SSL_KEYSTORE_PASSWORD, "mesa");
+        return new SecurityDomain(name, properties);
+    }
+
+    private static String resource(String name) throws Exception {
+        return new File(SecurityDomainManagerTest.class.getResource(name).toURI()).getAbsolutePath();
+    }
+}
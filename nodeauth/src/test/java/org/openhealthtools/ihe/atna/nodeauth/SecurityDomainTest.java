@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.nodeauth;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.security.KeyManagementException;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class SecurityDomainTest {
+
+    @Test
+    public void storesAreLoadedOnFirstUse() throws Exception {
+        SecurityDomain domain = new SecurityDomain("a", properties());
+        assertFalse(domain.isLoaded());
+        assertEquals(1, domain.getKeyManagers().length);
+        assertTrue(domain.isLoaded());
+        assertNotNull(domain.getKeyStore());
+        assertNotNull(domain.getTrustStore());
+    }
+
+    @Test
+    public void undefinedKeyStoreFailsImmediately() {
+        Properties properties = properties();
+        properties.remove(SecurityDomain.JAVAX_NET_SSL_KEYSTORE);
+        try {
+            new SecurityDomain("a", properties);
+            fail();
+        } catch (SecurityDomainException expected) {
+            // no key store
+        }
+    }
+
+    @Test
+    public void unreadableKeyStoreFailsOnFirstUse() throws Exception {
+        Properties properties = properties();
+        properties.setProperty(SecurityDomain.JAVAX_NET_SSL_KEYSTORE, "/nonexistent/keystore.jks");
+        SecurityDomain domain = new SecurityDomain("a", properties);
+        try {
+            domain.load();
+            fail();
+        } catch (SecurityDomainException expected) {
+            assertFalse(domain.isLoaded());
+        }
+        try {
+            domain.getSSLContext();
+            fail();
+        } catch (KeyManagementException expected) {
+            assertTrue(expected.getCause() instanceof SecurityDomainException);
+        }
+        try {
+            domain.getKeyManagers();
+            fail();
+        } catch (IllegalStateException expected) {
+            // not loaded
+        }
+    }
+
+    @Test
+    public void clonesShareLoadedStores() throws Exception {
+        SecurityDomain domain = new SecurityDomain("a", properties());
+        SecurityDomain clone = domain.clone("b");
+        assertEquals("b", clone.getName());
+
+        clone.load();
+        assertTrue(domain.isLoaded());
+        assertSame(domain.getKeyStore(), clone.getKeyStore());
+        assertSame(domain.getTrustManagers(), clone.getTrustManagers());
+        assertSame(domain.getKeyManagerFactory(), clone.getKeyManagerFactory());
+        // key managers select the preferred alias of their own domain
+        assertNotSame(domain.getKeyManagers(), clone.getKeyManagers());
+
+        clone.setProperties(properties());
+        assertFalse(clone.isLoaded());
+        assertTrue(domain.isLoaded());
+        assertNotSame(domain.getKeyStore(), clone.getKeyStore());
+    }
+
+    static Properties properties() {
+        Properties properties = new Properties();
+        properties.setProperty(SecurityDomain.JAVAX_NET_SSL_KEYSTORE, resource("/mesa_certs/test_sys_1.2009.jks"));
+        properties.setProperty(SecurityDomain.JAVAX_NET_SSL_KEYSTORE_PASSWORD, "mesa");
+        properties.setProperty(SecurityDomain.JAVAX_NET_SSL_TRUSTSTORE, resource("/mesa_certs/mesatrusts.2009.jks"));
+        properties.setProperty(SecurityDomain.JAVAX_NET_SSL_TRUSTSTORE_PASSWORD, "mesa");
+        return properties;
+    }
+
+    private static String resource(String name) {
+        try {
+            return new File(SecurityDomainTest.class.getResource(name).toURI()).getAbsolutePath();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.nodeauth.handlers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhealthtools.ihe.atna.nodeauth.context.NodeAuthModuleConfig;
+import org.openhealthtools.ihe.atna.nodeauth.context.NodeAuthModuleContext;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class AsyncSocketConnectTest {
+
+    private static final String HOST = "localhost";
+
+    private final NodeAuthModuleContext context = NodeAuthModuleContext.getContext();
+    private final NodeAuthModuleConfig config = context.getConfig();
+    private final TLSEnabledSocketHandler handler = new TLSEnabledSocketHandler(context);
+    private int retries;
+    private int retryWait;
+    private int retryMaxWait;
+
+    @Before
+    public void setUp() {
+        retries = config.getSocketRetries();
+        retryWait = config.getSocketRetryWait();
+        retryMaxWait = config.getSocketRetryMaxWait();
+        config.setSocketRetries(4);
+        config.setSocketRetryWait(50);
+        config.setSocketRetryMaxWait(80);
+    }
+
+    @After
+    public void tearDown() {
+        config.setSocketRetries(retries);
+        config.setSocketRetryWait(retryWait);
+        config.setSocketRetryMaxWait(retryMaxWait);
+    }
+
+    @Test
+    public void retriesWithGrowingWaitOffTheCallingThread() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        Thread caller = Thread.currentThread();
+        long start = System.nanoTime();
+        CompletableFuture<Socket> future = handler.connectAsync(HOST, 1, () -> {
+            assertNotSame(caller, Thread.currentThread());
+            attempts.incrementAndGet();
+            throw new ConnectException("Connection refused");
+        }, "Retries exhausted.");
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ConnectException);
+            assertTrue(e.getCause().getMessage().startsWith("Retries exhausted."));
+            assertEquals("Connection refused", e.getCause().getCause().getMessage());
+        }
+        assertEquals(4, attempts.get());
+        // at least half of 50, 80 and 80 ms
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 105);
+    }
+
+    @Test
+    public void connectsOnceTheServerIsUp() throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        config.setSocketRetries(50);
+        CompletableFuture<Socket> future = handler.getSocketAsync(HOST, port, false);
+        Thread.sleep(100);
+        try (ServerSocket server = new ServerSocket()) {
+            server.bind(new InetSocketAddress(InetAddress.getByName(HOST), port));
+            try (Socket socket = future.get(5, TimeUnit.SECONDS)) {
+                assertTrue(socket.isConnected());
+            }
+        }
+    }
+
+    @Test
+    public void blockingCallFailsWithConnectException() throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        try {
+            handler.getSocket(HOST, port, false);
+            fail();
+        } catch (ConnectException e) {
+            assertTrue(e.getMessage().startsWith("Socket Connect Retries Exhausted."));
+        }
+    }
+
+    @Test
+    public void unknownHostIsNotRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<Socket> future = handler.connectAsync(HOST, 1, () -> {
+            attempts.incrementAndGet();
+            throw new UnknownHostException("nowhere");
+        }, "Retries exhausted.");
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof UnknownHostException);
+        }
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void cancelStopsRetries() throws Exception {
+        config.setSocketRetries(50);
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<Socket> future = handler.connectAsync(HOST, 1, () -> {
+            attempts.incrementAndGet();
+            throw new IOException("Connection reset");
+        }, "Retries exhausted.");
+        Thread.sleep(60);
+        future.cancel(false);
+        int attemptsAtCancel = attempts.get();
+        Thread.sleep(300);
+        assertTrue(attempts.get() <= attemptsAtCancel + 1);
+    }
+
+    @Test
+    public void retryDelayIsJitteredAndCapped() {
+        config.setSocketRetryWait(100);
+        config.setSocketRetryMaxWait(1000);
+        for (int i = 0; i < 100; i++) {
+            long first = handler.getRetryDelay(1);
+            assertTrue(first >= 50 && first <= 100);
+            long third = handler.getRetryDelay(3);
+            assertTrue(third >= 200 && third <= 400);
+            long capped = handler.getRetryDelay(30);
+            assertTrue(capped >= 500 && capped <= 1000);
+        }
+    }
+}
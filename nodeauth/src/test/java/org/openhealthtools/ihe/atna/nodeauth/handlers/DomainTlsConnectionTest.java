@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.nodeauth.handlers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhealthtools.ihe.atna.nodeauth.SecurityDomain;
+import org.openhealthtools.ihe.atna.nodeauth.context.NodeAuthModuleContext;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class DomainTlsConnectionTest {
+
+    private final NodeAuthModuleContext context = NodeAuthModuleContext.getContext();
+    private final TLSEnabledSocketHandler handler = new TLSEnabledSocketHandler(context);
+    private Properties systemProperties;
+
+    @Before
+    public void setUp() {
+        systemProperties = (Properties) System.getProperties().clone();
+        System.setProperty(SecurityDomain.SET_DOMAIN_ENVIRONMENT, "true");
+    }
+
+    @After
+    public void tearDown() {
+        System.setProperties(systemProperties);
+    }
+
+    @Test
+    public void sslContextIsCreatedOncePerDomain() throws Exception {
+        SecurityDomain domain = domain("a", "TLSv1.2");
+        assertSame(domain.getSSLContext(), domain.getSSLContext());
+        assertSame(domain.getSSLSocketFactory(), domain.getSSLSocketFactory());
+
+        SecurityDomain clone = domain.clone("other");
+        assertNotSame(domain.getSSLContext(), clone.getSSLContext());
+        assertNotSame(domain.getSSLSocketFactory(), clone.getSSLSocketFactory());
+    }
+
+    @Test
+    public void httpsConnectionIsConfiguredFromDomain() throws Exception {
+        SecurityDomain domain = domain("a", "TLSv1.2");
+        Properties before = (Properties) System.getProperties().clone();
+        HttpURLConnection connection = handler.getHttpConnection(URI.create("https://localhost:1/ATNA"), domain);
+
+        assertTrue(connection instanceof HttpsURLConnection);
+        HttpsURLConnection https = (HttpsURLConnection) connection;
+        assertSame(domain.getSSLSocketFactory(), https.getSSLSocketFactory());
+        assertSame(domain.getHostnameVerifier(), https.getHostnameVerifier());
+        assertTrue(https.getHostnameVerifier().verify("spoofed", null));
+        assertEquals(context.getConfig().getConnectTimeout(), https.getConnectTimeout());
+        assertEquals(before, System.getProperties());
+
+        domain.setDomainSpoofCheck(true);
+        assertSame(HttpsURLConnection.getDefaultHostnameVerifier(), domain.getHostnameVerifier());
+    }
+
+    @Test
+    public void socketsGetDomainProtocols() throws Exception {
+        try (SSLSocket socket = (SSLSocket) domain("a", "TLSv1.1").getSSLSocketFactory().createSocket()) {
+            assertArrayEquals(new String[]{"TLSv1.1"}, socket.getEnabledProtocols());
+            assertArrayEquals(new String[]{SecurityDomain.TLS_RSA_WITH_AES_128_CBC_SHA}, socket.getEnabledCipherSuites());
+        }
+    }
+
+    @Test
+    public void concurrentDomainsDoNotInterfere() throws Exception {
+        SecurityDomain[] domains = {domain("a", "TLSv1.1"), domain("b", "TLSv1.2")};
+        Properties before = (Properties) System.getProperties().clone();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                SecurityDomain domain = domains[i % 2];
+                results.add(executor.submit((Callable<Boolean>) () -> {
+                    HttpsURLConnection connection = (HttpsURLConnection) handler.getHttpConnection(
+                            URI.create("https://localhost:1/ATNA"), domain);
+                    try (SSLSocket socket = (SSLSocket) connection.getSSLSocketFactory().createSocket()) {
+                        return Arrays.equals(domain.getHttpsProtocols(), socket.getEnabledProtocols());
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(before, System.getProperties());
+    }
+
+    @Test(expected = MalformedURLException.class)
+    public void rejectsNonHttpUri() throws Exception {
+        handler.getHttpConnection(URI.create("ftp://localhost/ATNA"), domain("a", "TLSv1.2"));
+    }
+
+    private static SecurityDomain domain(String name, String protocol) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(SecurityDomain.JAVAX_NET_SSL_KEYSTORE, resource("/mesa_certs/test_sys_1.2009.jks"));
+        properties.setProperty(SecurityDomain.JAVAX_NET_SSL_KEYSTORE_PASSWORD, "mesa");
+        properties.setProperty(SecurityDomain.JAVAX_NET_SSL_TRUSTSTORE, resource("/mesa_certs/mesatrusts.2009.jks"));
+        properties.setProperty(SecurityDomain.JAVAX_NET_SSL_TRUSTSTORE_PASSWORD, "mesa");
+        properties.setProperty(SecurityDomain.HTTPS_PROTOCOLS, protocol);
+        return new SecurityDomain(name, properties);
+    }
+
+    private static String resource(String name) throws Exception {
+        return new File(DomainTlsConnectionTest.class.getResource(name).toURI()).getAbsolutePath();
+    }
+}
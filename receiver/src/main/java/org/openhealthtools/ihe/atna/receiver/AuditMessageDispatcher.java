@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.receiver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.handler.codec.DecoderException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Last handler of a receiver pipeline. Parses framed messages (or datagrams), hands them
+ * to the {@link AuditMessageSink} and suspends reading from the channel while the sink
+ * signals back-pressure. Messages that were already read when the sink signalled
+ * back-pressure are held back and passed on in order once it is ready again. One instance
+ * is used per channel.
+ *
+ * @since 3.7
+ */
+class AuditMessageDispatcher extends SimpleChannelInboundHandler<Object> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuditMessageDispatcher.class);
+
+    private final AuditMessageSink sink;
+
+    // only accessed on the event loop of the channel
+    private final Queue<ReceivedAuditMessage> held = new ArrayDeque<>();
+    private boolean suspended;
+
+    AuditMessageDispatcher(AuditMessageSink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, Object msg) {
+        ByteBuf content;
+        InetSocketAddress remoteAddress;
+        if (msg instanceof DatagramPacket) {
+            DatagramPacket packet = (DatagramPacket) msg;
+            content = packet.content();
+            remoteAddress = packet.sender();
+        } else {
+            content = (ByteBuf) msg;
+            remoteAddress = (InetSocketAddress) ctx.channel().remoteAddress();
+        }
+
+        ReceivedAuditMessage message;
+        try {
+            message = SyslogMessageParser.parse(content, remoteAddress);
+        } catch (Exception e) {
+            LOG.debug("Rejected message from {}: {}", remoteAddress, e.getMessage());
+            sink.reject(remoteAddress, e.getMessage(), e);
+            return;
+        }
+
+        if (suspended) {
+            held.add(message);
+        } else {
+            dispatch(ctx.channel(), message);
+        }
+    }
+
+    private void dispatch(Channel channel, ReceivedAuditMessage message) {
+        CompletionStage<?> stage = sink.accept(message);
+        if (stage != null && !stage.toCompletableFuture().isDone()) {
+            suspended = true;
+            channel.config().setAutoRead(false);
+            stage.whenComplete((result, failure) -> channel.eventLoop().execute(() -> resume(channel)));
+        }
+    }
+
+    /**
+     * Passes on the held messages until the sink signals back-pressure again, and resumes
+     * reading only if it does not
+     */
+    private void resume(Channel channel) {
+        suspended = false;
+        while (!suspended && !held.isEmpty()) {
+            dispatch(channel, held.poll());
+        }
+        if (!suspended) {
+            channel.config().setAutoRead(true);
+            channel.read();
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        InetSocketAddress remoteAddress = (InetSocketAddress) ctx.channel().remoteAddress();
+        Throwable reported = cause instanceof DecoderException && cause.getCause() != null ? cause.getCause() : cause;
+        LOG.debug("Closing connection from {}: {}", remoteAddress, reported.getMessage());
+        sink.reject(remoteAddress, String.valueOf(reported.getMessage()), reported);
+        // Framing is lost after an error in a stream, so the connection cannot be used anymore.
+        // Unconnected UDP channels have no remote address and stay open.
+        if (remoteAddress != null) {
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.receiver;
+
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.ActiveParticipantType;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.AuditMessage;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.AuditSourceIdentificationType;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.AuditSourceType;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.CodedValueType;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.EventIdentificationType;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.ParticipantObjectIdentificationType;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.TypeValuePairType;
+import org.openhealthtools.ihe.utils.XMLUtils;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+
+/**
+ * Streaming parser for DICOM / RFC 3881 audit messages. The document is read once with a
+ * StAX cursor and mapped directly onto the <code>models.rfc3881</code> classes, without
+ * building a DOM. Unknown elements are skipped, so messages carrying DICOM extensions
+ * (e.g. <code>SOPClass</code>) are accepted.
+ * <p>
+ * Instances are stateless and thread-safe.
+ *
+ * @since 3.7
+ */
+public final class AuditMessageReader {
+
+    public static final AuditMessageReader INSTANCE = new AuditMessageReader();
+
+    private static final Base64.Decoder BASE64 = Base64.getMimeDecoder();
+
+    private AuditMessageReader() {
+    }
+
+    /**
+     * Parses an audit message
+     *
+     * @param in XML document, encoded as given by its XML declaration or UTF-8
+     * @return parsed audit message
+     * @throws XMLStreamException if the document is not well-formed or not an AuditMessage
+     */
+    public AuditMessage read(InputStream in) throws XMLStreamException {
+        XMLStreamReader reader = XMLUtils.getXMLInputFactory().createXMLStreamReader(in);
+        try {
+            while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+                // skip prolog
+            }
+            if (!reader.isStartElement() || !"AuditMessage".equals(reader.getLocalName())) {
+                throw new XMLStreamException("Document element is not an AuditMessage", reader.getLocation());
+            }
+            return readAuditMessage(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private AuditMessage readAuditMessage(XMLStreamReader reader) throws XMLStreamException {
+        AuditMessage message = new AuditMessage();
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (reader.getLocalName()) {
+                case "EventIdentification":
+                    message.setEventIdentification(readEventIdentification(reader));
+                    break;
+                case "ActiveParticipant":
+                    message.getActiveParticipant().add(readActiveParticipant(reader));
+                    break;
+                case "AuditSourceIdentification":
+                    message.getAuditSourceIdentification().add(readAuditSourceIdentification(reader));
+                    break;
+                case "ParticipantObjectIdentification":
+                    message.getParticipantObjectIdentification().add(readParticipantObject(reader));
+                    break;
+                default:
+                    skip(reader);
+            }
+        }
+        if (message.getEventIdentification() == null) {
+            throw new XMLStreamException("AuditMessage without EventIdentification", reader.getLocation());
+        }
+        return message;
+    }
+
+    private EventIdentificationType readEventIdentification(XMLStreamReader reader) throws XMLStreamException {
+        EventIdentificationType event = new EventIdentificationType();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String value = reader.getAttributeValue(i);
+            switch (reader.getAttributeLocalName(i)) {
+                case "EventActionCode":
+                    event.setEventActionCode(value);
+                    break;
+                case "EventDateTime":
+                    event.setEventDateTime(value);
+                    break;
+                case "EventOutcomeIndicator":
+                    event.setEventOutcomeIndicator(parseInt(reader, value));
+                    break;
+                default:
+            }
+        }
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (reader.getLocalName()) {
+                case "EventID":
+                    event.setEventID(readCodedValue(reader));
+                    break;
+                case "EventTypeCode":
+                    event.getEventTypeCode().add(readCodedValue(reader));
+                    break;
+                case "PurposeOfUse":
+                    if (event.getPurposesOfUse() == null) {
+                        event.setPurposesOfUse(new ArrayList<>());
+                    }
+                    event.getPurposesOfUse().add(readCodedValue(reader));
+                    break;
+                default:
+                    skip(reader);
+            }
+        }
+        return event;
+    }
+
+    private ActiveParticipantType readActiveParticipant(XMLStreamReader reader) throws XMLStreamException {
+        ActiveParticipantType participant = new ActiveParticipantType();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String value = reader.getAttributeValue(i);
+            switch (reader.getAttributeLocalName(i)) {
+                case "UserID":
+                    participant.setUserID(value);
+                    break;
+                case "AlternativeUserID":
+                    participant.setAlternativeUserID(value);
+                    break;
+                case "UserName":
+                    participant.setUserName(value);
+                    break;
+                case "UserIsRequestor":
+                    participant.setUserIsRequestor(Boolean.valueOf(value));
+                    break;
+                case "NetworkAccessPointID":
+                    participant.setNetworkAccessPointID(value);
+                    break;
+                case "NetworkAccessPointTypeCode":
+                    participant.setNetworkAccessPointTypeCode(parseShort(reader, value));
+                    break;
+                default:
+            }
+        }
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if ("RoleIDCode".equals(reader.getLocalName())) {
+                participant.getRoleIDCode().add(readCodedValue(reader));
+            } else {
+                skip(reader);
+            }
+        }
+        return participant;
+    }
+
+    private AuditSourceIdentificationType readAuditSourceIdentification(XMLStreamReader reader) throws XMLStreamException {
+        AuditSourceIdentificationType source = new AuditSourceIdentificationType();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String value = reader.getAttributeValue(i);
+            switch (reader.getAttributeLocalName(i)) {
+                case "AuditEnterpriseSiteID":
+                    source.setAuditEnterpriseSiteID(value);
+                    break;
+                case "AuditSourceID":
+                    source.setAuditSourceID(value);
+                    break;
+                default:
+            }
+        }
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if ("AuditSourceTypeCode".equals(reader.getLocalName())) {
+                CodedValueType code = readCodedValue(reader);
+                AuditSourceType type = new AuditSourceType();
+                type.setCode(code.getCode());
+                type.setCodeSystem(code.getCodeSystem());
+                type.setCodeSystemName(code.getCodeSystemName());
+                type.setOriginalText(code.getOriginalText());
+                source.getAuditSourceType().add(type);
+            } else {
+                skip(reader);
+            }
+        }
+        return source;
+    }
+
+    private ParticipantObjectIdentificationType readParticipantObject(XMLStreamReader reader) throws XMLStreamException {
+        ParticipantObjectIdentificationType object = new ParticipantObjectIdentificationType();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String value = reader.getAttributeValue(i);
+            switch (reader.getAttributeLocalName(i)) {
+                case "ParticipantObjectID":
+                    object.setParticipantObjectID(value);
+                    break;
+                case "ParticipantObjectTypeCode":
+                    object.setParticipantObjectTypeCode(parseShort(reader, value));
+                    break;
+                case "ParticipantObjectTypeCodeRole":
+                    object.setParticipantObjectTypeCodeRole(parseShort(reader, value));
+                    break;
+                case "ParticipantObjectDataLifeCycle":
+                    object.setParticipantObjectDataLifeCycle(parseShort(reader, value));
+                    break;
+                case "ParticipantObjectSensitivity":
+                    object.setParticipantObjectSensitivity(value);
+                    break;
+                default:
+            }
+        }
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (reader.getLocalName()) {
+                case "ParticipantObjectIDTypeCode":
+                    object.setParticipantObjectIDTypeCode(readCodedValue(reader));
+                    break;
+                case "ParticipantObjectName":
+                    object.setParticipantObjectName(reader.getElementText());
+                    break;
+                case "ParticipantObjectQuery":
+                    object.setParticipantObjectQuery(decodeBase64(reader, reader.getElementText()));
+                    break;
+                case "ParticipantObjectDetail":
+                    object.getParticipantObjectDetail().add(readTypeValuePair(reader));
+                    break;
+                default:
+                    skip(reader);
+            }
+        }
+        return object;
+    }
+
+    private CodedValueType readCodedValue(XMLStreamReader reader) throws XMLStreamException {
+        CodedValueType code = new CodedValueType();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String value = reader.getAttributeValue(i);
+            switch (reader.getAttributeLocalName(i)) {
+                case "csd-code":
+                case "code":
+                    code.setCode(value);
+                    break;
+                case "codeSystem":
+                    code.setCodeSystem(value);
+                    break;
+                case "codeSystemName":
+                    code.setCodeSystemName(value);
+                    break;
+                case "originalText":
+                case "displayName":
+                    code.setOriginalText(value);
+                    break;
+                default:
+            }
+        }
+        skip(reader);
+        return code;
+    }
+
+    private TypeValuePairType readTypeValuePair(XMLStreamReader reader) throws XMLStreamException {
+        TypeValuePairType pair = new TypeValuePairType();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String value = reader.getAttributeValue(i);
+            switch (reader.getAttributeLocalName(i)) {
+                case "type":
+                    pair.setType(value);
+                    break;
+                case "value":
+                    // the model keeps the value base64-encoded and encodes it when set
+                    pair.setValue(decodeBase64(reader, value));
+                    break;
+                default:
+            }
+        }
+        skip(reader);
+        return pair;
+    }
+
+    /**
+     * Skips the rest of the current element including its children
+     */
+    private static void skip(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static int parseInt(XMLStreamReader reader, String value) throws XMLStreamException {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new XMLStreamException("Invalid number " + value, reader.getLocation(), e);
+        }
+    }
+
+    private static Short parseShort(XMLStreamReader reader, String value) throws XMLStreamException {
+        try {
+            return Short.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            throw new XMLStreamException("Invalid number " + value, reader.getLocation(), e);
+        }
+    }
+
+    private static byte[] decodeBase64(XMLStreamReader reader, String value) throws XMLStreamException {
+        try {
+            return BASE64.decode(value);
+        } catch (IllegalArgumentException e) {
+            throw new XMLStreamException("Invalid base64 content", reader.getLocation(), e);
+        }
+    }
+}
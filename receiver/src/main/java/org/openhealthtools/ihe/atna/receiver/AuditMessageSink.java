@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.receiver;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Destination of the audit messages received by a {@link SyslogReceiver}.
+ * <p>
+ * {@link #accept(ReceivedAuditMessage)} is called on the I/O thread of the connection
+ * and must not block. A sink that hands messages on asynchronously (e.g. to a database
+ * or a bounded queue) applies back-pressure by returning an incomplete stage: the
+ * receiver then stops reading from that connection (or UDP socket) until the stage
+ * completes, so that slow sinks throttle senders through TCP flow control instead of
+ * buffering without bounds. Messages of that connection that had already been read are
+ * not passed to the sink before the stage completes.
+ *
+ * @since 3.7
+ */
+@FunctionalInterface
+public interface AuditMessageSink {
+
+    /**
+     * Accepts a received audit message
+     *
+     * @param message received message
+     * @return null or a completed stage if more messages can be accepted right away,
+     * otherwise a stage that completes when the sink is ready again
+     */
+    CompletionStage<?> accept(ReceivedAuditMessage message);
+
+    /**
+     * Called for messages that could not be framed or parsed. Does nothing by default.
+     *
+     * @param remoteAddress address of the sender, null if unknown
+     * @param reason        description of the problem
+     * @param cause         exception, may be null
+     */
+    default void reject(InetSocketAddress remoteAddress, String reason, Throwable cause) {
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.receiver;
+
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.AuditMessage;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Audit message received by a {@link SyslogReceiver}, together with the syslog header
+ * fields it was sent with
+ *
+ * @since 3.7
+ */
+public class ReceivedAuditMessage {
+
+    private final InetSocketAddress remoteAddress;
+    private final int priority;
+    private final String timestamp;
+    private final String hostName;
+    private final String appName;
+    private final String procId;
+    private final String msgId;
+    private final AuditMessage auditMessage;
+
+    public ReceivedAuditMessage(InetSocketAddress remoteAddress, int priority, String timestamp, String hostName,
+                                String appName, String procId, String msgId, AuditMessage auditMessage) {
+        this.remoteAddress = remoteAddress;
+        this.priority = priority;
+        this.timestamp = timestamp;
+        this.hostName = hostName;
+        this.appName = appName;
+        this.procId = procId;
+        this.msgId = msgId;
+        this.auditMessage = auditMessage;
+    }
+
+    /**
+     * @return address of the sender, null if unknown
+     */
+    public InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * @return syslog PRI value (facility * 8 + severity)
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return syslog TIMESTAMP as sent; RFC 3339 for RFC 5424 messages, <code>Mmm dd hh:mm:ss</code> for RFC 3164
+     */
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    public String getHostName() {
+        return hostName;
+    }
+
+    /**
+     * @return APP-NAME, null for RFC 3164 messages
+     */
+    public String getAppName() {
+        return appName;
+    }
+
+    /**
+     * @return PROCID, null for RFC 3164 messages
+     */
+    public String getProcId() {
+        return procId;
+    }
+
+    /**
+     * @return MSGID, null for RFC 3164 messages
+     */
+    public String getMsgId() {
+        return msgId;
+    }
+
+    public AuditMessage getAuditMessage() {
+        return auditMessage;
+    }
+}
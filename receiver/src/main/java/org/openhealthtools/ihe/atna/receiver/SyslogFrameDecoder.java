@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.receiver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.ByteProcessor;
+
+import java.util.List;
+
+/**
+ * Splits a syslog byte stream into messages. Each frame is recognized by its first byte:
+ * <ul>
+ *     <li>a digit starts an octet-counted frame (<code>MSG-LEN SP SYSLOG-MSG</code>) as defined
+ *     in RFC 5425 and RFC 6587 section 3.4.1</li>
+ *     <li><code>&lt;</code> starts a non-transparently framed message (RFC 6587 section 3.4.2),
+ *     terminated by LF, CR LF or NUL</li>
+ * </ul>
+ * Frames may span any number of reads. Complete frames are emitted as retained slices of
+ * the cumulation buffer, so the payload is not copied.
+ *
+ * @since 3.7
+ */
+public class SyslogFrameDecoder extends ByteToMessageDecoder {
+
+    private static final int MAX_LENGTH_DIGITS = 9;
+    private static final ByteProcessor TRAILER = b -> b != '\n' && b != 0;
+
+    private final int maxFrameLength;
+
+    /**
+     * @param maxFrameLength maximum number of bytes of a single syslog message
+     */
+    public SyslogFrameDecoder(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        while (in.isReadable()) {
+            ByteBuf frame;
+            byte first = in.getByte(in.readerIndex());
+            if (first >= '1' && first <= '9') {
+                frame = decodeOctetCounted(in);
+            } else if (first == '<') {
+                frame = decodeNonTransparent(in);
+            } else if (first == '\n' || first == '\r' || first == 0) {
+                // trailer of a non-transparently framed message, or keep-alive
+                in.skipBytes(1);
+                continue;
+            } else {
+                in.skipBytes(in.readableBytes());
+                throw new CorruptedFrameException("Unexpected byte value " + (first & 0xff) + " at start of syslog frame");
+            }
+            if (frame == null) {
+                return;
+            }
+            out.add(frame);
+        }
+    }
+
+    private ByteBuf decodeOctetCounted(ByteBuf in) {
+        int start = in.readerIndex();
+        int end = in.writerIndex();
+        int length = 0;
+        int pos = start;
+        while (pos < end) {
+            byte b = in.getByte(pos);
+            if (b == ' ') {
+                break;
+            }
+            if (b < '0' || b > '9' || pos - start == MAX_LENGTH_DIGITS) {
+                in.skipBytes(in.readableBytes());
+                throw new CorruptedFrameException("Malformed syslog frame length");
+            }
+            length = length * 10 + (b - '0');
+            pos++;
+        }
+        if (pos == end) {
+            // length prefix incomplete
+            return null;
+        }
+        if (length > maxFrameLength) {
+            in.skipBytes(in.readableBytes());
+            throw new TooLongFrameException("Syslog frame of " + length + " bytes exceeds " + maxFrameLength);
+        }
+        int payloadStart = pos + 1;
+        if (end - payloadStart < length) {
+            return null;
+        }
+        ByteBuf frame = in.retainedSlice(payloadStart, length);
+        in.readerIndex(payloadStart + length);
+        return frame;
+    }
+
+    private ByteBuf decodeNonTransparent(ByteBuf in) {
+        int start = in.readerIndex();
+        int pos = in.forEachByte(start, Math.min(in.readableBytes(), maxFrameLength + 1), TRAILER);
+        if (pos >= 0) {
+            int length = pos - start;
+            if (length > 0 && in.getByte(pos) == '\n' && in.getByte(pos - 1) == '\r') {
+                length--;
+            }
+            ByteBuf frame = in.retainedSlice(start, length);
+            in.readerIndex(pos + 1);
+            return frame;
+        }
+        if (in.readableBytes() > maxFrameLength) {
+            in.skipBytes(in.readableBytes());
+            throw new TooLongFrameException("Syslog message exceeds " + maxFrameLength + " bytes without trailer");
+        }
+        return null;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.receiver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.AuditMessage;
+
+import javax.xml.stream.XMLStreamException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses a single framed syslog message (RFC 5424, or RFC 3164 as sent by the BSD syslog
+ * sender) and its audit payload. Header fields are read directly from the buffer; the
+ * payload is streamed into the {@link AuditMessageReader} without copying.
+ *
+ * @since 3.7
+ */
+final class SyslogMessageParser {
+
+    private static final int BSD_TIMESTAMP_LENGTH = 15;
+
+    private SyslogMessageParser() {
+    }
+
+    /**
+     * @param buffer        syslog message without transport framing
+     * @param remoteAddress address of the sender
+     * @return parsed message
+     * @throws IllegalArgumentException if the syslog header is malformed or the payload format is not supported
+     * @throws XMLStreamException       if the payload is not a valid audit message
+     */
+    static ReceivedAuditMessage parse(ByteBuf buffer, InetSocketAddress remoteAddress) throws XMLStreamException {
+        int pos = buffer.readerIndex();
+        int end = buffer.writerIndex();
+        if (end - pos < 3 || buffer.getByte(pos++) != '<') {
+            throw new IllegalArgumentException("Missing PRI");
+        }
+        int priority = 0;
+        int digits = 0;
+        byte b;
+        while (pos < end && (b = buffer.getByte(pos)) >= '0' && b <= '9' && digits < 3) {
+            priority = priority * 10 + (b - '0');
+            digits++;
+            pos++;
+        }
+        if (digits == 0 || pos == end || buffer.getByte(pos++) != '>' || priority > 191) {
+            throw new IllegalArgumentException("Malformed PRI");
+        }
+
+        if (end - pos > 2 && buffer.getByte(pos) == '1' && buffer.getByte(pos + 1) == ' ') {
+            // RFC 5424: VERSION SP TIMESTAMP SP HOSTNAME SP APP-NAME SP PROCID SP MSGID SP STRUCTURED-DATA
+            pos += 2;
+            String[] fields = new String[5];
+            for (int i = 0; i < fields.length; i++) {
+                int sp = buffer.indexOf(pos, end, (byte) ' ');
+                if (sp < 0) {
+                    throw new IllegalArgumentException("Truncated syslog header");
+                }
+                fields[i] = buffer.toString(pos, sp - pos, StandardCharsets.US_ASCII);
+                pos = sp + 1;
+            }
+            pos = skipStructuredData(buffer, pos, end);
+            if (pos < end && buffer.getByte(pos) == ' ') {
+                pos++;
+            }
+            AuditMessage auditMessage = parsePayload(buffer, pos, end);
+            return new ReceivedAuditMessage(remoteAddress, priority,
+                    nil(fields[0]), nil(fields[1]), nil(fields[2]), nil(fields[3]), nil(fields[4]), auditMessage);
+        }
+
+        // RFC 3164: TIMESTAMP SP HOSTNAME SP MSG
+        if (end - pos < BSD_TIMESTAMP_LENGTH + 2) {
+            throw new IllegalArgumentException("Truncated syslog header");
+        }
+        String timestamp = buffer.toString(pos, BSD_TIMESTAMP_LENGTH, StandardCharsets.US_ASCII);
+        pos += BSD_TIMESTAMP_LENGTH + 1;
+        int sp = buffer.indexOf(pos, end, (byte) ' ');
+        if (sp < 0) {
+            throw new IllegalArgumentException("Truncated syslog header");
+        }
+        String hostName = buffer.toString(pos, sp - pos, StandardCharsets.US_ASCII);
+        AuditMessage auditMessage = parsePayload(buffer, sp + 1, end);
+        return new ReceivedAuditMessage(remoteAddress, priority, timestamp, hostName, null, null, null, auditMessage);
+    }
+
+    private static AuditMessage parsePayload(ByteBuf buffer, int pos, int end) throws XMLStreamException {
+        // UTF-8 byte order mark
+        if (end - pos >= 3 && buffer.getByte(pos) == (byte) 0xEF && buffer.getByte(pos + 1) == (byte) 0xBB
+                && buffer.getByte(pos + 2) == (byte) 0xBF) {
+            pos += 3;
+        }
+        while (pos < end && Character.isWhitespace(buffer.getByte(pos))) {
+            pos++;
+        }
+        if (pos == end) {
+            throw new IllegalArgumentException("Empty syslog message");
+        }
+        if (buffer.getByte(pos) != '<') {
+            throw new IllegalArgumentException("Unsupported payload format, expected an XML AuditMessage");
+        }
+        return AuditMessageReader.INSTANCE.read(new ByteBufInputStream(buffer.slice(pos, end - pos)));
+    }
+
+    /**
+     * @return index of the byte following the STRUCTURED-DATA field
+     */
+    private static int skipStructuredData(ByteBuf buffer, int pos, int end) {
+        if (pos < end && buffer.getByte(pos) == '-') {
+            return pos + 1;
+        }
+        while (pos < end && buffer.getByte(pos) == '[') {
+            boolean quoted = false;
+            pos++;
+            while (true) {
+                if (pos >= end) {
+                    throw new IllegalArgumentException("Unterminated STRUCTURED-DATA");
+                }
+                byte b = buffer.getByte(pos++);
+                if (quoted && b == '\\') {
+                    pos++;
+                } else if (b == '"') {
+                    quoted = !quoted;
+                } else if (!quoted && b == ']') {
+                    break;
+                }
+            }
+        }
+        return pos;
+    }
+
+    private static String nil(String field) {
+        return "-".equals(field) ? null : field;
+    }
+}
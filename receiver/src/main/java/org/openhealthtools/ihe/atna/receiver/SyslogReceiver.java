@@ -0,0 +1,250 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.receiver;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.ssl.SslHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.net.InetSocketAddress;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking syslog listener for audit messages, i.e. the receiving side of an Audit
+ * Record Repository. Messages are accepted via TLS (RFC 5425), plain TCP (RFC 6587) or
+ * UDP (RFC 5426), parsed into {@link org.openhealthtools.ihe.atna.auditor.models.rfc3881.AuditMessage}
+ * instances and passed to an {@link AuditMessageSink}.
+ * <p>
+ * All connections are served by a small, fixed number of event loop threads; a sink that
+ * cannot keep up throttles the senders as described in {@link AuditMessageSink}.
+ *
+ * <pre>
+ *     SyslogReceiver receiver = new SyslogReceiver(message -> { store(message); return null; });
+ *     receiver.setTransport(SyslogReceiver.Transport.TLS);
+ *     receiver.setSslContext(sslContext);
+ *     receiver.setPort(6514);
+ *     receiver.start();
+ * </pre>
+ *
+ * @since 3.7
+ */
+public class SyslogReceiver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogReceiver.class);
+
+    private static final long SHUTDOWN_QUIET_PERIOD = 100L;
+    private static final long SHUTDOWN_TIMEOUT = 5000L;
+
+    /**
+     * Supported transports
+     */
+    public enum Transport {
+        /** Octet-counted or non-transparent framing over plain TCP */
+        TCP,
+        /** Octet-counted framing over TLS */
+        TLS,
+        /** One message per datagram */
+        UDP
+    }
+
+    private final AuditMessageSink sink;
+
+    private String host = "0.0.0.0";
+    private int port = 6514;
+    private Transport transport = Transport.TLS;
+    private SSLContext sslContext;
+    private boolean needClientAuth = true;
+    private int maxFrameLength = 65536;
+    private int workerThreads;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel channel;
+
+    /**
+     * @param sink destination of the received messages
+     */
+    public SyslogReceiver(AuditMessageSink sink) {
+        this.sink = Objects.requireNonNull(sink, "sink must not be null");
+    }
+
+    /**
+     * Binds the listener. Returns once the socket is bound.
+     *
+     * @throws InterruptedException if interrupted while binding
+     */
+    public synchronized void start() throws InterruptedException {
+        if (channel != null) {
+            throw new IllegalStateException("Receiver is already started");
+        }
+        if (transport == Transport.TLS && sslContext == null) {
+            throw new IllegalStateException("TLS transport requires an SSLContext");
+        }
+        workerGroup = new NioEventLoopGroup(workerThreads);
+        try {
+            if (transport == Transport.UDP) {
+                channel = new Bootstrap()
+                        .group(workerGroup)
+                        .channel(NioDatagramChannel.class)
+                        .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(maxFrameLength))
+                        .handler(new AuditMessageDispatcher(sink))
+                        .bind(host, port).sync().channel();
+            } else {
+                bossGroup = new NioEventLoopGroup(1);
+                channel = new ServerBootstrap()
+                        .group(bossGroup, workerGroup)
+                        .channel(NioServerSocketChannel.class)
+                        .childOption(ChannelOption.TCP_NODELAY, true)
+                        .childHandler(new ChannelInitializer<SocketChannel>() {
+                            @Override
+                            protected void initChannel(SocketChannel ch) {
+                                ChannelPipeline pipeline = ch.pipeline();
+                                if (transport == Transport.TLS) {
+                                    SSLEngine engine = sslContext.createSSLEngine();
+                                    engine.setUseClientMode(false);
+                                    engine.setNeedClientAuth(needClientAuth);
+                                    pipeline.addLast(new SslHandler(engine));
+                                }
+                                pipeline.addLast(new SyslogFrameDecoder(maxFrameLength));
+                                pipeline.addLast(new AuditMessageDispatcher(sink));
+                            }
+                        })
+                        .bind(host, port).sync().channel();
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            shutdownGroups();
+            throw e;
+        }
+        LOG.info("Syslog receiver listening on {} via {}", channel.localAddress(), transport);
+    }
+
+    /**
+     * Closes the listener and all open connections
+     */
+    public synchronized void stop() {
+        if (channel != null) {
+            channel.close().syncUninterruptibly();
+            channel = null;
+        }
+        shutdownGroups();
+    }
+
+    /**
+     * @return true if the receiver has been started and not stopped yet
+     */
+    public synchronized boolean isRunning() {
+        return channel != null;
+    }
+
+    private void shutdownGroups() {
+        if (bossGroup != null) {
+            bossGroup.shutdownGracefully(SHUTDOWN_QUIET_PERIOD, SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS).syncUninterruptibly();
+            bossGroup = null;
+        }
+        if (workerGroup != null) {
+            workerGroup.shutdownGracefully(SHUTDOWN_QUIET_PERIOD, SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS).syncUninterruptibly();
+            workerGroup = null;
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    /**
+     * @return the bound port while running (useful when port 0 was configured), the configured port otherwise
+     */
+    public synchronized int getPort() {
+        return channel != null ? ((InetSocketAddress) channel.localAddress()).getPort() : port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * @param sslContext context providing key and trust material for the TLS transport
+     */
+    public void setSslContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    public boolean isNeedClientAuth() {
+        return needClientAuth;
+    }
+
+    /**
+     * @param needClientAuth whether TLS clients must authenticate (mutual node authentication), true by default
+     */
+    public void setNeedClientAuth(boolean needClientAuth) {
+        this.needClientAuth = needClientAuth;
+    }
+
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    /**
+     * @param maxFrameLength maximum size of a single syslog message in bytes, 64 KiB by default
+     */
+    public void setMaxFrameLength(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * @param workerThreads number of I/O threads, 0 (default) for twice the number of processors
+     */
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+}
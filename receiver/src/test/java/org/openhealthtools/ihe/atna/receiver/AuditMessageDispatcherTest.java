@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.atna.receiver;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class AuditMessageDispatcherTest {
+
+    private final InetSocketAddress sender = new InetSocketAddress("127.0.0.1", 40000);
+    private final InetSocketAddress recipient = new InetSocketAddress("127.0.0.1", 514);
+    private final List<ReceivedAuditMessage> accepted = new CopyOnWriteArrayList<>();
+    private final List<CompletableFuture<Void>> stages = new CopyOnWriteArrayList<>();
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setup() {
+        channel = new EmbeddedChannel(new AuditMessageDispatcher(message -> {
+            accepted.add(message);
+            CompletableFuture<Void> stage = new CompletableFuture<>();
+            stages.add(stage);
+            return stage;
+        }));
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void readingResumesAfterTheLastPendingStage() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            channel.writeInbound(datagram("patient-" + i));
+        }
+        // messages read before back-pressure took effect are held back
+        assertEquals(1, accepted.size());
+        assertFalse(channel.config().isAutoRead());
+
+        for (int i = 0; i < 2; i++) {
+            stages.get(i).complete(null);
+            channel.runPendingTasks();
+            assertEquals(i + 2, accepted.size());
+            assertFalse(channel.config().isAutoRead());
+        }
+
+        stages.get(2).complete(null);
+        channel.runPendingTasks();
+        assertEquals(3, accepted.size());
+        assertTrue(channel.config().isAutoRead());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("patient-" + i, accepted.get(i).getAuditMessage()
+                    .getParticipantObjectIdentification().get(0).getParticipantObjectID());
+        }
+    }
+
+    @Test
+    public void completedStagesDoNotSuspendReading() throws Exception {
+        channel.writeInbound(datagram("patient-0"));
+        stages.get(0).complete(null);
+        channel.runPendingTasks();
+        assertTrue(channel.config().isAutoRead());
+        channel.writeInbound(datagram("patient-1"));
+        assertEquals(2, accepted.size());
+    }
+
+    private DatagramPacket datagram(String patientId) throws Exception {
+        return new DatagramPacket(Unpooled.wrappedBuffer(SyslogReceiverTest.syslogMessage(patientId)), recipient, sender);
+    }
+}
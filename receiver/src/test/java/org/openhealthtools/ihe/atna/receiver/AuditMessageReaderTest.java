@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.receiver;
+
+import io.netty.buffer.Unpooled;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhealthtools.ihe.atna.auditor.codes.ihe.IHETransactionEventTypeCodes;
+import org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881AuditSourceTypes;
+import org.openhealthtools.ihe.atna.auditor.events.ihe.QueryEvent;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.ActiveParticipantType;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.AuditMessage;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.AuditSourceIdentificationType;
+import org.openhealthtools.ihe.atna.auditor.models.rfc3881.ParticipantObjectIdentificationType;
+import org.openhealthtools.ihe.atna.auditor.serializer.FhirAuditEventJsonSerializer;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881EventCodes.RFC3881EventOutcomeCodes.SUCCESS;
+
+/**
+ *
+ */
+public class AuditMessageReaderTest {
+
+    private static final InetSocketAddress REMOTE = new InetSocketAddress("127.0.0.1", 4711);
+
+    private QueryEvent event;
+
+    @Before
+    public void setup() {
+        event = new QueryEvent(true, SUCCESS, new IHETransactionEventTypeCodes.RegistryStoredQuery(), Collections.emptyList());
+        event.addSourceActiveParticipant("http://consumer", "1234", null, "consumer.example.org", true);
+        event.addDestinationActiveParticipant("http://registry", null, null, "registry.example.org", false);
+        event.addPatientParticipantObject("4711^^^&1.2.3&ISO");
+        event.addQueryParticipantObject("urn:uuid:14d4debf-8f97-4251-9a74-a90016b0af0d", "urn:oid:1.2.3.4",
+                "<AdhocQueryRequest/>".getBytes(StandardCharsets.UTF_8), null,
+                new IHETransactionEventTypeCodes.RegistryStoredQuery());
+        AuditSourceIdentificationType source = new AuditSourceIdentificationType();
+        source.setAuditSourceID("consumer");
+        source.setAuditEnterpriseSiteID("site & co");
+        source.getAuditSourceType().add(new RFC3881AuditSourceTypes.ApplicationServerProcess());
+        event.getAuditMessage().getAuditSourceIdentification().add(source);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        AuditMessage original = event.getAuditMessage();
+        AuditMessage parsed = AuditMessageReader.INSTANCE.read(new ByteArrayInputStream(event.getSerializedMessage(false)));
+        assertMessage(original, parsed);
+        // the parsed model serializes to the same document
+        assertEquals(original.toString(), parsed.toString());
+    }
+
+    @Test
+    public void rfc5424() throws Exception {
+        String header = "<85>1 2017-10-19T12:00:00.000+02:00 consumer.example.org IPF 1234 IHE+RFC-3881 " +
+                "[origin ip=\"10.0.0.1\" x=\"a\\]b\"][meta sequenceId=\"1\"] \uFEFF";
+        ReceivedAuditMessage message = SyslogMessageParser.parse(Unpooled.wrappedBuffer(
+                header.getBytes(StandardCharsets.UTF_8), event.getSerializedMessage(false)), REMOTE);
+        assertEquals(85, message.getPriority());
+        assertEquals("2017-10-19T12:00:00.000+02:00", message.getTimestamp());
+        assertEquals("consumer.example.org", message.getHostName());
+        assertEquals("IPF", message.getAppName());
+        assertEquals("1234", message.getProcId());
+        assertEquals("IHE+RFC-3881", message.getMsgId());
+        assertSame(REMOTE, message.getRemoteAddress());
+        assertMessage(event.getAuditMessage(), message.getAuditMessage());
+    }
+
+    @Test
+    public void bsd() throws Exception {
+        String message = "<85>Oct 19 12:00:00 consumer.example.org <?xml version=\"1.0\" encoding=\"ASCII\"?>" +
+                new String(event.getSerializedMessage(false), StandardCharsets.UTF_8);
+        ReceivedAuditMessage parsed = SyslogMessageParser.parse(
+                Unpooled.copiedBuffer(message, StandardCharsets.US_ASCII), REMOTE);
+        assertEquals("Oct 19 12:00:00", parsed.getTimestamp());
+        assertEquals("consumer.example.org", parsed.getHostName());
+        assertNull(parsed.getAppName());
+        assertMessage(event.getAuditMessage(), parsed.getAuditMessage());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void jsonNotSupported() throws Exception {
+        byte[] json = event.getSerializedMessage(FhirAuditEventJsonSerializer.INSTANCE, false);
+        SyslogMessageParser.parse(Unpooled.wrappedBuffer(
+                "<85>1 - - - - - - \uFEFF".getBytes(StandardCharsets.UTF_8), json), REMOTE);
+    }
+
+    @Test(expected = XMLStreamException.class)
+    public void notAnAuditMessage() throws Exception {
+        AuditMessageReader.INSTANCE.read(new ByteArrayInputStream("<Foo/>".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void assertMessage(AuditMessage expected, AuditMessage actual) {
+        assertEquals(expected.getEventIdentification().getEventID().getCode(),
+                actual.getEventIdentification().getEventID().getCode());
+        assertEquals(expected.getEventIdentification().getEventTypeCode().get(0).getCode(),
+                actual.getEventIdentification().getEventTypeCode().get(0).getCode());
+        assertEquals(expected.getEventIdentification().getEventDateTime(),
+                actual.getEventIdentification().getEventDateTime());
+        assertEquals(expected.getActiveParticipant().size(), actual.getActiveParticipant().size());
+        for (int i = 0; i < expected.getActiveParticipant().size(); i++) {
+            ActiveParticipantType e = expected.getActiveParticipant().get(i);
+            ActiveParticipantType a = actual.getActiveParticipant().get(i);
+            assertEquals(e.getUserID(), a.getUserID());
+            assertEquals(e.getAlternativeUserID(), a.getAlternativeUserID());
+            assertEquals(e.getNetworkAccessPointID(), a.getNetworkAccessPointID());
+            assertEquals(e.getRoleIDCode().get(0).getCode(), a.getRoleIDCode().get(0).getCode());
+        }
+        assertEquals("site & co", actual.getAuditSourceIdentification().get(0).getAuditEnterpriseSiteID());
+        assertEquals("4", actual.getAuditSourceIdentification().get(0).getAuditSourceType().get(0).getCode());
+        assertEquals(2, actual.getParticipantObjectIdentification().size());
+        ParticipantObjectIdentificationType query = actual.getParticipantObjectIdentification().get(1);
+        assertEquals("<AdhocQueryRequest/>", new String(query.getParticipantObjectQuery(), StandardCharsets.UTF_8));
+        // detail values are kept base64 encoded in the model
+        assertArrayEquals(expected.getParticipantObjectIdentification().get(1).getParticipantObjectDetail().get(1).getValue(),
+                query.getParticipantObjectDetail().get(1).getValue());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.receiver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.TooLongFrameException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class SyslogFrameDecoderTest {
+
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setup() {
+        channel = new EmbeddedChannel(new SyslogFrameDecoder(100));
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void octetCountedAcrossReads() {
+        assertFalse(channel.writeInbound(buffer("1")));
+        assertFalse(channel.writeInbound(buffer("1 <85>1 hel")));
+        assertTrue(channel.writeInbound(buffer("lo5 <85>18 <85>1 x")));
+        assertFrame("<85>1 hello");
+        assertFrame("<85>1");
+        assertNull(channel.readInbound());
+        assertTrue(channel.writeInbound(buffer("y")));
+        assertFrame("<85>1 xy");
+    }
+
+    @Test
+    public void nonTransparent() {
+        assertTrue(channel.writeInbound(buffer("<85>1 a\n<85>1 b\r\n<85>1 c\u0000<85>1 d")));
+        assertFrame("<85>1 a");
+        assertFrame("<85>1 b");
+        assertFrame("<85>1 c");
+        assertNull(channel.readInbound());
+        assertTrue(channel.writeInbound(buffer("\n7 <85>1 e")));
+        assertFrame("<85>1 d");
+        assertFrame("<85>1 e");
+    }
+
+    @Test
+    public void tooLong() {
+        try {
+            channel.writeInbound(buffer("101 <85>1"));
+            fail();
+        } catch (TooLongFrameException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void garbage() {
+        try {
+            channel.writeInbound(buffer("GET / HTTP/1.1\r\n"));
+            fail();
+        } catch (DecoderException e) {
+            // expected
+        }
+    }
+
+    private void assertFrame(String expected) {
+        ByteBuf frame = channel.readInbound();
+        assertNotNull(frame);
+        try {
+            assertEquals(expected, frame.toString(StandardCharsets.US_ASCII));
+        } finally {
+            frame.release();
+        }
+    }
+
+    private static ByteBuf buffer(String s) {
+        return Unpooled.copiedBuffer(s, StandardCharsets.US_ASCII);
+    }
+}
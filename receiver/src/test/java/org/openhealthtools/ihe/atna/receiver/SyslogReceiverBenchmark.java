@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.receiver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures how many audit messages per second a {@link SyslogReceiver} parses over loopback
+ * TCP. Not run as part of the build.
+ * <p>
+ * Arguments (all optional, as key=value): <code>messages</code> per connection (default 100000),
+ * <code>connections</code> (default 4), <code>workers</code> receiver I/O threads (default 1).
+ */
+public class SyslogReceiverBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogReceiverBenchmark.class);
+
+    public static void main(String[] args) throws Exception {
+        int messages = 100000;
+        int connections = 4;
+        int workers = 1;
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            switch (kv[0]) {
+                case "messages":
+                    messages = Integer.parseInt(kv[1]);
+                    break;
+                case "connections":
+                    connections = Integer.parseInt(kv[1]);
+                    break;
+                case "workers":
+                    workers = Integer.parseInt(kv[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+        }
+
+        byte[] frame = SyslogReceiverTest.frame(SyslogReceiverTest.syslogMessage("4711^^^&1.2.3&ISO"));
+        AtomicLong received = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        long total = (long) messages * connections;
+        SyslogReceiver receiver = new SyslogReceiver(new AuditMessageSink() {
+            @Override
+            public CompletionStage<?> accept(ReceivedAuditMessage message) {
+                if (received.incrementAndGet() + rejected.get() == total) {
+                    done.countDown();
+                }
+                return null;
+            }
+
+            @Override
+            public void reject(InetSocketAddress remoteAddress, String reason, Throwable cause) {
+                rejected.incrementAndGet();
+            }
+        });
+        receiver.setTransport(SyslogReceiver.Transport.TCP);
+        receiver.setHost("127.0.0.1");
+        receiver.setPort(0);
+        receiver.setWorkerThreads(workers);
+        receiver.start();
+        try {
+            int perConnection = messages;
+            List<Thread> senders = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int c = 0; c < connections; c++) {
+                Thread sender = new Thread(() -> {
+                    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), receiver.getPort())) {
+                        OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 65536);
+                        for (int i = 0; i < perConnection; i++) {
+                            out.write(frame);
+                        }
+                        out.flush();
+                        done.await();
+                    } catch (Exception e) {
+                        LOG.error("Sending to the receiver failed", e);
+                        failure.compareAndSet(null, e);
+                        done.countDown();
+                    }
+                });
+                sender.start();
+                senders.add(sender);
+            }
+            boolean completed = done.await(5, TimeUnit.MINUTES);
+            long nanos = System.nanoTime() - start;
+            if (failure.get() != null) {
+                throw new IllegalStateException("Sending to the receiver failed", failure.get());
+            }
+            if (!completed) {
+                throw new IllegalStateException("Timed out after receiving " + received.get() + " and rejecting "
+                        + rejected.get() + " of " + total + " messages");
+            }
+            for (Thread sender : senders) {
+                sender.join();
+            }
+            System.out.printf("%d messages of %d bytes on %d connections, %d worker thread(s): %.0f msg/s, %d rejected%n",
+                    received.get(), frame.length, connections, workers,
+                    received.get() * 1e9 / nanos, rejected.get());
+        } finally {
+            receiver.stop();
+        }
+    }
+}
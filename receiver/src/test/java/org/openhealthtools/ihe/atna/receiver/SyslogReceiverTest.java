@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.receiver;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openhealthtools.ihe.atna.auditor.codes.ihe.IHETransactionEventTypeCodes;
+import org.openhealthtools.ihe.atna.auditor.events.ihe.QueryEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.openhealthtools.ihe.atna.auditor.codes.rfc3881.RFC3881EventCodes.RFC3881EventOutcomeCodes.SUCCESS;
+
+/**
+ *
+ */
+public class SyslogReceiverTest {
+
+    private SyslogReceiver receiver;
+
+    @After
+    public void tearDown() {
+        if (receiver != null) {
+            receiver.stop();
+        }
+    }
+
+    @Test
+    public void tcp() throws Exception {
+        int count = 200;
+        CountDownLatch latch = new CountDownLatch(count);
+        List<ReceivedAuditMessage> messages = new CopyOnWriteArrayList<>();
+        start(SyslogReceiver.Transport.TCP, message -> {
+            messages.add(message);
+            latch.countDown();
+            return null;
+        });
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i++) {
+            frames.write(frame(syslogMessage("patient-" + i)));
+        }
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), receiver.getPort())) {
+            // dribble the stream in odd chunks so that frames span reads
+            OutputStream out = socket.getOutputStream();
+            byte[] bytes = frames.toByteArray();
+            for (int pos = 0; pos < bytes.length; pos += 1013) {
+                out.write(bytes, pos, Math.min(1013, bytes.length - pos));
+                out.flush();
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        }
+        for (int i = 0; i < count; i++) {
+            assertEquals("patient-" + i, messages.get(i).getAuditMessage()
+                    .getParticipantObjectIdentification().get(0).getParticipantObjectID());
+        }
+    }
+
+    @Test
+    public void udp() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        List<ReceivedAuditMessage> messages = new CopyOnWriteArrayList<>();
+        start(SyslogReceiver.Transport.UDP, message -> {
+            messages.add(message);
+            latch.countDown();
+            return null;
+        });
+        try (DatagramSocket socket = new DatagramSocket()) {
+            byte[] message = syslogMessage("patient");
+            socket.send(new DatagramPacket(message, message.length, InetAddress.getLoopbackAddress(), receiver.getPort()));
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        }
+        assertEquals("consumer.example.org", messages.get(0).getHostName());
+    }
+
+    @Test
+    public void backPressure() throws Exception {
+        CompletableFuture<Void> ready = new CompletableFuture<>();
+        List<ReceivedAuditMessage> messages = new CopyOnWriteArrayList<>();
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch second = new CountDownLatch(2);
+        start(SyslogReceiver.Transport.TCP, message -> {
+            messages.add(message);
+            first.countDown();
+            second.countDown();
+            return ready;
+        });
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), receiver.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(frame(syslogMessage("first")));
+            out.flush();
+            assertTrue(first.await(10, TimeUnit.SECONDS));
+            out.write(frame(syslogMessage("second")));
+            out.flush();
+            assertFalse(second.await(500, TimeUnit.MILLISECONDS));
+            assertEquals(1, messages.size());
+            ready.complete(null);
+            assertTrue(second.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void reject() throws Exception {
+        CompletableFuture<String> rejected = new CompletableFuture<>();
+        CompletableFuture<ReceivedAuditMessage> accepted = new CompletableFuture<>();
+        receiver = new SyslogReceiver(new AuditMessageSink() {
+            @Override
+            public CompletableFuture<?> accept(ReceivedAuditMessage message) {
+                accepted.complete(message);
+                return null;
+            }
+
+            @Override
+            public void reject(InetSocketAddress remoteAddress, String reason, Throwable cause) {
+                rejected.complete(reason);
+            }
+        });
+        receiver.setTransport(SyslogReceiver.Transport.TCP);
+        receiver.setHost("127.0.0.1");
+        receiver.setPort(0);
+        receiver.start();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), receiver.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(frame("<85>1 - - - - - - <Foo/>".getBytes(StandardCharsets.US_ASCII)));
+            out.flush();
+            assertNotNull(rejected.get(10, TimeUnit.SECONDS));
+            // framing is intact after a parse error, so the connection stays usable
+            out.write(frame(syslogMessage("patient")));
+            out.flush();
+            assertNotNull(accepted.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private void start(SyslogReceiver.Transport transport, AuditMessageSink sink) throws InterruptedException {
+        receiver = new SyslogReceiver(sink);
+        receiver.setTransport(transport);
+        receiver.setHost("127.0.0.1");
+        receiver.setPort(0);
+        receiver.setWorkerThreads(1);
+        receiver.start();
+    }
+
+    static byte[] syslogMessage(String patientId) throws IOException {
+        QueryEvent event = new QueryEvent(true, SUCCESS, new IHETransactionEventTypeCodes.RegistryStoredQuery(),
+                Collections.emptyList());
+        event.addSourceActiveParticipant("http://consumer", "1234", null, "consumer.example.org", true);
+        event.addDestinationActiveParticipant("http://registry", null, null, "registry.example.org", false);
+        event.addPatientParticipantObject(patientId);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(("<85>1 2017-10-19T12:00:00.000+02:00 consumer.example.org IPF 1234 IHE+RFC-3881 - \uFEFF")
+                .getBytes(StandardCharsets.UTF_8));
+        out.write(event.getSerializedMessage(false));
+        return out.toByteArray();
+    }
+
+    static byte[] frame(byte[] message) {
+        byte[] length = (message.length + " ").getBytes(StandardCharsets.US_ASCII);
+        byte[] frame = new byte[length.length + message.length];
+        System.arraycopy(length, 0, frame, 0, length.length);
+        System.arraycopy(message, 0, frame, length.length, message.length);
+        return frame;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.test;
+
+/**
+ * Faults that can be injected by a {@link FaultInjectingSyslogServer}
+ *
+ * @since 3.7
+ */
+public enum Fault {
+
+    /**
+     * Every received buffer is held back for <code>parameter</code> milliseconds before it
+     * is passed on, reading from the connection is suspended meanwhile
+     */
+    LATENCY,
+
+    /**
+     * Reading from all connections is suspended, so that the TCP windows fill up and
+     * writers block. Connections are neither closed nor read from (half-open ARR).
+     */
+    STALL,
+
+    /**
+     * New and active connections are reset (RST) as soon as they are accepted or deliver data
+     */
+    RESET,
+
+    /**
+     * New connections are answered with a fatal TLS handshake_failure alert and closed
+     */
+    HANDSHAKE_FAILURE,
+
+    /**
+     * Data is read at no more than <code>parameter</code> bytes per second per connection
+     */
+    SLOW_READ,
+
+    /**
+     * Only the first half of the next received buffer of each connection is passed on,
+     * then the connection is closed, leaving a truncated frame at the repository
+     */
+    PARTIAL_FRAME
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.test;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetClient;
+import io.vertx.core.net.NetClientOptions;
+import io.vertx.core.net.NetServerOptions;
+import io.vertx.core.net.NetSocket;
+import org.openhealthtools.ihe.atna.test.load.LoadTestSyslogServer;
+import org.openhealthtools.ihe.atna.test.load.SyslogSinkStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Simulated Audit Record Repository that misbehaves on a {@link FaultSchedule}. It is a
+ * TCP relay in front of a {@link LoadTestSyslogServer}: senders connect to the relay,
+ * which passes the raw bytes on to the sink unless a {@link Fault} is active. As the
+ * relay does not look into the byte stream, the sink decides whether the connection
+ * uses TLS, and faults are injected below the TLS layer just like network or
+ * repository problems would be.
+ * <p>
+ * All connections are closed with SO_LINGER 0, i.e. the sender sees a TCP reset rather
+ * than an orderly shutdown.
+ *
+ * @since 3.7
+ */
+public class FaultInjectingSyslogServer extends AbstractVerticle {
+
+    private static final Logger log = LoggerFactory.getLogger(FaultInjectingSyslogServer.class);
+
+    // TLS record: alert, TLS 1.2, length 2, fatal, handshake_failure
+    private static final byte[] HANDSHAKE_FAILURE_ALERT = {0x15, 0x03, 0x03, 0x00, 0x02, 0x02, 0x28};
+
+    private final String host;
+    private final int port;
+    private final LoadTestSyslogServer sink;
+    private final FaultSchedule schedule;
+    private final Map<Fault, LongAdder> injected = new EnumMap<>(Fault.class);
+    private final LongAdder connections = new LongAdder();
+
+    private volatile long startMillis;
+    private NetClient client;
+
+    /**
+     * @param host     host to listen on
+     * @param port     port to listen on
+     * @param sink     repository behind the relay, listening on another port of the same host
+     * @param schedule faults to inject
+     */
+    public FaultInjectingSyslogServer(String host, int port, LoadTestSyslogServer sink, FaultSchedule schedule) {
+        this.host = host;
+        this.port = port;
+        this.sink = sink;
+        this.schedule = schedule;
+        for (Fault fault : Fault.values()) {
+            injected.put(fault, new LongAdder());
+        }
+    }
+
+    @Override
+    public void start(Future<Void> startFuture) {
+        startMillis = System.currentTimeMillis();
+        client = vertx.createNetClient(new NetClientOptions().setTcpNoDelay(true));
+        vertx.deployVerticle(sink, deployed -> {
+            if (deployed.failed()) {
+                startFuture.fail(deployed.cause());
+                return;
+            }
+            NetServerOptions options = new NetServerOptions()
+                    .setHost(host)
+                    .setReuseAddress(true)
+                    .setTcpNoDelay(true)
+                    .setSoLinger(0);
+            vertx.createNetServer(options)
+                    .connectHandler(this::onConnect)
+                    .listen(port, result -> {
+                        if (result.succeeded()) {
+                            log.info("Fault injecting ARR listening on port {}, relaying to port {}", port, sink.getPort());
+                            startFuture.complete();
+                        } else {
+                            startFuture.fail(result.cause());
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Activates a fault starting now
+     *
+     * @param fault          fault to inject
+     * @param durationMillis time the fault stays active
+     * @param parameter      fault-specific parameter, see {@link Fault}
+     */
+    public void inject(Fault fault, long durationMillis, long parameter) {
+        schedule.add(fault, elapsedMillis(), durationMillis, parameter);
+    }
+
+    /**
+     * Lets a fault hit the next connections, regardless of when they are accepted
+     *
+     * @param fault       {@link Fault#RESET} or {@link Fault#HANDSHAKE_FAILURE}
+     * @param connections number of connections to hit
+     */
+    public void injectOnConnections(Fault fault, int connections) {
+        schedule.addConnections(fault, connections);
+    }
+
+    /**
+     * @return statistics of the repository behind the relay
+     */
+    public SyslogSinkStatistics getStatistics() {
+        return sink.getStatistics();
+    }
+
+    /**
+     * @param fault fault
+     * @return number of times the fault has hit a connection
+     */
+    public long getInjectedFaults(Fault fault) {
+        return injected.get(fault).sum();
+    }
+
+    /**
+     * @return number of connections accepted by the relay
+     */
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    private long elapsedMillis() {
+        return System.currentTimeMillis() - startMillis;
+    }
+
+    private FaultSchedule.Window active(Fault fault) {
+        FaultSchedule.Window window = schedule.active(fault, elapsedMillis());
+        if (window != null) {
+            injected.get(fault).increment();
+        }
+        return window;
+    }
+
+    private boolean hitsConnection(Fault fault) {
+        if (schedule.takeConnection(fault)) {
+            injected.get(fault).increment();
+            return true;
+        }
+        return active(fault) != null;
+    }
+
+    private void onConnect(NetSocket socket) {
+        connections.increment();
+        if (hitsConnection(Fault.RESET)) {
+            socket.close();
+        } else if (hitsConnection(Fault.HANDSHAKE_FAILURE)) {
+            socket.write(Buffer.buffer(HANDSHAKE_FAILURE_ALERT));
+            socket.close();
+        } else {
+            new Relay(socket).start();
+        }
+    }
+
+    /**
+     * Passes the bytes of one sender connection on to the sink and back. Buffers are processed
+     * strictly in order; while a buffer is held back, reading from the sender is paused.
+     * All methods run on the event loop of the connection.
+     */
+    private final class Relay {
+
+        private final NetSocket downstream;
+        private final Deque<Buffer> pending = new ArrayDeque<>();
+        private NetSocket upstream;
+        private boolean busy = true;
+        private boolean closed;
+
+        Relay(NetSocket downstream) {
+            this.downstream = downstream;
+        }
+
+        void start() {
+            downstream.handler(buffer -> {
+                pending.add(buffer);
+                process();
+            });
+            downstream.closeHandler(v -> close());
+            downstream.exceptionHandler(e -> close());
+            client.connect(sink.getPort(), sink.getHost(), result -> {
+                if (result.failed()) {
+                    log.warn("Could not connect to sink", result.cause());
+                    close();
+                    return;
+                }
+                upstream = result.result();
+                // responses such as TLS handshake records are passed back unaltered
+                upstream.handler(buffer -> {
+                    if (!closed) {
+                        downstream.write(buffer);
+                    }
+                });
+                upstream.closeHandler(v -> close());
+                upstream.exceptionHandler(e -> close());
+                resume();
+            });
+        }
+
+        private void process() {
+            while (!busy && !closed && !pending.isEmpty()) {
+                if (active(Fault.RESET) != null) {
+                    close();
+                    return;
+                }
+                FaultSchedule.Window stall = active(Fault.STALL);
+                if (stall != null) {
+                    hold(Math.max(1L, stall.end - elapsedMillis()), null);
+                    return;
+                }
+                Buffer buffer = pending.poll();
+                if (active(Fault.PARTIAL_FRAME) != null) {
+                    upstream.write(buffer.slice(0, buffer.length() / 2));
+                    close();
+                    return;
+                }
+                long delay = 0L;
+                FaultSchedule.Window latency = active(Fault.LATENCY);
+                if (latency != null) {
+                    delay += latency.parameter;
+                }
+                FaultSchedule.Window slowRead = active(Fault.SLOW_READ);
+                if (slowRead != null && slowRead.parameter > 0) {
+                    delay += buffer.length() * 1000L / slowRead.parameter;
+                }
+                if (delay > 0L) {
+                    hold(delay, buffer);
+                    return;
+                }
+                forward(buffer);
+            }
+        }
+
+        private void hold(long delayMillis, Buffer buffer) {
+            busy = true;
+            downstream.pause();
+            vertx.setTimer(delayMillis, id -> {
+                if (buffer != null) {
+                    forward(buffer);
+                }
+                if (!upstreamFull()) {
+                    resume();
+                }
+            });
+        }
+
+        private void forward(Buffer buffer) {
+            if (!closed) {
+                upstream.write(buffer);
+                if (upstreamFull()) {
+                    busy = true;
+                    downstream.pause();
+                    upstream.drainHandler(v -> resume());
+                }
+            }
+        }
+
+        private boolean upstreamFull() {
+            return !closed && upstream.writeQueueFull();
+        }
+
+        private void resume() {
+            busy = false;
+            if (!closed) {
+                downstream.resume();
+                process();
+            }
+        }
+
+        private void close() {
+            if (!closed) {
+                closed = true;
+                pending.clear();
+                downstream.close();
+                if (upstream != null) {
+                    upstream.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.test;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Time windows in which {@link Fault faults} are active, relative to the start of the
+ * {@link FaultInjectingSyslogServer}. Windows may overlap; further windows can be added
+ * while the server is running.
+ * <p>
+ * Faults hitting connections as they are accepted can alternatively be scheduled for a
+ * number of connections, which does not depend on timing.
+ * </p>
+ * <pre>
+ *     FaultSchedule schedule = new FaultSchedule()
+ *         .add(Fault.LATENCY, 1000, 2000, 50)   // 50ms per buffer from 1s to 3s
+ *         .add(Fault.RESET, 5000, 500)          // reset connections from 5s to 5.5s
+ *         .addConnections(Fault.HANDSHAKE_FAILURE, 2); // fail the next two handshakes
+ * </pre>
+ *
+ * @since 3.7
+ */
+public class FaultSchedule {
+
+    private final List<Window> windows = new CopyOnWriteArrayList<>();
+    private final Map<Fault, AtomicInteger> connections = new EnumMap<>(Fault.class);
+
+    public FaultSchedule() {
+        connections.put(Fault.RESET, new AtomicInteger());
+        connections.put(Fault.HANDSHAKE_FAILURE, new AtomicInteger());
+    }
+
+    /**
+     * Adds a fault without parameter
+     *
+     * @param fault          fault to inject
+     * @param startMillis    start of the window relative to the server start
+     * @param durationMillis length of the window
+     * @return this schedule
+     */
+    public FaultSchedule add(Fault fault, long startMillis, long durationMillis) {
+        return add(fault, startMillis, durationMillis, 0L);
+    }
+
+    /**
+     * Adds a fault
+     *
+     * @param fault          fault to inject
+     * @param startMillis    start of the window relative to the server start
+     * @param durationMillis length of the window
+     * @param parameter      fault-specific parameter, see {@link Fault}
+     * @return this schedule
+     */
+    public FaultSchedule add(Fault fault, long startMillis, long durationMillis, long parameter) {
+        windows.add(new Window(fault, startMillis, startMillis + durationMillis, parameter));
+        return this;
+    }
+
+    /**
+     * Adds a fault hitting the next connections accepted by the server
+     *
+     * @param fault       {@link Fault#RESET} or {@link Fault#HANDSHAKE_FAILURE}
+     * @param connections number of connections to hit, in addition to those still pending
+     * @return this schedule
+     */
+    public FaultSchedule addConnections(Fault fault, int connections) {
+        AtomicInteger remaining = this.connections.get(fault);
+        if (remaining == null) {
+            throw new IllegalArgumentException(fault + " is not applied to accepted connections");
+        }
+        remaining.addAndGet(connections);
+        return this;
+    }
+
+    /**
+     * Consumes one of the connections scheduled for the given fault
+     *
+     * @param fault fault
+     * @return true if the fault hits the connection just accepted
+     */
+    boolean takeConnection(Fault fault) {
+        AtomicInteger remaining = connections.get(fault);
+        if (remaining == null) {
+            return false;
+        }
+        int current;
+        do {
+            current = remaining.get();
+            if (current <= 0) {
+                return false;
+            }
+        } while (!remaining.compareAndSet(current, current - 1));
+        return true;
+    }
+
+    /**
+     * @param fault         fault
+     * @param elapsedMillis time since the server start
+     * @return the active window of the given fault, or null if the fault is not active
+     */
+    Window active(Fault fault, long elapsedMillis) {
+        for (Window window : windows) {
+            if (window.fault == fault && window.start <= elapsedMillis && elapsedMillis < window.end) {
+                return window;
+            }
+        }
+        return null;
+    }
+
+    static final class Window {
+        final Fault fault;
+        final long start;
+        final long end;
+        final long parameter;
+
+        Window(Fault fault, long start, long end, long parameter) {
+            this.fault = fault;
+            this.start = start;
+            this.end = end;
+            this.parameter = parameter;
+        }
+    }
+}
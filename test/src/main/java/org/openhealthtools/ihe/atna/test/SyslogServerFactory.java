@@ -2,6 +2,8 @@ package org.openhealthtools.ihe.atna.test;
 
 import io.vertx.core.Verticle;
 import io.vertx.ext.unit.Async;
+import org.openhealthtools.ihe.atna.test.load.LoadTestSyslogServer;
+import org.openhealthtools.ihe.atna.test.load.SyslogSinkStatistics;
 
 import java.util.concurrent.CountDownLatch;
 
@@ -29,6 +31,19 @@ public final class SyslogServerFactory {
                                    keystorePath, keystorePassword, async);
     }
 
+    public static FaultInjectingSyslogServer createFaultInjectingTCPServer(int port, int sinkPort, FaultSchedule schedule){
+        return new FaultInjectingSyslogServer("localhost", port,
+                LoadTestSyslogServer.tcp("localhost", sinkPort, new SyslogSinkStatistics()), schedule);
+    }
+
+    public static FaultInjectingSyslogServer createFaultInjectingTLSServer(int port, int sinkPort,
+                                                                          String keystorePath, String keystorePassword,
+                                                                          FaultSchedule schedule){
+        return new FaultInjectingSyslogServer("localhost", port,
+                LoadTestSyslogServer.tls("localhost", sinkPort, keystorePath, keystorePassword, null, null,
+                        new SyslogSinkStatistics()), schedule);
+    }
+
     public static void createJMSConsumer(String brokerUrl, String queueName, CountDownLatch latch, boolean daemon){
         Runnable runnable = new JmsAtnaMessageConsumer(latch, brokerUrl, queueName);
         Thread brokerThread = new Thread(runnable);
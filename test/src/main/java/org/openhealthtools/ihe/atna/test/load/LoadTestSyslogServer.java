@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.test.load;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.datagram.DatagramSocketOptions;
+import io.vertx.core.http.ClientAuth;
+import io.vertx.core.net.JksOptions;
+import io.vertx.core.net.NetServerOptions;
+import io.vertx.core.net.NetSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * High-throughput stand-in for an Audit Record Repository. In contrast to the simple
+ * servers used by the integration tests, it parses the RFC 5425 octet-counting framing
+ * across buffer boundaries, validates every syslog message and its audit payload and
+ * collects {@link SyslogSinkStatistics} instead of logging the content.
+ * <p>
+ * The sink can be deployed into a test's Vert.x instance or started standalone:
+ * <pre>
+ *     java ... LoadTestSyslogServer [TCP|TLS|UDP] [port] [keystore] [password]
+ * </pre>
+ * in which case the statistics are printed every ten seconds.
+ *
+ * @since 3.7
+ */
+public class LoadTestSyslogServer extends AbstractVerticle {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadTestSyslogServer.class);
+
+    private final String host;
+    private final int port;
+    private final boolean udp;
+    private final NetServerOptions nsOptions;
+    private final SyslogSinkStatistics statistics;
+
+    private LoadTestSyslogServer(String host, int port, boolean udp, NetServerOptions nsOptions,
+                                 SyslogSinkStatistics statistics) {
+        this.host = host;
+        this.port = port;
+        this.udp = udp;
+        this.nsOptions = nsOptions;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Creates a sink for plain TCP connections
+     */
+    public static LoadTestSyslogServer tcp(String host, int port, SyslogSinkStatistics statistics) {
+        return new LoadTestSyslogServer(host, port, false, baseOptions(host).setSsl(false), statistics);
+    }
+
+    /**
+     * Creates a sink for TLS connections. Client authentication is required if a trust store is given.
+     */
+    public static LoadTestSyslogServer tls(String host, int port,
+                                           String keyStorePath, String keyStorePassword,
+                                           String trustStorePath, String trustStorePassword,
+                                           SyslogSinkStatistics statistics) {
+        NetServerOptions options = baseOptions(host)
+                .setSsl(true)
+                .setKeyStoreOptions(new JksOptions().setPath(keyStorePath).setPassword(keyStorePassword));
+        if (trustStorePath != null) {
+            options.setClientAuth(ClientAuth.REQUIRED)
+                    .setTrustStoreOptions(new JksOptions().setPath(trustStorePath).setPassword(trustStorePassword));
+        }
+        return new LoadTestSyslogServer(host, port, false, options, statistics);
+    }
+
+    /**
+     * Creates a sink for RFC 5426 datagrams, one syslog message per datagram
+     */
+    public static LoadTestSyslogServer udp(String host, int port, SyslogSinkStatistics statistics) {
+        return new LoadTestSyslogServer(host, port, true, null, statistics);
+    }
+
+    private static NetServerOptions baseOptions(String host) {
+        return new NetServerOptions()
+                .setReuseAddress(true)
+                .setTcpNoDelay(true)
+                .setHost(host);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public SyslogSinkStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public void start(Future<Void> startFuture) {
+        vertx.setPeriodic(1000L, id -> statistics.sampleThroughput());
+        if (udp) {
+            DatagramSocketOptions options = new DatagramSocketOptions()
+                    .setIpV6(false)
+                    .setReuseAddress(true)
+                    .setReceiveBufferSize(4 * 1024 * 1024);
+            vertx.createDatagramSocket(options)
+                    .handler(packet -> onMessage(packet.data()))
+                    .listen(port, host, result -> complete(startFuture, result.succeeded(), result.cause()));
+        } else {
+            vertx.createNetServer(nsOptions)
+                    .connectHandler(this::onConnect)
+                    .listen(port, result -> complete(startFuture, result.succeeded(), result.cause()));
+        }
+    }
+
+    private void complete(Future<Void> startFuture, boolean succeeded, Throwable cause) {
+        if (succeeded) {
+            log.info("Load test sink listening on {} port {}", udp ? "UDP" : "TCP", port);
+            startFuture.complete();
+        } else {
+            log.warn("Listen failed on port " + port, cause);
+            startFuture.fail(cause);
+        }
+    }
+
+    private void onConnect(NetSocket socket) {
+        statistics.recordConnection();
+        OctetCountingFrameParser parser = new OctetCountingFrameParser(this::onMessage, reason -> {
+            statistics.recordFramingError(reason);
+            socket.close();
+        });
+        socket.handler(parser);
+        socket.exceptionHandler(e -> log.debug("Connection failed", e));
+        socket.closeHandler(v -> {
+            if (parser.hasPartialFrame()) {
+                statistics.recordFramingError("Connection closed within a frame");
+            }
+        });
+    }
+
+    private void onMessage(Buffer buffer) {
+        long receivedAt = System.currentTimeMillis();
+        try {
+            statistics.recordMessage(SyslogMessage.parse(buffer), buffer.length(), receivedAt);
+        } catch (IllegalArgumentException e) {
+            statistics.recordInvalidMessage(e.getMessage());
+        }
+    }
+
+    public static void main(String[] args) {
+        String transport = args.length > 0 ? args[0].toUpperCase() : "TCP";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 6514;
+        SyslogSinkStatistics statistics = new SyslogSinkStatistics();
+        LoadTestSyslogServer server;
+        switch (transport) {
+            case "UDP":
+                server = udp("0.0.0.0", port, statistics);
+                break;
+            case "TLS":
+                server = tls("0.0.0.0", port, args[2], args[3], null, null, statistics);
+                break;
+            default:
+                server = tcp("0.0.0.0", port, statistics);
+        }
+        Vertx vertx = Vertx.vertx();
+        vertx.deployVerticle(server);
+        vertx.setPeriodic(10000L, id -> System.out.println(statistics));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.test.load;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Incremental parser for the octet-counting framing of RFC 5425 (<code>MSG-LEN SP SYSLOG-MSG</code>).
+ * Buffers are fed as they arrive from the socket; frames may span any number of buffers
+ * and a single buffer may carry several frames. Each complete frame is handed to the
+ * frame handler without the length prefix.
+ * <p>
+ * A malformed length prefix (non-digit, leading zero, missing length or more than
+ * {@value #MAX_LENGTH_DIGITS} digits) makes the stream unrecoverable, because the start
+ * of the next frame can no longer be determined. The error handler is called once
+ * and all further input is ignored.
+ * <p>
+ * Instances are not thread-safe; use one per connection.
+ *
+ * @since 3.7
+ */
+public class OctetCountingFrameParser implements Handler<Buffer> {
+
+    static final int MAX_LENGTH_DIGITS = 9;
+
+    private final Handler<Buffer> frameHandler;
+    private final Handler<String> errorHandler;
+
+    private Buffer frame;
+    private int frameLength = -1;
+    private int lengthDigits;
+    private int pendingLength;
+    private boolean failed;
+
+    public OctetCountingFrameParser(Handler<Buffer> frameHandler, Handler<String> errorHandler) {
+        this.frameHandler = frameHandler;
+        this.errorHandler = errorHandler;
+    }
+
+    @Override
+    public void handle(Buffer buffer) {
+        int pos = 0;
+        int end = buffer.length();
+        while (pos < end && !failed) {
+            if (frameLength < 0) {
+                pos = readLength(buffer, pos, end);
+            } else {
+                int missing = frameLength - frame.length();
+                int available = Math.min(missing, end - pos);
+                if (frame.length() == 0 && available == frameLength) {
+                    // fast path: the whole frame is contained in this buffer
+                    frame = buffer.slice(pos, pos + available);
+                } else {
+                    frame.appendBuffer(buffer, pos, available);
+                }
+                pos += available;
+                if (frame.length() == frameLength) {
+                    Buffer complete = frame;
+                    frameLength = -1;
+                    frame = null;
+                    frameHandler.handle(complete);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the stream ended in the middle of a frame or length prefix
+     */
+    public boolean hasPartialFrame() {
+        return frameLength >= 0 || lengthDigits > 0;
+    }
+
+    /**
+     * @return true if the stream contained a malformed length prefix
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    private int readLength(Buffer buffer, int pos, int end) {
+        while (pos < end) {
+            byte b = buffer.getByte(pos++);
+            if (b == ' ') {
+                if (lengthDigits == 0 || pendingLength == 0) {
+                    fail("Missing or zero frame length");
+                } else {
+                    frameLength = pendingLength;
+                    frame = Buffer.buffer(Math.min(frameLength, 64 * 1024));
+                    pendingLength = 0;
+                    lengthDigits = 0;
+                }
+                return pos;
+            }
+            if (b < '0' || b > '9' || (lengthDigits == 0 && b == '0') || lengthDigits == MAX_LENGTH_DIGITS) {
+                fail("Malformed frame length prefix at byte value " + (b & 0xff));
+                return pos;
+            }
+            pendingLength = pendingLength * 10 + (b - '0');
+            lengthDigits++;
+        }
+        return pos;
+    }
+
+    private void fail(String reason) {
+        failed = true;
+        errorHandler.handle(reason);
+    }
+}
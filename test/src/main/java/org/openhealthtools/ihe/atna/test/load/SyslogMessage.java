@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.test.load;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+
+/**
+ * RFC 5424 syslog message as sent by the ATNA auditor, split into the header fields
+ * relevant for load testing and the audit payload. {@link #parse(Buffer)} also validates
+ * that the payload is a complete audit message in one of the supported formats
+ * (DICOM/RFC 3881 XML or FHIR AuditEvent JSON).
+ *
+ * @since 3.7
+ */
+public final class SyslogMessage {
+
+    private static final byte[] BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    // Accepts both "+02:00" and "+0200" offsets as well as "Z"
+    private static final DateTimeFormatter TIMESTAMP = new DateTimeFormatterBuilder()
+            .append(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+            .optionalStart().appendOffset("+HH:MM", "Z").optionalEnd()
+            .optionalStart().appendOffset("+HHMM", "Z").optionalEnd()
+            .toFormatter();
+
+    private final int priority;
+    private final long timestamp;
+    private final String hostName;
+    private final String appName;
+    private final String procId;
+    private final String msgId;
+    private final String payload;
+
+    private SyslogMessage(int priority, long timestamp, String hostName, String appName,
+                          String procId, String msgId, String payload) {
+        this.priority = priority;
+        this.timestamp = timestamp;
+        this.hostName = hostName;
+        this.appName = appName;
+        this.procId = procId;
+        this.msgId = msgId;
+        this.payload = payload;
+    }
+
+    /**
+     * Parses and validates a single syslog message
+     *
+     * @param buffer message without transport framing
+     * @return parsed message
+     * @throws IllegalArgumentException if the message is not a valid syslog message carrying a complete audit message
+     */
+    public static SyslogMessage parse(Buffer buffer) {
+        byte[] bytes = buffer.getBytes();
+        int pos = 0;
+        if (bytes.length < 2 || bytes[pos++] != '<') {
+            throw new IllegalArgumentException("Missing PRI");
+        }
+        int priority = 0;
+        int digits = 0;
+        while (pos < bytes.length && bytes[pos] >= '0' && bytes[pos] <= '9' && digits < 3) {
+            priority = priority * 10 + (bytes[pos++] - '0');
+            digits++;
+        }
+        if (digits == 0 || pos >= bytes.length || bytes[pos++] != '>' || priority > 191) {
+            throw new IllegalArgumentException("Malformed PRI");
+        }
+        String[] fields = new String[6];
+        for (int i = 0; i < fields.length; i++) {
+            int sp = indexOf(bytes, (byte) ' ', pos);
+            if (sp < 0) {
+                throw new IllegalArgumentException("Truncated header");
+            }
+            fields[i] = new String(bytes, pos, sp - pos, StandardCharsets.US_ASCII);
+            pos = sp + 1;
+        }
+        if (!"1".equals(fields[0])) {
+            throw new IllegalArgumentException("Unsupported VERSION " + fields[0]);
+        }
+        long timestamp;
+        try {
+            timestamp = OffsetDateTime.parse(fields[1], TIMESTAMP).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Malformed TIMESTAMP " + fields[1]);
+        }
+        // STRUCTURED-DATA is always the nil value for IHE ATNA
+        if (pos >= bytes.length || bytes[pos++] != '-') {
+            throw new IllegalArgumentException("Unexpected STRUCTURED-DATA");
+        }
+        if (pos < bytes.length && bytes[pos] == ' ') {
+            pos++;
+        }
+        if (startsWith(bytes, pos, BOM)) {
+            pos += BOM.length;
+        }
+        String payload = new String(bytes, pos, bytes.length - pos, StandardCharsets.UTF_8).trim();
+        validatePayload(payload);
+        return new SyslogMessage(priority, timestamp, fields[2], fields[3], fields[4], fields[5], payload);
+    }
+
+    private static void validatePayload(String payload) {
+        if (payload.startsWith("{")) {
+            if (!payload.endsWith("}") || !payload.contains("\"AuditEvent\"")) {
+                throw new IllegalArgumentException("Incomplete FHIR AuditEvent payload");
+            }
+        } else if (payload.startsWith("<")) {
+            if (!payload.contains("<AuditMessage") || !payload.endsWith("</AuditMessage>")) {
+                throw new IllegalArgumentException("Incomplete AuditMessage payload");
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown payload format");
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] bytes, int pos, byte[] prefix) {
+        if (bytes.length - pos < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[pos + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return TIMESTAMP header field in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getHostName() {
+        return hostName;
+    }
+
+    public String getAppName() {
+        return appName;
+    }
+
+    public String getProcId() {
+        return procId;
+    }
+
+    public String getMsgId() {
+        return msgId;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+}
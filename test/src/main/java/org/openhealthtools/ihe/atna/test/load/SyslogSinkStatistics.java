@@ -0,0 +1,187 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.test.load;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms collected by a {@link LoadTestSyslogServer}. All methods may
+ * be called concurrently from event loop threads and from the thread driving the load.
+ *
+ * @since 3.7
+ */
+public class SyslogSinkStatistics {
+
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder invalidMessages = new LongAdder();
+    private final LongAdder framingErrors = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+    private final LogLinearHistogram latency = new LogLinearHistogram();
+    private final LogLinearHistogram throughput = new LogLinearHistogram();
+    private final AtomicLong firstMessageNanos = new AtomicLong();
+    private volatile long lastMessageNanos;
+    private volatile String lastError;
+    private long lastSampledMessages;
+
+    /**
+     * Records a valid message
+     *
+     * @param message    parsed message
+     * @param size       size of the message in bytes without framing
+     * @param receivedAt reception time in milliseconds since the epoch
+     */
+    public void recordMessage(SyslogMessage message, int size, long receivedAt) {
+        long now = System.nanoTime();
+        firstMessageNanos.compareAndSet(0L, now);
+        lastMessageNanos = now;
+        messages.increment();
+        bytes.add(size);
+        latency.record(receivedAt - message.getTimestamp());
+    }
+
+    /**
+     * Records a message that could not be parsed or did not carry a complete audit payload
+     *
+     * @param reason validation error
+     */
+    public void recordInvalidMessage(String reason) {
+        invalidMessages.increment();
+        lastError = reason;
+    }
+
+    /**
+     * Records a connection whose octet-counting framing was broken
+     *
+     * @param reason framing error
+     */
+    public void recordFramingError(String reason) {
+        framingErrors.increment();
+        lastError = reason;
+    }
+
+    public void recordConnection() {
+        connections.increment();
+    }
+
+    /**
+     * Adds the number of messages received since the previous call to the throughput
+     * histogram. Expected to be called once per second; idle seconds are not recorded.
+     */
+    public synchronized void sampleThroughput() {
+        long total = messages.sum();
+        if (total > lastSampledMessages) {
+            throughput.record(total - lastSampledMessages);
+        }
+        lastSampledMessages = total;
+    }
+
+    /**
+     * Waits until at least the given number of valid and invalid messages have been received
+     *
+     * @param expected number of messages
+     * @param timeout  maximum time to wait
+     * @param unit     unit of the timeout
+     * @return true if the messages have arrived in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitMessages(long expected, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (getMessages() + getInvalidMessages() < expected) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getInvalidMessages() {
+        return invalidMessages.sum();
+    }
+
+    public long getFramingErrors() {
+        return framingErrors.sum();
+    }
+
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * @return histogram of the delay between the syslog TIMESTAMP and reception in milliseconds
+     */
+    public LogLinearHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return histogram of messages received per second
+     */
+    public LogLinearHistogram getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * @return average number of messages per second between the first and the last message
+     */
+    public double getMessagesPerSecond() {
+        long first = firstMessageNanos.get();
+        long elapsed = lastMessageNanos - first;
+        long n = messages.sum();
+        return first == 0L || elapsed <= 0L ? n : (n - 1) * 1e9 / elapsed;
+    }
+
+    public synchronized void reset() {
+        messages.reset();
+        bytes.reset();
+        invalidMessages.reset();
+        framingErrors.reset();
+        connections.reset();
+        latency.reset();
+        throughput.reset();
+        firstMessageNanos.set(0L);
+        lastMessageNanos = 0L;
+        lastSampledMessages = 0L;
+        lastError = null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("messages=%d bytes=%d invalid=%d framingErrors=%d connections=%d rate=%.1f/s%n" +
+                        "  latency [ms]    %s%n" +
+                        "  throughput [/s] %s%s",
+                getMessages(), getBytes(), getInvalidMessages(), getFramingErrors(), getConnections(),
+                getMessagesPerSecond(), latency, throughput,
+                lastError != null ? String.format("%n  last error: %s", lastError) : "");
+    }
+}
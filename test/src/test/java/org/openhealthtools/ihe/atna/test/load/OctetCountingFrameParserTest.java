@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openhealthtools.ihe.atna.test.load;
+
+import io.vertx.core.buffer.Buffer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class OctetCountingFrameParserTest {
+
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><AuditMessage><x/></AuditMessage>";
+
+    @Test
+    public void framesAcrossBufferBoundaries() {
+        List<String> frames = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        OctetCountingFrameParser parser = new OctetCountingFrameParser(b -> frames.add(b.toString()), errors::add);
+        byte[] stream = "5 hello11 hello world3 abc".getBytes();
+        // feed byte by byte, then all at once
+        for (byte b : stream) {
+            parser.handle(Buffer.buffer(new byte[]{b}));
+        }
+        parser.handle(Buffer.buffer(stream));
+        assertEquals(6, frames.size());
+        assertEquals("hello world", frames.get(1));
+        assertEquals("abc", frames.get(5));
+        assertFalse(parser.hasPartialFrame());
+        assertTrue(errors.isEmpty());
+
+        parser.handle(Buffer.buffer("12 partial"));
+        assertTrue(parser.hasPartialFrame());
+    }
+
+    @Test
+    public void malformedLengthStopsParsing() {
+        List<String> frames = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        OctetCountingFrameParser parser = new OctetCountingFrameParser(b -> frames.add(b.toString()), errors::add);
+        parser.handle(Buffer.buffer("3 abc<13>1 2017"));
+        parser.handle(Buffer.buffer("3 def"));
+        assertEquals(1, frames.size());
+        assertEquals(1, errors.size());
+        assertTrue(parser.isFailed());
+    }
+
+    @Test
+    public void syslogMessageValidation() {
+        String header = "<85>1 2017-09-01T10:15:30.123+02:00 host IHE_XDS 4711 IHE+RFC-3881 - \uFEFF";
+        SyslogMessage message = SyslogMessage.parse(Buffer.buffer(header + XML, "UTF-8"));
+        assertEquals(85, message.getPriority());
+        assertEquals("IHE+RFC-3881", message.getMsgId());
+        assertEquals(1504253730123L, message.getTimestamp());
+        assertEquals(XML, message.getPayload());
+
+        try {
+            SyslogMessage.parse(Buffer.buffer(header + XML.substring(0, XML.length() - 3), "UTF-8"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // truncated payload
+        }
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        long p50 = histogram.getValueAtPercentile(50);
+        assertTrue(p50 >= 500 && p50 <= 500 * 1.125);
+        for (int i = 0; i < 480; i++) {
+            assertTrue(LogLinearHistogram.upperBoundOf(i) < LogLinearHistogram.upperBoundOf(i + 1));
+            assertEquals(i, LogLinearHistogram.indexOf(LogLinearHistogram.upperBoundOf(i)));
+        }
+    }
+}
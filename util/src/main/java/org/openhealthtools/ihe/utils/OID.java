@@ -13,6 +13,8 @@ package org.openhealthtools.ihe.utils;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -21,7 +23,10 @@ import java.net.UnknownHostException;
  * IHE IT Infrastructure Technical Framework, vol.2 (ITI TF-2): 
  * Transactions Revison 2.0, August 15,2005, pp234-236.
  * 
- * This class generate a pretty unique UID
+ * This class generate a pretty unique UID.
+ * It is thread-safe: the host address is resolved only once, the sequence
+ * number is incremented atomically and each OID is built in a single
+ * pre-sized buffer.
  * 
 * @version $Revision: 1.6 $
 * @author <a href="glenn@almaden.ibm.com">Glenn Deen </a>
@@ -31,12 +36,22 @@ public class OID {
 	/**
 	 * Monotoniclaly increasing sequence number
 	 */
-	static int sequence=0;
+	private static final AtomicInteger sequence = new AtomicInteger();
 	
 	static final String rootPrefix="1.2.820";
 	
 	public static final int OID_MAX_LENGTH_DEFAULT = 256;
 	
+	/**
+	 * Room left for "urn:UUID:" 
+	 */
+	private static final int URN_PREFIX_LENGTH = 9;
+	
+	/**
+	 * Ranges of the "fake" MAC address octets, derived from the host address
+	 */
+	private static final int[] macRanges = macRanges();
+	
 	
 	/**
 	 * Creates an oid of the following format: 
@@ -52,46 +67,20 @@ public class OID {
 	 */
 	public static String createOID(String organization)
 	{
-		sequence++;
-
-		byte[] hostip = new byte[4];
-		try {
-			InetAddress localhost;
-			localhost = InetAddress.getLocalHost();
-			hostip = localhost.getAddress();
-		} catch (UnknownHostException e) {
-			// Use the loopback as a default
-			hostip[0] = 127;
-			hostip[1] = 0;
-			hostip[2] = 0;
-			hostip[3] = 1;
-		}
-		// this MAC is real, it's from Glenn's wireless card!
-		int[] mac={0x00,0x02,0x8A,0x4A,0xFD,0xAC};
-	
-		// to the the "fake" MAC address, munch this real MAC
-		// with the host IP address as follows..
-		for (int i=0; i< mac.length; i++)
-			mac[i] = (int)((hostip[ i % hostip.length] - mac[i]) * Math.random());
-		
-		String macString = "";
-		for (int i=0; i < mac.length; i++)
-			macString = macString +format(mac[i]);
-		
-	
-		// macString is now mac.length*3 bytes or 18bytes long!
-		
-
 		if (organization == null)
 		{
 			organization="99999";
 		}
-		String root = rootPrefix +"." + Integer.parseInt(organization);
-		String suffix = macString + "." + System.currentTimeMillis()+ "." + sequence;
-		int maxSuffix = 64-9; // allow room for "urn:UUID:"
-		if (suffix.length() > maxSuffix) suffix = suffix.substring(0,maxSuffix);
-		String result = root +"."+ suffix;
-		return result.replaceAll("[.]0",".1");
+		int org = Integer.parseInt(organization);
+		
+		StringBuilder sb = new StringBuilder(64);
+		appendRoot(sb, rootPrefix);
+		sb.append('.');
+		appendNumber(sb, org);
+		sb.append('.');
+		int maxSuffix = 64 - URN_PREFIX_LENGTH;
+		appendSuffix(sb, sb.length() + maxSuffix);
+		return sb.toString();
 	}
 	
 	/**
@@ -173,8 +162,96 @@ public class OID {
 			return createOID(rootOid);
 		}
 		
-		sequence++;
-
+		int maxSuffix = maxLength - URN_PREFIX_LENGTH; // allow room for "urn:UUID:"
+		maxSuffix = maxSuffix - rootOid.length() - 1; // adjust for root oid length
+		if (maxSuffix < 0) maxSuffix = 0;
+		
+		StringBuilder sb = new StringBuilder(rootOid.length() + 1 + Math.min(maxSuffix, 48));
+		appendRoot(sb, rootOid);
+		sb.append('.');
+		appendSuffix(sb, sb.length() + maxSuffix);
+		
+		if (sb.charAt(sb.length()-1) == '.') {
+			sb.setLength(sb.length()-1);
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Appends the root OID, replacing components starting with 0 
+	 * (".0") by ".1"
+	 */
+	private static void appendRoot(StringBuilder sb, String root)
+	{
+		for (int i=0; i < root.length(); i++) {
+			char c = root.charAt(i);
+			if (c == '0' && sb.length() > 0 && sb.charAt(sb.length()-1) == '.') {
+				c = '1';
+			}
+			sb.append(c);
+		}
+	}
+	
+	/**
+	 * Appends the suffix macString.time.sequence, truncated to the given
+	 * total length. The macString consists of 6 three-digit numbers 
+	 * derived from the host address.
+	 */
+	private static void appendSuffix(StringBuilder sb, int limit)
+	{
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i=0; i < macRanges.length; i++) {
+			appendThreeDigits(sb, (int)(macRanges[i] * random.nextDouble()));
+		}
+		sb.append('.');
+		appendNumber(sb, System.currentTimeMillis());
+		sb.append('.');
+		appendNumber(sb, sequence.incrementAndGet());
+		if (sb.length() > limit) {
+			sb.setLength(limit);
+		}
+	}
+	
+	/**
+	 * Appends a number, replacing a leading 0 of an
+	 * OID component by 1
+	 */
+	private static void appendNumber(StringBuilder sb, long value)
+	{
+		int start = sb.length();
+		sb.append(value);
+		fixLeadingZero(sb, start);
+	}
+	
+	/**
+	 * Appends a String of length 3, with the value of i 
+	 * between 0 and 999, and 0 prefixed if needed.
+	 * negative i's are made positive.
+	 */
+	private static void appendThreeDigits(StringBuilder sb, int i)
+	{
+		i = Math.abs(i) % 1000;
+		int start = sb.length();
+		sb.append((char)('0' + i / 100));
+		sb.append((char)('0' + (i / 10) % 10));
+		sb.append((char)('0' + i % 10));
+		fixLeadingZero(sb, start);
+	}
+	
+	private static void fixLeadingZero(StringBuilder sb, int start)
+	{
+		if (start > 0 && sb.charAt(start-1) == '.' && sb.charAt(start) == '0') {
+			sb.setCharAt(start, '1');
+		}
+	}
+	
+	/**
+	 * To get a "fake" MAC address, munch a real MAC with the host 
+	 * IP address. Only the ranges are computed here, the actual octets
+	 * are randomly chosen within these ranges for each OID.
+	 */
+	private static int[] macRanges()
+	{
 		byte[] hostip = new byte[4];
 		try {
 			InetAddress localhost;
@@ -189,74 +266,9 @@ public class OID {
 		}
 		// this MAC is real, it's from Glenn's wireless card!
 		int[] mac={0x00,0x02,0x8A,0x4A,0xFD,0xAC};
-	
-		// to the the "fake" MAC address, munch this real MAC
-		// with the host IP address as follows..
 		for (int i=0; i< mac.length; i++)
-			mac[i] = (int)((hostip[ i % hostip.length] - mac[i]) * Math.random());
-		
-		String macString = "";
-		for (int i=0; i < mac.length; i++)
-			macString = macString +format(mac[i]);
-		// macString is now mac.length*3 bytes or 18bytes long!
-
-		String root = rootOid;
-		String suffix = macString + "." + System.currentTimeMillis()+ "." + sequence;
-		int maxSuffix = maxLength-9; // allow room for "urn:UUID:"
-		maxSuffix = maxSuffix - root.length() - 1; // adjust for root oid length
-		if (maxSuffix < 0) maxSuffix = 0;
-		if (suffix.length() > maxSuffix) suffix = suffix.substring(0,maxSuffix);
-		
-		String result = root +"."+ suffix;
-		
-		if (result.charAt(result.length()-1) == '.') {
-			result = result.substring(0,result.length()-1);
-		}
-		
-		return result.replaceAll("[.]0",".1");
-	}
-	
-	/**
-	 * Returns the byte as a three character String, with any leader zeros
-	 * added.  Negative values are made positive.
-	 * Range: 0-127
-	 * @param b
-	 * @return
-	 */
-//	private static String format(byte b)
-//	{
-//		StringBuffer sb= new StringBuffer();
-//		if (b < 0) b = (byte)(b * -1);
-//		if ( b < 10 ) {
-//			sb.append("00");		
-//		}
-//		else if ( b < 100)
-//		{
-//			sb.append('0');
-//		}
-//	    sb.append(b);
-//		return sb.toString();	
-//	}
-	
-	/**
-	 * Returns a String of lenght 3, with the value of i 
-	 * between 0 and 255, and 0 prefixed if needed.
-	 * negative i's are made positive.
-	 * i's > 255 are reduced to 255.
-	 * range: 0-255
-	 * @param i
-	 * @return
-	 */
-	private static String format(int i)
-	{
-		i = Math.abs(i);
-		StringBuilder sb = new StringBuilder(3);
-		if (i < 10) sb.append("0");
-		if (i < 100) sb.append("0");
-		sb.append(i);
-		
-		return sb.toString();
-		
+			mac[i] = hostip[ i % hostip.length] - mac[i];
+		return mac;
 	}
 
 	
@@ -16,14 +16,35 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
+/**
+ * File input stream that can be rewound to a fixed position any number of times.
+ * <p>
+ * {@link #mark(int)} sets the file offset that {@link #reset()} returns to; by default
+ * the stream is rewound to the beginning of the file. The file is opened once and
+ * rewinding just repositions the underlying {@link FileChannel}. Reads go through an
+ * internal direct buffer, or, in memory-mapped mode, directly against a mapping of the
+ * whole file, which makes rewinds O(1) and bulk reads a plain memory copy.
+ */
 public class RewindableFileInputStream extends InputStream 
 {
+	private static final int BUFFER_SIZE = 8192;
 	
-	private FileInputStream backedStream;
+	private final FileInputStream backedStream;
 	
-	private final File backedFile;
+	private final FileChannel channel;
+	
+	/**
+	 * Read buffer. In buffered mode it holds the file content starting at 
+	 * {@link #bufferOffset}, in memory-mapped mode it maps the whole file.
+	 */
+	private final ByteBuffer buffer;
+	
+	private final boolean memoryMapped;
+	
+	private long bufferOffset = 0;
 
 	private int markCount = 0;
 	
@@ -36,16 +57,59 @@ public class RewindableFileInputStream extends InputStream
 	
 	public RewindableFileInputStream(File file) throws FileNotFoundException
 	{
-		this(file, new FileInputStream(file));
+		this(new FileInputStream(file));
 	}
 
-	private RewindableFileInputStream(File file, FileInputStream inputStream)
+	/**
+	 * Creates a stream that optionally memory-maps the file. Files larger than 
+	 * 2GB are always read through the buffer.
+	 * 
+	 * @param file file to read
+	 * @param memoryMapped whether to map the file into memory
+	 * @throws IOException if the file cannot be opened or mapped
+	 */
+	public RewindableFileInputStream(File file, boolean memoryMapped) throws IOException
+	{
+		FileInputStream inputStream = new FileInputStream(file);
+		ByteBuffer mapped = null;
+		if (memoryMapped) {
+			try {
+				FileChannel fileChannel = inputStream.getChannel();
+				long size = fileChannel.size();
+				if (size <= Integer.MAX_VALUE) {
+					mapped = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				}
+			} catch (IOException e) {
+				inputStream.close();
+				throw e;
+			}
+		}
+		this.backedStream = inputStream;
+		this.channel = inputStream.getChannel();
+		this.memoryMapped = mapped != null;
+		this.buffer = mapped != null ? mapped : emptyBuffer();
+	}
+	
+	private RewindableFileInputStream(FileInputStream inputStream)
 	{
 		this.backedStream = inputStream;
-		this.backedFile = file;
+		this.channel = inputStream.getChannel();
+		this.memoryMapped = false;
+		this.buffer = emptyBuffer();
 	}
 	
+	private static ByteBuffer emptyBuffer()
+	{
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		buffer.limit(0);
+		return buffer;
+	}
 	
+	/**
+	 * Sets the file offset that subsequent calls to {@link #reset()} rewind to
+	 * 
+	 * @param mark file offset
+	 */
 	public void mark(int mark) 
 	{
 		this.markCount = mark;
@@ -61,51 +125,152 @@ public class RewindableFileInputStream extends InputStream
 		if (closed) {
 			throw new IOException("Stream already closed.  Cannot reset a closed stream.");
 		}
-		FileInputStream newStream = new FileInputStream(backedFile);
-		backedStream.close();
-		backedStream = newStream;
-		skip(markCount);
+		seek(markCount);
 	}
 	
-	
 	public void close() throws IOException 
 	{
-		backedStream.close();
 		closed = true;
+		backedStream.close();
 	}
 	
 	public int read() throws IOException 
 	{
-		return backedStream.read();
+		if (!fill()) {
+			return -1;
+		}
+		return buffer.get() & 0xff;
+	}
+	
+	public int read(byte[] b, int off, int len) throws IOException 
+	{
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			ensureOpen();
+			return 0;
+		}
+		int total = 0;
+		while (total < len && fill()) {
+			int n = Math.min(len - total, buffer.remaining());
+			buffer.get(b, off + total, n);
+			total += n;
+		}
+		return total == 0 ? -1 : total;
+	}
+
+	public int read(byte[] b) throws IOException 
+	{
+		return read(b, 0, b.length);
+	}
+	
+	public long skip(long n) throws IOException 
+	{
+		ensureOpen();
+		if (n <= 0) {
+			return 0;
+		}
+		long current = position();
+		long target = memoryMapped ? Math.min(current + n, buffer.limit()) : current + n;
+		seek(target);
+		return target - current;
 	}
 	
 	public int available() throws IOException 
 	{
-		return backedStream.available();
+		ensureOpen();
+		long remaining = memoryMapped 
+				? buffer.remaining() 
+				: Math.max(0L, channel.size() - position());
+		return (int) Math.min(remaining, Integer.MAX_VALUE);
 	}
 
+	/**
+	 * Returns the channel of the underlying file. The channel is positioned at the 
+	 * current read position of this stream and any read-ahead is discarded.
+	 */
 	public FileChannel getChannel() 
 	{
-		return backedStream.getChannel();
+		if (!closed) {
+			try {
+				long position = position();
+				if (!memoryMapped) {
+					buffer.limit(0);
+					bufferOffset = position;
+				}
+				channel.position(position);
+			} catch (IOException e) {
+				// the channel reports the failure on its next use
+			}
+		}
+		return channel;
 	}
 
 	public final FileDescriptor getFD() throws IOException 
 	{
 		return backedStream.getFD();
 	}
-
-	public int read(byte[] arg0, int arg1, int arg2) throws IOException 
+	
+	/**
+	 * @return true if the file is read through a memory mapping
+	 */
+	public boolean isMemoryMapped()
 	{
-		return backedStream.read(arg0, arg1, arg2);
+		return memoryMapped;
 	}
-
-	public int read(byte[] arg0) throws IOException 
+	
+	private long position()
 	{
-		return backedStream.read(arg0);
+		return memoryMapped ? buffer.position() : bufferOffset + buffer.position();
 	}
-
-	public long skip(long arg0) throws IOException 
+	
+	private void seek(long position) throws IOException
 	{
-		return backedStream.skip(arg0);
+		if (memoryMapped) {
+			buffer.position((int) Math.min(position, buffer.limit()));
+		} else if (position >= bufferOffset && position <= bufferOffset + buffer.limit()) {
+			// target still within the buffered window
+			buffer.position((int) (position - bufferOffset));
+		} else {
+			buffer.limit(0);
+			bufferOffset = position;
+			channel.position(position);
+		}
+	}
+	
+	/**
+	 * Makes sure the buffer has remaining bytes
+	 * 
+	 * @return false at end of file
+	 */
+	private boolean fill() throws IOException
+	{
+		ensureOpen();
+		if (buffer.hasRemaining()) {
+			return true;
+		}
+		if (memoryMapped) {
+			return false;
+		}
+		long position = bufferOffset + buffer.position();
+		if (channel.position() != position) {
+			channel.position(position);
+		}
+		buffer.clear();
+		int n;
+		do {
+			n = channel.read(buffer);
+		} while (n == 0);
+		buffer.flip();
+		bufferOffset = position;
+		return n > 0;
+	}
+	
+	private void ensureOpen() throws IOException
+	{
+		if (closed) {
+			throw new IOException("Stream Closed");
+		}
 	}
 }
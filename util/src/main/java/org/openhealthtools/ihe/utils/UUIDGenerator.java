@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.utils;
+
+import java.net.NetworkInterface;
+import java.security.SecureRandom;
+import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe, lock-free generator of time-based (version 1) UUIDs as described in
+ * RFC 4122, formatted as <code>xxxxxxxx-xxxx-xxxx-xxxx-xxxxxxxxxxxx</code> in lower case
+ * like {@link UUID#generate()}.
+ * <p>
+ * The timestamp is kept in an {@link AtomicLong} in 100 ns units. If several UUIDs are
+ * requested within the same clock tick, or the clock goes backwards, the timestamp of the
+ * last UUID is incremented instead, so that up to 10 million UUIDs per second can be
+ * generated without ever waiting for the clock. The node identifier is taken from the
+ * hardware address of a network interface (or a random multicast address if there is none)
+ * and, together with a random clock sequence, is determined only once per class loader.
+ *
+ * @since 3.7
+ */
+public final class UUIDGenerator {
+
+    /**
+     * Offset between the UUID epoch (1582-10-15) and the Unix epoch in 100 ns units
+     */
+    private static final long GREGORIAN_OFFSET = 0x01B21DD213814000L;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final AtomicLong LAST_TIMESTAMP = new AtomicLong();
+
+    /**
+     * Preformatted UUID with the constant clock sequence and node parts filled in
+     */
+    private static final char[] TEMPLATE = template();
+
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(TEMPLATE::clone);
+
+    private UUIDGenerator() {
+    }
+
+    /**
+     * @return a new UUID string in the form <code>xxxxxxxx-xxxx-1xxx-yxxx-xxxxxxxxxxxx</code>
+     */
+    public static String generate() {
+        long timestamp = nextTimestamp();
+        char[] buffer = BUFFER.get();
+        // time_low
+        writeHex(buffer, 0, timestamp, 8);
+        // time_mid
+        writeHex(buffer, 9, timestamp >>> 32, 4);
+        // version and time_high
+        writeHex(buffer, 14, ((timestamp >>> 48) & 0x0FFF) | 0x1000, 4);
+        return new String(buffer);
+    }
+
+    /**
+     * @return a new UUID prefixed by <code>urn:uuid:</code>
+     */
+    public static String generateURN() {
+        return "urn:uuid:" + generate();
+    }
+
+    /**
+     * @return the next unique timestamp in 100 ns units since 1582-10-15
+     */
+    static long nextTimestamp() {
+        long now = System.currentTimeMillis() * 10000L + GREGORIAN_OFFSET;
+        while (true) {
+            long last = LAST_TIMESTAMP.get();
+            long next = now > last ? now : last + 1;
+            if (LAST_TIMESTAMP.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+
+    private static void writeHex(char[] buffer, int offset, long value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            buffer[i] = HEX[(int) (value & 0x0F)];
+            value >>>= 4;
+        }
+    }
+
+    private static char[] template() {
+        char[] template = "00000000-0000-1000-0000-000000000000".toCharArray();
+        SecureRandom random = new SecureRandom();
+        // variant (10xx) and clock sequence
+        writeHex(template, 19, (random.nextInt() & 0x3FFF) | 0x8000, 4);
+        writeHex(template, 24, node(random), 12);
+        return template;
+    }
+
+    private static long node(SecureRandom random) {
+        try {
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            while (interfaces != null && interfaces.hasMoreElements()) {
+                NetworkInterface networkInterface = interfaces.nextElement();
+                byte[] address = networkInterface.isLoopback() ? null : networkInterface.getHardwareAddress();
+                if (address != null && address.length == 6) {
+                    long node = 0L;
+                    for (byte b : address) {
+                        node = (node << 8) | (b & 0xFF);
+                    }
+                    if (node != 0L) {
+                        return node;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // fall back to a random node identifier
+        }
+        // random 48 bit node identifier with the multicast bit set, see RFC 4122 section 4.5
+        return (random.nextLong() & 0xFFFFFFFFFFFFL) | 0x010000000000L;
+    }
+}
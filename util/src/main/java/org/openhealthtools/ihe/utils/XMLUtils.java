@@ -13,22 +13,77 @@ package org.openhealthtools.ihe.utils;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 
+import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
+/**
+ * XML helper methods.
+ * <p>
+ * Parser and transformer factories are looked up only once. Document builders and
+ * transformers are not thread-safe and are therefore pooled per thread and reset
+ * before reuse. All factories are configured for secure processing: DTDs, external
+ * entities and external stylesheets are rejected.
+ * <p>
+ * Callers that only need to produce or consume bytes can use the StAX based
+ * {@link #serialize(StreamWriterCallback)} and {@link #deserialize(byte[], StreamReaderCallback)}
+ * methods, which avoid building a DOM.
+ */
 public class XMLUtils {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(XMLUtils.class);
+
+	private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = createDocumentBuilderFactory();
+	
+	private static final TransformerFactory TRANSFORMER_FACTORY = createTransformerFactory();
+	
+	private static final XMLInputFactory XML_INPUT_FACTORY = createXMLInputFactory();
+	
+	private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+	
+	private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = new ThreadLocal<>();
+	
+	private static final ThreadLocal<Transformer> SERIALIZER = new ThreadLocal<>();
+
+	/**
+	 * Writes XML content to a StAX stream writer
+	 */
+	public interface StreamWriterCallback
+	{
+		void write(XMLStreamWriter writer) throws XMLStreamException;
+	}
+	
+	/**
+	 * Reads XML content from a StAX stream reader
+	 */
+	public interface StreamReaderCallback<T>
+	{
+		T read(XMLStreamReader reader) throws XMLStreamException;
+	}
+	
 	/**
 	 * Simple method to create an empty well-formed DOM Document
 	 * @return	Empty, well-formed DOM Document
@@ -36,11 +91,7 @@ public class XMLUtils {
 	 */
 	public static Document createDomDocument() throws Exception
 	{
-	    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-	    factory.setNamespaceAware(true);
-	    DocumentBuilder builder = factory.newDocumentBuilder();
-
-	    return builder.newDocument();
+	    return getDocumentBuilder().newDocument();
 	}
 	
 	/**
@@ -57,28 +108,178 @@ public class XMLUtils {
 		Source sourceObject = new DOMSource(inputNode); 
 		Result targetObject = new StreamResult(serializerOutput);
 		
-		// Create XML Transformer
-		TransformerFactory serializerFactory = TransformerFactory.newInstance();
-		Transformer serializer = serializerFactory.newTransformer();
-
-		// Set output properties
-		serializer.setOutputProperty(OutputKeys.INDENT, "yes");
-		serializer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-		
 		// Run serialization transformation
-		serializer.transform(sourceObject, targetObject);
+		getSerializer().transform(sourceObject, targetObject);
 		
 		// Return output as a byte array
 		return serializerOutput.toByteArray();
 	}
 	
 	public static Element deserialize(byte[] data) throws Exception
+	{
+	    return deserialize(new ByteArrayInputStream(data));
+	}
+	
+	public static Element deserialize(InputStream data) throws Exception
+	{
+	    Document doc = getDocumentBuilder().parse(data);
+	    return doc.getDocumentElement();
+	}
+	
+	/**
+	 * Serializes XML content produced by the callback to a byte array (UTF-8)
+	 * without building a DOM
+	 * 
+	 * @param callback writes the XML content
+	 * @return Byte array of XML
+	 * @throws XMLStreamException
+	 */
+	public static byte[] serialize(StreamWriterCallback callback) throws XMLStreamException
+	{
+		ByteArrayOutputStream serializerOutput = new ByteArrayOutputStream();
+		serialize(callback, serializerOutput);
+		return serializerOutput.toByteArray();
+	}
+	
+	/**
+	 * Serializes XML content produced by the callback to a stream (UTF-8)
+	 * without building a DOM
+	 * 
+	 * @param callback writes the XML content
+	 * @param out target stream, not closed by this method
+	 * @throws XMLStreamException
+	 */
+	public static void serialize(StreamWriterCallback callback, OutputStream out) throws XMLStreamException
+	{
+		XMLStreamWriter writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+		try {
+			callback.write(writer);
+			writer.flush();
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Reads XML content with the callback without building a DOM
+	 * 
+	 * @param data XML
+	 * @param callback reads the XML content
+	 * @return Result of the callback
+	 * @throws XMLStreamException
+	 */
+	public static <T> T deserialize(byte[] data, StreamReaderCallback<T> callback) throws XMLStreamException
+	{
+		return deserialize(new ByteArrayInputStream(data), callback);
+	}
+	
+	/**
+	 * Reads XML content with the callback without building a DOM
+	 * 
+	 * @param data XML, not closed by this method
+	 * @param callback reads the XML content
+	 * @return Result of the callback
+	 * @throws XMLStreamException
+	 */
+	public static <T> T deserialize(InputStream data, StreamReaderCallback<T> callback) throws XMLStreamException
+	{
+		XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(data);
+		try {
+			return callback.read(reader);
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * @return a secure StAX input factory shared by all callers. 
+	 * StAX factories are thread-safe once configured.
+	 */
+	public static XMLInputFactory getXMLInputFactory()
+	{
+		return XML_INPUT_FACTORY;
+	}
+	
+	/**
+	 * @return a StAX output factory shared by all callers
+	 */
+	public static XMLOutputFactory getXMLOutputFactory()
+	{
+		return XML_OUTPUT_FACTORY;
+	}
+	
+	private static DocumentBuilder getDocumentBuilder() throws ParserConfigurationException
+	{
+		DocumentBuilder builder = DOCUMENT_BUILDER.get();
+		if (builder == null) {
+			builder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+			DOCUMENT_BUILDER.set(builder);
+		} else {
+			builder.reset();
+		}
+		return builder;
+	}
+	
+	private static Transformer getSerializer() throws TransformerConfigurationException
+	{
+		Transformer serializer = SERIALIZER.get();
+		if (serializer == null) {
+			serializer = TRANSFORMER_FACTORY.newTransformer();
+			SERIALIZER.set(serializer);
+		} else {
+			serializer.reset();
+		}
+		// Set output properties
+		serializer.setOutputProperty(OutputKeys.INDENT, "yes");
+		serializer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+		return serializer;
+	}
+	
+	private static DocumentBuilderFactory createDocumentBuilderFactory()
 	{
 	    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
 	    factory.setNamespaceAware(true);
-	    DocumentBuilder builder = factory.newDocumentBuilder();
-	    Document doc = builder.parse(new ByteArrayInputStream(data));
-	    return doc.getDocumentElement();
-
+	    factory.setXIncludeAware(false);
+	    factory.setExpandEntityReferences(false);
+	    setFeature(factory, XMLConstants.FEATURE_SECURE_PROCESSING, true);
+	    setFeature(factory, "http://apache.org/xml/features/disallow-doctype-decl", true);
+	    setFeature(factory, "http://xml.org/sax/features/external-general-entities", false);
+	    setFeature(factory, "http://xml.org/sax/features/external-parameter-entities", false);
+	    setFeature(factory, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+	    return factory;
+	}
+	
+	private static void setFeature(DocumentBuilderFactory factory, String feature, boolean value)
+	{
+		try {
+			factory.setFeature(feature, value);
+		} catch (ParserConfigurationException e) {
+			LOGGER.warn("XML parser " + factory.getClass().getName() + " does not support feature " + feature);
+		}
+	}
+	
+	private static TransformerFactory createTransformerFactory()
+	{
+		TransformerFactory factory = TransformerFactory.newInstance();
+		try {
+			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		} catch (TransformerConfigurationException e) {
+			LOGGER.warn("XML transformer " + factory.getClass().getName() + " does not support secure processing");
+		}
+		try {
+			factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+			factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
+		} catch (IllegalArgumentException e) {
+			LOGGER.warn("XML transformer " + factory.getClass().getName() + " does not support restricting external access");
+		}
+		return factory;
+	}
+	
+	private static XMLInputFactory createXMLInputFactory()
+	{
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
 	}
 }
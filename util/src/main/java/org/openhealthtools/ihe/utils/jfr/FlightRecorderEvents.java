@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.utils.jfr;
+
+/**
+ * Entry point for emitting Java Flight Recorder events from the auditing hot paths.
+ * <p>
+ * The JFR event types themselves live in <code>JfrProbes</code>, which is compiled
+ * for Java 11 into <code>META-INF/versions/11</code> of this multi-release jar and
+ * loaded reflectively. On Java 8, on runtimes without Flight Recorder, or when
+ * disabled via the system property {@value #DISABLED_PROPERTY}, every
+ * {@link #start(Kind)} call returns a shared no-op probe, so callers never need
+ * to guard their instrumentation.
+ * <p>
+ * Typical usage:
+ * <pre>
+ *     FlightRecorderEvents.Probe probe = FlightRecorderEvents.start(Kind.SOCKET_WRITE);
+ *     ... do the work ...
+ *     probe.end(auditorClass, destination, bytes.length);
+ * </pre>
+ *
+ * @since 3.7
+ */
+public final class FlightRecorderEvents {
+
+    /**
+     * System property that disables JFR event emission if set to <code>true</code>
+     */
+    public static final String DISABLED_PROPERTY = "org.openhealthtools.ihe.jfr.disabled";
+
+    /**
+     * Kinds of events that can be recorded
+     */
+    public enum Kind {
+        /** Serialization of an audit message into its wire representation */
+        SERIALIZATION,
+        /** Draining a batch of messages out of an audit queue */
+        QUEUE_DRAIN,
+        /** Writing a frame to a destination connection */
+        SOCKET_WRITE,
+        /** Replacing a broken destination connection */
+        SOCKET_RECONNECT,
+        /** Establishing a TLS connection including the handshake */
+        TLS_HANDSHAKE,
+        /** Deriving senders and other runtime objects from the current configuration */
+        CONFIG_REBUILD
+    }
+
+    /**
+     * Handle to a running measurement. The duration is taken between
+     * {@link FlightRecorderEvents#start(Kind)} and {@link #end(String, String, long)}.
+     */
+    public interface Probe {
+
+        /**
+         * Finishes the measurement and commits the event if it is enabled in the
+         * active recording.
+         *
+         * @param auditorClass name of the auditor, message or component class involved
+         * @param destination  destination as host:port, may be null
+         * @param payloadSize  payload size in bytes
+         */
+        default void end(String auditorClass, String destination, long payloadSize) {
+            end(auditorClass, destination, payloadSize, 0);
+        }
+
+        /**
+         * Finishes the measurement and commits the event if it is enabled in the
+         * active recording.
+         *
+         * @param auditorClass name of the auditor, message or component class involved
+         * @param destination  destination as host:port, may be null
+         * @param payloadSize  payload size in bytes, 0 if unknown
+         * @param messageCount number of messages, recorded for queue drains
+         */
+        void end(String auditorClass, String destination, long payloadSize, long messageCount);
+    }
+
+    /**
+     * Implemented by the class emitting the actual JFR events
+     */
+    interface Backend {
+
+        boolean isRegistered();
+
+        Probe start(Kind kind);
+
+        void circuitBreakerStateChanged(String destination, String fromState, String toState);
+    }
+
+    private static final String BACKEND_CLASS = "org.openhealthtools.ihe.utils.jfr.JfrProbes";
+
+    private static final Probe NOOP = (auditorClass, destination, payloadSize, messageCount) -> { };
+
+    private static final Backend BACKEND = loadBackend();
+
+    private static final boolean AVAILABLE = BACKEND != null;
+
+    private FlightRecorderEvents() {
+    }
+
+    /**
+     * @return true if JFR events are actually emitted on this JVM
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Starts measuring an event of the given kind
+     *
+     * @param kind event kind
+     * @return a probe that must be ended once the measured work is done
+     */
+    public static Probe start(Kind kind) {
+        return AVAILABLE ? BACKEND.start(kind) : NOOP;
+    }
+
+    /**
+     * Records the state change of a circuit breaker guarding a destination
+     *
+     * @param destination destination as host:port
+     * @param fromState   previous state
+     * @param toState     new state
+     */
+    public static void circuitBreakerStateChanged(String destination, String fromState, String toState) {
+        if (AVAILABLE) {
+            BACKEND.circuitBreakerStateChanged(destination, fromState, toState);
+        }
+    }
+
+    /**
+     * Formats a destination for inclusion into an event
+     *
+     * @param host host name or address literal, e.g. from {@link java.net.InetAddress#getHostAddress()}
+     * @param port port
+     * @return host:port
+     */
+    public static String destination(String host, int port) {
+        return AVAILABLE && host != null ? host + ":" + port : null;
+    }
+
+    private static Backend loadBackend() {
+        if (Boolean.getBoolean(DISABLED_PROPERTY)) {
+            return null;
+        }
+        try {
+            // only present in META-INF/versions/11, and needs the jdk.jfr module
+            Class<?> backendClass = Class.forName(BACKEND_CLASS, true, FlightRecorderEvents.class.getClassLoader());
+            Backend backend = (Backend) backendClass.getDeclaredConstructor().newInstance();
+            return backend.isRegistered() ? backend : null;
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+}
@@ -22,11 +22,11 @@ package org.openhealthtools.ihe.utils.thread;
  */
 public class ConfigurableInheritableThreadLocal<T> extends InheritableThreadLocal<T>
 {
-	protected static boolean threadSupportEnabled = false;
+	protected static volatile boolean threadSupportEnabled = false;
 	
-	protected static Object nonThreadedValue = null;
+	protected static volatile Object nonThreadedValue = null;
 	
-	protected static boolean firstCall = true;
+	protected static volatile boolean firstCall = true;
 	
 	/**
 	 * Set true to enable the class to use InheritableThreadLocal variables. This can be done at any time,
@@ -64,8 +64,12 @@ public class ConfigurableInheritableThreadLocal<T> extends InheritableThreadLoca
 		// will be the same.
 		if (firstCall) 
 		{
-			firstCall = false;
-			nonThreadedValue =  super.get(); 
+			synchronized (ConfigurableInheritableThreadLocal.class) {
+				if (firstCall) {
+					nonThreadedValue =  super.get(); 
+					firstCall = false;
+				}
+			}
 		}
 		return (T)nonThreadedValue;
 	}
@@ -73,8 +77,10 @@ public class ConfigurableInheritableThreadLocal<T> extends InheritableThreadLoca
 	final public void remove()
 	{	
 		super.remove();
-		firstCall = true;
-		nonThreadedValue = null;
+		synchronized (ConfigurableInheritableThreadLocal.class) {
+			firstCall = true;
+			nonThreadedValue = null;
+		}
 	}
 
 	final public void set(T value)
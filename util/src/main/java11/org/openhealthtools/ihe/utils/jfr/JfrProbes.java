@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.utils.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event types of the ATNA library. This class is the only one referring to the
+ * <code>jdk.jfr</code> API. It is compiled for Java 11 into <code>META-INF/versions/11</code>
+ * and instantiated reflectively by {@link FlightRecorderEvents}.
+ *
+ * @since 3.7
+ */
+final class JfrProbes implements FlightRecorderEvents.Backend {
+
+    JfrProbes() {
+    }
+
+    @Override
+    public boolean isRegistered() {
+        return FlightRecorder.isAvailable();
+    }
+
+    @Override
+    public FlightRecorderEvents.Probe start(FlightRecorderEvents.Kind kind) {
+        AbstractAtnaEvent event;
+        switch (kind) {
+            case SERIALIZATION:
+                event = new SerializationEvent();
+                break;
+            case QUEUE_DRAIN:
+                event = new QueueDrainEvent();
+                break;
+            case SOCKET_WRITE:
+                event = new SocketWriteEvent();
+                break;
+            case SOCKET_RECONNECT:
+                event = new SocketReconnectEvent();
+                break;
+            case TLS_HANDSHAKE:
+                event = new TlsHandshakeEvent();
+                break;
+            default:
+                event = new ConfigRebuildEvent();
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void circuitBreakerStateChanged(String destination, String fromState, String toState) {
+        CircuitBreakerStateEvent event = new CircuitBreakerStateEvent();
+        if (event.shouldCommit()) {
+            event.destination = destination;
+            event.fromState = fromState;
+            event.toState = toState;
+            event.commit();
+        }
+    }
+
+    @Category({"IPF", "ATNA"})
+    @StackTrace(false)
+    abstract static class AbstractAtnaEvent extends Event implements FlightRecorderEvents.Probe {
+
+        @Label("Auditor Class")
+        String auditorClass;
+
+        @Label("Destination")
+        String destination;
+
+        @Label("Payload Size")
+        @DataAmount
+        long payloadSize;
+
+        @Override
+        public void end(String auditorClass, String destination, long payloadSize, long messageCount) {
+            end();
+            if (shouldCommit()) {
+                this.auditorClass = auditorClass;
+                this.destination = destination;
+                this.payloadSize = payloadSize;
+                setMessageCount(messageCount);
+                commit();
+            }
+        }
+
+        void setMessageCount(long messageCount) {
+        }
+    }
+
+    @Name("org.openhealthtools.ihe.atna.Serialization")
+    @Label("Audit Message Serialization")
+    @Description("Serialization of an audit message into its XML representation")
+    static final class SerializationEvent extends AbstractAtnaEvent {
+    }
+
+    @Name("org.openhealthtools.ihe.atna.QueueDrain")
+    @Label("Audit Queue Drain")
+    @Description("Batch of queued audit messages handed over to the sender")
+    static final class QueueDrainEvent extends AbstractAtnaEvent {
+
+        @Label("Messages")
+        long messageCount;
+
+        @Override
+        void setMessageCount(long messageCount) {
+            this.messageCount = messageCount;
+        }
+    }
+
+    @Name("org.openhealthtools.ihe.atna.SocketWrite")
+    @Label("Audit Socket Write")
+    @Description("Framed audit message written to an audit record repository connection")
+    static final class SocketWriteEvent extends AbstractAtnaEvent {
+    }
+
+    @Name("org.openhealthtools.ihe.atna.SocketReconnect")
+    @Label("Audit Socket Reconnect")
+    @Description("Broken audit record repository connection replaced and message resent")
+    static final class SocketReconnectEvent extends AbstractAtnaEvent {
+    }
+
+    @Name("org.openhealthtools.ihe.atna.TlsHandshake")
+    @Label("TLS Connect and Handshake")
+    @Description("Secure socket creation including the TLS handshake")
+    static final class TlsHandshakeEvent extends AbstractAtnaEvent {
+    }
+
+    @Name("org.openhealthtools.ihe.atna.ConfigRebuild")
+    @Label("Configuration Rebuild")
+    @Description("Runtime objects derived from the auditor configuration")
+    static final class ConfigRebuildEvent extends AbstractAtnaEvent {
+    }
+
+    @Name("org.openhealthtools.ihe.atna.CircuitBreakerState")
+    @Label("Circuit Breaker State Change")
+    @Description("Circuit breaker of a destination changed its state")
+    @Category({"IPF", "ATNA"})
+    @StackTrace(false)
+    static final class CircuitBreakerStateEvent extends Event {
+
+        @Label("Destination")
+        String destination;
+
+        @Label("From State")
+        String fromState;
+
+        @Label("To State")
+        String toState;
+    }
+}
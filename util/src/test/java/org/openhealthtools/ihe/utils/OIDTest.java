@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class OIDTest {
+
+    private static final Pattern FORMAT = Pattern.compile("[1-9][0-9]*(\\.[1-9][0-9]*)+");
+
+    @Test
+    public void createOID() {
+        String oid = OID.createOID(null);
+        assertTrue(oid, oid.startsWith("1.2.820.99999."));
+        assertTrue(oid, FORMAT.matcher(oid).matches());
+        assertTrue(oid.length() <= 64);
+        assertTrue(OID.createOID("4711").startsWith("1.2.820.4711."));
+    }
+
+    @Test
+    public void createOIDGivenRoot() {
+        String root = "2.16.840.1.113883.3.18";
+        String oid = OID.createOIDGivenRoot(root);
+        assertTrue(oid, oid.startsWith(root + "."));
+        assertTrue(oid, FORMAT.matcher(oid).matches());
+
+        for (int maxLength = 30; maxLength <= 64; maxLength++) {
+            oid = OID.createOIDGivenRoot(root, maxLength);
+            assertTrue(oid, oid.length() <= Math.max(root.length(), maxLength - 9));
+            assertFalse(oid, oid.endsWith("."));
+        }
+        assertTrue(OID.create64CharOIDGivenRoot(root).length() <= 64 - 9);
+    }
+
+    @Test
+    public void componentsStartingWithZeroAreReplaced() {
+        assertTrue(OID.createOIDGivenRoot("1.0.3.05").startsWith("1.1.3.15."));
+    }
+
+    @Test
+    public void uniqueUnderConcurrency() throws Exception {
+        int threads = 8;
+        int perThread = 20000;
+        Set<String> oids = ConcurrentHashMap.newKeySet(threads * perThread);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        oids.add(OID.createOIDGivenRoot("2.16.840.1.113883.3.18"));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(threads * perThread, oids.size());
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class RewindableFileInputStreamTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void buffered() throws Exception {
+        verify(false);
+    }
+
+    @Test
+    public void memoryMapped() throws Exception {
+        verify(true);
+    }
+
+    @Test(expected = IOException.class)
+    public void resetAfterClose() throws Exception {
+        RewindableFileInputStream in = new RewindableFileInputStream(folder.newFile());
+        in.close();
+        in.reset();
+    }
+
+    private void verify(boolean memoryMapped) throws Exception {
+        byte[] content = new byte[20000];
+        new Random(42).nextBytes(content);
+        File file = folder.newFile();
+        Files.write(file.toPath(), content);
+
+        try (RewindableFileInputStream in = new RewindableFileInputStream(file, memoryMapped)) {
+            assertEquals(memoryMapped, in.isMemoryMapped());
+            assertArrayEquals(content, readFully(in));
+            assertEquals(-1, in.read());
+            assertEquals(0, in.available());
+
+            in.reset();
+            assertEquals(content.length, in.available());
+            assertEquals(content[0] & 0xff, in.read());
+
+            // rewind to an offset beyond the first buffer window
+            in.mark(10000);
+            in.reset();
+            assertEquals(content[10000] & 0xff, in.read());
+            assertEquals(100, in.skip(100));
+            assertEquals(content[10101] & 0xff, in.read());
+            in.reset();
+            assertArrayEquals(Arrays.copyOfRange(content, 10000, content.length), readFully(in));
+
+            // the channel follows the logical read position
+            in.reset();
+            assertEquals(10000, in.getChannel().position());
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[3000];
+        int n;
+        while ((n = in.read(chunk)) != -1) {
+            out.write(chunk, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
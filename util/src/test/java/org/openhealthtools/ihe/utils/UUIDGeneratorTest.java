@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.utils;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks format and uniqueness of generated UUIDs and measures the throughput
+ * with several concurrent threads.
+ */
+public class UUIDGeneratorTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UUIDGeneratorTest.class);
+
+    private static final Pattern FORMAT = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-1[0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}");
+
+    @Test
+    public void format() {
+        String uuid = UUIDGenerator.generate();
+        assertTrue(uuid, FORMAT.matcher(uuid).matches());
+        assertEquals(1, java.util.UUID.fromString(uuid).version());
+        assertEquals(2, java.util.UUID.fromString(uuid).variant());
+        assertTrue(UUIDGenerator.generateURN().startsWith("urn:uuid:"));
+        assertTrue(FORMAT.matcher(UUID.generate()).matches());
+    }
+
+    @Test
+    public void uniqueAndFastUnderConcurrency() throws Exception {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        int perThread = 100000;
+        Set<String> uuids = ConcurrentHashMap.newKeySet(threads * perThread);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        uuids.add(UUIDGenerator.generate());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long elapsed = System.nanoTime() - start;
+            LOG.info("Generated {} UUIDs on {} threads at a rate of {} per second",
+                    threads * perThread, threads, Math.round(threads * perThread * 1e9 / elapsed));
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(threads * perThread, uuids.size());
+    }
+}
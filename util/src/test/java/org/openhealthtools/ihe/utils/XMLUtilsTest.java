@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openhealthtools.ihe.utils;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.stream.XMLStreamConstants;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class XMLUtilsTest {
+
+    @Test
+    public void domRoundTrip() throws Exception {
+        Document document = XMLUtils.createDomDocument();
+        Element root = document.createElementNS("urn:test", "t:root");
+        root.setAttribute("id", "1");
+        document.appendChild(root);
+        byte[] serialized = XMLUtils.serialize(document);
+        // twice on the same thread to exercise the pooled instances
+        assertArrayEquals(serialized, XMLUtils.serialize(document));
+
+        Element parsed = XMLUtils.deserialize(serialized);
+        assertEquals("root", parsed.getLocalName());
+        assertEquals("urn:test", parsed.getNamespaceURI());
+        assertEquals("1", XMLUtils.deserialize(serialized).getAttribute("id"));
+    }
+
+    @Test(expected = Exception.class)
+    public void rejectExternalEntities() throws Exception {
+        XMLUtils.deserialize(("<?xml version=\"1.0\"?><!DOCTYPE r [<!ENTITY e SYSTEM \"file:///etc/passwd\">]>" +
+                "<r>&e;</r>").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void staxRoundTrip() throws Exception {
+        byte[] serialized = XMLUtils.serialize(writer -> {
+            writer.writeStartElement("AuditMessage");
+            writer.writeAttribute("id", "4711");
+            writer.writeCharacters("a < b");
+            writer.writeEndElement();
+        });
+        String id = XMLUtils.deserialize(serialized, reader -> {
+            while (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                // skip
+            }
+            return reader.getAttributeValue(null, "id");
+        });
+        assertEquals("4711", id);
+        assertEquals("a < b", XMLUtils.deserialize(serialized).getTextContent());
+    }
+}